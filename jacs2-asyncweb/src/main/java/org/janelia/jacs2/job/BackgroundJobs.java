@@ -5,6 +5,7 @@ import org.janelia.jacs2.asyncservice.common.JacsScheduledServiceRunner;
 import org.janelia.jacs2.asyncservice.common.JacsServiceDispatchRunner;
 import org.janelia.jacs2.asyncservice.common.ServiceComputationQueue;
 import org.janelia.jacs2.cdi.SeContainerFactory;
+import org.janelia.jacs2.dataservice.search.IncrementalIndexingRunner;
 
 import javax.enterprise.inject.se.SeContainer;
 import javax.servlet.ServletContextEvent;
@@ -16,6 +17,7 @@ public class BackgroundJobs implements ServletContextListener {
     private JacsServiceDispatchRunner serviceDispatchRunner;
     private JacsScheduledServiceRunner scheduledServicesRunner;
     private ServiceComputationQueue taskQueuePoller;
+    private IncrementalIndexingRunner incrementalIndexingRunner;
 
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
@@ -24,6 +26,7 @@ public class BackgroundJobs implements ServletContextListener {
         serviceDispatchRunner = seContainer.select(JacsServiceDispatchRunner.class).get();
         scheduledServicesRunner = seContainer.select(JacsScheduledServiceRunner.class).get();
         taskQueuePoller = seContainer.select(ServiceComputationQueue.class).get();
+        incrementalIndexingRunner = seContainer.select(IncrementalIndexingRunner.class).get();
     }
 
     @Override
@@ -32,6 +35,7 @@ public class BackgroundJobs implements ServletContextListener {
         serviceDispatchRunner.destroy();
         scheduledServicesRunner.destroy();
         taskQueuePoller.destroy();
+        incrementalIndexingRunner.destroy();
     }
 
 }
@@ -1,7 +1,6 @@
 package org.janelia.jacs2.rest.async.v2;
 
 import com.google.common.base.Splitter;
-import com.google.common.io.ByteStreams;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
@@ -11,7 +10,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.JacsServiceDataManager;
 import org.janelia.jacs2.auth.JacsServiceAccessDataUtils;
 import org.janelia.jacs2.auth.annotations.RequireAuthentication;
-import org.janelia.jacs2.data.NamedData;
 import org.janelia.model.domain.enums.SubjectRole;
 import org.janelia.model.jacs2.DataInterval;
 import org.janelia.model.jacs2.page.PageRequest;
@@ -26,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -38,10 +37,12 @@ import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Api(value = "JACS Service Info")
@@ -243,15 +244,23 @@ public class ServiceInfoResource {
         }
     }
 
-    @ApiOperation(value = "Get service info", notes = "Returns service standard output")
+    @ApiOperation(value = "Get service info",
+            notes = "Returns service standard output. The output can be restricted to a byte range using the 'Range' header, " +
+                    "to the last lines of each output file using the 'tail' parameter, " +
+                    "and with 'follow' the content appended to the output files is streamed until the service completes, for at most 5 minutes.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 206, message = "Partial content"),
+            @ApiResponse(code = 416, message = "Requested range not satisfiable"),
             @ApiResponse(code = 500, message = "Error occurred") })
     @RequireAuthentication
     @GET
     @Produces({"application/json", "application/octet-stream"})
     @Path("/{service-instance-id}/job-output")
     public Response getServiceStandardOutput(@PathParam("service-instance-id") Long instanceId,
+                                             @HeaderParam("Range") String range,
+                                             @QueryParam("tail") Integer tailLines,
+                                             @QueryParam("follow") boolean follow,
                                              @Context SecurityContext securityContext) {
         JacsServiceData serviceData = jacsServiceDataManager.retrieveServiceById(instanceId);
         if (serviceData == null) {
@@ -259,40 +268,12 @@ public class ServiceInfoResource {
                     .status(Response.Status.NOT_FOUND)
                     .build();
         } else if (JacsServiceAccessDataUtils.canServiceBeAccessedBy(serviceData, securityContext)) {
-            long fileSize = jacsServiceDataManager.getServiceStdOutputSize(serviceData);
-            StreamingOutput fileStream = output -> {
-                try {
-                    jacsServiceDataManager.streamServiceStdOutput(serviceData)
-                            .forEach(isProvider -> {
-                                NamedData<InputStream> namedStream;
-                                try {
-                                    namedStream = isProvider.get();
-                                    try {
-                                        output.write((namedStream.getName() + "\n").getBytes());
-                                        ByteStreams.copy(namedStream.getData(), output);
-                                    } catch (IOException ioex) {
-                                        LOG.error("Error while streaming service {} standard output", serviceData, ioex);
-                                    } finally {
-                                        try {
-                                            namedStream.getData().close();
-                                        } catch (IOException ignore) {
-                                        }
-                                    }
-                                } catch (Exception ex) {
-                                    LOG.error("Error while opening the output stream(s) for {}", serviceData, ex);
-                                }
-                            });
-                } catch (Exception e) {
-                    LOG.error("Error streaming job output content from {} for {}", serviceData.getOutputPath(), serviceData, e);
-                    throw new WebApplicationException(e);
-                }
-            };
-            return Response
-                    .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM)
-                    .header("Content-Length", fileSize)
-                    .header("Content-Disposition", "attachment; filename = " + serviceData.getName() + "-" + serviceData.getId() + "-stdout")
-                    .build()
-                    ;
+            return streamServiceOutput(serviceData,
+                    serviceData.getOutputPath(),
+                    () -> jacsServiceDataManager.getServiceStdOutputFiles(serviceData),
+                    () -> jacsServiceDataManager.getServiceStdOutputSize(serviceData),
+                    "stdout",
+                    range, tailLines, follow);
         } else {
             return Response
                     .status(Response.Status.UNAUTHORIZED)
@@ -300,61 +281,133 @@ public class ServiceInfoResource {
         }
     }
 
-    @ApiOperation(value = "Get service info", notes = "Returns service standard error")
+    @ApiOperation(value = "Get service info",
+            notes = "Returns service standard error. The output can be restricted to a byte range using the 'Range' header, " +
+                    "to the last lines of each error file using the 'tail' parameter, " +
+                    "and with 'follow' the content appended to the error files is streamed until the service completes, for at most 5 minutes.")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 206, message = "Partial content"),
+            @ApiResponse(code = 416, message = "Requested range not satisfiable"),
             @ApiResponse(code = 500, message = "Error occurred") })
     @RequireAuthentication
     @GET
     @Produces({"application/json", "application/octet-stream"})
     @Path("/{service-instance-id}/job-errors")
     public Response getServiceStandardError(@PathParam("service-instance-id") Long instanceId,
-                                             @Context SecurityContext securityContext) {
+                                            @HeaderParam("Range") String range,
+                                            @QueryParam("tail") Integer tailLines,
+                                            @QueryParam("follow") boolean follow,
+                                            @Context SecurityContext securityContext) {
         JacsServiceData serviceData = jacsServiceDataManager.retrieveServiceById(instanceId);
         if (serviceData == null) {
             return Response
                     .status(Response.Status.NOT_FOUND)
                     .build();
         } else if (JacsServiceAccessDataUtils.canServiceBeAccessedBy(serviceData, securityContext)) {
-            long fileSize = jacsServiceDataManager.getServiceStdErrorSize(serviceData);
-            StreamingOutput fileStream = output -> {
+            return streamServiceOutput(serviceData,
+                    serviceData.getErrorPath(),
+                    () -> jacsServiceDataManager.getServiceStdErrorFiles(serviceData),
+                    () -> jacsServiceDataManager.getServiceStdErrorSize(serviceData),
+                    "stderr",
+                    range, tailLines, follow);
+        } else {
+            return Response
+                    .status(Response.Status.UNAUTHORIZED)
+                    .build();
+        }
+    }
+
+    private Response streamServiceOutput(JacsServiceData serviceData,
+                                         String outputDir,
+                                         Supplier<List<java.nio.file.Path>> outputFilesSupplier,
+                                         LongSupplier outputSizeSupplier,
+                                         String outputType,
+                                         String range,
+                                         Integer tailLines,
+                                         boolean follow) {
+        ServiceOutputStreamer outputStreamer = new ServiceOutputStreamer(outputFilesSupplier);
+        String attachmentName = "attachment; filename = " + serviceData.getName() + "-" + serviceData.getId() + "-" + outputType;
+        if (follow) {
+            StreamingOutput followStream = output -> {
                 try {
-                    jacsServiceDataManager.streamServiceStdError(serviceData)
-                            .forEach(isProvider -> {
-                                NamedData<InputStream> namedStream;
-                                try {
-                                    namedStream = isProvider.get();
-                                    try {
-                                        output.write((namedStream.getName() + "\n").getBytes());
-                                        ByteStreams.copy(namedStream.getData(), output);
-                                    } catch (IOException ioex) {
-                                        LOG.error("Error while streaming service {} standard error", serviceData, ioex);
-                                    } finally {
-                                        try {
-                                            namedStream.getData().close();
-                                        } catch (IOException ignore) {
-                                        }
-                                    }
-                                } catch (Exception ex) {
-                                    LOG.error("Error while opening the error stream(s) for {}", serviceData, ex);
-                                }
-                            });
-                } catch (Exception e) {
-                    LOG.error("Error streaming job error content from {} for {}", serviceData.getErrorPath(), serviceData, e);
-                    throw new WebApplicationException(e);
+                    outputStreamer.follow(
+                            StringUtils.isNotBlank(outputDir) ? Paths.get(outputDir) : null,
+                            tailLines,
+                            () -> {
+                                JacsServiceData currentServiceData = jacsServiceDataManager.retrieveServiceById(serviceData.getId());
+                                return currentServiceData == null || currentServiceData.hasCompleted();
+                            },
+                            output);
+                } catch (IOException e) {
+                    // this typically happens when the client stops following
+                    LOG.info("Stopped following {} content from {} for {}", outputType, outputDir, serviceData, e);
                 }
             };
             return Response
-                    .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM)
-                    .header("Content-Length", fileSize)
-                    .header("Content-Disposition", "attachment; filename = " + serviceData.getName() + "-" + serviceData.getId() + "-stderr")
-                    .build()
-                    ;
-        } else {
+                    .ok(followStream, MediaType.TEXT_PLAIN)
+                    .build();
+        } else if (tailLines != null) {
+            StreamingOutput tailStream = output -> {
+                try {
+                    outputStreamer.streamTail(tailLines, output);
+                } catch (IOException e) {
+                    LOG.error("Error streaming job {} tail from {} for {}", outputType, outputDir, serviceData, e);
+                    throw new WebApplicationException(e);
+                }
+            };
             return Response
-                    .status(Response.Status.UNAUTHORIZED)
+                    .ok(tailStream, MediaType.APPLICATION_OCTET_STREAM)
+                    .header("Content-Disposition", attachmentName)
                     .build();
         }
+        if (StringUtils.isNotBlank(range)) {
+            long totalSize = outputSizeSupplier.getAsLong();
+            ServiceOutputStreamer.ByteRange byteRange;
+            try {
+                byteRange = ServiceOutputStreamer.ByteRange.parse(range, totalSize);
+            } catch (IllegalArgumentException e) {
+                return Response
+                        .status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + totalSize)
+                        .build();
+            }
+            if (byteRange != null) {
+                StreamingOutput rangeStream = output -> {
+                    try {
+                        outputStreamer.streamRange(byteRange, output);
+                    } catch (IOException e) {
+                        LOG.error("Error streaming job {} range {} from {} for {}", outputType, range, outputDir, serviceData, e);
+                        throw new WebApplicationException(e);
+                    }
+                };
+                return Response
+                        .status(Response.Status.PARTIAL_CONTENT)
+                        .entity(rangeStream)
+                        .type(MediaType.APPLICATION_OCTET_STREAM)
+                        .header("Accept-Ranges", "bytes")
+                        .header("Content-Range", byteRange.toContentRange(totalSize))
+                        .header("Content-Length", byteRange.length())
+                        .header("Content-Disposition", attachmentName)
+                        .build();
+            }
+        }
+        long fileSize = outputSizeSupplier.getAsLong();
+        StreamingOutput fileStream = output -> {
+            try {
+                outputStreamer.streamAll(fileSize, output);
+            } catch (IOException e) {
+                LOG.error("Error streaming job {} content from {} for {}", outputType, outputDir, serviceData, e);
+                throw new WebApplicationException(e);
+            }
+        };
+        return Response
+                .ok(fileStream, MediaType.APPLICATION_OCTET_STREAM)
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Length", fileSize)
+                .header("Content-Disposition", attachmentName)
+                .build()
+                ;
     }
 
 }
@@ -5,6 +5,7 @@ import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import org.janelia.jacs2.asyncservice.ServiceRegistry;
+import org.janelia.jacs2.asyncservice.common.cluster.JobResourcePredictor;
 import org.janelia.model.service.ServiceMetaData;
 
 import javax.enterprise.context.RequestScoped;
@@ -13,7 +14,9 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Response;
+import java.util.Date;
 import java.util.List;
 
 @Api(value = "JACS Service Info")
@@ -23,6 +26,7 @@ import java.util.List;
 public class ServiceMetadataResource {
 
     @Inject private ServiceRegistry serviceRegistry;
+    @Inject private JobResourcePredictor jobResourcePredictor;
 
     @ApiOperation(value = "Get metadata about all services", notes = "")
     @ApiResponses(value = {
@@ -58,4 +62,31 @@ public class ServiceMetadataResource {
                 .build();
     }
 
+    @ApiOperation(value = "Get the resource prediction errors of a given service",
+            notes = "Returns the mean relative error of the predicted run time and memory of the service jobs for each period")
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Success"),
+            @ApiResponse(code = 404, message = "If the service name is invalid"),
+            @ApiResponse(code = 500, message = "Error occurred") })
+    @GET
+    @Path("/metadata/{service-name}/resource-prediction-errors")
+    public Response getServiceResourcePredictionErrors(@PathParam("service-name") String serviceName,
+                                                       @QueryParam("from") Date from,
+                                                       @QueryParam("period-days") Integer periodInDays) {
+        ServiceMetaData smd = serviceRegistry.getServiceMetadata(serviceName);
+        if (smd == null) {
+            return Response
+                    .status(Response.Status.NOT_FOUND)
+                    .build();
+        }
+        List<JobResourcePredictor.PredictionErrorReportEntry> predictionErrors = jobResourcePredictor.getPredictionErrorReport(
+                serviceName,
+                from,
+                periodInDays != null ? periodInDays : 7);
+        return Response
+                .status(Response.Status.OK)
+                .entity(predictionErrors)
+                .build();
+    }
+
 }
@@ -0,0 +1,291 @@
+package org.janelia.jacs2.rest.async.v2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the content of a service's output or error files. Downloads, entire or ranged, treat the files as one
+ * concatenated byte sequence so that the offsets of a ranged request match the full download. Only the tail and follow
+ * views precede the content of each file with the file name. The file content is copied with FileChannel.transferTo
+ * so that the container may avoid the copy to user space.
+ */
+class ServiceOutputStreamer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceOutputStreamer.class);
+    private static final int TAIL_BLOCK_SIZE = 8192;
+    private static final long FOLLOW_POLL_INTERVAL_IN_MILLIS = 1000L;
+    private static final long FOLLOW_STATE_CHECK_INTERVAL_IN_MILLIS = 10000L;
+    // following holds a request thread so clients that want to follow longer must reconnect
+    private static final long FOLLOW_MAX_DURATION_IN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Single byte range as specified by an HTTP Range header.
+     */
+    static class ByteRange {
+        private static final Pattern BYTE_RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+        final long start;
+        final long end; // inclusive
+
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the range or null if the header is not a single byte range that this class knows how to handle.
+         * @throws IllegalArgumentException if the range cannot be satisfied.
+         */
+        static ByteRange parse(String rangeHeader, long totalLength) {
+            Matcher rangeMatcher = BYTE_RANGE_PATTERN.matcher(rangeHeader.trim());
+            if (!rangeMatcher.matches()) {
+                return null;
+            }
+            String startValue = rangeMatcher.group(1);
+            String endValue = rangeMatcher.group(2);
+            long start;
+            long end;
+            if (startValue.isEmpty() && endValue.isEmpty()) {
+                return null;
+            } else if (startValue.isEmpty()) {
+                // suffix range - the last <endValue> bytes
+                start = Math.max(0, totalLength - Long.parseLong(endValue));
+                end = totalLength - 1;
+            } else {
+                start = Long.parseLong(startValue);
+                end = endValue.isEmpty() ? totalLength - 1 : Math.min(Long.parseLong(endValue), totalLength - 1);
+            }
+            if (start >= totalLength || start > end) {
+                throw new IllegalArgumentException("Unsatisfiable range " + rangeHeader + " for " + totalLength + " bytes");
+            }
+            return new ByteRange(start, end);
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        String toContentRange(long totalLength) {
+            return "bytes " + start + "-" + end + "/" + totalLength;
+        }
+    }
+
+    private final Supplier<List<Path>> outputFilesSupplier;
+    private final Map<Path, Long> streamedOffsets = new HashMap<>();
+    private Path lastStreamedFile;
+
+    ServiceOutputStreamer(Supplier<List<Path>> outputFilesSupplier) {
+        this.outputFilesSupplier = outputFilesSupplier;
+    }
+
+    long getTotalSize() throws IOException {
+        long totalSize = 0;
+        for (Path outputFile : outputFilesSupplier.get()) {
+            totalSize += Files.size(outputFile);
+        }
+        return totalSize;
+    }
+
+    /**
+     * Stream the first totalSize bytes of the concatenated files, i.e., the content that existed when the size was taken,
+     * so that the streamed content always has the advertised length even if the files keep growing.
+     */
+    void streamAll(long totalSize, OutputStream output) throws IOException {
+        if (totalSize > 0) {
+            streamRange(new ByteRange(0, totalSize - 1), output);
+        }
+    }
+
+    /**
+     * Stream the last lines of every file.
+     */
+    void streamTail(int nLines, OutputStream output) throws IOException {
+        streamFrom(nLines, output);
+    }
+
+    /**
+     * Stream the bytes from the given range of the concatenated files.
+     */
+    void streamRange(ByteRange range, OutputStream output) throws IOException {
+        WritableByteChannel target = Channels.newChannel(output);
+        long fileStart = 0;
+        for (Path outputFile : outputFilesSupplier.get()) {
+            if (fileStart > range.end) {
+                break;
+            }
+            try (FileChannel fileChannel = FileChannel.open(outputFile, StandardOpenOption.READ)) {
+                long fileEnd = fileStart + fileChannel.size();
+                long from = Math.max(range.start, fileStart);
+                long to = Math.min(range.end + 1, fileEnd);
+                if (from < to) {
+                    transfer(fileChannel, from - fileStart, to - from, target);
+                }
+                fileStart = fileEnd;
+            }
+        }
+    }
+
+    /**
+     * Stream the current content, entirely or only the last lines, and then keep streaming whatever gets appended
+     * to the files until the service completes, the client goes away or the maximum follow duration is reached.
+     *
+     * @param outputDir directory that holds the output files - this is the directory watched for changes
+     * @param nLines if not null only the last lines are streamed initially
+     * @param serviceCompleted check whether the service has completed
+     */
+    void follow(Path outputDir, Integer nLines, BooleanSupplier serviceCompleted, OutputStream output) throws IOException {
+        streamFrom(nLines, output);
+        output.flush();
+        WatchService watchService = null;
+        try {
+            long deadline = System.currentTimeMillis() + FOLLOW_MAX_DURATION_IN_MILLIS;
+            long nextStateCheck = System.currentTimeMillis() + FOLLOW_STATE_CHECK_INTERVAL_IN_MILLIS;
+            boolean done = false;
+            while (!done && System.currentTimeMillis() < deadline) {
+                if (watchService == null && outputDir != null && Files.isDirectory(outputDir)) {
+                    watchService = outputDir.getFileSystem().newWatchService();
+                    outputDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+                boolean changed;
+                if (watchService != null) {
+                    WatchKey watchKey = watchService.poll(FOLLOW_POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+                    changed = watchKey != null;
+                    if (changed) {
+                        watchKey.pollEvents();
+                        watchKey.reset();
+                    }
+                } else {
+                    Thread.sleep(FOLLOW_POLL_INTERVAL_IN_MILLIS);
+                    changed = false;
+                }
+                // only check the service state, which requires a database lookup, every few seconds when nothing happened
+                // and stream the remaining content after the service completed
+                if (!changed && System.currentTimeMillis() >= nextStateCheck) {
+                    done = serviceCompleted.getAsBoolean();
+                    nextStateCheck = System.currentTimeMillis() + FOLLOW_STATE_CHECK_INTERVAL_IN_MILLIS;
+                }
+                if (streamNewContent(null, Channels.newChannel(output), output)) {
+                    output.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Interrupted while following {}", outputDir);
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watchService != null) {
+                try {
+                    watchService.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void streamFrom(Integer nLines, OutputStream output) throws IOException {
+        streamNewContent(nLines, Channels.newChannel(output), output);
+    }
+
+    /**
+     * Stream the content that was not streamed yet.
+     *
+     * @return true if anything was written
+     */
+    private boolean streamNewContent(Integer nLines, WritableByteChannel target, OutputStream output) throws IOException {
+        boolean written = false;
+        for (Path outputFile : outputFilesSupplier.get()) {
+            try (FileChannel fileChannel = FileChannel.open(outputFile, StandardOpenOption.READ)) {
+                long size = fileChannel.size();
+                Long streamedOffset = streamedOffsets.get(outputFile);
+                long from;
+                if (streamedOffset == null) {
+                    from = nLines == null ? 0 : findTailOffset(fileChannel, nLines);
+                } else if (streamedOffset > size) {
+                    // the file was truncated
+                    from = 0;
+                } else {
+                    from = streamedOffset;
+                }
+                if (from < size || streamedOffset == null) {
+                    if (!outputFile.equals(lastStreamedFile)) {
+                        output.write((outputFile.toString() + "\n").getBytes());
+                        lastStreamedFile = outputFile;
+                    }
+                    transfer(fileChannel, from, size - from, target);
+                    written = true;
+                }
+                streamedOffsets.put(outputFile, size);
+            }
+        }
+        return written;
+    }
+
+    private void transfer(FileChannel fileChannel, long position, long count, WritableByteChannel target) throws IOException {
+        long currentPosition = position;
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = fileChannel.transferTo(currentPosition, remaining, target);
+            if (transferred <= 0) {
+                break;
+            }
+            currentPosition += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Find the offset of the last nLines by reading the file backwards in blocks, so only the tail of the file is read.
+     */
+    static long findTailOffset(FileChannel fileChannel, int nLines) throws IOException {
+        long size = fileChannel.size();
+        if (nLines <= 0) {
+            return size;
+        }
+        ByteBuffer block = ByteBuffer.allocate(TAIL_BLOCK_SIZE);
+        int newLines = 0;
+        long blockStart = size;
+        while (blockStart > 0) {
+            int blockSize = (int) Math.min(TAIL_BLOCK_SIZE, blockStart);
+            blockStart -= blockSize;
+            block.clear();
+            block.limit(blockSize);
+            int read = 0;
+            while (read < blockSize) {
+                int n = fileChannel.read(block, blockStart + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; i--) {
+                if (block.get(i) == '\n' && blockStart + i < size - 1) {
+                    // a new line at the very end of the file only terminates the last line
+                    if (++newLines == nLines) {
+                        return blockStart + i + 1;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+}
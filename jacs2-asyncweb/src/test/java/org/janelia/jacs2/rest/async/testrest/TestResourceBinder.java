@@ -13,12 +13,14 @@ import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.janelia.jacs2.asyncservice.JacsServiceDataManager;
 import org.janelia.jacs2.asyncservice.JacsServiceEngine;
 import org.janelia.jacs2.asyncservice.ServiceRegistry;
+import org.janelia.jacs2.asyncservice.common.cluster.JobResourcePredictor;
 import org.janelia.jacs2.auth.JWTProvider;
 import org.janelia.jacs2.cdi.ObjectMapperFactory;
 import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.cronservice.CronScheduledServiceManager;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.model.access.dao.LegacyDomainDao;
 import org.janelia.model.access.domain.dao.SubjectDao;
 import org.slf4j.Logger;
@@ -68,11 +70,13 @@ public class TestResourceBinder extends AbstractBinder {
         bind(dependenciesProducer.getJacsServiceDataManager()).to(JacsServiceDataManager.class);
         bind(dependenciesProducer.getServiceRegistry()).to(ServiceRegistry.class);
         bind(dependenciesProducer.getSubjectDao()).to(SubjectDao.class);
+        bind(dependenciesProducer.getSubjectCache()).to(SubjectCache.class);
         bind(dependenciesProducer.getLegacyDomainDao()).to(LegacyDomainDao.class);
         bind(dependenciesProducer.getObjectMapperFactory()).to(ObjectMapperFactory.class);
         bind(dependenciesProducer.getJacsScheduledServiceDataManager()).to(CronScheduledServiceManager.class);
         bind(dependenciesProducer.getJacsServiceEngine()).to(JacsServiceEngine.class);
         bind(dependenciesProducer.getJWTProvider()).to(JWTProvider.class);
+        bind(dependenciesProducer.getJobResourcePredictor()).to(JobResourcePredictor.class);
         bind(PropertyResolver.class)
                 .to(new TypeLiteral<InjectionResolver<PropertyValue>>() {})
                 .in(Singleton.class);
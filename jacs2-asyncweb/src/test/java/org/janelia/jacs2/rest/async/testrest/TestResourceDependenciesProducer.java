@@ -3,6 +3,7 @@ package org.janelia.jacs2.rest.async.testrest;
 import org.janelia.jacs2.asyncservice.JacsServiceDataManager;
 import org.janelia.jacs2.asyncservice.JacsServiceEngine;
 import org.janelia.jacs2.asyncservice.ServiceRegistry;
+import org.janelia.jacs2.asyncservice.common.cluster.JobResourcePredictor;
 import org.janelia.jacs2.auth.JWTProvider;
 import org.janelia.jacs2.cdi.ApplicationConfigProvider;
 import org.janelia.jacs2.cdi.ObjectMapperFactory;
@@ -10,6 +11,7 @@ import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.cronservice.CronScheduledServiceManager;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.model.access.dao.LegacyDomainDao;
 import org.janelia.model.access.domain.dao.SubjectDao;
 import org.slf4j.Logger;
@@ -40,10 +42,13 @@ public class TestResourceDependenciesProducer {
     private ServiceRegistry serviceRegistry = mock(ServiceRegistry.class);
     private LegacyDomainDao legacyDomainDao = mock(LegacyDomainDao.class);
     private SubjectDao subjectDao = mock(SubjectDao.class);
+    // nothing is cached so that the tests only depend on the subjectDao stubs
+    private SubjectCache subjectCache = new SubjectCache(subjectDao, 0);
     private JWTProvider jwtProvider = mock(JWTProvider.class);
     private ObjectMapperFactory objectMapperFactory = ObjectMapperFactory.instance();
     private CronScheduledServiceManager jacsScheduledServiceDataManager = mock(CronScheduledServiceManager.class);
     private JacsServiceEngine jacsServiceEngine = mock(JacsServiceEngine.class);
+    private JobResourcePredictor jobResourcePredictor = mock(JobResourcePredictor.class);
 
     @Produces
     public Logger getLogger() {
@@ -78,6 +83,11 @@ public class TestResourceDependenciesProducer {
         return subjectDao;
     }
 
+    @Produces
+    public SubjectCache getSubjectCache() {
+        return subjectCache;
+    }
+
     @Produces
     public LegacyDomainDao getLegacyDomainDao() {
         return legacyDomainDao;
@@ -102,4 +112,9 @@ public class TestResourceDependenciesProducer {
     public JWTProvider getJWTProvider() {
         return jwtProvider;
     }
+
+    @Produces
+    public JobResourcePredictor getJobResourcePredictor() {
+        return jobResourcePredictor;
+    }
 }
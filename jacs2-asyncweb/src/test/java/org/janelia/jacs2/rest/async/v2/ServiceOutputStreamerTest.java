@@ -0,0 +1,107 @@
+package org.janelia.jacs2.rest.async.v2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ServiceOutputStreamerTest {
+
+    private Path testDirectory;
+    private Path firstOutputFile;
+    private Path secondOutputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        testDirectory = Files.createTempDirectory("testServiceOutput");
+        firstOutputFile = Files.write(testDirectory.resolve("f1.out"), "l1\nl2\nl3\n".getBytes());
+        secondOutputFile = Files.write(testDirectory.resolve("f2.out"), "m1\nm2".getBytes());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(firstOutputFile);
+        Files.deleteIfExists(secondOutputFile);
+        Files.deleteIfExists(testDirectory);
+    }
+
+    @Test
+    public void streamAll() throws IOException {
+        ServiceOutputStreamer outputStreamer = new ServiceOutputStreamer(() -> ImmutableList.of(firstOutputFile, secondOutputFile));
+        long totalSize = outputStreamer.getTotalSize();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        outputStreamer.streamAll(totalSize, output);
+        // the full download has the advertised length and the same offsets as the ranged requests
+        assertEquals("l1\nl2\nl3\nm1\nm2", output.toString());
+        assertEquals(totalSize, output.size());
+
+        // content appended after the size was taken is not streamed
+        Files.write(secondOutputFile, "\nm3".getBytes(), StandardOpenOption.APPEND);
+        output.reset();
+        outputStreamer.streamAll(totalSize, output);
+        assertEquals(totalSize, output.size());
+    }
+
+    @Test
+    public void streamTail() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new ServiceOutputStreamer(() -> ImmutableList.of(firstOutputFile, secondOutputFile)).streamTail(2, output);
+        assertEquals(firstOutputFile + "\nl2\nl3\n" + secondOutputFile + "\nm1\nm2", output.toString());
+    }
+
+    @Test
+    public void findTailOffset() throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(firstOutputFile, StandardOpenOption.READ)) {
+            assertEquals(9, ServiceOutputStreamer.findTailOffset(fileChannel, 0));
+            assertEquals(6, ServiceOutputStreamer.findTailOffset(fileChannel, 1));
+            assertEquals(3, ServiceOutputStreamer.findTailOffset(fileChannel, 2));
+            assertEquals(0, ServiceOutputStreamer.findTailOffset(fileChannel, 3));
+            assertEquals(0, ServiceOutputStreamer.findTailOffset(fileChannel, 10));
+        }
+    }
+
+    @Test
+    public void streamRangeAcrossFiles() throws IOException {
+        ServiceOutputStreamer outputStreamer = new ServiceOutputStreamer(() -> ImmutableList.of(firstOutputFile, secondOutputFile));
+        long totalSize = outputStreamer.getTotalSize();
+        assertEquals(14, totalSize);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        outputStreamer.streamRange(ServiceOutputStreamer.ByteRange.parse("bytes=6-10", totalSize), output);
+        assertEquals("l3\nm1", output.toString());
+
+        output.reset();
+        outputStreamer.streamRange(ServiceOutputStreamer.ByteRange.parse("bytes=-2", totalSize), output);
+        assertEquals("m2", output.toString());
+
+        output.reset();
+        outputStreamer.streamRange(ServiceOutputStreamer.ByteRange.parse("bytes=12-", totalSize), output);
+        assertEquals("m2", output.toString());
+    }
+
+    @Test
+    public void parseByteRange() {
+        ServiceOutputStreamer.ByteRange byteRange = ServiceOutputStreamer.ByteRange.parse("bytes=10-100", 50);
+        assertEquals(10, byteRange.start);
+        assertEquals(49, byteRange.end);
+        assertEquals("bytes 10-49/50", byteRange.toContentRange(50));
+        assertNull(ServiceOutputStreamer.ByteRange.parse("bytes=1-2,5-6", 50));
+        assertNull(ServiceOutputStreamer.ByteRange.parse("lines=1-2", 50));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsatisfiableByteRange() {
+        ServiceOutputStreamer.ByteRange.parse("bytes=50-", 50);
+    }
+}
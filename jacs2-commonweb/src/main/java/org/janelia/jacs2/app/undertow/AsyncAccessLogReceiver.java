@@ -0,0 +1,74 @@
+package org.janelia.jacs2.app.undertow;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.server.handlers.accesslog.AccessLogReceiver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log receiver that hands the messages over to a writer task so that the IO threads never wait for the log appenders.
+ * The pending messages are kept in a bounded lock-free queue and if the writer cannot keep up the new messages are dropped.
+ * This is similar to undertow's DefaultAccessLogReceiver but it delegates the actual writing to another receiver.
+ */
+class AsyncAccessLogReceiver implements AccessLogReceiver {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncAccessLogReceiver.class);
+
+    private final AccessLogReceiver delegate;
+    private final Executor writerExecutor;
+    private final int capacity;
+    private final Queue<String> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicBoolean writerScheduled = new AtomicBoolean(false);
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    AsyncAccessLogReceiver(AccessLogReceiver delegate, Executor writerExecutor, int capacity) {
+        this.delegate = delegate;
+        this.writerExecutor = writerExecutor;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void logMessage(String message) {
+        if (pendingCount.incrementAndGet() > capacity) {
+            pendingCount.decrementAndGet();
+            long dropped = droppedCount.incrementAndGet();
+            if (dropped % capacity == 1) {
+                LOG.warn("Access log writer cannot keep up - {} messages dropped so far", dropped);
+            }
+            return;
+        }
+        pendingMessages.offer(message);
+        if (writerScheduled.compareAndSet(false, true)) {
+            writerExecutor.execute(this::writePendingMessages);
+        }
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void writePendingMessages() {
+        for (;;) {
+            String message;
+            while ((message = pendingMessages.poll()) != null) {
+                pendingCount.decrementAndGet();
+                try {
+                    delegate.logMessage(message);
+                } catch (Exception e) {
+                    LOG.error("Error writing access log message {}", message, e);
+                }
+            }
+            writerScheduled.set(false);
+            // a message may have been queued after the queue was drained but before the flag was reset
+            if (pendingMessages.isEmpty() || !writerScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
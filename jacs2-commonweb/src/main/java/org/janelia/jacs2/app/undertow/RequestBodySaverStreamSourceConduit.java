@@ -3,7 +3,9 @@ package org.janelia.jacs2.app.undertow;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
@@ -14,6 +16,8 @@ import org.xnio.conduits.StreamSourceConduit;
 
 /**
  * This is based on the FinishableStreamSourceConduit and DebuggingStreamSourceConduit from the undertow's set of StreamSourceConduit(s).
+ * Only a bounded prefix of the body is captured - once the limit is reached the conduit simply passes the data through
+ * without inspecting or copying it.
  */
 class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<StreamSourceConduit> {
 
@@ -25,10 +29,22 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
     private final StringBuilder currentPartBuffer;
     private final Supplier<RequestBodyPart> requestBodyPartSupplier;
     private final Consumer<List<RequestBodyPart>> onDone;
+    private final int maxCapturedLength;
     private RequestBodyPart currentBodyPart;
+    private byte[] capturedBytes; // raw body captured for non multipart requests
+    private int capturedBytesLength;
+    private int capturedPartsLength; // length of the multipart parts already completed
+    private boolean captureCompleted;
     private boolean finished;
 
     RequestBodySaverStreamSourceConduit(StreamSourceConduit next, boolean isMultipart, String boundary, Supplier<RequestBodyPart> requestBodyPartSupplier, Consumer<List<RequestBodyPart>> onDone) {
+        this(next, isMultipart, boundary, 0, requestBodyPartSupplier, onDone);
+    }
+
+    /**
+     * @param maxCapturedLength maximum number of body characters to capture; if this is not positive the entire body is captured.
+     */
+    RequestBodySaverStreamSourceConduit(StreamSourceConduit next, boolean isMultipart, String boundary, int maxCapturedLength, Supplier<RequestBodyPart> requestBodyPartSupplier, Consumer<List<RequestBodyPart>> onDone) {
         super(next);
         this.isMultipart = isMultipart;
         if (isMultipart && boundary != null) {
@@ -43,7 +59,12 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
         this.currentPartBuffer = new StringBuilder();
         this.requestBodyPartSupplier = requestBodyPartSupplier;
         this.onDone = onDone;
+        this.maxCapturedLength = maxCapturedLength > 0 ? maxCapturedLength : Integer.MAX_VALUE;
         this.currentBodyPart = null;
+        this.capturedBytes = null;
+        this.capturedBytesLength = 0;
+        this.capturedPartsLength = 0;
+        this.captureCompleted = false;
         this.finished = false;
     }
 
@@ -70,22 +91,13 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
         int pos = dst.position();
         int res = super.read(dst);
         try {
-            if (res > 0) {
-                byte[] d = new byte[res];
-                for (int i = 0; i < res; ++i) {
-                    d[i] = dst.get(i + pos);
-                }
+            if (res > 0 && !captureCompleted) {
                 if (isMultipart) {
                     if (partBoundary != null) {
-                        handleMultipart(d);
+                        handleMultipart(dst, pos, pos + res);
                     }
                 } else {
-                    // simply add the bytes to the body
-                    if (currentBodyPart == null) {
-                        currentBodyPart = requestBodyPartSupplier.get();
-                        requestBodyParts.add(currentBodyPart);
-                    }
-                    currentBodyPart.partBodyBuilder.append(new String(d));
+                    captureBytes(dst, pos, res);
                 }
             }
             return res;
@@ -94,10 +106,40 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
         }
     }
 
-    private void handleMultipart(byte[] bytes) {
-        int bytesLength = bytes.length;
-        for (int ci = 0; ci < bytesLength; ci++) {
-            char c = (char) bytes[ci];
+    /**
+     * Copy the bytes read into the destination buffer directly into the capture array without any intermediate buffers.
+     */
+    private void captureBytes(ByteBuffer buffer, int from, int length) {
+        if (currentBodyPart == null) {
+            currentBodyPart = requestBodyPartSupplier.get();
+            requestBodyParts.add(currentBodyPart);
+        }
+        int toCapture = Math.min(length, maxCapturedLength - capturedBytesLength);
+        if (capturedBytes == null) {
+            capturedBytes = new byte[Math.min(maxCapturedLength, Math.max(toCapture, 1024))];
+        } else if (capturedBytesLength + toCapture > capturedBytes.length) {
+            capturedBytes = Arrays.copyOf(capturedBytes, Math.min(maxCapturedLength, Math.max(capturedBytesLength + toCapture, 2 * capturedBytes.length)));
+        }
+        ByteBuffer readBytes = buffer.duplicate();
+        readBytes.limit(from + toCapture).position(from);
+        readBytes.get(capturedBytes, capturedBytesLength, toCapture);
+        capturedBytesLength += toCapture;
+        if (capturedBytesLength >= maxCapturedLength) {
+            captureCompleted = true;
+        }
+    }
+
+    private void handleMultipart(ByteBuffer buffer, int from, int to) {
+        for (int ci = from; ci < to; ci++) {
+            if (capturedPartsLength + (currentBodyPart != null ? currentBodyPart.partBodyBuilder.length() : 0) >= maxCapturedLength) {
+                // enough content was captured so stop looking at the rest of the body
+                if (currentBodyPart != null) {
+                    addCurrentBodyPart();
+                }
+                captureCompleted = true;
+                return;
+            }
+            char c = (char) buffer.get(ci);
             boundaryLookupBuffer.append(c);
             int boundaryIndex = boundaryStartIndex();
             if (boundaryIndex >= 0) {
@@ -108,8 +150,7 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
                     currentBodyPart.partBodyBuilder.setLength(currentBodyPart.partBodyBuilder.length() - boundaryLookupBuffer.length() + boundaryIndex);
                 }
                 if (currentBodyPart != null) {
-                    requestBodyParts.add(currentBodyPart);
-                    currentBodyPart = null;
+                    addCurrentBodyPart();
                     currentPartBuffer.setLength(0);
                 }
                 boundaryLookupBuffer.setLength(0);
@@ -147,6 +188,12 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
         }
     }
 
+    private void addCurrentBodyPart() {
+        requestBodyParts.add(currentBodyPart);
+        capturedPartsLength += currentBodyPart.partBodyBuilder.length();
+        currentBodyPart = null;
+    }
+
     private int boundaryStartIndex() {
         int boundaryIndex = boundaryLookupBuffer.indexOf(partBoundary);
         if (boundaryIndex >= 0) {
@@ -175,6 +222,10 @@ class RequestBodySaverStreamSourceConduit extends AbstractStreamSourceConduit<St
         if (consumed == -1) {
             if (!finished) {
                 finished = true;
+                if (currentBodyPart != null && capturedBytes != null) {
+                    currentBodyPart.partBodyBuilder.append(new String(capturedBytes, 0, capturedBytesLength, StandardCharsets.UTF_8));
+                    capturedBytes = null;
+                }
                 onDone.accept(requestBodyParts);
             }
         }
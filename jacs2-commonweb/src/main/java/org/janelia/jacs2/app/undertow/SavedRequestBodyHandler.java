@@ -11,6 +11,8 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,23 +23,33 @@ public class SavedRequestBodyHandler implements HttpHandler {
 
     private final HttpHandler next;
     private final boolean enabled;
-    private final Set<String> supportedMethods;
+    private final Set<HttpString> supportedMethods;
     private final Set<String> supportedMimeTypes;
     private final Set<String> restrictedPaths;
+    private final int maxCapturedLength;
 
     SavedRequestBodyHandler(HttpHandler next, boolean enabled, Collection<String> restrictedPaths) {
+        this(next, enabled, restrictedPaths, 0);
+    }
+
+    /**
+     * @param maxCapturedLength maximum number of characters kept from each request body - if not positive the entire body is kept.
+     */
+    SavedRequestBodyHandler(HttpHandler next, boolean enabled, Collection<String> restrictedPaths, int maxCapturedLength) {
         this.next = next;
         this.enabled = enabled;
-        this.supportedMethods = ImmutableSet.of("PUT", "POST");
+        this.maxCapturedLength = maxCapturedLength;
+        this.supportedMethods = ImmutableSet.of(Methods.PUT, Methods.POST);
         this.supportedMimeTypes = ImmutableSet.of("application/json", "application/xml", "multipart/");
         this.restrictedPaths = ImmutableSet.copyOf(restrictedPaths);
     }
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
-        if (enabled && supportedMethods.contains(exchange.getRequestMethod().toString()) && isRequestPathNotRestricted(exchange.getRelativePath())) {
+        // check the path and the method first so that nothing gets allocated for requests whose body is not saved
+        if (enabled && isRequestPathNotRestricted(exchange.getRelativePath()) && supportedMethods.contains(exchange.getRequestMethod())) {
             String mimeType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
-            if (mimeType != null && supportedMimeTypes.stream().filter(supportedMimeType -> mimeType.startsWith(supportedMimeType)).findAny().orElse(null) != null) {
+            if (isSupportedMimeType(mimeType)) {
                 boolean isMultipart;
                 String boundary;
                 if (mimeType.startsWith("multipart/")) {
@@ -54,6 +66,7 @@ public class SavedRequestBodyHandler implements HttpHandler {
                         factory.create(),
                         isMultipart,
                         boundary,
+                        maxCapturedLength,
                         () -> new RequestBodyPart(isMultipart ? null : mimeType),
                         requestParts -> wrappedExchange.putAttachment(
                                 SAVED_REQUEST_BODY,
@@ -69,4 +82,16 @@ public class SavedRequestBodyHandler implements HttpHandler {
         return !restrictedPaths.contains(relativePath);
     }
 
+    private boolean isSupportedMimeType(String mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        for (String supportedMimeType : supportedMimeTypes) {
+            if (mimeType.startsWith(supportedMimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
@@ -4,6 +4,8 @@ import java.nio.file.Paths;
 import java.util.EventListener;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -11,6 +13,7 @@ import javax.servlet.ServletException;
 import javax.ws.rs.core.Application;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.swagger.jersey.config.JerseyJaxrsConfig;
 import io.undertow.Handlers;
@@ -21,6 +24,7 @@ import io.undertow.predicate.Predicate;
 import io.undertow.predicate.Predicates;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.accesslog.AccessLogHandler;
+import io.undertow.server.handlers.accesslog.AccessLogReceiver;
 import io.undertow.server.handlers.resource.PathResourceManager;
 import io.undertow.server.handlers.resource.ResourceHandler;
 import io.undertow.servlet.Servlets;
@@ -128,8 +132,9 @@ public class UndertowAppContainer implements AppContainer {
                                 restApiHttpHandler,
                                 applicationConfig.getBooleanPropertyValue("AccessLog.WithRequestBody", false),
                                 applicationConfig.getStringListPropertyValue("AccessLog.RestrictedPaths",
-                                        ImmutableList.of("/auth/authenticate", "/data/user/password")))),
-                new Slf4jAccessLogReceiver(LoggerFactory.getLogger(application.getClass())),
+                                        ImmutableList.of("/auth/authenticate", "/data/user/password")),
+                                applicationConfig.getIntegerPropertyValue("AccessLog.MaxRequestBody", 0))),
+                createAccessLogReceiver(application),
                 "ignored",
                 new JoinedExchangeAttribute(new ExchangeAttribute[] {
                         RemoteHostAttribute.INSTANCE, // <RemoteIP>
@@ -166,6 +171,20 @@ public class UndertowAppContainer implements AppContainer {
         server.start();
     }
 
+    private AccessLogReceiver createAccessLogReceiver(Application application) {
+        AccessLogReceiver accessLogReceiver = new Slf4jAccessLogReceiver(LoggerFactory.getLogger(application.getClass()));
+        int asyncQueueSize = applicationConfig.getIntegerPropertyValue("AccessLog.AsyncQueueSize", 0);
+        if (asyncQueueSize > 0) {
+            ExecutorService accessLogWriter = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("JACS-ACCESSLOG-%d")
+                    .setDaemon(true)
+                    .build());
+            return new AsyncAccessLogReceiver(accessLogReceiver, accessLogWriter, asyncQueueSize);
+        } else {
+            return accessLogReceiver;
+        }
+    }
+
     private Predicate getAccessLogFilter() {
         return Predicates.not(
                 Predicates.prefixes(excludedPathsFromAccessLog)
@@ -0,0 +1,58 @@
+package org.janelia.jacs2.app.undertow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncAccessLogReceiverTest {
+
+    private static class ManualExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> currentTasks = new ArrayList<>(tasks);
+            tasks.clear();
+            currentTasks.forEach(Runnable::run);
+        }
+    }
+
+    @Test
+    public void messagesAreWrittenByTheWriterTask() {
+        List<String> writtenMessages = new ArrayList<>();
+        ManualExecutor writerExecutor = new ManualExecutor();
+        AsyncAccessLogReceiver accessLogReceiver = new AsyncAccessLogReceiver(writtenMessages::add, writerExecutor, 10);
+        accessLogReceiver.logMessage("m1");
+        accessLogReceiver.logMessage("m2");
+        assertEquals(ImmutableList.of(), writtenMessages);
+        assertEquals(1, writerExecutor.tasks.size());
+        writerExecutor.runAll();
+        assertEquals(ImmutableList.of("m1", "m2"), writtenMessages);
+        accessLogReceiver.logMessage("m3");
+        writerExecutor.runAll();
+        assertEquals(ImmutableList.of("m1", "m2", "m3"), writtenMessages);
+    }
+
+    @Test
+    public void messagesAreDroppedWhenTheQueueIsFull() {
+        List<String> writtenMessages = new ArrayList<>();
+        ManualExecutor writerExecutor = new ManualExecutor();
+        AsyncAccessLogReceiver accessLogReceiver = new AsyncAccessLogReceiver(writtenMessages::add, writerExecutor, 2);
+        accessLogReceiver.logMessage("m1");
+        accessLogReceiver.logMessage("m2");
+        accessLogReceiver.logMessage("m3");
+        writerExecutor.runAll();
+        assertEquals(ImmutableList.of("m1", "m2"), writtenMessages);
+        assertEquals(1, accessLogReceiver.getDroppedCount());
+    }
+}
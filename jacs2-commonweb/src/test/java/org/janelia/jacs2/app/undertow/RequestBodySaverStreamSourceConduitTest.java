@@ -113,6 +113,26 @@ public class RequestBodySaverStreamSourceConduitTest {
         }
     }
 
+    @Test
+    public void requestBodyCaptureIsBounded() {
+        for (int bufferLength : new int[]{8, 16, 32, 256}) {
+            StreamSourceConduit mockSourceConduit = Mockito.mock(StreamSourceConduit.class);
+            RequestBodySaverStreamSourceConduit nonMultipartConduit = new RequestBodySaverStreamSourceConduit(mockSourceConduit, false, null, 10,
+                    () -> new RequestBodyPart("plain/text"),
+                    rb -> MatcherAssert.assertThat(rb, equalTo(ImmutableList.of(requestBodyPart("plain/text", TEST_CONTENT.substring(0, 10))))));
+            prepareWrappedConduit(mockSourceConduit, TEST_CONTENT.getBytes());
+            exerciseStreamSource(nonMultipartConduit, ByteBuffer.allocate(bufferLength));
+            Mockito.reset(mockSourceConduit);
+
+            RequestBodySaverStreamSourceConduit multipartConduit = new RequestBodySaverStreamSourceConduit(mockSourceConduit, true, TEST_BOUNDARY, 10,
+                    () -> new RequestBodyPart(null),
+                    rb -> MatcherAssert.assertThat(rb, equalTo(ImmutableList.of(requestBodyPart("plain/text", TEST_CONTENT.substring(0, 10))))));
+            prepareWrappedConduit(mockSourceConduit, (TEXT_PART + TEXT_PART + END_BOUNDARY).getBytes());
+            exerciseStreamSource(multipartConduit, ByteBuffer.allocate(bufferLength));
+            Mockito.reset(mockSourceConduit);
+        }
+    }
+
     private RequestBodyPart requestBodyPart(String mimeType, String body) {
         RequestBodyPart rb = new RequestBodyPart(mimeType);
         if (body != null) rb.partBodyBuilder.append(body);
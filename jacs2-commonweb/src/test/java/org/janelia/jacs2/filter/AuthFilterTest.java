@@ -3,6 +3,7 @@ package org.janelia.jacs2.filter;
 import org.janelia.jacs2.auth.JWTProvider;
 import org.janelia.jacs2.auth.JacsSecurityContext;
 import org.janelia.jacs2.auth.annotations.RequireAuthentication;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.model.access.domain.dao.SubjectDao;
 import org.janelia.model.security.GroupRole;
 import org.janelia.model.security.Subject;
@@ -62,7 +63,7 @@ public class AuthFilterTest {
     @Before
     public void setUp() {
         authFilter = new AuthFilter();
-        Whitebox.setInternalState(authFilter, "subjectDao", subjectDao);
+        Whitebox.setInternalState(authFilter, "subjectCache", new SubjectCache(subjectDao, 60));
         Whitebox.setInternalState(authFilter, "logger", logger);
         Whitebox.setInternalState(authFilter, "resourceInfo", resourceInfo);
         Whitebox.setInternalState(authFilter, "jwtProvider", jwtProvider);
@@ -114,6 +115,34 @@ public class AuthFilterTest {
         Mockito.verifyNoMoreInteractions(requestContext, subjectDao, jwtProvider);
     }
 
+    @Test
+    public void authenticatedSubjectIsOnlyReadOnce() {
+        @RequireAuthentication
+        class TestResource {
+            void m() {
+            }
+        }
+        Mockito.when(resourceInfo.getResourceMethod()).then(invocation -> Whitebox.getMethod(TestResource.class, "m"));
+        final String testUserName = "thisuser";
+        Mockito.when(subjectDao.findSubjectByNameOrKey(testUserName)).then(invocation -> {
+            Subject subject = new User();
+            subject.setKey("user:" + testUserName);
+            return subject;
+        });
+        UriInfo uriInfo = Mockito.mock(UriInfo.class);
+        Mockito.when(uriInfo.getRequestUri()).thenReturn(URI.create("http://test:1000"));
+        for (int i = 0; i < 3; i++) {
+            ContainerRequestContext requestContext = Mockito.mock(ContainerRequestContext.class);
+            Mockito.when(requestContext.getHeaders())
+                    .thenReturn(new MultivaluedHashMap<>(ImmutableMap.of("UserName", testUserName)));
+            Mockito.when(requestContext.getUriInfo()).thenReturn(uriInfo);
+            authFilter.filter(requestContext);
+            Mockito.verify(requestContext).setSecurityContext(any(JacsSecurityContext.class));
+        }
+        Mockito.verify(subjectDao).findSubjectByNameOrKey(testUserName);
+        Mockito.verifyNoMoreInteractions(subjectDao);
+    }
+
     @Test
     public void filterWithHeaderUsernameAnRunAs() {
         @RequireAuthentication
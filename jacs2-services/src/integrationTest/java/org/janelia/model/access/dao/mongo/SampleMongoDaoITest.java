@@ -6,9 +6,14 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.beans.HasPropertyWithValue;
@@ -338,6 +343,49 @@ public class SampleMongoDaoITest extends AbstractDomainObjectDaoITest<Sample> {
         );
     }
 
+    @Test
+    public void concurrentlyUpdatePipelineResultsFromAStaleSample() throws Exception {
+        Sample testSample = createTestSample("ds1", "sc1");
+        testSample.getObjectiveSamples().add(createSampleObjective("o1"));
+        testDao.save(testSample);
+        SamplePipelineRun pipelineRun = createPipelineRun(1, "o1.1");
+        List<PipelineResult> testResults = IntStream.range(0, 20)
+                .mapToObj(i -> createPipelineResult("r" + i))
+                .collect(Collectors.toList());
+        testResults.forEach(pipelineRun::addResult);
+        testDao.addObjectivePipelineRun(testSample, "o1", pipelineRun);
+
+        // all updates use the same sample, which is stale as soon as the first update completes
+        Sample staleSample = testDao.findById(testSample.getId());
+        List<Runnable> updates = new ArrayList<>();
+        for (PipelineResult r : testResults) {
+            PipelineResult childResult = createPipelineResult(r.getName() + " child");
+            updates.add(() -> testDao.addSampleObjectivePipelineRunResult(staleSample, "o1", 1, r.getId(), childResult));
+            updates.add(() -> testDao.updateSampleObjectivePipelineRunResults(staleSample, "o1", 1,
+                    ImmutableMap.of(r.getId(), ImmutableMap.of("name", new SetFieldValueHandler<>(r.getName() + " updated")))));
+        }
+        ExecutorService updatesExecutor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> pendingUpdates = updates.stream().map(updatesExecutor::submit).collect(Collectors.toList());
+            for (Future<?> pendingUpdate : pendingUpdates) {
+                pendingUpdate.get();
+            }
+        } finally {
+            updatesExecutor.shutdown();
+        }
+
+        List<PipelineResult> retrievedResults = testDao.findById(testSample.getId()).lookupObjective("o1")
+                .flatMap(os -> os.findPipelineRunById(1))
+                .map(indexedRun -> indexedRun.getReference().getResults())
+                .get();
+        MatcherAssert.assertThat(retrievedResults, hasSize(testResults.size() + 1));
+        for (int i = 0; i < testResults.size(); i++) {
+            PipelineResult retrievedResult = retrievedResults.get(i + 1);
+            MatcherAssert.assertThat(retrievedResult.getName(), equalTo("r" + i + " updated"));
+            MatcherAssert.assertThat(retrievedResult.getResults(), contains(new HasPropertyWithValue<>("name", equalTo("r" + i + " child"))));
+        }
+    }
+
     private ObjectiveSample createSampleObjective(String o) {
         ObjectiveSample so = new ObjectiveSample();
         so.setObjective(o);
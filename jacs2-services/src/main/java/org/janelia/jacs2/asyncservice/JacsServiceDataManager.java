@@ -7,7 +7,9 @@ import org.janelia.model.jacs2.page.PageResult;
 import org.janelia.model.service.JacsServiceData;
 
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Date;
+import java.util.List;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -19,5 +21,7 @@ public interface JacsServiceDataManager {
     long getServiceStdErrorSize(JacsServiceData serviceData);
     Stream<Supplier<NamedData<InputStream>>> streamServiceStdOutput(JacsServiceData serviceData);
     Stream<Supplier<NamedData<InputStream>>> streamServiceStdError(JacsServiceData serviceData);
+    List<Path> getServiceStdOutputFiles(JacsServiceData serviceData);
+    List<Path> getServiceStdErrorFiles(JacsServiceData serviceData);
     JacsServiceData updateService(Number instanceId, JacsServiceData serviceData);
 }
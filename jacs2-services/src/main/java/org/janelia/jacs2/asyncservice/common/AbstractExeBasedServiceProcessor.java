@@ -2,6 +2,7 @@ package org.janelia.jacs2.asyncservice.common;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -17,7 +18,9 @@ import com.google.common.collect.ImmutableMap;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.asyncservice.common.cluster.JobResourcePredictor;
 import org.janelia.jacs2.asyncservice.common.mdc.MdcContext;
+import org.janelia.jacs2.asyncservice.utils.ScriptWriter;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
@@ -33,10 +36,12 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
 
     protected static final String DY_LIBRARY_PATH_VARNAME = "LD_LIBRARY_PATH";
     protected static final String LIBPATH_SEPARATOR = ":";
+    private static final int DEFAULT_CONFIG_RUNTIME_IN_SECONDS = 30;
 
     private final String executablesBaseDir;
     private final Instance<ExternalProcessRunner> serviceRunners;
     private final JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private final JobResourcePredictor jobResourcePredictor;
     private final ApplicationConfig applicationConfig;
     private final int jobIntervalCheck;
 
@@ -51,6 +56,7 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
         this.serviceRunners = serviceRunners;
         this.executablesBaseDir = applicationConfig.getStringPropertyValue("Executables.ModuleBase");
         this.jacsJobInstanceInfoDao = jacsJobInstanceInfoDao;
+        this.jobResourcePredictor = new JobResourcePredictor(jacsJobInstanceInfoDao, applicationConfig);
         this.applicationConfig = applicationConfig;
         this.jobIntervalCheck = applicationConfig.getIntegerPropertyValue("service.exejob.checkIntervalInMillis", 0);
     }
@@ -63,22 +69,28 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
     public ServiceComputation<JacsServiceResult<R>> process(JacsServiceData jacsServiceData) {
         prepareProcessing(jacsServiceData);
         ExeJobHandler jobHandler = runExternalProcess(jacsServiceData);
+        // the same error checker is used while the job is running and at the end so that the output is only scanned once
+        ServiceErrorChecker errorChecker = getErrorChecker();
         return computationFactory.newCompletedComputation(jacsServiceData)
-                .thenSuspendUntil(sd -> new ContinuationCond.Cond<>(sd, hasJobFinished(sd, jobHandler)),
+                .thenSuspendUntil(sd -> new ContinuationCond.Cond<>(sd, hasJobFinished(sd, jobHandler, errorChecker)),
                         (long) jobIntervalCheck,
                         null)
                 .thenApply(sd -> {
                     // Persist all final job instance metadata
                     Collection<JacsJobInstanceInfo> completedJobInfos = jobHandler.getJobInstances();
                     if (!completedJobInfos.isEmpty()) {
+                        Long jobInputSize = getJobInputSize(jacsServiceData, completedJobInfos.size());
                         for (JacsJobInstanceInfo jacsJobInstanceInfo : completedJobInfos) {
                             jacsJobInstanceInfo.setServiceDataId(jacsServiceData.getId());
+                            jacsJobInstanceInfo.setServiceName(jacsServiceData.getName());
+                            jacsJobInstanceInfo.setInputSize(jobInputSize);
+                            jobResourcePredictor.recordPredictions(jacsServiceData, jacsJobInstanceInfo);
                         }
                         logger.trace("Saving {} job instance info objects", completedJobInfos.size());
                         jacsJobInstanceInfoDao.saveAll(completedJobInfos);
                     }
 
-                    List<String> errors = getErrors(jacsServiceData);
+                    List<String> errors = errorChecker.collectErrors(jacsServiceData);
                     String errorMessage;
                     if (CollectionUtils.isNotEmpty(errors)) {
                         errorMessage = String.format("Process %s failed; errors found: %s", jobHandler.getJobInfo(), String.join(";", errors));
@@ -99,7 +111,7 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
                 .thenApply(sr -> postProcessing(sr));
     }
 
-    private boolean hasJobFinished(JacsServiceData jacsServiceData, ExeJobHandler jobHandler) {
+    private boolean hasJobFinished(JacsServiceData jacsServiceData, ExeJobHandler jobHandler, ServiceErrorChecker errorChecker) {
         JacsServiceData updatedServiceData = refreshServiceData(jacsServiceData);
         // if the service has been canceled but the job hasn't finished terminate the job
         // if the service has been suspended let the job complete
@@ -112,6 +124,7 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
         } else if (jobHandler.isDone()) {
             return true;
         }
+        errorChecker.scanNewOutput(jacsServiceData);
         try {
             verifyAndFailIfTimeOut(jacsServiceData);
         } catch (ComputationException e) {
@@ -144,6 +157,21 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
     protected void prepareResources(JacsServiceData jacsServiceData) {
     }
 
+    /**
+     * Override this to report the size of the data processed by the service, which is used for predicting the
+     * resources of the service's jobs from the previous jobs. The default implementation returns null, i.e., unknown.
+     * @param jacsServiceData
+     * @return
+     */
+    protected Long getProcessingInputSize(JacsServiceData jacsServiceData) {
+        return null;
+    }
+
+    private Long getJobInputSize(JacsServiceData jacsServiceData, int numJobs) {
+        Long inputSize = getProcessingInputSize(jacsServiceData);
+        return inputSize == null ? null : inputSize / Math.max(1, numJobs);
+    }
+
     private Optional<String> getEnvVar(String varName) {
         return Optional.ofNullable(System.getenv(varName));
     }
@@ -190,7 +218,7 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
     }
 
     private ExeJobHandler runExternalProcess(JacsServiceData jacsServiceData) {
-        List<ExternalCodeBlock> externalConfigs = prepareConfigurationFiles(jacsServiceData);
+        List<ExternalCodeBlock> externalConfigs = batchConfigurations(jacsServiceData, prepareConfigurationFiles(jacsServiceData));
         ExternalCodeBlock script = prepareExternalScript(jacsServiceData);
         if (script == null) {
             return new NoOpJobHandler("No op for " + jacsServiceData.toString());
@@ -201,6 +229,7 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
             runtimeEnv.putAll(jacsServiceData.getEnv());
         }
         prepareResources(jacsServiceData);
+        jobResourcePredictor.recommendResources(jacsServiceData, getJobInputSize(jacsServiceData, externalConfigs.size()));
         ExternalProcessRunner processRunner = getProcessRunner(jacsServiceData);
         return processRunner.runCmds(
                 script,
@@ -215,6 +244,47 @@ public abstract class AbstractExeBasedServiceProcessor<R> extends AbstractServic
         return Collections.emptyList();
     }
 
+    /**
+     * A processor whose script keeps reading configuration records from its input until there are no more records
+     * can process several configurations in a single process, so the tool's startup cost is paid once per batch
+     * instead of once per configuration.
+     *
+     * @return true if the processor's script processes all configuration records from its input.
+     */
+    protected boolean supportsBatchedConfigurations() {
+        return false;
+    }
+
+    /**
+     * Pack the configurations in batches sized such that the estimated runtime of a batch does not exceed
+     * service.[name].batchRuntimeInSeconds. Without a batch runtime each configuration is run in its own process.
+     */
+    List<ExternalCodeBlock> batchConfigurations(JacsServiceData jacsServiceData, List<ExternalCodeBlock> externalConfigs) {
+        if (!supportsBatchedConfigurations() || CollectionUtils.size(externalConfigs) < 2) {
+            return externalConfigs;
+        }
+        int batchRuntimeInSeconds = applicationConfig.getIntegerPropertyValue(
+                "service." + jacsServiceData.getName() + ".batchRuntimeInSeconds",
+                applicationConfig.getIntegerPropertyValue("service.batchRuntimeInSeconds", 0));
+        int configRuntimeInSeconds = applicationConfig.getIntegerPropertyValue(
+                "service." + jacsServiceData.getName() + ".configRuntimeInSeconds", DEFAULT_CONFIG_RUNTIME_IN_SECONDS);
+        int batchSize = configRuntimeInSeconds > 0 ? batchRuntimeInSeconds / configRuntimeInSeconds : 0;
+        if (batchSize < 2) {
+            return externalConfigs;
+        }
+        List<ExternalCodeBlock> batchedConfigs = new ArrayList<>();
+        for (int batchStart = 0; batchStart < externalConfigs.size(); batchStart += batchSize) {
+            ExternalCodeBlock batchedConfig = new ExternalCodeBlock();
+            ScriptWriter batchedConfigWriter = batchedConfig.getCodeWriter();
+            externalConfigs.subList(batchStart, Math.min(batchStart + batchSize, externalConfigs.size()))
+                    .forEach(externalConfig -> batchedConfigWriter.addWithArgs(externalConfig.toString()));
+            batchedConfigWriter.close();
+            batchedConfigs.add(batchedConfig);
+        }
+        logger.info("Packed {} configurations in {} batches for {}", externalConfigs.size(), batchedConfigs.size(), jacsServiceData);
+        return batchedConfigs;
+    }
+
     private ExternalProcessRunner getProcessRunner(JacsServiceData jacsServiceData) {
         ProcessingLocation location = jacsServiceData.getProcessingLocation();
         if (location == null) {
@@ -71,6 +71,7 @@ public abstract class AbstractServiceProcessor<R> implements ServiceProcessor<R>
         jacsServiceDataBuilder.setServiceTimeout(executionContext.getServiceTimeoutInMillis());
         jacsServiceDataBuilder.addResources(executionContext.getResources());
         jacsServiceDataBuilder.addEnv(executionContext.getEnv());
+        jacsServiceDataBuilder.addTags(executionContext.getTags());
         executionContext.getWaitFor().forEach(jacsServiceDataBuilder::addDependency);
         executionContext.getWaitForIds().forEach(jacsServiceDataBuilder::addDependencyId);
         jacsServiceDataBuilder.registerProcessingNotification(executionContext.getProcessingNotification());
@@ -93,10 +94,6 @@ public abstract class AbstractServiceProcessor<R> implements ServiceProcessor<R>
         return new DefaultServiceErrorChecker(logger);
     }
 
-    List<String> getErrors(JacsServiceData jacsServiceData) {
-        return this.getErrorChecker().collectErrors(jacsServiceData);
-    }
-
     protected JacsServiceFolder getWorkingDirectory(JacsServiceData jacsServiceData) {
         try {
             if (StringUtils.isNotBlank(jacsServiceData.getWorkspace())) {
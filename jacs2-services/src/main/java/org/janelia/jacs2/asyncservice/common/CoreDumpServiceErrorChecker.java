@@ -2,19 +2,24 @@ package org.janelia.jacs2.asyncservice.common;
 
 import org.slf4j.Logger;
 
+import java.util.regex.Pattern;
+
 public class CoreDumpServiceErrorChecker extends DefaultServiceErrorChecker {
 
+    private static final Pattern CORE_DUMP_PATTERN = Pattern.compile("Segmentation fault|core dumped", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ERROR_PATTERN = Pattern.compile("error|exception", Pattern.CASE_INSENSITIVE);
+
     public CoreDumpServiceErrorChecker(Logger logger) {
         super(logger);
     }
 
     @Override
     protected boolean hasErrors(String l) {
-        if (l.matches("(?i:.*(Segmentation fault|core dumped).*)")) {
+        if (CORE_DUMP_PATTERN.matcher(l).find()) {
             // core dump is still an error
             logger.error(l);
             return true;
-        } else if (l.matches("(?i:.*(error|exception).*)")) {
+        } else if (ERROR_PATTERN.matcher(l).find()) {
             // ignore any exception - just log it
             logger.warn(l);
             return false;
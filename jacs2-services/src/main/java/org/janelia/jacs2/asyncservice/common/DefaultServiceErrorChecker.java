@@ -5,60 +5,103 @@ import org.janelia.jacs2.asyncservice.common.mdc.MdcContext;
 import org.janelia.jacs2.asyncservice.utils.FileUtils;
 import org.janelia.model.service.JacsServiceData;
 import org.slf4j.Logger;
+import org.slf4j.MDC;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Collects the errors from the output and error files of a service. The files are memory-mapped and scanned in parallel
+ * and the checker remembers how far it got in each file so that it can be used to scan the output while the service is
+ * still running and then only the new content is scanned when the errors are collected at the end.
+ * Each file gets its own line consumer which is why a line consumer does not have to be thread safe.
+ */
 @MdcContext
 public class DefaultServiceErrorChecker implements ServiceErrorChecker {
 
+    private static final Pattern ERROR_PATTERN = Pattern.compile("error|exception|Segmentation fault|core dumped", Pattern.CASE_INSENSITIVE);
+    private static final Pattern IGNORED_ERROR_PATTERN = Pattern.compile(" for stderr ", Pattern.CASE_INSENSITIVE);
+    private static final int DEFAULT_MAX_ERRORS = 1000;
+    private static final long MAX_MAPPED_REGION_SIZE = 256L * 1024L * 1024L;
+
+    private static class OutputFileScanState {
+        private final List<String> errors = new ArrayList<>();
+        private final Consumer<String> lineConsumer;
+        private long offset;
+
+        OutputFileScanState(Function<List<String>, Consumer<String>> lineConsumerProvider) {
+            this.lineConsumer = lineConsumerProvider.apply(errors);
+        }
+    }
+
     protected final Logger logger;
+    private final int maxErrors;
+    private final Map<Path, OutputFileScanState> outputFilesScanState = new ConcurrentHashMap<>();
+    private final AtomicInteger errorsCount = new AtomicInteger();
 
     public DefaultServiceErrorChecker(Logger logger) {
+        this(logger, DEFAULT_MAX_ERRORS);
+    }
+
+    /**
+     * @param maxErrors the number of errors after which the checker stops scanning the output
+     */
+    public DefaultServiceErrorChecker(Logger logger, int maxErrors) {
         this.logger = logger;
+        this.maxErrors = maxErrors > 0 ? maxErrors : DEFAULT_MAX_ERRORS;
+    }
+
+    @Override
+    public synchronized List<String> collectErrors(JacsServiceData jacsServiceData) {
+        return scanOutput(jacsServiceData, true);
     }
 
-    public List<String> collectErrors(JacsServiceData jacsServiceData) {
+    @Override
+    public synchronized void scanNewOutput(JacsServiceData jacsServiceData) {
+        scanOutput(jacsServiceData, false);
+    }
+
+    private List<String> scanOutput(JacsServiceData jacsServiceData, boolean completed) {
         List<String> errors = new ArrayList<>();
-        getProcessOutputPath(jacsServiceData.getOutputPath())
-                .map(outputPath -> {
-                    processDir(outputPath, getStdOutConsumer(jacsServiceData, errors));
-                    return errors;
-                })
-                .orElseGet(() -> {
-                    String err = getMissingOutputPathErrSupplier(jacsServiceData).get();
-                    if (StringUtils.isNotBlank(err)) {
-                        errors.add(err);
-                    }
-                    return errors;
-                });
-        getProcessOutputPath(jacsServiceData.getErrorPath())
-                .map(outputPath -> {
-                    processDir(outputPath, getStdErrConsumer(errors));
-                    return errors;
-                })
-                .orElseGet(() -> {
-                    String err = getMissingErrorPathErrSupplier(jacsServiceData).get();
-                    if (StringUtils.isNotBlank(err)) {
-                        errors.add(err);
-                    }
-                    return errors;
-                });
+        Optional<Path> outputPath = getProcessOutputPath(jacsServiceData.getOutputPath());
+        if (outputPath.isPresent()) {
+            errors.addAll(processDir(outputPath.get(), fileErrors -> getStdOutConsumer(jacsServiceData, fileErrors), completed));
+        } else if (completed) {
+            String err = getMissingOutputPathErrSupplier(jacsServiceData).get();
+            if (StringUtils.isNotBlank(err)) {
+                errors.add(err);
+            }
+        }
+        Optional<Path> errorPath = getProcessOutputPath(jacsServiceData.getErrorPath());
+        if (errorPath.isPresent()) {
+            errors.addAll(processDir(errorPath.get(), fileErrors -> getStdErrConsumer(fileErrors), completed));
+        } else if (completed) {
+            String err = getMissingErrorPathErrSupplier(jacsServiceData).get();
+            if (StringUtils.isNotBlank(err)) {
+                errors.add(err);
+            }
+        }
         return errors;
     }
 
-
     private Optional<Path> getProcessOutputPath(String processOutputDir) {
         if (StringUtils.isBlank(processOutputDir)) {
             return Optional.empty();
@@ -70,27 +113,112 @@ public class DefaultServiceErrorChecker implements ServiceErrorChecker {
         return Optional.of(processOutputPath);
     }
 
-    private void processDir(Path processOutputDir, Consumer<String> processOutputConsumer) {
-        FileUtils.lookupFiles(processOutputDir, 1, "glob:**/*")
+    private List<String> processDir(Path processOutputDir, Function<List<String>, Consumer<String>> lineConsumerProvider, boolean completed) {
+        List<Path> outputFiles = FileUtils.lookupFiles(processOutputDir, 1, "glob:**/*")
                 .filter(Files::isRegularFile)
+                .sorted()
+                .collect(Collectors.toList());
+        Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+        (outputFiles.size() > 1 ? outputFiles.parallelStream() : outputFiles.stream())
                 .forEach(outputFile -> {
-                    logger.info("Checking '{}' for errors", outputFile);
-                    InputStream outputFileStream = null;
+                    Map<String, String> currentMdcContext = MDC.getCopyOfContextMap();
                     try {
-                        outputFileStream = new FileInputStream(outputFile.toFile());
-                        streamHandler(outputFileStream, processOutputConsumer);
-                    } catch (Exception e) {
-                        throw new IllegalStateException(e);
+                        setMdcContext(mdcContext);
+                        processFile(outputFile, lineConsumerProvider, completed);
                     } finally {
-                        if (outputFileStream != null) {
-                            try {
-                                outputFileStream.close();
-                            } catch (IOException e) {
-                                logger.warn("Output stream {} close error", outputFile, e);
-                            }
-                        }
+                        setMdcContext(currentMdcContext);
                     }
                 });
+        return outputFiles.stream()
+                .map(outputFilesScanState::get)
+                .filter(Objects::nonNull)
+                .flatMap(scanState -> scanState.errors.stream())
+                .limit(maxErrors)
+                .collect(Collectors.toList());
+    }
+
+    private void setMdcContext(Map<String, String> mdcContext) {
+        if (mdcContext == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(mdcContext);
+        }
+    }
+
+    private void processFile(Path outputFile, Function<List<String>, Consumer<String>> lineConsumerProvider, boolean completed) {
+        OutputFileScanState scanState = outputFilesScanState.computeIfAbsent(outputFile, f -> new OutputFileScanState(lineConsumerProvider));
+        if (errorsCount.get() >= maxErrors) {
+            return;
+        }
+        logger.info("Checking '{}' for errors", outputFile);
+        try (FileChannel outputChannel = FileChannel.open(outputFile, StandardOpenOption.READ)) {
+            long fileSize = outputChannel.size();
+            if (fileSize < scanState.offset) {
+                // the file was truncated
+                scanState.offset = 0;
+            }
+            while (scanState.offset < fileSize && errorsCount.get() < maxErrors) {
+                long regionSize = Math.min(MAX_MAPPED_REGION_SIZE, fileSize - scanState.offset);
+                boolean lastRegion = scanState.offset + regionSize == fileSize;
+                MappedByteBuffer region = outputChannel.map(FileChannel.MapMode.READ_ONLY, scanState.offset, regionSize);
+                int consumed = processRegion(region, scanState, lastRegion && completed);
+                if (consumed == 0) {
+                    if (lastRegion) {
+                        // the last line is not complete yet
+                        break;
+                    }
+                    // a single line larger than the mapped region
+                    consumed = (int) regionSize;
+                    consumeLine(region, 0, consumed, scanState);
+                }
+                scanState.offset += consumed;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Consume all complete lines from the region and, if requested, the trailing incomplete line.
+     *
+     * @return the number of bytes consumed
+     */
+    private int processRegion(MappedByteBuffer region, OutputFileScanState scanState, boolean consumeIncompleteLine) {
+        int regionSize = region.limit();
+        int lineStart = 0;
+        for (int i = 0; i < regionSize; i++) {
+            if (region.get(i) == '\n') {
+                consumeLine(region, lineStart, i, scanState);
+                lineStart = i + 1;
+                if (errorsCount.get() >= maxErrors) {
+                    return lineStart;
+                }
+            }
+        }
+        if (consumeIncompleteLine && lineStart < regionSize) {
+            consumeLine(region, lineStart, regionSize, scanState);
+            lineStart = regionSize;
+        }
+        return lineStart;
+    }
+
+    private void consumeLine(MappedByteBuffer region, int lineStart, int lineEnd, OutputFileScanState scanState) {
+        int lineLength = lineEnd - lineStart;
+        if (lineLength > 0 && region.get(lineEnd - 1) == '\r') {
+            lineLength--;
+        }
+        if (lineLength == 0) {
+            return;
+        }
+        byte[] lineBytes = new byte[lineLength];
+        region.position(lineStart);
+        region.get(lineBytes);
+        int nErrors = scanState.errors.size();
+        scanState.lineConsumer.accept(new String(lineBytes, Charset.defaultCharset()));
+        int newErrors = scanState.errors.size() - nErrors;
+        if (newErrors > 0) {
+            errorsCount.addAndGet(newErrors);
+        }
     }
 
     protected Supplier<String> getMissingOutputPathErrSupplier(JacsServiceData jacsServiceData) {
@@ -125,28 +253,11 @@ public class DefaultServiceErrorChecker implements ServiceErrorChecker {
         };
     }
 
-    protected void streamHandler(InputStream outStream, Consumer<String> lineConsumer) {
-        BufferedReader outputReader = new BufferedReader(new InputStreamReader(outStream));
-        for (;;) {
-            try {
-                String l = outputReader.readLine();
-                if (l == null) break;
-                if (StringUtils.isEmpty(l)) {
-                    continue;
-                }
-                lineConsumer.accept(l);
-            } catch (IOException e) {
-                logger.warn("Error stream close error", e);
-                break;
-            }
-        }
-    }
-
     protected boolean ignoreErrorMessage(String l) {
-        return l.matches("(?i:.*( for stderr ).*)");
+        return IGNORED_ERROR_PATTERN.matcher(l).find();
     }
 
     protected boolean hasErrors(String l) {
-        return l.matches("(?i:.*(error|exception|Segmentation fault|core dumped).*)");
+        return ERROR_PATTERN.matcher(l).find();
     }
 }
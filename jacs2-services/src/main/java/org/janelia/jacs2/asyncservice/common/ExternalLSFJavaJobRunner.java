@@ -17,7 +17,9 @@ import org.janelia.cluster.JobManager;
 import org.janelia.cluster.JobTemplate;
 import org.janelia.jacs2.asyncservice.common.cluster.ComputeAccounting;
 import org.janelia.jacs2.asyncservice.common.cluster.LsfJavaExeJobHandler;
+import org.janelia.jacs2.asyncservice.common.cluster.LsfJobPacker;
 import org.janelia.jacs2.asyncservice.common.cluster.MonitoredJobManager;
+import org.janelia.jacs2.asyncservice.common.cluster.PackedLsfJobHandler;
 import org.janelia.jacs2.asyncservice.qualifier.LSFJavaJob;
 import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
 import org.janelia.jacs2.config.ApplicationConfig;
@@ -37,17 +39,20 @@ import org.slf4j.Logger;
 public class ExternalLSFJavaJobRunner extends AbstractExternalProcessRunner {
 
     private final JobManager jobMgr;
+    private final LsfJobPacker jobPacker;
     private final ComputeAccounting accounting;
     private final ApplicationConfig applicationConfig;
 
     @Inject
     public ExternalLSFJavaJobRunner(MonitoredJobManager monitoredJobManager,
+                                    LsfJobPacker jobPacker,
                                     JacsServiceDataPersistence jacsServiceDataPersistence,
                                     ComputeAccounting accounting,
                                     @ApplicationProperties ApplicationConfig applicationConfig,
                                     Logger logger) {
         super(jacsServiceDataPersistence, logger);
         this.jobMgr = monitoredJobManager.getJobMgr();
+        this.jobPacker = jobPacker;
         this.accounting = accounting;
         this.applicationConfig = applicationConfig;
     }
@@ -67,7 +72,12 @@ public class ExternalLSFJavaJobRunner extends AbstractExternalProcessRunner {
 
             int numJobs = externalConfigs.isEmpty() ? 1 : externalConfigs.size();
             logger.info("Start {} {} for {} using  env {}", numJobs, jt.getRemoteCommand(), serviceContext, env);
-            LsfJavaExeJobHandler lsfJobHandler = new LsfJavaExeJobHandler(processingScript, jobMgr, jt, numJobs);
+            ExeJobHandler lsfJobHandler;
+            if (packJobs(serviceContext)) {
+                lsfJobHandler = new PackedLsfJobHandler(processingScript, jobPacker, jt, numJobs);
+            } else {
+                lsfJobHandler = new LsfJavaExeJobHandler(processingScript, jobMgr, jt, numJobs);
+            }
 
             lsfJobHandler.start();
             logger.info("Submitted job {}{} for {}", lsfJobHandler.getJobInfo(), numJobs > 1 ? String.format(" (1-%d)", numJobs) : "", serviceContext);
@@ -91,6 +101,17 @@ public class ExternalLSFJavaJobRunner extends AbstractExternalProcessRunner {
         }
     }
 
+    /**
+     * Short running services may be packed together with other compatible services in order to reduce the time
+     * they spend waiting in the queue. Packing is enabled per service with service.[name].cluster.packJobs
+     * or for all services with service.cluster.packJobs.
+     */
+    private boolean packJobs(JacsServiceData serviceContext) {
+        return applicationConfig.getBooleanPropertyValue(
+                "service." + serviceContext.getName() + ".cluster.packJobs",
+                applicationConfig.getBooleanPropertyValue("service.cluster.packJobs", false));
+    }
+
     private JobTemplate prepareJobTemplate(ExternalCodeBlock externalCode,
                                            List<ExternalCodeBlock> externalConfigs,
                                            Map<String, String> env,
@@ -12,6 +12,7 @@ import javax.inject.Inject;
 import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -45,19 +46,41 @@ public class JacsScheduledServiceRunner {
 
     private void doWork() {
         try {
-            List<JacsServiceData> scheduledServices = jacsScheduledServiceDataManager.scheduleServices(Duration.ofSeconds(period));
+            List<JacsServiceData> scheduledServices = jacsScheduledServiceDataManager.scheduleServices(Duration.ZERO);
             if (scheduledServices.size() > 0) {
                 logger.info("Service scheduler created {}", scheduledServices);
             }
         } catch (Exception e) {
             logger.error("Critical error - service scheduler failed", e);
+        } finally {
+            scheduleNextRun();
+        }
+    }
+
+    /**
+     * Wake up exactly when the next scheduled service is due but no later than the configured period.
+     * The services created or modified by other nodes are not seen on every run - they are only picked up
+     * when the scheduled services index is reloaded, i.e. every service.crontab.IndexRefreshIntervalInSeconds.
+     */
+    private void scheduleNextRun() {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        long periodInMillis = TimeUnit.SECONDS.toMillis(period);
+        long delayInMillis = jacsScheduledServiceDataManager.getNextScheduledTime()
+                .map(nextTime -> Math.max(0L, Math.min(nextTime.getTime() - System.currentTimeMillis(), periodInMillis)))
+                .orElse(periodInMillis);
+        try {
+            scheduler.schedule(() -> doWork(), delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Scheduled jobs executor has been shut down");
         }
     }
 
     @PostConstruct
     public void initialize() {
-        logger.info("Initialize scheduled jobs executor to run every {}s with an initial delay of {}s", period, initialDelay);
-        scheduler.scheduleAtFixedRate(() -> doWork(), initialDelay, period, TimeUnit.SECONDS);
+        logger.info("Initialize scheduled jobs executor to run at most every {}s with an initial delay of {}s", period, initialDelay);
+        scheduler.schedule(() -> doWork(), initialDelay, TimeUnit.SECONDS);
     }
 
     @PreDestroy
@@ -7,7 +7,6 @@ import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Streams;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.janelia.jacs2.asyncservice.utils.ExprEvalHelper;
@@ -130,14 +129,11 @@ class ServiceArgsHandler {
                 .map(v -> (String) v)
                 .anyMatch(isForwardedArg);
 
-        Map<String, List<Object>> argExprEvalContext;
+        Function<String, Optional<Object>> argExprEvalContext;
         if (forwardedListArgsFound || forwardedDictArgsFound) {
-            argExprEvalContext = jacsServiceDataPersistence.findServiceHierarchy(jacsServiceData).serviceHierarchyStream()
-                    .filter(sd -> sd.getSerializableResult() != null)
-                    .map(sd -> ImmutablePair.of(sd.getName(), convertServiceResultToMap(sd)))
-                    .collect(Collectors.groupingBy(e -> e.getLeft(), Collectors.mapping(e -> e.getRight(), Collectors.toList())));
+            argExprEvalContext = createLazyEvalContext(jacsServiceDataPersistence.findServiceHierarchy(jacsServiceData));
         } else {
-            argExprEvalContext = ImmutableMap.of();
+            argExprEvalContext = name -> Optional.empty();
         }
         List<String> actualServiceListArgs;
         if (forwardedListArgsFound) {
@@ -162,6 +158,27 @@ class ServiceArgsHandler {
         return new JacsServiceArgs(actualServiceListArgs, actualServiceDictArgs);
     }
 
+    /**
+     * Create the evaluation context for the forwarded arguments. Converting a service result is relatively expensive
+     * so only the results of the services actually referenced by an expression are converted and each only once.
+     */
+    private Function<String, Optional<Object>> createLazyEvalContext(JacsServiceData serviceHierarchy) {
+        Map<String, List<JacsServiceData>> servicesWithResultsByName = serviceHierarchy.serviceHierarchyStream()
+                .filter(sd -> sd.getSerializableResult() != null)
+                .collect(Collectors.groupingBy(sd -> sd.getName()));
+        Map<String, Optional<Object>> convertedResults = new HashMap<>();
+        return name -> convertedResults.computeIfAbsent(name, n -> {
+            List<JacsServiceData> namedServices = servicesWithResultsByName.get(n);
+            if (namedServices == null) {
+                return Optional.empty();
+            } else if (namedServices.size() == 1) {
+                return Optional.of(convertServiceResultToMap(namedServices.get(0)));
+            } else {
+                return Optional.of(namedServices.stream().map(sd -> convertServiceResultToMap(sd)).collect(Collectors.toList()));
+            }
+        });
+    }
+
     @SuppressWarnings("unchecked")
     private Object convertServiceResultToMap(JacsServiceData sd) {
         JsonNode serviceResultAsJson = objectMapper.valueToTree(sd.getSerializableResult());
@@ -227,7 +244,7 @@ class ServiceArgsHandler {
         return objArray;
     }
 
-    private Object evalValExpr(Object val, Function<String, Optional<String>> argExprExtractor, Map<String, List<Object>> evalContext) {
+    private Object evalValExpr(Object val, Function<String, Optional<String>> argExprExtractor, Function<String, Optional<Object>> evalContext) {
         if (val == null) {
             return null;
         } else if (val.getClass().isArray()) {
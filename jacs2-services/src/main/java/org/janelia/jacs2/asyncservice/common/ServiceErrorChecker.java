@@ -6,4 +6,11 @@ import java.util.List;
 
 public interface ServiceErrorChecker {
     List<String> collectErrors(JacsServiceData jacsServiceData);
+
+    /**
+     * Scan the output produced so far by a service that is still running. Checkers that keep track of what they
+     * have already seen only need to look at the new output when the errors are collected at the end.
+     */
+    default void scanNewOutput(JacsServiceData jacsServiceData) {
+    }
 }
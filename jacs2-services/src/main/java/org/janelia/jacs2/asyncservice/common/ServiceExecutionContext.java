@@ -1,6 +1,7 @@
 package org.janelia.jacs2.asyncservice.common;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -90,6 +91,11 @@ public class ServiceExecutionContext {
             return this;
         }
 
+        public Builder addTags(String... tags) {
+            Collections.addAll(serviceExecutionContext.tags, tags);
+            return this;
+        }
+
         public Builder addEnv(Map<String, String> srcEnv) {
             serviceExecutionContext.env.putAll(srcEnv);
             return this;
@@ -130,6 +136,7 @@ public class ServiceExecutionContext {
     private final Map<String, Object> dictionaryArgs = new LinkedHashMap<>();
     private final Map<String, String> resources = new LinkedHashMap<>();
     private final Map<String, String> env = new LinkedHashMap<>();
+    private final List<String> tags = new ArrayList<>();
     private RegisteredJacsNotification processingNotification;
     private final Map<String, RegisteredJacsNotification> processingStageNotifications = new HashMap<>();
 
@@ -207,6 +214,10 @@ public class ServiceExecutionContext {
         return dictionaryArgs;
     }
 
+    List<String> getTags() {
+        return tags;
+    }
+
     RegisteredJacsNotification getProcessingNotification() {
         return processingNotification;
     }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -15,10 +16,10 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
-import com.google.common.collect.ImmutableSet;
 
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.common.ProcessorHelper;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.model.access.domain.dao.SubjectDao;
 import org.janelia.model.security.Group;
 import org.janelia.model.security.Subject;
@@ -39,12 +40,15 @@ public class ComputeAccounting {
     private static final String LSF_POWER_GROUP_KEY = "group:lsf_power";
 
     private final SubjectDao subjectDao;
+    private final SubjectCache subjectCache;
     private final Logger log;
 
     @Inject
     public ComputeAccounting(SubjectDao subjectDao,
+                             SubjectCache subjectCache,
                              Logger logger) {
         this.subjectDao = subjectDao;
+        this.subjectCache = subjectCache;
         this.log = logger;
     }
 
@@ -149,7 +153,7 @@ public class ComputeAccounting {
         if (StringUtils.isNotBlank(serviceBillingAccount)) {
             String ownerComputeGroup = getComputeGroup(serviceContext.getOwnerKey());
             // User provided a billing account
-            Subject billedSubject = subjectDao.findSubjectByNameOrKey(serviceBillingAccount);
+            Subject billedSubject = subjectCache.getSubjectByNameOrKey(serviceBillingAccount);
             String billedComputeGroup;
             if (billedSubject != null) {
                 billedComputeGroup = getComputeGroup(billedSubject.getKey());
@@ -163,10 +167,8 @@ public class ComputeAccounting {
                 billingAccount = billedComputeGroup;
             } else {
                 // no match - check if the user has admin privileges
-                Subject authenticatedUser = subjectDao.findSubjectByNameOrKey(serviceContext.getAuthKey());
-                if (SubjectUtils.subjectIsInAnyGroup(
-                        authenticatedUser,
-                        ImmutableSet.of(Subject.ADMIN_KEY, LSF_POWER_GROUP_KEY))) {
+                Set<String> authenticatedSubjectKeys = subjectCache.getSubjectKeysWithGroups(serviceContext.getAuthKey());
+                if (authenticatedSubjectKeys.contains(Subject.ADMIN_KEY) || authenticatedSubjectKeys.contains(LSF_POWER_GROUP_KEY)) {
                     log.info("User {} has roles that can use the provided billing account {}", serviceContext.getAuthKey(), serviceBillingAccount);
                     billingAccount = serviceBillingAccount;
                 } else {
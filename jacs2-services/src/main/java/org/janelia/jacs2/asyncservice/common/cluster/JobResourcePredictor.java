@@ -0,0 +1,317 @@
+package org.janelia.jacs2.asyncservice.common.cluster;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.asyncservice.common.ProcessorHelper;
+import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
+import org.janelia.jacs2.config.ApplicationConfig;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsJobInstanceInfo;
+import org.janelia.model.service.JacsServiceData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Predicts the run time and the memory of a service job from the job instances previously recorded for the same
+ * service. If the service reports the size of the input processed by a job the prediction is based on a linear
+ * fit of the recorded values against the input size, otherwise on a high percentile of the recorded values.
+ * In both cases the prediction is only made if there are at least service.resourcePrediction.minSamples successful
+ * records. The failed attempts of a service that is retried raise the resources of the next attempt above what the
+ * failed attempts used.
+ */
+public class JobResourcePredictor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobResourcePredictor.class);
+
+    static final String PREDICTED_RUN_SECS_RESOURCE = "predictedRunSecs";
+    static final String PREDICTED_MAX_MEM_BYTES_RESOURCE = "predictedMaxMemBytes";
+    private static final double GB = 1024. * 1024. * 1024.;
+    private static final long MIN_DURATION_LIMIT_IN_SECONDS = 60;
+    private static final int MAX_REPORT_SAMPLES = 10000;
+
+    public static class ResourcePrediction {
+        private final Long runSecs;
+        private final Long maxMemBytes;
+        private final int samples;
+
+        ResourcePrediction(Long runSecs, Long maxMemBytes, int samples) {
+            this.runSecs = runSecs;
+            this.maxMemBytes = maxMemBytes;
+            this.samples = samples;
+        }
+
+        public Long getRunSecs() {
+            return runSecs;
+        }
+
+        public Long getMaxMemBytes() {
+            return maxMemBytes;
+        }
+
+        public int getSamples() {
+            return samples;
+        }
+    }
+
+    /**
+     * Prediction error of the jobs that finished in a reporting period. The errors are mean absolute errors relative
+     * to the actual values and the under-predicted counts are the jobs that needed more than it was predicted.
+     */
+    public static class PredictionErrorReportEntry {
+        private final Date periodStart;
+        private int jobs;
+        private int runtimeJobs;
+        private double runtimeErrorSum;
+        private int underPredictedRuntimeJobs;
+        private int memoryJobs;
+        private double memoryErrorSum;
+        private int underPredictedMemoryJobs;
+
+        PredictionErrorReportEntry(Date periodStart) {
+            this.periodStart = periodStart;
+        }
+
+        public Date getPeriodStart() {
+            return periodStart;
+        }
+
+        public int getJobs() {
+            return jobs;
+        }
+
+        public Double getRuntimeErrorPercent() {
+            return runtimeJobs > 0 ? 100. * runtimeErrorSum / runtimeJobs : null;
+        }
+
+        public int getUnderPredictedRuntimeJobs() {
+            return underPredictedRuntimeJobs;
+        }
+
+        public Double getMemoryErrorPercent() {
+            return memoryJobs > 0 ? 100. * memoryErrorSum / memoryJobs : null;
+        }
+
+        public int getUnderPredictedMemoryJobs() {
+            return underPredictedMemoryJobs;
+        }
+
+        private void add(JacsJobInstanceInfo jobInstanceInfo) {
+            jobs++;
+            if (jobInstanceInfo.getPredictedRunSecs() != null && jobInstanceInfo.getRunSecs() != null && jobInstanceInfo.getRunSecs() > 0) {
+                runtimeJobs++;
+                runtimeErrorSum += Math.abs(jobInstanceInfo.getPredictedRunSecs() - jobInstanceInfo.getRunSecs()) / (double) jobInstanceInfo.getRunSecs();
+                if (jobInstanceInfo.getRunSecs() > jobInstanceInfo.getPredictedRunSecs()) {
+                    underPredictedRuntimeJobs++;
+                }
+            }
+            if (jobInstanceInfo.getPredictedMaxMemBytes() != null && jobInstanceInfo.getMaxMemBytes() != null && jobInstanceInfo.getMaxMemBytes() > 0) {
+                memoryJobs++;
+                memoryErrorSum += Math.abs(jobInstanceInfo.getPredictedMaxMemBytes() - jobInstanceInfo.getMaxMemBytes()) / (double) jobInstanceInfo.getMaxMemBytes();
+                if (jobInstanceInfo.getMaxMemBytes() > jobInstanceInfo.getPredictedMaxMemBytes()) {
+                    underPredictedMemoryJobs++;
+                }
+            }
+        }
+    }
+
+    private final JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private final ApplicationConfig applicationConfig;
+
+    @Inject
+    public JobResourcePredictor(JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
+                                @ApplicationProperties ApplicationConfig applicationConfig) {
+        this.jacsJobInstanceInfoDao = jacsJobInstanceInfoDao;
+        this.applicationConfig = applicationConfig;
+    }
+
+    /**
+     * @param serviceName service name
+     * @param jobInputSize size of the input processed by a job or null if not known
+     * @return the predicted run time and memory of a job if there are enough previous jobs to predict them.
+     */
+    public Optional<ResourcePrediction> predict(String serviceName, Long jobInputSize) {
+        return predict(findRecentJobInstances(serviceName), jobInputSize);
+    }
+
+    private Optional<ResourcePrediction> predict(List<JacsJobInstanceInfo> recentJobInstances, Long jobInputSize) {
+        int minSamples = applicationConfig.getIntegerPropertyValue("service.resourcePrediction.minSamples", 10);
+        List<JacsJobInstanceInfo> samples = recentJobInstances.stream()
+                .filter(JobResourcePredictor::isSuccessful)
+                .collect(Collectors.toList());
+        if (samples.size() < minSamples) {
+            return Optional.empty();
+        }
+        double percentile = applicationConfig.getDoublePropertyValue("service.resourcePrediction.percentile", 95.);
+        Long runSecs = estimate(samples, JacsJobInstanceInfo::getRunSecs, jobInputSize, minSamples, percentile);
+        Long maxMemBytes = estimate(samples, JacsJobInstanceInfo::getMaxMemBytes, jobInputSize, minSamples, percentile);
+        if (runSecs == null && maxMemBytes == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new ResourcePrediction(runSecs, maxMemBytes, samples.size()));
+    }
+
+    /**
+     * Raise the service's memory and hard duration limit to the values predicted from the previous jobs if the
+     * prediction is enabled for the service with service.[name].predictResources or service.predictResources.
+     * Values requested explicitly by the caller are never lowered. If previous attempts of the same service failed
+     * the limits are also raised to service.resourcePrediction.retryIncreaseFactor times what the failed attempts
+     * used. The required slots follow from the memory. The predicted values are also kept in the service resources
+     * so that they can be compared with the actual values once the job completes.
+     *
+     * @param jacsServiceData service
+     * @param jobInputSize size of the input processed by a job or null if not known
+     */
+    public void recommendResources(JacsServiceData jacsServiceData, Long jobInputSize) {
+        boolean predictResources = applicationConfig.getBooleanPropertyValue(
+                "service." + jacsServiceData.getName() + ".predictResources",
+                applicationConfig.getBooleanPropertyValue("service.predictResources", false));
+        if (!predictResources) {
+            return;
+        }
+        List<JacsJobInstanceInfo> recentJobInstances = findRecentJobInstances(jacsServiceData.getName());
+        Map<String, String> resources = jacsServiceData.getResources();
+        predict(recentJobInstances, jobInputSize).ifPresent(prediction -> {
+            if (prediction.getMaxMemBytes() != null) {
+                int memOverheadPercent = applicationConfig.getIntegerPropertyValue("service.resourcePrediction.memOverheadPercent", 20);
+                ProcessorHelper.setRequiredMemoryInGB(resources, toGB(prediction.getMaxMemBytes() * (100. + memOverheadPercent) / 100.));
+                resources.put(PREDICTED_MAX_MEM_BYTES_RESOURCE, prediction.getMaxMemBytes().toString());
+            }
+            if (prediction.getRunSecs() != null) {
+                double durationLimitFactor = applicationConfig.getDoublePropertyValue("service.resourcePrediction.durationLimitFactor", 2.);
+                raiseHardDurationLimit(resources, prediction.getRunSecs() * durationLimitFactor);
+                resources.put(PREDICTED_RUN_SECS_RESOURCE, prediction.getRunSecs().toString());
+            }
+            LOG.info("Predicted {} seconds and {} bytes from {} previous jobs for {} - using memInGB={} and hardGridJobDurationInSeconds={}",
+                    prediction.getRunSecs(), prediction.getMaxMemBytes(), prediction.getSamples(), jacsServiceData,
+                    resources.get("memInGB"), resources.get("hardGridJobDurationInSeconds"));
+        });
+        List<JacsJobInstanceInfo> failedAttempts = recentJobInstances.stream()
+                .filter(ji -> !isSuccessful(ji))
+                .filter(ji -> jacsServiceData.getId() != null && ji.getServiceDataId() != null &&
+                        jacsServiceData.getId().longValue() == ji.getServiceDataId().longValue())
+                .collect(Collectors.toList());
+        if (!failedAttempts.isEmpty()) {
+            // a failed attempt may have been killed for exceeding its limits so the next attempt gets more than it used
+            double retryIncreaseFactor = applicationConfig.getDoublePropertyValue("service.resourcePrediction.retryIncreaseFactor", 1.5);
+            failedAttempts.stream()
+                    .map(JacsJobInstanceInfo::getMaxMemBytes)
+                    .filter(maxMemBytes -> maxMemBytes != null && maxMemBytes > 0)
+                    .max(Long::compare)
+                    .ifPresent(maxMemBytes -> ProcessorHelper.setRequiredMemoryInGB(resources, toGB(maxMemBytes * retryIncreaseFactor)));
+            failedAttempts.stream()
+                    .map(JacsJobInstanceInfo::getRunSecs)
+                    .filter(runSecs -> runSecs != null && runSecs > 0)
+                    .max(Long::compare)
+                    .ifPresent(runSecs -> raiseHardDurationLimit(resources, runSecs * retryIncreaseFactor));
+            LOG.info("Retrying {} after {} failed attempts - using memInGB={} and hardGridJobDurationInSeconds={}",
+                    jacsServiceData, failedAttempts.size(), resources.get("memInGB"), resources.get("hardGridJobDurationInSeconds"));
+        }
+    }
+
+    private List<JacsJobInstanceInfo> findRecentJobInstances(String serviceName) {
+        int maxSamples = applicationConfig.getIntegerPropertyValue("service.resourcePrediction.maxSamples", 200);
+        return jacsJobInstanceInfoDao.findRecentServiceJobInstances(serviceName, null, maxSamples);
+    }
+
+    private static boolean isSuccessful(JacsJobInstanceInfo jobInstanceInfo) {
+        return jobInstanceInfo.getExitCode() != null && jobInstanceInfo.getExitCode() == 0;
+    }
+
+    private int toGB(double bytes) {
+        return (int) Math.max(1, Math.ceil(bytes / GB));
+    }
+
+    /**
+     * Set the hard duration limit unless the service already has a higher one.
+     */
+    private void raiseHardDurationLimit(Map<String, String> resources, double durationInSeconds) {
+        long hardDurationLimit = Math.max(MIN_DURATION_LIMIT_IN_SECONDS, (long) Math.ceil(durationInSeconds));
+        if (hardDurationLimit > ProcessorHelper.getHardJobDurationLimitInSeconds(resources)) {
+            ProcessorHelper.setHardJobDurationLimitInSeconds(resources, hardDurationLimit);
+        }
+    }
+
+    /**
+     * Copy the predictions made for the service into the service's completed job instances.
+     */
+    public void recordPredictions(JacsServiceData jacsServiceData, JacsJobInstanceInfo jobInstanceInfo) {
+        Map<String, String> resources = jacsServiceData.getResources();
+        if (StringUtils.isNotBlank(resources.get(PREDICTED_RUN_SECS_RESOURCE))) {
+            jobInstanceInfo.setPredictedRunSecs(Long.valueOf(resources.get(PREDICTED_RUN_SECS_RESOURCE)));
+        }
+        if (StringUtils.isNotBlank(resources.get(PREDICTED_MAX_MEM_BYTES_RESOURCE))) {
+            jobInstanceInfo.setPredictedMaxMemBytes(Long.valueOf(resources.get(PREDICTED_MAX_MEM_BYTES_RESOURCE)));
+        }
+    }
+
+    /**
+     * @param serviceName service name
+     * @param from start of the report
+     * @param periodInDays length of a reporting period
+     * @return the prediction errors for each reporting period in chronological order.
+     */
+    public List<PredictionErrorReportEntry> getPredictionErrorReport(String serviceName, Date from, int periodInDays) {
+        long periodInMillis = TimeUnit.DAYS.toMillis(Math.max(1, periodInDays));
+        Map<Long, PredictionErrorReportEntry> reportEntries = new TreeMap<>();
+        jacsJobInstanceInfoDao.findRecentServiceJobInstances(serviceName, from, MAX_REPORT_SAMPLES).stream()
+                .filter(JobResourcePredictor::isSuccessful)
+                .filter(ji -> ji.getFinishTime() != null)
+                .filter(ji -> ji.getPredictedRunSecs() != null || ji.getPredictedMaxMemBytes() != null)
+                .forEach(ji -> {
+                    long periodStart = ji.getFinishTime().getTime() / periodInMillis * periodInMillis;
+                    reportEntries.computeIfAbsent(periodStart, ps -> new PredictionErrorReportEntry(new Date(ps))).add(ji);
+                });
+        return new ArrayList<>(reportEntries.values());
+    }
+
+    /**
+     * Estimate the value using a linear fit against the input size if the input size is known for enough samples or
+     * a percentile of the sampled values otherwise. For the linear fit the percentile of the residuals is added to
+     * the fitted value so that both estimates are equally conservative.
+     */
+    private Long estimate(List<JacsJobInstanceInfo> samples, Function<JacsJobInstanceInfo, Long> valueGetter,
+                          Long jobInputSize, int minSamples, double percentile) {
+        List<JacsJobInstanceInfo> valueSamples = samples.stream()
+                .filter(ji -> valueGetter.apply(ji) != null && valueGetter.apply(ji) > 0)
+                .collect(Collectors.toList());
+        if (valueSamples.size() < minSamples) {
+            return null;
+        }
+        List<JacsJobInstanceInfo> sizedSamples = valueSamples.stream()
+                .filter(ji -> ji.getInputSize() != null && ji.getInputSize() > 0)
+                .collect(Collectors.toList());
+        if (jobInputSize != null && sizedSamples.size() >= minSamples) {
+            double meanSize = sizedSamples.stream().mapToDouble(JacsJobInstanceInfo::getInputSize).average().orElse(0);
+            double meanValue = sizedSamples.stream().mapToDouble(ji -> valueGetter.apply(ji)).average().orElse(0);
+            double sizeVariance = sizedSamples.stream().mapToDouble(ji -> Math.pow(ji.getInputSize() - meanSize, 2)).sum();
+            if (sizeVariance > 0) {
+                double covariance = sizedSamples.stream().mapToDouble(ji -> (ji.getInputSize() - meanSize) * (valueGetter.apply(ji) - meanValue)).sum();
+                // a value that decreases with the input size is most likely noise so in that case only use the mean
+                double slope = Math.max(0, covariance / sizeVariance);
+                double intercept = meanValue - slope * meanSize;
+                double residualPercentile = percentile(sizedSamples.stream()
+                        .map(ji -> valueGetter.apply(ji) - (intercept + slope * ji.getInputSize()))
+                        .collect(Collectors.toList()), percentile);
+                return Math.max(1L, Math.round(intercept + slope * jobInputSize + residualPercentile));
+            }
+        }
+        return Math.round(percentile(valueSamples.stream().map(ji -> valueGetter.apply(ji).doubleValue()).collect(Collectors.toList()), percentile));
+    }
+
+    private double percentile(List<Double> values, double percentile) {
+        List<Double> sortedValues = values.stream().sorted().collect(Collectors.toList());
+        int index = (int) Math.ceil(percentile / 100. * sortedValues.size()) - 1;
+        return sortedValues.get(Math.max(0, Math.min(sortedValues.size() - 1, index)));
+    }
+}
@@ -139,32 +139,36 @@ public class LsfJavaExeJobHandler implements ExeJobHandler {
         JobMetadata jobMetadata = jobMgr.getJobMetadata(jobId);
         if (jobMetadata != null) {
             for (JobInfo jobInfo : jobMetadata.getLastInfos()) {
-                JacsJobInstanceInfo jacsJobInstanceInfo = new JacsJobInstanceInfo();
-                jacsJobInstanceInfo.setJobId(jobInfo.getJobId());
-                jacsJobInstanceInfo.setArrayIndex(jobInfo.getArrayIndex());
-                jacsJobInstanceInfo.setName(jobInfo.getName());
-                jacsJobInstanceInfo.setFromHost(jobInfo.getFromHost());
-                jacsJobInstanceInfo.setExecHost(jobInfo.getExecHost());
-                jacsJobInstanceInfo.setStatus(jobInfo.getStatus() == null ? null : jobInfo.getStatus().name());
-                jacsJobInstanceInfo.setQueue(jobInfo.getQueue());
-                jacsJobInstanceInfo.setProject(jobInfo.getProject());
-                jacsJobInstanceInfo.setReqSlot(jobInfo.getReqSlot());
-                jacsJobInstanceInfo.setAllocSlot(jobInfo.getAllocSlot());
-                jacsJobInstanceInfo.setSubmitTime(LsfParseUtils.convertLocalDateTime(jobInfo.getSubmitTime()));
-                jacsJobInstanceInfo.setStartTime(LsfParseUtils.convertLocalDateTime(jobInfo.getStartTime()));
-                jacsJobInstanceInfo.setFinishTime(LsfParseUtils.convertLocalDateTime(jobInfo.getFinishTime()));
-                jacsJobInstanceInfo.setQueueSecs(LsfParseUtils.getDiffSecs(jobInfo.getSubmitTime(), jobInfo.getStartTime()));
-                jacsJobInstanceInfo.setRunSecs(LsfParseUtils.getDiffSecs(jobInfo.getStartTime(), jobInfo.getFinishTime()));
-                jacsJobInstanceInfo.setMaxMem(jobInfo.getMaxMem());
-                jacsJobInstanceInfo.setMaxMemBytes(LsfParseUtils.parseMemToBytes(jobInfo.getMaxMem()));
-                jacsJobInstanceInfo.setExitCode(jobInfo.getExitCode());
-                jacsJobInstanceInfo.setExitReason(jobInfo.getExitReason());
-                infos.add(jacsJobInstanceInfo);
+                infos.add(toJacsJobInstanceInfo(jobInfo));
             }
         }
         return infos;
     }
 
+    static JacsJobInstanceInfo toJacsJobInstanceInfo(JobInfo jobInfo) {
+        JacsJobInstanceInfo jacsJobInstanceInfo = new JacsJobInstanceInfo();
+        jacsJobInstanceInfo.setJobId(jobInfo.getJobId());
+        jacsJobInstanceInfo.setArrayIndex(jobInfo.getArrayIndex());
+        jacsJobInstanceInfo.setName(jobInfo.getName());
+        jacsJobInstanceInfo.setFromHost(jobInfo.getFromHost());
+        jacsJobInstanceInfo.setExecHost(jobInfo.getExecHost());
+        jacsJobInstanceInfo.setStatus(jobInfo.getStatus() == null ? null : jobInfo.getStatus().name());
+        jacsJobInstanceInfo.setQueue(jobInfo.getQueue());
+        jacsJobInstanceInfo.setProject(jobInfo.getProject());
+        jacsJobInstanceInfo.setReqSlot(jobInfo.getReqSlot());
+        jacsJobInstanceInfo.setAllocSlot(jobInfo.getAllocSlot());
+        jacsJobInstanceInfo.setSubmitTime(LsfParseUtils.convertLocalDateTime(jobInfo.getSubmitTime()));
+        jacsJobInstanceInfo.setStartTime(LsfParseUtils.convertLocalDateTime(jobInfo.getStartTime()));
+        jacsJobInstanceInfo.setFinishTime(LsfParseUtils.convertLocalDateTime(jobInfo.getFinishTime()));
+        jacsJobInstanceInfo.setQueueSecs(LsfParseUtils.getDiffSecs(jobInfo.getSubmitTime(), jobInfo.getStartTime()));
+        jacsJobInstanceInfo.setRunSecs(LsfParseUtils.getDiffSecs(jobInfo.getStartTime(), jobInfo.getFinishTime()));
+        jacsJobInstanceInfo.setMaxMem(jobInfo.getMaxMem());
+        jacsJobInstanceInfo.setMaxMemBytes(LsfParseUtils.parseMemToBytes(jobInfo.getMaxMem()));
+        jacsJobInstanceInfo.setExitCode(jobInfo.getExitCode());
+        jacsJobInstanceInfo.setExitReason(jobInfo.getExitReason());
+        return jacsJobInstanceInfo;
+    }
+
     @Override
     public boolean hasFailed() {
         return done && failed;
@@ -0,0 +1,364 @@
+package org.janelia.jacs2.asyncservice.common.cluster;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsJobInstanceInfo;
+import org.slf4j.Logger;
+
+/**
+ * Packs the LSF jobs of many short running services into a single job array. Services are only packed together if
+ * they have the same job name, the same resources and the same environment. The tasks of a pack are distributed to
+ * the array elements so that each element runs for about service.cluster.packing.elementRuntimeInSeconds based on
+ * the run times recorded for previous jobs with the same name. A pack is submitted as soon as it reaches
+ * service.cluster.packing.maxTasks or when it has been open for service.cluster.packing.windowInSeconds.
+ * Every task records its exit code and its run time in its own status file so that the outcome of each task can be
+ * mapped back to the service that created it.
+ *
+ * @see PackedLsfJobHandler
+ */
+@Singleton
+public class LsfJobPacker {
+
+    private static final int MAX_RUNTIME_SAMPLES = 20;
+    private static final AtomicLong PACK_COUNTER = new AtomicLong();
+
+    static class PackedTask {
+        final String taskName;
+        final String workingDir;
+        final String command;
+        final String inputPath;
+        final String outputPath;
+        final String errorPath;
+        final Path statusPath;
+        Pack pack;
+        long elementIndex;
+
+        PackedTask(String taskName, String workingDir, String command, String inputPath, String outputPath, String errorPath, Path statusPath) {
+            this.taskName = taskName;
+            this.workingDir = workingDir;
+            this.command = command;
+            this.inputPath = inputPath;
+            this.outputPath = outputPath;
+            this.errorPath = errorPath;
+            this.statusPath = statusPath;
+        }
+    }
+
+    /**
+     * Status of a task as recorded by the pack script: the task's exit code, start and end time in seconds.
+     */
+    static class TaskStatus {
+        final int exitCode;
+        final long startTime;
+        final long endTime;
+
+        TaskStatus(int exitCode, long startTime, long endTime) {
+            this.exitCode = exitCode;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+    }
+
+    static class Pack {
+        final String packKey;
+        final JobTemplate jobTemplate;
+        final long createdTime;
+        final List<PackedTask> tasks = new ArrayList<>();
+        volatile boolean submitted;
+        volatile Long jobId;
+        volatile Exception submitError;
+
+        Pack(String packKey, JobTemplate jobTemplate) {
+            this.packKey = packKey;
+            this.jobTemplate = jobTemplate;
+            this.createdTime = System.currentTimeMillis();
+        }
+    }
+
+    private final JobManager jobMgr;
+    private final JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private final int windowInSeconds;
+    private final int maxTasks;
+    private final int elementRuntimeInSeconds;
+    private final int maxTasksPerElement;
+    private final Logger logger;
+    private final Map<String, Pack> openPacks = new LinkedHashMap<>();
+
+    @Inject
+    public LsfJobPacker(MonitoredJobManager monitoredJobManager,
+                        JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
+                        @IntPropertyValue(name = "service.cluster.packing.windowInSeconds", defaultValue = 30) Integer windowInSeconds,
+                        @IntPropertyValue(name = "service.cluster.packing.maxTasks", defaultValue = 100) Integer maxTasks,
+                        @IntPropertyValue(name = "service.cluster.packing.elementRuntimeInSeconds", defaultValue = 600) Integer elementRuntimeInSeconds,
+                        @IntPropertyValue(name = "service.cluster.packing.maxTasksPerElement", defaultValue = 20) Integer maxTasksPerElement,
+                        Logger logger) {
+        this.jobMgr = monitoredJobManager.getJobMgr();
+        this.jacsJobInstanceInfoDao = jacsJobInstanceInfoDao;
+        this.windowInSeconds = windowInSeconds;
+        this.maxTasks = maxTasks;
+        this.elementRuntimeInSeconds = elementRuntimeInSeconds;
+        this.maxTasksPerElement = maxTasksPerElement;
+        this.logger = logger;
+    }
+
+    /**
+     * Add the jobs described by the service's job template to a pack. "#" in the template's paths is replaced by the
+     * index of the job the same way LSF replaces it for a job array.
+     *
+     * @param taskName the name used for logging the service's tasks
+     * @param jobTemplate service job template
+     * @param numJobs number of service jobs
+     * @return the packed tasks
+     */
+    synchronized List<PackedTask> addTasks(String taskName, JobTemplate jobTemplate, int numJobs) {
+        String packKey = getPackKey(jobTemplate);
+        Pack pack = openPacks.computeIfAbsent(packKey, k -> new Pack(k, jobTemplate));
+        List<PackedTask> serviceTasks = new ArrayList<>();
+        for (int i = 1; i <= numJobs; i++) {
+            String jobIndex = String.valueOf(i);
+            PackedTask task = new PackedTask(
+                    taskName,
+                    jobTemplate.getWorkingDir(),
+                    jobTemplate.getRemoteCommand(),
+                    StringUtils.isBlank(jobTemplate.getInputPath()) ? "/dev/null" : jobTemplate.getInputPath().replace("#", jobIndex),
+                    StringUtils.defaultIfBlank(jobTemplate.getOutputPath(), "/dev/null").replace("#", jobIndex),
+                    StringUtils.defaultIfBlank(jobTemplate.getErrorPath(), "/dev/null").replace("#", jobIndex),
+                    Paths.get(jobTemplate.getRemoteCommand() + "." + jobIndex + ".status"));
+            try {
+                // a status file left by a previous run of the same service must not be mistaken for the current one
+                Files.deleteIfExists(task.statusPath);
+            } catch (IOException e) {
+                throw new IllegalStateException("Error removing previous task status " + task.statusPath, e);
+            }
+            task.pack = pack;
+            serviceTasks.add(task);
+        }
+        pack.tasks.addAll(serviceTasks);
+        logger.info("Added {} tasks of {} to pack {} which now has {} tasks", numJobs, taskName, packKey, pack.tasks.size());
+        if (pack.tasks.size() >= maxTasks) {
+            submitPack(pack);
+        }
+        return serviceTasks;
+    }
+
+    /**
+     * Submit all packs that have been open for longer than the packing window.
+     */
+    synchronized void submitExpiredPacks() {
+        long now = System.currentTimeMillis();
+        List<Pack> expiredPacks = openPacks.values().stream()
+                .filter(p -> now - p.createdTime >= windowInSeconds * 1000L)
+                .collect(Collectors.toList());
+        expiredPacks.forEach(this::submitPack);
+    }
+
+    /**
+     * Remove the given tasks. Tasks that were not submitted yet are simply dropped from their pack. If the tasks were
+     * already submitted the pack's job is only killed if it doesn't run tasks of other services.
+     */
+    synchronized void removeTasks(List<PackedTask> tasks) {
+        for (PackedTask task : tasks) {
+            Pack pack = task.pack;
+            if (!pack.submitted) {
+                pack.tasks.remove(task);
+                if (pack.tasks.isEmpty()) {
+                    openPacks.remove(pack.packKey, pack);
+                }
+            }
+        }
+        tasks.stream()
+                .map(t -> t.pack)
+                .filter(p -> p.submitted && p.jobId != null)
+                .distinct()
+                .forEach(pack -> {
+                    if (tasks.containsAll(pack.tasks)) {
+                        try {
+                            jobMgr.killJob(pack.jobId);
+                        } catch (Exception e) {
+                            logger.warn("Error while terminating packed job {}", pack.jobId, e);
+                        }
+                    } else {
+                        logger.warn("Packed job {} also runs tasks of other services so it will not be terminated", pack.jobId);
+                    }
+                });
+    }
+
+    /**
+     * @return the status recorded by the task or null if the task has not completed yet.
+     */
+    TaskStatus getTaskStatus(PackedTask task) {
+        if (Files.notExists(task.statusPath)) {
+            return null;
+        }
+        try {
+            String[] statusFields = StringUtils.split(new String(Files.readAllBytes(task.statusPath), StandardCharsets.UTF_8).trim());
+            if (statusFields == null || statusFields.length < 3) {
+                // the status may not be completely written yet
+                return null;
+            }
+            return new TaskStatus(Integer.parseInt(statusFields[0]), Long.parseLong(statusFields[1]), Long.parseLong(statusFields[2]));
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Error reading task status from {}", task.statusPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the cluster information of the job array element that runs the given task or null if the task's pack
+     * has not been submitted or the information is not available.
+     */
+    JobInfo getElementInfo(PackedTask task) {
+        Pack pack = task.pack;
+        if (pack.jobId == null) {
+            return null;
+        }
+        return jobMgr.getJobInfo(pack.jobId, task.elementIndex);
+    }
+
+    /**
+     * @return true if the job manager still tracks the job that runs the given task.
+     */
+    boolean isTracked(PackedTask task) {
+        Pack pack = task.pack;
+        return pack.jobId != null && jobMgr.getJobMetadata(pack.jobId) != null;
+    }
+
+    private String getPackKey(JobTemplate jobTemplate) {
+        return jobTemplate.getJobName() + ":" +
+                Objects.toString(jobTemplate.getNativeSpecification(), "") + ":" +
+                Objects.toString(jobTemplate.getJobEnvironment(), "");
+    }
+
+    private void submitPack(Pack pack) {
+        openPacks.remove(pack.packKey, pack);
+        if (pack.tasks.isEmpty()) {
+            return;
+        }
+        pack.submitted = true;
+        int tasksPerElement = getTasksPerElement(pack.jobTemplate.getJobName());
+        int numElements = (pack.tasks.size() + tasksPerElement - 1) / tasksPerElement;
+        for (int i = 0; i < pack.tasks.size(); i++) {
+            pack.tasks.get(i).elementIndex = i / tasksPerElement + 1;
+        }
+        try {
+            Path packScript = createPackScript(pack, numElements);
+            JobTemplate packJobTemplate = new JobTemplate();
+            packJobTemplate.setJobName(pack.jobTemplate.getJobName());
+            packJobTemplate.setArgs(Collections.emptyList());
+            packJobTemplate.setWorkingDir(pack.jobTemplate.getWorkingDir());
+            packJobTemplate.setRemoteCommand(packScript.toString());
+            packJobTemplate.setOutputPath(packScript + ".#.out");
+            packJobTemplate.setErrorPath(packScript + ".#.err");
+            packJobTemplate.setJobEnvironment(pack.jobTemplate.getJobEnvironment());
+            packJobTemplate.setNativeSpecification(getPackNativeSpec(pack.jobTemplate.getNativeSpecification(), tasksPerElement));
+            JobFuture jobFuture = jobMgr.submitJob(packJobTemplate, 1, numElements);
+            pack.jobId = jobFuture.getJobId();
+            logger.info("Submitted packed job {} with {} tasks in {} elements using {}", pack.jobId, pack.tasks.size(), numElements, packScript);
+        } catch (Exception e) {
+            logger.error("Error submitting pack {} with {} tasks", pack.packKey, pack.tasks.size(), e);
+            pack.submitError = e;
+        }
+    }
+
+    /**
+     * The number of tasks that each element runs is based on the average run time of the previous jobs.
+     * If there's no history each task runs in its own element.
+     */
+    private int getTasksPerElement(String jobName) {
+        List<JacsJobInstanceInfo> recentJobInstances = jacsJobInstanceInfoDao.findRecentJobInstances(jobName, MAX_RUNTIME_SAMPLES);
+        OptionalDouble averageRuntime = recentJobInstances.stream()
+                .filter(ji -> ji.getRunSecs() != null && ji.getRunSecs() > 0)
+                .mapToLong(JacsJobInstanceInfo::getRunSecs)
+                .average();
+        if (!averageRuntime.isPresent()) {
+            return 1;
+        }
+        int tasksPerElement = (int) (elementRuntimeInSeconds / averageRuntime.getAsDouble());
+        return Math.max(1, Math.min(maxTasksPerElement, tasksPerElement));
+    }
+
+    /**
+     * The run time limits of the service jobs apply to each task so they are scaled by the number of tasks per element.
+     */
+    private List<String> getPackNativeSpec(List<String> nativeSpec, int tasksPerElement) {
+        if (nativeSpec == null) {
+            return new ArrayList<>();
+        }
+        return nativeSpec.stream()
+                .map(spec -> {
+                    if (tasksPerElement > 1 && (spec.startsWith("-W ") || spec.startsWith("-We "))) {
+                        String limitFlag = StringUtils.substringBefore(spec, " ");
+                        long limitInMins = Long.parseLong(StringUtils.substringAfter(spec, " ").trim());
+                        return limitFlag + " " + limitInMins * tasksPerElement;
+                    } else {
+                        return spec;
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    private Path createPackScript(Pack pack, int numElements) throws IOException {
+        Path scriptDir = Paths.get(pack.tasks.get(0).command).getParent();
+        Path packScript = scriptDir.resolve(String.format("pack_%d_%d.sh", System.currentTimeMillis(), PACK_COUNTER.incrementAndGet()));
+        Files.createFile(packScript, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwxrwx---")));
+        try (BufferedWriter scriptWriter = Files.newBufferedWriter(packScript, StandardCharsets.UTF_8)) {
+            scriptWriter.write("#!/bin/bash\n");
+            scriptWriter.write("run_task() {\n");
+            scriptWriter.write("    local status_file=$1\n");
+            scriptWriter.write("    local start_time=$(date +%s)\n");
+            scriptWriter.write("    (cd \"$2\" && \"$3\" < \"$4\" > \"$5\" 2> \"$6\")\n");
+            scriptWriter.write("    local rc=$?\n");
+            scriptWriter.write("    echo \"${rc} ${start_time} $(date +%s)\" > \"${status_file}.tmp\" && mv \"${status_file}.tmp\" \"${status_file}\"\n");
+            scriptWriter.write("}\n");
+            scriptWriter.write("case ${LSB_JOBINDEX:-1} in\n");
+            Iterator<PackedTask> taskItr = pack.tasks.iterator();
+            PackedTask task = taskItr.hasNext() ? taskItr.next() : null;
+            for (long elementIndex = 1; elementIndex <= numElements; elementIndex++) {
+                scriptWriter.write(String.format("    %d)\n", elementIndex));
+                while (task != null && task.elementIndex == elementIndex) {
+                    scriptWriter.write(String.format("        run_task %s %s %s %s %s %s\n",
+                            quote(task.statusPath.toString()),
+                            quote(task.workingDir),
+                            quote(task.command),
+                            quote(task.inputPath),
+                            quote(task.outputPath),
+                            quote(task.errorPath)));
+                    task = taskItr.hasNext() ? taskItr.next() : null;
+                }
+                scriptWriter.write("        ;;\n");
+            }
+            scriptWriter.write("esac\n");
+        }
+        return packScript;
+    }
+
+    private String quote(String s) {
+        return "'" + StringUtils.defaultString(s).replace("'", "'\\''") + "'";
+    }
+}
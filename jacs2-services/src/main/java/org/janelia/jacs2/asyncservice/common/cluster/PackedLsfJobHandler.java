@@ -0,0 +1,156 @@
+package org.janelia.jacs2.asyncservice.common.cluster;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.jacs2.asyncservice.common.ExeJobHandler;
+import org.janelia.model.service.JacsJobInstanceInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Handler for the tasks of a service that run as part of a packed LSF job. The handler only looks at the service's
+ * own tasks so a failure of a task that belongs to another service in the same pack does not affect this service.
+ *
+ * @see LsfJobPacker
+ */
+public class PackedLsfJobHandler implements ExeJobHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PackedLsfJobHandler.class);
+
+    private final String jobInfo;
+    private final LsfJobPacker jobPacker;
+    private final JobTemplate jobTemplate;
+    private final int numJobs;
+    private List<LsfJobPacker.PackedTask> tasks = Collections.emptyList();
+    private volatile boolean done;
+    private volatile boolean failed;
+    private volatile boolean terminated;
+
+    public PackedLsfJobHandler(String jobInfo, LsfJobPacker jobPacker, JobTemplate jobTemplate, int numJobs) {
+        this.jobInfo = jobInfo;
+        this.jobPacker = jobPacker;
+        this.jobTemplate = jobTemplate;
+        this.numJobs = numJobs;
+    }
+
+    @Override
+    public String getJobInfo() {
+        StringBuilder jobInfoBuilder = new StringBuilder(jobInfo);
+        String jobIds = tasks.stream()
+                .filter(t -> t.pack.jobId != null)
+                .map(t -> t.pack.jobId + "." + t.elementIndex)
+                .distinct()
+                .collect(Collectors.joining(","));
+        if (!jobIds.isEmpty()) {
+            jobInfoBuilder.append('[').append(jobIds).append(']');
+        }
+        return jobInfoBuilder.toString();
+    }
+
+    @Override
+    public boolean start() {
+        if (!terminated) {
+            tasks = jobPacker.addTasks(jobInfo, jobTemplate, numJobs);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        if (done || tasks.isEmpty()) {
+            return done;
+        }
+        jobPacker.submitExpiredPacks();
+        boolean allTasksDone = true;
+        boolean anyTaskFailed = false;
+        for (LsfJobPacker.PackedTask task : tasks) {
+            if (task.pack.submitError != null) {
+                anyTaskFailed = true;
+                continue;
+            }
+            if (task.pack.jobId == null) {
+                // the pack was not submitted yet
+                allTasksDone = false;
+                continue;
+            }
+            LsfJobPacker.TaskStatus taskStatus = jobPacker.getTaskStatus(task);
+            if (taskStatus != null) {
+                if (taskStatus.exitCode != 0) {
+                    LOG.error("Task {} of {} exited with code {}", task.statusPath, jobInfo, taskStatus.exitCode);
+                    anyTaskFailed = true;
+                }
+                continue;
+            }
+            if (!jobPacker.isTracked(task)) {
+                // If there is no information about the job, assume the task failed
+                LOG.error("No job information found for task {} of {}. Assuming that it failed.", task.statusPath, jobInfo);
+                anyTaskFailed = true;
+                continue;
+            }
+            JobInfo elementInfo = jobPacker.getElementInfo(task);
+            if (elementInfo != null && elementInfo.isComplete()) {
+                // the element completed without recording the task's status, e.g. it was killed
+                LOG.error("Job element {}.{} completed without running task {} of {}", elementInfo.getJobId(), task.elementIndex, task.statusPath, jobInfo);
+                anyTaskFailed = true;
+                continue;
+            }
+            allTasksDone = false;
+        }
+        failed = anyTaskFailed;
+        done = allTasksDone;
+        return done;
+    }
+
+    @Override
+    public boolean hasFailed() {
+        return done && failed;
+    }
+
+    @Override
+    public void terminate() {
+        terminated = true;
+        if (!done) {
+            try {
+                jobPacker.removeTasks(tasks);
+            } finally {
+                done = true;
+            }
+        }
+    }
+
+    /**
+     * The cluster information of the elements that ran this service's tasks with the run time and the exit code of
+     * each task so that the recorded run times reflect the task's and not the element's duration.
+     */
+    @Override
+    public Collection<JacsJobInstanceInfo> getJobInstances() {
+        List<JacsJobInstanceInfo> infos = new ArrayList<>();
+        for (LsfJobPacker.PackedTask task : tasks) {
+            JobInfo elementInfo = jobPacker.getElementInfo(task);
+            if (elementInfo == null) {
+                continue;
+            }
+            JacsJobInstanceInfo jacsJobInstanceInfo = LsfJavaExeJobHandler.toJacsJobInstanceInfo(elementInfo);
+            jacsJobInstanceInfo.setName(task.pack.jobTemplate.getJobName());
+            LsfJobPacker.TaskStatus taskStatus = jobPacker.getTaskStatus(task);
+            if (taskStatus != null) {
+                jacsJobInstanceInfo.setStartTime(new Date(taskStatus.startTime * 1000));
+                jacsJobInstanceInfo.setFinishTime(new Date(taskStatus.endTime * 1000));
+                jacsJobInstanceInfo.setRunSecs(taskStatus.endTime - taskStatus.startTime);
+                jacsJobInstanceInfo.setExitCode(taskStatus.exitCode);
+            }
+            infos.add(jacsJobInstanceInfo);
+        }
+        return infos;
+    }
+
+}
@@ -7,6 +7,7 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.Optional;
 
@@ -20,6 +21,7 @@ import javax.ws.rs.core.Response;
 
 import com.google.common.collect.ImmutableMap;
 
+import org.janelia.jacs2.asyncservice.common.ContinuationCond;
 import org.janelia.jacs2.asyncservice.common.ExternalProcessRunner;
 import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
 import org.janelia.jacs2.asyncservice.common.ServiceArgs;
@@ -42,6 +44,7 @@ import org.slf4j.Logger;
 public class PullSingularityContainerProcessor extends AbstractContainerProcessor<PullSingularityContainerArgs, File> {
 
     private final String localSingularityImagesPath;
+    private final SingularityImageCache imageCache;
 
     @Inject
     PullSingularityContainerProcessor(ServiceComputationFactory computationFactory,
@@ -50,11 +53,13 @@ public class PullSingularityContainerProcessor extends AbstractContainerProcesso
                                       @PropertyValue(name = "service.DefaultWorkingDir") String defaultWorkingDir,
                                       @PropertyValue(name = "Singularity.Bin.Path") String singularityExecutable,
                                       @PropertyValue(name = "Singularity.LocalImages.Path") String localSingularityImagesPath,
+                                      SingularityImageCache imageCache,
                                       JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
                                       @ApplicationProperties ApplicationConfig applicationConfig,
                                       Logger logger) {
         super(computationFactory, jacsServiceDataPersistence, serviceRunners, defaultWorkingDir, singularityExecutable, jacsJobInstanceInfoDao, applicationConfig, logger);
         this.localSingularityImagesPath = localSingularityImagesPath;
+        this.imageCache = imageCache;
     }
 
     @Override
@@ -83,24 +88,33 @@ public class PullSingularityContainerProcessor extends AbstractContainerProcesso
     public ServiceComputation<JacsServiceResult<File>> process(JacsServiceData jacsServiceData) {
         PullSingularityContainerArgs args = getArgs(jacsServiceData);
         ContainerImage localContainerImage = getLocalContainerImage(args);
-        if (localContainerImage.localImageExists()) {
+        Path localImagePath = localContainerImage.getLocalImagePath();
+        if (localContainerImage.isLocalImage() ? localContainerImage.localImageExists() : imageCache.lookup(localImagePath)) {
             return computationFactory.newCompletedComputation(updateServiceResult(jacsServiceData, getResultHandler().collectResult(jacsServiceData)));
+        } else if (!imageCache.startPull(localImagePath, jacsServiceData.getId())) {
+            // another service is already pulling the same image so wait for it to finish and then try again;
+            // if that pull failed this service will pull the image itself
+            return computationFactory.newCompletedComputation(jacsServiceData)
+                    .thenSuspendUntil(sd -> new ContinuationCond.Cond<>(sd, !imageCache.isPullPending(localImagePath)))
+                    .thenCompose(sd -> process(sd));
         } else if (localContainerImage.requiresPull()) {
-            return super.process(jacsServiceData);
+            return super.process(jacsServiceData)
+                    .whenComplete((r, exc) -> imageCache.endPull(localImagePath, jacsServiceData.getId()));
         } else {
-            return computationFactory.newCompletedComputation(localContainerImage.localPath.resolve(localContainerImage.imageName + ".tmp"))
+            return computationFactory.newCompletedComputation(localContainerImage.localPath.resolve(imageCache.getTempImageName(localContainerImage.imageName, jacsServiceData.getId())))
                     .thenApply(tempImagePath -> writeLocalImage(args, tempImagePath))
                     .thenApply(tempImagePath -> {
                         try {
                             // this should copy to the same filesystem
-                            Files.move(tempImagePath, localContainerImage.getLocalImagePath());
+                            Files.move(tempImagePath, localImagePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
                             return updateServiceResult(jacsServiceData, getResultHandler().collectResult(jacsServiceData));
                         } catch (IOException e) {
                             logger.error("Error renaming temporary image {} to {}",
-                                    tempImagePath, localContainerImage.getLocalImagePath(), e);
+                                    tempImagePath, localImagePath, e);
                             throw new UncheckedIOException(e);
                         }
-                    });
+                    })
+                    .whenComplete((r, exc) -> imageCache.endPull(localImagePath, jacsServiceData.getId()));
         }
     }
 
@@ -113,7 +127,7 @@ public class PullSingularityContainerProcessor extends AbstractContainerProcesso
                 logger.error("Request for json config to {} returned with {}", target, response.getStatus());
                 throw new IllegalStateException(args.containerLocation + " returned with " + response.getStatus());
             }
-            Files.copy(response.readEntity(InputStream.class), imagePath);
+            Files.copy(response.readEntity(InputStream.class), imagePath, StandardCopyOption.REPLACE_EXISTING);
             return imagePath;
         } catch (IllegalStateException | IllegalArgumentException e) {
             throw e;
@@ -146,12 +160,17 @@ public class PullSingularityContainerProcessor extends AbstractContainerProcesso
 
     @Override
     boolean createScript(JacsServiceData jacsServiceData, PullSingularityContainerArgs args, ScriptWriter scriptWriter) {
+        String imageName = getLocalContainerImage(args).imageName;
+        // pull the image into a temporary file and only rename it when the pull succeeded
+        // so that the other services never see a partially written image
+        String tempImageName = imageCache.getTempImageName(imageName, jacsServiceData.getId());
         scriptWriter
+                .add("rm -f " + tempImageName)
                 .addWithArgs(getRuntime((args)))
                 .addArg("pull")
-                .addArgs("--name", getLocalContainerImage(args).imageName)
+                .addArgs("--name", tempImageName)
                 .addArgs(args.containerLocation)
-                .endArgs();
+                .endArgs("&& mv -f " + tempImageName + " " + imageName);
         return true;
     }
 
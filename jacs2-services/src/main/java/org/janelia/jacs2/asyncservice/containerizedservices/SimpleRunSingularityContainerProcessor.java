@@ -1,5 +1,6 @@
 package org.janelia.jacs2.asyncservice.containerizedservices;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -24,6 +25,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -63,6 +65,28 @@ public class SimpleRunSingularityContainerProcessor extends AbstractContainerPro
         }
         scriptWriter.add("ulimit -c 0");
         scriptWriter.add("umask 0002");
+        if (CollectionUtils.isNotEmpty(args.chainedContainerLocations)) {
+            // a chained container must not run if any of the previous containers failed
+            scriptWriter.add("set -e");
+        }
+        String scratchDir = serviceScratchDir(jacsServiceData);
+        String bindPaths = args.bindPathsAsString(
+                ImmutableSet.<BindPath>builder()
+                        .addAll(args.bindPaths)
+                        .add(new BindPath().setSrcPath(scratchDir))
+                        .build());
+        addContainerRun(args, bindPaths, args.containerLocation, args.appArgs, !expandedArgsAtRuntime.isEmpty(), scriptWriter);
+        for (int i = 0; i < args.chainedContainerLocations.size(); i++) {
+            List<String> chainedAppArgs = i < args.chainedAppArgs.size()
+                    ? Splitter.on(' ').omitEmptyStrings().splitToList(args.chainedAppArgs.get(i))
+                    : Collections.emptyList();
+            addContainerRun(args, bindPaths, args.chainedContainerLocations.get(i), chainedAppArgs, !expandedArgsAtRuntime.isEmpty(), scriptWriter);
+        }
+        return true;
+    }
+
+    private void addContainerRun(SingularityRunContainerArgs args, String bindPaths, String containerLocation, List<String> appArgs,
+                                 boolean hasExpandedArgs, ScriptWriter scriptWriter) {
         scriptWriter.addWithArgs(getRuntime((args)));
         scriptWriter.addArg("run");
         if (CollectionUtils.isNotEmpty(args.runtimeArgs)) {
@@ -71,12 +95,6 @@ public class SimpleRunSingularityContainerProcessor extends AbstractContainerPro
         if (StringUtils.isNotBlank(args.appName)) {
             scriptWriter.addArgs("--app", args.appName);
         }
-        String scratchDir = serviceScratchDir(jacsServiceData);
-        String bindPaths = args.bindPathsAsString(
-                ImmutableSet.<BindPath>builder()
-                        .addAll(args.bindPaths)
-                        .add(new BindPath().setSrcPath(scratchDir))
-                        .build());
         if (StringUtils.isNotBlank(bindPaths)) {
             scriptWriter.addArgs("--bind", bindPaths);
         }
@@ -89,14 +107,14 @@ public class SimpleRunSingularityContainerProcessor extends AbstractContainerPro
         if (StringUtils.isNotBlank(args.initialPwd)) {
             scriptWriter.addArgs("--pwd", args.initialPwd);
         }
-        scriptWriter.addArg(args.containerLocation);
-        if (CollectionUtils.isNotEmpty(args.appArgs)) {
-            args.appArgs.forEach(scriptWriter::addArg);
+        scriptWriter.addArg(containerLocation);
+        if (CollectionUtils.isNotEmpty(appArgs)) {
+            appArgs.forEach(scriptWriter::addArg);
         }
         if (CollectionUtils.isNotEmpty(args.batchJobArgs)) {
             scriptWriter.addArg("${INSTANCE_ARGS}");
         }
-        if (!expandedArgsAtRuntime.isEmpty()) {
+        if (hasExpandedArgs) {
             if (StringUtils.isNotBlank(args.expandedArgFlag)) {
                 scriptWriter.addArg(args.expandedArgFlag);
             }
@@ -107,7 +125,6 @@ public class SimpleRunSingularityContainerProcessor extends AbstractContainerPro
             remainingArgs.stream().filter(StringUtils::isNotBlank).forEach(scriptWriter::addArg);
         }
         scriptWriter.endArgs();
-        return true;
     }
 
     @Override
@@ -0,0 +1,171 @@
+package org.janelia.jacs2.asyncservice.containerizedservices;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.slf4j.Logger;
+
+/**
+ * Node local cache of the pulled singularity images. The cache keeps track of the images that are being pulled so that
+ * services which need an image that is already being pulled wait for that pull instead of pulling the same image again.
+ * Images are written to a temporary file first and renamed once they are complete, so a cached image is always
+ * complete. When the images directory exceeds the configured size the least recently used images are evicted;
+ * the image's last modified time is used to track when it was used.
+ */
+@ApplicationScoped
+public class SingularityImageCache {
+
+    private static final String TEMP_IMAGE_EXT = ".tmp";
+
+    private final Map<Path, Number> pendingPulls = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalescedPulls = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long maxCacheSizeInBytes;
+    private Logger logger;
+
+    SingularityImageCache() {
+        // CDI required ctor
+    }
+
+    @Inject
+    public SingularityImageCache(@IntPropertyValue(name = "Singularity.LocalImages.MaxSizeInGB") int maxCacheSizeInGB,
+                                 Logger logger) {
+        this.maxCacheSizeInBytes = maxCacheSizeInGB > 0 ? maxCacheSizeInGB * 1024L * 1024L * 1024L : 0L;
+        this.logger = logger;
+    }
+
+    /**
+     * Check whether the image is already cached and if it is mark it as recently used.
+     *
+     * @param imagePath local image path
+     * @return true if the image is already available.
+     */
+    public boolean lookup(Path imagePath) {
+        if (Files.exists(imagePath)) {
+            hits.incrementAndGet();
+            try {
+                Files.setLastModifiedTime(imagePath, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (IOException e) {
+                logger.warn("Error updating the last access time for {}", imagePath, e);
+            }
+            logger.debug("Image cache hit for {} - {}", imagePath, getStats());
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Register the pull of the image for the given service.
+     *
+     * @param imagePath local image path
+     * @param serviceId ID of the service that wants to pull the image
+     * @return true if the service owns the pull or false if another service is already pulling the same image.
+     */
+    public boolean startPull(Path imagePath, Number serviceId) {
+        Number pullOwner = pendingPulls.putIfAbsent(imagePath, serviceId);
+        if (pullOwner == null) {
+            misses.incrementAndGet();
+            logger.info("Image cache miss for {} - pulled by {} - {}", imagePath, serviceId, getStats());
+            return true;
+        } else if (pullOwner.equals(serviceId)) {
+            return true;
+        } else {
+            coalescedPulls.incrementAndGet();
+            logger.info("Image {} is already being pulled by {} so {} will wait for it", imagePath, pullOwner, serviceId);
+            return false;
+        }
+    }
+
+    public boolean isPullPending(Path imagePath) {
+        return pendingPulls.containsKey(imagePath);
+    }
+
+    /**
+     * Mark the pull done, successful or not, and evict the least recently used images if the cache is too large.
+     */
+    public void endPull(Path imagePath, Number serviceId) {
+        if (pendingPulls.remove(imagePath, serviceId)) {
+            evictImages(imagePath.getParent());
+        }
+    }
+
+    /**
+     * @return the name of the temporary file into which the given service writes the image before renaming it.
+     */
+    public String getTempImageName(String imageName, Number serviceId) {
+        return imageName + "." + serviceId + TEMP_IMAGE_EXT;
+    }
+
+    public String getStats() {
+        return "hits: " + hits.get() + ", misses: " + misses.get() +
+                ", coalesced pulls: " + coalescedPulls.get() + ", evictions: " + evictions.get();
+    }
+
+    private void evictImages(Path imagesDir) {
+        if (maxCacheSizeInBytes <= 0 || imagesDir == null || Files.notExists(imagesDir)) {
+            return;
+        }
+        List<Path> cachedImages;
+        try (Stream<Path> imagesDirContent = Files.list(imagesDir)) {
+            cachedImages = imagesDirContent
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().endsWith(TEMP_IMAGE_EXT))
+                    .sorted(Comparator.comparing(this::getLastModifiedTime))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            logger.warn("Error listing cached images from {}", imagesDir, e);
+            return;
+        }
+        long cacheSize = cachedImages.stream().mapToLong(this::getSize).sum();
+        for (Path cachedImage : cachedImages) {
+            if (cacheSize <= maxCacheSizeInBytes) {
+                break;
+            }
+            if (isPullPending(cachedImage)) {
+                continue;
+            }
+            long imageSize = getSize(cachedImage);
+            try {
+                if (Files.deleteIfExists(cachedImage)) {
+                    cacheSize -= imageSize;
+                    evictions.incrementAndGet();
+                    logger.info("Evicted {} ({} bytes) from the image cache - {}", cachedImage, imageSize, getStats());
+                }
+            } catch (IOException e) {
+                logger.warn("Error evicting {} from the image cache", cachedImage, e);
+            }
+        }
+    }
+
+    private FileTime getLastModifiedTime(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0L);
+        }
+    }
+
+    private long getSize(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+}
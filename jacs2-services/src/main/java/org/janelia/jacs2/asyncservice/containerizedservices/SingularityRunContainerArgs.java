@@ -1,5 +1,8 @@
 package org.janelia.jacs2.asyncservice.containerizedservices;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.beust.jcommander.Parameter;
 
 class SingularityRunContainerArgs extends RunContainerArgs {
@@ -9,6 +12,12 @@ class SingularityRunContainerArgs extends RunContainerArgs {
     boolean enableNV;
     @Parameter(names = "-initialPwd", description = "Initial working directory inside the container")
     String initialPwd;
+    @Parameter(names = "-chainedContainerLocations", description = "Containers that are run in the same job after the main container, " +
+            "with the same bind paths and the same batch instance arguments", splitter = ServiceArgSplitter.class)
+    List<String> chainedContainerLocations = new ArrayList<>();
+    @Parameter(names = "-chainedAppArgs", description = "Application arguments for each chained container. " +
+            "The arguments of one container are separated by spaces", splitter = ServiceArgSplitter.class)
+    List<String> chainedAppArgs = new ArrayList<>();
 
     SingularityRunContainerArgs() {
         this("Service that runs a singularity container");
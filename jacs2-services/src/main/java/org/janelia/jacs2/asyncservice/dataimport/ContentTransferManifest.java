@@ -0,0 +1,126 @@
+package org.janelia.jacs2.asyncservice.dataimport;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
+import org.janelia.jacsstorage.clients.api.StorageEntryInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Record of the content transfers completed by a service. Every completed transfer is appended as a JSON line to the
+ * manifest file so that when a failed service is resumed the transfers that were already done are skipped.
+ * A transfer is only considered done if the size and the modification time of the source have not changed.
+ */
+class ContentTransferManifest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentTransferManifest.class);
+
+    static class TransferEntry {
+        @JsonProperty
+        private String target;
+        @JsonProperty
+        private Long size;
+        @JsonProperty
+        private Long lastModified;
+        @JsonProperty
+        private StorageEntryInfo remoteInfo;
+    }
+
+    static ContentTransferManifest load(Path manifestPath) {
+        ContentTransferManifest transferManifest = new ContentTransferManifest(manifestPath);
+        if (Files.exists(manifestPath)) {
+            ObjectMapper objectMapper = ObjectMapperFactory.instance().getDefaultObjectMapper();
+            try (BufferedReader manifestReader = Files.newBufferedReader(manifestPath, StandardCharsets.UTF_8)) {
+                String manifestLine;
+                while ((manifestLine = manifestReader.readLine()) != null) {
+                    if (StringUtils.isBlank(manifestLine)) {
+                        continue;
+                    }
+                    try {
+                        TransferEntry transferEntry = objectMapper.readValue(manifestLine, TransferEntry.class);
+                        transferManifest.completedTransfers.put(transferEntry.target, transferEntry);
+                    } catch (IOException e) {
+                        // most likely the last line was not completely written
+                        LOG.warn("Ignore invalid transfer manifest entry {} from {}", manifestLine, manifestPath);
+                    }
+                }
+                LOG.info("Loaded {} completed transfers from {}", transferManifest.completedTransfers.size(), manifestPath);
+            } catch (IOException e) {
+                LOG.warn("Error reading transfer manifest {} - all content will be transferred", manifestPath, e);
+            }
+        }
+        return transferManifest;
+    }
+
+    private final Path manifestPath;
+    private final Map<String, TransferEntry> completedTransfers = new ConcurrentHashMap<>();
+
+    private ContentTransferManifest(Path manifestPath) {
+        this.manifestPath = manifestPath;
+    }
+
+    /**
+     * @param target transfer target
+     * @param size source size
+     * @param lastModified source modification time
+     * @return the storage entry of the target if the transfer of the same source was already completed.
+     */
+    Optional<StorageEntryInfo> getCompletedTransfer(String target, Long size, Long lastModified) {
+        TransferEntry transferEntry = completedTransfers.get(target);
+        if (transferEntry != null &&
+                transferEntry.remoteInfo != null &&
+                Objects.equals(transferEntry.size, size) &&
+                Objects.equals(transferEntry.lastModified, lastModified)) {
+            return Optional.of(transferEntry.remoteInfo);
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    synchronized void recordTransfer(String target, Long size, Long lastModified, StorageEntryInfo remoteInfo) {
+        TransferEntry transferEntry = new TransferEntry();
+        transferEntry.target = target;
+        transferEntry.size = size;
+        transferEntry.lastModified = lastModified;
+        transferEntry.remoteInfo = remoteInfo;
+        completedTransfers.put(target, transferEntry);
+        try {
+            Files.createDirectories(manifestPath.getParent());
+            try (BufferedWriter manifestWriter = Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                manifestWriter.write(ObjectMapperFactory.instance().getDefaultObjectMapper().writeValueAsString(transferEntry));
+                manifestWriter.newLine();
+            }
+        } catch (IOException e) {
+            // a transfer that is not recorded will simply be repeated if the service is resumed
+            LOG.warn("Error recording transfer of {} in {}", target, manifestPath, e);
+        }
+    }
+
+    /**
+     * Forget all completed transfers, e.g., after the transferred content was removed.
+     */
+    synchronized void clear() {
+        completedTransfers.clear();
+        try {
+            Files.deleteIfExists(manifestPath);
+        } catch (IOException e) {
+            LOG.warn("Error removing transfer manifest {}", manifestPath, e);
+        }
+    }
+}
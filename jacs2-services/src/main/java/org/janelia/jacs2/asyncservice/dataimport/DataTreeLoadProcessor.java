@@ -1,11 +1,13 @@
 package org.janelia.jacs2.asyncservice.dataimport;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -15,6 +17,7 @@ import javax.inject.Named;
 
 import com.beust.jcommander.Parameter;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.hash.Hashing;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -35,6 +38,7 @@ import org.janelia.jacs2.asyncservice.common.resulthandlers.AbstractAnyServiceRe
 import org.janelia.jacs2.asyncservice.imageservices.MIPsAndMoviesResult;
 import org.janelia.jacs2.asyncservice.imageservices.MultiInputMIPsAndMoviesProcessor;
 import org.janelia.jacs2.asyncservice.utils.FileUtils;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.jacs2.dataservice.storage.StorageService;
@@ -54,6 +58,9 @@ import org.slf4j.Logger;
 @Named("dataTreeLoad")
 public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<ContentStack>> {
 
+    private static final String TRANSFER_MANIFEST_FILENAME = "transfer-manifest.jsonl";
+    private static final String MIPS_INDEX_FILENAME = "mips-index.json";
+
     static class DataTreeLoadArgs extends CommonDataNodeArgs {
         @Parameter(names = {"-storageLocation", "-storageLocationURL"}, description = "Data storage location URL, if no value is specified where possible will try to get the actual URL from JADE (master)")
         String storageLocationURL;
@@ -69,6 +76,9 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
         boolean cleanLocalFilesWhenDone = false;
         @Parameter(names = "-cleanStorageOnFailure", description = "If this flag is set - clean up the storage if the indexing operation failed")
         boolean cleanStorageOnFailure = false;
+        @Parameter(names = "-mipsDir", description = "Directory for the generated MIPs. If it is set, the MIPs that are still up to date " +
+                "with their inputs are reused by subsequent imports; otherwise the MIPs are generated in the service's working directory")
+        String mipsDir;
 
         DataTreeLoadArgs() {
             super("Service that creates a TreeNode for the specified storage content");
@@ -86,10 +96,11 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
                           MultiInputMIPsAndMoviesProcessor mipsConverterProcessor,
                           StorageService storageService,
                           FolderService folderService,
+                          @IntPropertyValue(name = "StorageService.MaxTransfersPerStorage", defaultValue = 8) int maxTransfersPerStorage,
                           Logger logger) {
         super(computationFactory, jacsServiceDataPersistence, defaultWorkingDir, logger);
         this.mipsConverterProcessor = new WrappedServiceProcessor<>(computationFactory, jacsServiceDataPersistence, mipsConverterProcessor);
-        this.storageContentHelper = new StorageContentHelper(storageService);
+        this.storageContentHelper = new StorageContentHelper(storageService, maxTransfersPerStorage);
         this.dataNodeContentHelper = new DataNodeContentHelper(folderService);
     }
 
@@ -140,10 +151,12 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
         } else {
             throw new IllegalArgumentException("Either storage path or the storage URL must be provided");
         }
+        // the manifest is kept in the service's working directory so that if the service is resumed it does not transfer the same content again
+        ContentTransferManifest transferManifest = ContentTransferManifest.load(getWorkingDirectory(jacsServiceData).getServiceFolder(TRANSFER_MANIFEST_FILENAME));
         return computationFactory.<List<ContentStack>>newComputation()
-                .supply(() -> listContentOrCopyContentToTargetStorage(jacsServiceData, args, storageInfo, jadeStorageAttributes))
+                .supply(() -> listContentOrCopyContentToTargetStorage(jacsServiceData, args, storageInfo, jadeStorageAttributes, transferManifest))
                 .thenCompose(storageContent -> generateContentMIPs(jacsServiceData, args, storageContent, jadeStorageAttributes))
-                .thenApply(mipsContentResult -> storageContentHelper.uploadContent(mipsContentResult.getResult(), storageInfo.getStorageURL(), jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), jadeStorageAttributes))
+                .thenApply(mipsContentResult -> storageContentHelper.uploadContent(mipsContentResult.getResult(), storageInfo.getStorageURL(), jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), jadeStorageAttributes, transferManifest))
                 .thenApply(storageContent -> {
                     String relativizeTo;
                     if (args.mirrorSourceFolders) {
@@ -164,6 +177,8 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
                         logger.info("Remove storage data from {} due to processing error", args.storageLocationURL, exc);
                         // in case of a failure remove the content
                         storageContentHelper.removeRemoteContent(storageInfo.getStorageURL(), storageInfo.getEntryRelativePath(), jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), jadeStorageAttributes);
+                        // the transferred content is gone so nothing can be skipped anymore
+                        transferManifest.clear();
                         jacsServiceDataPersistence.addServiceEvent(
                                 jacsServiceData,
                                 JacsServiceData.createServiceEvent(JacsServiceEventTypes.REMOVE_DATA,
@@ -177,7 +192,8 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
         return ServiceArgs.parse(getJacsServiceArgsArray(jacsServiceData), new DataTreeLoadArgs());
     }
 
-    private List<ContentStack> listContentOrCopyContentToTargetStorage(JacsServiceData jacsServiceData, DataTreeLoadArgs args, StorageEntryInfo targetStorageInfo, JadeStorageAttributes storageAttributes) {
+    private List<ContentStack> listContentOrCopyContentToTargetStorage(JacsServiceData jacsServiceData, DataTreeLoadArgs args, StorageEntryInfo targetStorageInfo, JadeStorageAttributes storageAttributes,
+                                                                       ContentTransferManifest transferManifest) {
         String ownerKey = jacsServiceData.getOwnerKey();
         String authToken = ResourceHelper.getAuthToken(jacsServiceData.getResources());
         if (StringUtils.isNotBlank(args.dataLocationPath)) {
@@ -187,7 +203,7 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
                     .orElseThrow(() -> new IllegalArgumentException("No storage location found for " + args.dataLocationPath))
                     ;
             // copy to the target
-            return storageContentHelper.copyContent(filterContentToUpload(dataContentList, args.fileNameFilter), targetStorageInfo.getStorageURL(), targetStorageInfo.getEntryRelativePath(), ownerKey, authToken, storageAttributes);
+            return storageContentHelper.copyContent(filterContentToUpload(dataContentList, args.fileNameFilter), targetStorageInfo.getStorageURL(), targetStorageInfo.getEntryRelativePath(), ownerKey, authToken, storageAttributes, transferManifest);
         } else {
             return storageContentHelper.listContent(args.storageLocationURL, args.storagePath, jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), storageAttributes);
         }
@@ -207,29 +223,54 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
 
     private ServiceComputation<JacsServiceResult<List<ContentStack>>> generateContentMIPs(JacsServiceData jacsServiceData, DataTreeLoadArgs args, List<ContentStack> contentList, JadeStorageAttributes storageAttributes) {
         if (args.generateMIPS()) {
-            JacsServiceFolder serviceWorkingFolder = getWorkingDirectory(jacsServiceData);
-            Path localMIPSRootPath = serviceWorkingFolder.getServiceFolder("mips");
-            // for the mips inputs it only check if the extension matches the one that require mips - it does not check if the MIPs already exist.
+            Path localMIPSRootPath;
+            if (StringUtils.isNotBlank(args.mipsDir)) {
+                localMIPSRootPath = Paths.get(args.mipsDir);
+            } else {
+                JacsServiceFolder serviceWorkingFolder = getWorkingDirectory(jacsServiceData);
+                localMIPSRootPath = serviceWorkingFolder.getServiceFolder("mips");
+            }
+            GeneratedMIPsIndex mipsIndex = GeneratedMIPsIndex.load(localMIPSRootPath.resolve(MIPS_INDEX_FILENAME));
+            String mipsConversionParams = String.join("|",
+                    StringUtils.defaultString(args.mipsChanSpec),
+                    StringUtils.defaultString(args.mipsColorSpec),
+                    StringUtils.defaultString(args.mipsOptions));
+            // only the inputs for which there are no up to date MIPs are downloaded and converted
             List<ContentStack> mipsInputList = contentList.stream()
                     .filter((ContentStack entry) -> args.isMipsSupported(FileUtils.getFileExtensionOnly(entry.getMainRep().getRemoteInfo().getEntryRelativePath())))
+                    .filter((ContentStack entry) -> {
+                        Optional<List<String>> upToDateMIPs = mipsIndex.getUpToDateMIPs(
+                                entry.getMainRep().getRemoteInfo().getEntryURL(),
+                                entry.getMainRep().getRemoteInfo().getSize(),
+                                mipsConversionParams);
+                        if (upToDateMIPs.isPresent()) {
+                            logger.info("Reuse MIPs {} for {}", upToDateMIPs.get(), entry.getMainRep().getRemoteInfo().getEntryURL());
+                            addMIPsRepresentations(entry, getEntryMIPsDir(localMIPSRootPath, entry), upToDateMIPs.get());
+                            return false;
+                        } else {
+                            return true;
+                        }
+                    })
                     .collect(Collectors.toList());
+            if (mipsInputList.isEmpty()) {
+                return computationFactory.newCompletedComputation(new JacsServiceResult<>(jacsServiceData, contentList));
+            }
             return computationFactory.<List<ContentStack>>newComputation()
-                    .supply(() -> storageContentHelper.downloadUnreachableContent(mipsInputList, localMIPSRootPath, jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), storageAttributes))
-                    .thenCompose((List<ContentStack> downloadedMipsInputs) -> mipsConverterProcessor.process(new ServiceExecutionContext.Builder(jacsServiceData)
+                    .supply(() -> storageContentHelper.downloadUnreachableContent(mipsInputList, entry -> getEntryMIPsDir(localMIPSRootPath, entry), jacsServiceData.getOwnerKey(), ResourceHelper.getAuthToken(jacsServiceData.getResources()), storageAttributes))
+                    .thenApply((List<ContentStack> downloadedMipsInputs) -> downloadedMipsInputs.stream()
+                            .filter(contentEntryInfo -> getMIPsInputPath(contentEntryInfo) != null)
+                            .collect(Collectors.toList()))
+                    .thenCompose((List<ContentStack> availableMipsInputs) -> mipsConverterProcessor.process(new ServiceExecutionContext.Builder(jacsServiceData)
                                     .description("Generate MIPs")
                                     .build(),
-                            new ServiceArg("-inputFiles", downloadedMipsInputs.stream()
-                                    .map(contentEntryInfo -> {
-                                        if (contentEntryInfo.getMainRep().isLocallyReachable()) {
-                                            return contentEntryInfo.getMainRep().getRemoteFullPath();
-                                        } else {
-                                            return contentEntryInfo.getMainRep().getLocalFullPath();
-                                        }
-                                    })
-                                    .filter(p -> p != null)
+                            new ServiceArg("-inputFiles", availableMipsInputs.stream()
+                                    .map(this::getMIPsInputPath)
+                                    .reduce((p1, p2) -> p1 + "," + p2)
+                                    .orElse("")),
+                            new ServiceArg("-outputDirs", availableMipsInputs.stream()
+                                    .map(contentEntryInfo -> getEntryMIPsDir(localMIPSRootPath, contentEntryInfo).toString())
                                     .reduce((p1, p2) -> p1 + "," + p2)
                                     .orElse("")),
-                            new ServiceArg("-outputDir", localMIPSRootPath.toString()),
                             new ServiceArg("-chanSpec", args.mipsChanSpec),
                             new ServiceArg("-colorSpec", args.mipsColorSpec),
                             new ServiceArg("-options", args.mipsOptions))
@@ -241,19 +282,21 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
                                 .stream()
                                 .map(contentEntry -> ImmutablePair.of(
                                         contentEntry,
-                                        indexedMIPsResults.get(contentEntry.getMainRep().isLocallyReachable() ? contentEntry.getMainRep().getRemoteFullPath() : contentEntry.getMainRep().getLocalFullPath())))
+                                        indexedMIPsResults.get(getMIPsInputPath(contentEntry))))
                                 .filter(entryWithResult -> entryWithResult.getRight() != null)
                                 .forEach(entryWithResult -> {
                                     ContentStack contentStackEntry = entryWithResult.getLeft();
                                     MIPsAndMoviesResult mipsAndMoviesResult = entryWithResult.getRight();
-                                    mipsAndMoviesResult.getFileList()
-                                            .forEach(mipsFile -> {
-                                                Path mipsPath = Paths.get(mipsFile);
-                                                Long mipsSize = getFileSize(mipsPath);
-                                                storageContentHelper.addContentRepresentation(contentStackEntry, localMIPSRootPath.toString(), localMIPSRootPath.relativize(mipsPath).toString(), mipsSize, "mips");
-                                            });
+                                    addMIPsRepresentations(contentStackEntry, getEntryMIPsDir(localMIPSRootPath, contentStackEntry), mipsAndMoviesResult.getFileList());
+                                    mipsIndex.recordMIPs(
+                                            contentStackEntry.getMainRep().getRemoteInfo().getEntryURL(),
+                                            contentStackEntry.getMainRep().getRemoteInfo().getSize(),
+                                            getMIPsInputPath(contentStackEntry),
+                                            mipsConversionParams,
+                                            mipsAndMoviesResult.getFileList());
                                 })
                                 ;
+                        mipsIndex.save();
                         return new JacsServiceResult<>(mipsResults.getJacsServiceData(), contentList);
                     });
         } else {
@@ -261,6 +304,34 @@ public class DataTreeLoadProcessor extends AbstractServiceProcessor<List<Content
         }
     }
 
+    private String getMIPsInputPath(ContentStack contentStackEntry) {
+        if (contentStackEntry.getMainRep().isLocallyReachable()) {
+            return contentStackEntry.getMainRep().getRemoteFullPath();
+        } else {
+            return contentStackEntry.getMainRep().getLocalFullPath();
+        }
+    }
+
+    /**
+     * Every input gets its own MIPs directory, named after its URL, so that the downloads and the MIPs of inputs with
+     * the same name - e.g. from different storage locations that share the MIPs directory - do not overwrite each other.
+     */
+    static Path getEntryMIPsDir(Path localMIPSRootPath, String entryURL) {
+        return localMIPSRootPath.resolve(Hashing.murmur3_128().hashString(entryURL, StandardCharsets.UTF_8).toString());
+    }
+
+    private Path getEntryMIPsDir(Path localMIPSRootPath, ContentStack contentStackEntry) {
+        return getEntryMIPsDir(localMIPSRootPath, contentStackEntry.getMainRep().getRemoteInfo().getEntryURL());
+    }
+
+    private void addMIPsRepresentations(ContentStack contentStackEntry, Path entryMIPsPath, List<String> mipsFiles) {
+        mipsFiles.forEach(mipsFile -> {
+            Path mipsPath = Paths.get(mipsFile);
+            Long mipsSize = getFileSize(mipsPath);
+            storageContentHelper.addContentRepresentation(contentStackEntry, entryMIPsPath.toString(), entryMIPsPath.relativize(mipsPath).toString(), mipsSize, "mips");
+        });
+    }
+
     /**
      * @param p
      * @return null if there's any error retrieving file's size
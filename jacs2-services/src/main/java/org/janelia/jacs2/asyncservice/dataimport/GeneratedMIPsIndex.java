@@ -0,0 +1,160 @@
+package org.janelia.jacs2.asyncservice.dataimport;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the MIPs generated for the content inputs. The index is kept next to the MIPs and for each input it records
+ * the input's size, the local file the MIPs were generated from with its modification time and the conversion
+ * parameters used for generating the MIPs so that the MIPs are only regenerated if the input or the parameters changed
+ * or if any of the generated MIPs is missing.
+ */
+class GeneratedMIPsIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GeneratedMIPsIndex.class);
+    // a file lock is held by the whole JVM so the indexes of the same file from this process must also exclude each other
+    private static final Map<Path, Object> INDEX_SAVE_MONITORS = new ConcurrentHashMap<>();
+
+    static class IndexEntry {
+        @JsonProperty
+        private Long inputSize;
+        @JsonProperty
+        private String inputFile;
+        @JsonProperty
+        private Long inputLastModified;
+        @JsonProperty
+        private String conversionParams;
+        @JsonProperty
+        private List<String> mips;
+    }
+
+    static GeneratedMIPsIndex load(Path indexPath) {
+        GeneratedMIPsIndex mipsIndex = new GeneratedMIPsIndex(indexPath);
+        mipsIndex.entries.putAll(readEntries(indexPath));
+        return mipsIndex;
+    }
+
+    private static Map<String, IndexEntry> readEntries(Path indexPath) {
+        if (Files.exists(indexPath)) {
+            try {
+                return ObjectMapperFactory.instance().getDefaultObjectMapper()
+                        .readValue(indexPath.toFile(), new TypeReference<Map<String, IndexEntry>>() {});
+            } catch (IOException e) {
+                LOG.warn("Error reading MIPs index {} - all MIPs will be regenerated", indexPath, e);
+            }
+        }
+        return new HashMap<>();
+    }
+
+    private final Path indexPath;
+    private final Map<String, IndexEntry> entries = new HashMap<>();
+    private final Map<String, IndexEntry> recordedEntries = new HashMap<>();
+
+    private GeneratedMIPsIndex(Path indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * @param input input identifier
+     * @param inputSize input size - if the size is not known the MIPs are never considered up to date
+     * @param conversionParams the parameters used for generating the MIPs
+     * @return the MIPs previously generated from the same input with the same parameters if all of them still exist.
+     * If the local file the MIPs were generated from still exists it must not have been modified since; otherwise only
+     * the input size can be compared without downloading the input again.
+     */
+    synchronized Optional<List<String>> getUpToDateMIPs(String input, Long inputSize, String conversionParams) {
+        IndexEntry indexEntry = entries.get(input);
+        if (inputSize == null || indexEntry == null || indexEntry.mips == null || indexEntry.mips.isEmpty()) {
+            return Optional.empty();
+        }
+        if (!Objects.equals(indexEntry.inputSize, inputSize) || !Objects.equals(indexEntry.conversionParams, conversionParams)) {
+            return Optional.empty();
+        }
+        if (indexEntry.inputFile != null && Files.exists(Paths.get(indexEntry.inputFile)) &&
+                !Objects.equals(indexEntry.inputLastModified, getLastModified(Paths.get(indexEntry.inputFile)))) {
+            return Optional.empty();
+        }
+        if (indexEntry.mips.stream().anyMatch(mipsFile -> Files.notExists(Paths.get(mipsFile)))) {
+            return Optional.empty();
+        }
+        return Optional.of(indexEntry.mips);
+    }
+
+    /**
+     * @param input input identifier
+     * @param inputSize input size
+     * @param inputFile the local or the downloaded file from which the MIPs were generated
+     * @param conversionParams the parameters used for generating the MIPs
+     * @param mips generated MIPs
+     */
+    synchronized void recordMIPs(String input, Long inputSize, String inputFile, String conversionParams, List<String> mips) {
+        IndexEntry indexEntry = new IndexEntry();
+        indexEntry.inputSize = inputSize;
+        if (inputFile != null) {
+            indexEntry.inputFile = inputFile;
+            indexEntry.inputLastModified = getLastModified(Paths.get(inputFile));
+        }
+        indexEntry.conversionParams = conversionParams;
+        indexEntry.mips = new ArrayList<>(mips);
+        entries.put(input, indexEntry);
+        recordedEntries.put(input, indexEntry);
+    }
+
+    private Long getLastModified(Path filePath) {
+        try {
+            return Files.getLastModifiedTime(filePath).toMillis();
+        } catch (IOException e) {
+            LOG.warn("Error reading the modification time of {}", filePath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Merge the recorded entries with the current index, which may have been updated by other services sharing the same
+     * MIPs directory, and write the index to a temporary file first so that a reader never sees a partial index.
+     * The read-merge-write runs under an exclusive lock on a lock file next to the index so that concurrent saves,
+     * from this or from other processes, do not lose each other's entries.
+     */
+    synchronized void save() {
+        if (recordedEntries.isEmpty()) {
+            return;
+        }
+        try {
+            Files.createDirectories(indexPath.getParent());
+            Path lockPath = indexPath.resolveSibling(indexPath.getFileName() + ".lock");
+            synchronized (INDEX_SAVE_MONITORS.computeIfAbsent(lockPath.toAbsolutePath().normalize(), p -> new Object())) {
+                try (FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock ignored = lockChannel.lock()) {
+                    Map<String, IndexEntry> currentEntries = readEntries(indexPath);
+                    currentEntries.putAll(recordedEntries);
+                    Path tmpIndexPath = Files.createTempFile(indexPath.getParent(), indexPath.getFileName().toString(), ".tmp");
+                    ObjectMapperFactory.instance().getDefaultObjectMapper().writeValue(tmpIndexPath.toFile(), currentEntries);
+                    Files.move(tmpIndexPath, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            // if the index cannot be saved the MIPs will simply be regenerated next time
+            LOG.warn("Error saving MIPs index {}", indexPath, e);
+        }
+    }
+}
@@ -5,15 +5,28 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.utils.FileUtils;
 import org.janelia.jacs2.dataservice.storage.StorageService;
@@ -22,19 +35,28 @@ import org.janelia.jacsstorage.clients.api.StorageEntryInfo;
 import org.janelia.jacsstorage.clients.api.StoragePathURI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 /**
- * Helper class for downloading/uploading content to JADE.
+ * Helper class for downloading/uploading content to JADE. The content of a list is transferred concurrently and
+ * the transfers recorded in a {@link ContentTransferManifest} are skipped so a failed import can be resumed.
  */
 //@Deprecated
 public class StorageContentHelper {
 
     private static final Logger LOG = LoggerFactory.getLogger(StorageContentHelper.class);
 
+    private static final int DEFAULT_MAX_TRANSFERS_PER_STORAGE = 8;
+    private static final String PARTIAL_DOWNLOAD_EXT = ".part";
+    // permits are shared by all helpers so the limit applies to all transfers to a storage endpoint
+    private static final Map<String, Semaphore> STORAGE_ENDPOINT_PERMITS = new ConcurrentHashMap<>();
+
     protected final StorageService storageService;
+    private final int maxTransfersPerStorage;
 
-    public StorageContentHelper(StorageService storageService) {
+    public StorageContentHelper(StorageService storageService, int maxTransfersPerStorage) {
         this.storageService = storageService;
+        this.maxTransfersPerStorage = maxTransfersPerStorage > 0 ? maxTransfersPerStorage : DEFAULT_MAX_TRANSFERS_PER_STORAGE;
     }
 
     public Optional<StorageEntryInfo> lookupStorage(String storagePath, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
@@ -92,37 +114,66 @@ public class StorageContentHelper {
      * @return
      */
     List<ContentStack> downloadUnreachableContent(List<ContentStack> contentList, Path downloadLocation, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
-        return contentList.stream()
-                .peek(contentEntry -> {
+        return downloadUnreachableContent(contentList, contentEntry -> downloadLocation, ownerKey, authToken, storageOptions);
+    }
+
+    /**
+     * Download content from the contentList only if it cannot be reached to the download location provided for each entry.
+     */
+    List<ContentStack> downloadUnreachableContent(List<ContentStack> contentList, Function<ContentStack, Path> downloadLocationProvider, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
+        transferAll(contentList,
+                contentEntry -> getStorageEndpoint(contentEntry.getMainRep().getRemoteInfo().getStorageURL()),
+                contentEntry -> {
                     try {
-                        Path remoteEntryPath = Paths.get(contentEntry.getMainRep().getRemoteFullPath());
-                        if (Files.notExists(remoteEntryPath)) {
-                            contentEntry.getMainRep().setLocallyReachable(false);
-                            // if the content is not accessible using the storageRoot then try to download it to the download location (if it's not already there)
-                            String entryRelativePathName = contentEntry.getMainRep().getRemoteInfo().getEntryRelativePath();
-                            Path entryRelativePath = Paths.get(sanitizeFileName(entryRelativePathName));
-                            Path entryFullPath = downloadLocation.resolve(entryRelativePath);
-                            if (Files.notExists(entryFullPath) || Files.size(entryFullPath) == 0) {
-                                // no local copy found - so download it
-                                Files.createDirectories(entryFullPath.getParent());
-                                Files.copy(
-                                        storageService.getStorageContent(contentEntry.getMainRep().getRemoteInfo().getEntryURL(), ownerKey, authToken, storageOptions),
-                                        entryFullPath,
-                                        StandardCopyOption.REPLACE_EXISTING);
-                            }
-                            // set local path info
-                            contentEntry.getMainRep().setLocalBasePath(downloadLocation.toString());
-                            contentEntry.getMainRep().setLocalRelativePath(entryRelativePath.toString());
-                            contentEntry.getMainRep().setSize(Files.size(entryFullPath));
-                        } else {
-                            contentEntry.getMainRep().setLocallyReachable(true);
-                            contentEntry.getMainRep().setSize(Files.size(remoteEntryPath));
-                        }
+                        downloadUnreachableContent(contentEntry.getMainRep(), downloadLocationProvider.apply(contentEntry), ownerKey, authToken, storageOptions);
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
                     }
-                })
-                .collect(Collectors.toList());
+                });
+        return contentList;
+    }
+
+    private void downloadUnreachableContent(StorageContentInfo storageContentInfo, Path downloadLocation, String ownerKey, String authToken, JadeStorageAttributes storageOptions) throws IOException {
+        Path remoteEntryPath = Paths.get(storageContentInfo.getRemoteFullPath());
+        if (Files.notExists(remoteEntryPath)) {
+            storageContentInfo.setLocallyReachable(false);
+            // if the content is not accessible using the storageRoot then try to download it to the download location (if it's not already there)
+            String entryRelativePathName = storageContentInfo.getRemoteInfo().getEntryRelativePath();
+            Path entryRelativePath = Paths.get(sanitizeFileName(entryRelativePathName));
+            Path entryFullPath = downloadLocation.resolve(entryRelativePath);
+            Long remoteSize = storageContentInfo.getRemoteInfo().getSize();
+            if (Files.notExists(entryFullPath) || !isCompleteDownload(Files.size(entryFullPath), remoteSize)) {
+                // no complete local copy found - so download it to a partial file first so that
+                // an interrupted download is never mistaken for a complete one
+                Files.createDirectories(entryFullPath.getParent());
+                Path partialEntryPath = entryFullPath.resolveSibling(entryFullPath.getFileName() + PARTIAL_DOWNLOAD_EXT);
+                try (InputStream contentStream = storageService.getStorageContent(storageContentInfo.getRemoteInfo().getEntryURL(), ownerKey, authToken, storageOptions)) {
+                    long downloadedSize = Files.copy(contentStream, partialEntryPath, StandardCopyOption.REPLACE_EXISTING);
+                    if (remoteSize != null && remoteSize > 0 && downloadedSize != remoteSize) {
+                        throw new IOException("Incomplete download of " + storageContentInfo.getRemoteInfo().getEntryURL() +
+                                " - expected " + remoteSize + " bytes but got " + downloadedSize);
+                    }
+                }
+                Files.move(partialEntryPath, entryFullPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                LOG.info("Skip download of {} because {} is already there", storageContentInfo.getRemoteInfo().getEntryURL(), entryFullPath);
+            }
+            // set local path info
+            storageContentInfo.setLocalBasePath(downloadLocation.toString());
+            storageContentInfo.setLocalRelativePath(entryRelativePath.toString());
+            storageContentInfo.setSize(Files.size(entryFullPath));
+        } else {
+            storageContentInfo.setLocallyReachable(true);
+            storageContentInfo.setSize(Files.size(remoteEntryPath));
+        }
+    }
+
+    private boolean isCompleteDownload(long localSize, Long remoteSize) {
+        if (remoteSize != null && remoteSize > 0) {
+            return localSize == remoteSize;
+        } else {
+            return localSize > 0;
+        }
     }
 
     private String sanitizeFileName(String fname) {
@@ -165,36 +216,48 @@ public class StorageContentHelper {
      * @param ownerKey
      * @param authToken
      * @param storageOptions
+     * @param transferManifest completed transfers which will not be repeated
      * @return
      */
-    List<ContentStack> copyContent(List<ContentStack> contentList, String storageURL, String storagePath, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
-        return contentList
-                .stream()
-                .peek(contentEntry -> {
-                    StorageContentInfo sci = contentEntry.getMainRep();
-                    // if entryURL is there it means that we already have the content on the specified storage
-                    // we transfer it only if the content is a file and is not already on the storage
-                    if (sci.getRemoteInfo().isNotCollection() && sci.getRemoteInfo().getEntryURL() != null) {
-                        copyContent(sci, storageURL, storagePath, ownerKey, authToken, storageOptions);
-                    }
-                })
+    List<ContentStack> copyContent(List<ContentStack> contentList, String storageURL, String storagePath, String ownerKey, String authToken, JadeStorageAttributes storageOptions,
+                                   ContentTransferManifest transferManifest) {
+        // if entryURL is there it means that we already have the content on the specified storage
+        // we transfer it only if the content is a file and is not already on the storage
+        List<StorageContentInfo> contentToCopy = contentList.stream()
+                .map(ContentStack::getMainRep)
+                .filter(sci -> sci.getRemoteInfo().isNotCollection() && sci.getRemoteInfo().getEntryURL() != null)
                 .collect(Collectors.toList());
+        transferAll(contentToCopy,
+                sci -> getStorageEndpoint(storageURL),
+                sci -> copyContent(sci, storageURL, storagePath, ownerKey, authToken, storageOptions, transferManifest));
+        return contentList;
     }
 
-    private void copyContent(StorageContentInfo storageContentInfo, String storageURL, String storagePathParam, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
+    private void copyContent(StorageContentInfo storageContentInfo, String storageURL, String storagePathParam, String ownerKey, String authToken, JadeStorageAttributes storageOptions,
+                             ContentTransferManifest transferManifest) {
+        String storagePath = StringUtils.appendIfMissing(storagePathParam, "/");
+        String targetEntryPath = storagePath + storageContentInfo.getRemoteInfo().getEntryRelativePath();
+        String transferTarget = StringUtils.appendIfMissing(storageURL, "/") + targetEntryPath;
+        Long sourceSize = storageContentInfo.getRemoteInfo().getSize();
+        Optional<StorageEntryInfo> completedTransfer = transferManifest.getCompletedTransfer(transferTarget, sourceSize, null);
+        if (completedTransfer.isPresent()) {
+            LOG.info("Skip copying {} to {} because it was already copied", storageContentInfo, transferTarget);
+            storageContentInfo.setRemoteInfo(completedTransfer.get());
+            return;
+        }
         InputStream inputStream = storageService.getStorageContent(storageContentInfo.getRemoteInfo().getEntryURL(), ownerKey, authToken, storageOptions);
         try {
             if (inputStream != null) {
                 LOG.info("Copy {} to {} {}", storageContentInfo, storageURL, storagePathParam);
-                String storagePath = StringUtils.appendIfMissing(storagePathParam, "/");
                 storageContentInfo.setRemoteInfo(storageService.putStorageContent(
                         storageURL,
-                        storagePath + storageContentInfo.getRemoteInfo().getEntryRelativePath(),
+                        targetEntryPath,
                         ownerKey,
                         authToken,
                         storageOptions,
                         inputStream
                 ));
+                transferManifest.recordTransfer(transferTarget, sourceSize, null, storageContentInfo.getRemoteInfo());
             }
         } finally {
             if (inputStream != null) {
@@ -215,22 +278,43 @@ public class StorageContentHelper {
      * @param ownerKey
      * @param authToken
      * @param storageOptions
+     * @param transferManifest completed transfers which will not be repeated
      * @return
      */
-    List<ContentStack> uploadContent(List<ContentStack> contentList, String storageURL, String ownerKey, String authToken, JadeStorageAttributes storageOptions) {
+    List<ContentStack> uploadContent(List<ContentStack> contentList, String storageURL, String ownerKey, String authToken, JadeStorageAttributes storageOptions,
+                                     ContentTransferManifest transferManifest) {
         LOG.info("Upload content stack {} to {} for {}", contentList, storageURL, ownerKey);
-        return contentList.stream()
-                .peek(contentEntry -> {
-                    Stream.concat(Stream.of(contentEntry.getMainRep()), contentEntry.getAdditionalReps().stream())
-                            .filter(sci -> sci.getRemoteInfo().getEntryURL() == null) // only upload the ones that don't have a storageEntryURL, i.e., not there yet
-                            .forEach(sci -> uploadContent(sci, storageURL, ownerKey, authToken, storageOptions));
-                })
-                .collect(Collectors.toList())
-                ;
+        List<StorageContentInfo> contentToUpload = contentList.stream()
+                .flatMap(contentEntry -> Stream.concat(Stream.of(contentEntry.getMainRep()), contentEntry.getAdditionalReps().stream()))
+                .filter(sci -> sci.getRemoteInfo().getEntryURL() == null) // only upload the ones that don't have a storageEntryURL, i.e., not there yet
+                .collect(Collectors.toList());
+        transferAll(contentToUpload,
+                sci -> getStorageEndpoint(storageURL),
+                sci -> uploadContent(sci, storageURL, ownerKey, authToken, storageOptions, transferManifest));
+        return contentList;
     }
 
-    private void uploadContent(StorageContentInfo storageContentInfo, String storageURL, String subjectKey, String authToken, JadeStorageAttributes storageOptions) {
+    private void uploadContent(StorageContentInfo storageContentInfo, String storageURL, String subjectKey, String authToken, JadeStorageAttributes storageOptions,
+                               ContentTransferManifest transferManifest) {
         Path localPath = Paths.get(storageContentInfo.getLocalBasePath()).resolve(storageContentInfo.getLocalRelativePath());
+        String transferTarget = StringUtils.appendIfMissing(storageURL, "/") + storageContentInfo.getRemoteInfo().getEntryRelativePath();
+        Long localSize = null;
+        Long localLastModified = null;
+        if (Files.exists(localPath)) {
+            try {
+                localSize = Files.size(localPath);
+                FileTime localLastModifiedTime = Files.getLastModifiedTime(localPath);
+                localLastModified = localLastModifiedTime != null ? localLastModifiedTime.toMillis() : null;
+            } catch (IOException e) {
+                LOG.warn("Error reading attributes of {}", localPath, e);
+            }
+        }
+        Optional<StorageEntryInfo> completedTransfer = transferManifest.getCompletedTransfer(transferTarget, localSize, localLastModified);
+        if (completedTransfer.isPresent()) {
+            LOG.info("Skip uploading {} to {} because it was already uploaded", localPath, transferTarget);
+            storageContentInfo.setRemoteInfo(completedTransfer.get());
+            return;
+        }
         InputStream inputStream = openLocalContent(localPath);
         try {
             if (inputStream != null) {
@@ -243,6 +327,7 @@ public class StorageContentHelper {
                         storageOptions,
                         inputStream
                 ));
+                transferManifest.recordTransfer(transferTarget, localSize, localLastModified, storageContentInfo.getRemoteInfo());
             }
         } finally {
             if (inputStream != null) {
@@ -267,6 +352,88 @@ public class StorageContentHelper {
         }
     }
 
+    /**
+     * Run the transfers concurrently but never run more than maxTransfersPerStorage transfers to the same storage
+     * endpoint at the same time, regardless of how many services are transferring content.
+     */
+    private <T> void transferAll(List<T> transferItems, Function<T, String> endpointProvider, Consumer<T> transfer) {
+        if (transferItems.size() <= 1) {
+            transferItems.forEach(item -> transferWithPermit(item, endpointProvider, transfer));
+            return;
+        }
+        ExecutorService transferExecutor = Executors.newFixedThreadPool(
+                Math.min(transferItems.size(), maxTransfersPerStorage),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("JACS-TRANSFER-%d")
+                        .setDaemon(true)
+                        .build());
+        Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+        try {
+            List<Future<?>> transferResults = transferItems.stream()
+                    .map(item -> transferExecutor.submit(() -> {
+                        if (mdcContext != null) {
+                            MDC.setContextMap(mdcContext);
+                        }
+                        try {
+                            transferWithPermit(item, endpointProvider, transfer);
+                        } finally {
+                            MDC.clear();
+                        }
+                    }))
+                    .collect(Collectors.toList());
+            RuntimeException transferException = null;
+            for (Future<?> transferResult : transferResults) {
+                try {
+                    transferResult.get();
+                } catch (ExecutionException e) {
+                    RuntimeException cause = e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause()
+                            : new IllegalStateException(e.getCause());
+                    if (transferException == null) {
+                        transferException = cause;
+                    } else {
+                        transferException.addSuppressed(cause);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (transferException != null) {
+                throw transferException;
+            }
+        } finally {
+            transferExecutor.shutdownNow();
+        }
+    }
+
+    private <T> void transferWithPermit(T item, Function<T, String> endpointProvider, Consumer<T> transfer) {
+        Semaphore endpointPermits = STORAGE_ENDPOINT_PERMITS.computeIfAbsent(endpointProvider.apply(item), endpoint -> new Semaphore(maxTransfersPerStorage));
+        try {
+            endpointPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        try {
+            transfer.accept(item);
+        } finally {
+            endpointPermits.release();
+        }
+    }
+
+    private String getStorageEndpoint(String storageURL) {
+        if (StringUtils.isBlank(storageURL)) {
+            return "";
+        }
+        try {
+            String endpoint = URI.create(storageURL).getAuthority();
+            return endpoint != null ? endpoint : storageURL;
+        } catch (IllegalArgumentException e) {
+            return storageURL;
+        }
+    }
+
     void addContentRepresentation(ContentStack contentStack, String localBasePath, String localRelativePath, Long size, String remotePathPrefixParam) {
         StorageContentInfo newContentRepInfo = new StorageContentInfo();
         newContentRepInfo.setLocalBasePath(localBasePath);
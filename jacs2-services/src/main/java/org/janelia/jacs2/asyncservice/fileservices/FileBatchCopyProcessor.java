@@ -0,0 +1,172 @@
+package org.janelia.jacs2.asyncservice.fileservices;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.beust.jcommander.Parameter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Streams;
+
+import org.janelia.jacs2.asyncservice.common.AbstractExeBasedServiceProcessor;
+import org.janelia.jacs2.asyncservice.common.ComputationException;
+import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
+import org.janelia.jacs2.asyncservice.common.ExternalProcessRunner;
+import org.janelia.jacs2.asyncservice.common.ProcessorHelper;
+import org.janelia.jacs2.asyncservice.common.ServiceArgs;
+import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
+import org.janelia.jacs2.asyncservice.utils.ScriptWriter;
+import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
+import org.janelia.jacs2.cdi.qualifier.PropertyValue;
+import org.janelia.jacs2.config.ApplicationConfig;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.ServiceMetaData;
+import org.slf4j.Logger;
+
+/**
+ * Copies or converts many files using the same convert script as {@link FileCopyProcessor}. The conversions are
+ * packed in batches (see service.fileBatchCopy.batchRuntimeInSeconds) so that a large number of files does not
+ * result in a large number of services and jobs. Each target is written to a temporary file in the target directory
+ * which is only renamed to the target if the conversion succeeded, so a target is either complete or missing.
+ * A failed conversion does not stop the remaining conversions from the batch and the caller is expected
+ * to check which targets were created.
+ */
+@Named("fileBatchCopy")
+public class FileBatchCopyProcessor extends AbstractExeBasedServiceProcessor<Void> {
+
+    public static class FileBatchCopyArgs extends ServiceArgs {
+        @Parameter(names = "-src", description = "Source file names", required = true)
+        List<String> sourceFilenames = new ArrayList<>();
+        @Parameter(names = "-dst", description = "Destination file names - one for each source file", required = true)
+        List<String> targetFilenames = new ArrayList<>();
+        @Parameter(names = "-convert8", arity = 0, description = "If set it converts the images to 8bit", required = false)
+        boolean convertTo8Bits = false;
+    }
+
+    private final String libraryPath;
+    private final String scriptName;
+
+    @Inject
+    FileBatchCopyProcessor(ServiceComputationFactory computationFactory,
+                           JacsServiceDataPersistence jacsServiceDataPersistence,
+                           @Any Instance<ExternalProcessRunner> serviceRunners,
+                           @PropertyValue(name = "service.DefaultWorkingDir") String defaultWorkingDir,
+                           @PropertyValue(name = "VAA3D.Library.Path") String libraryPath,
+                           @PropertyValue(name = "Convert.ScriptPath") String scriptName,
+                           JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
+                           @ApplicationProperties ApplicationConfig applicationConfig,
+                           Logger logger) {
+        super(computationFactory, jacsServiceDataPersistence, serviceRunners, defaultWorkingDir, jacsJobInstanceInfoDao, applicationConfig, logger);
+        this.libraryPath = libraryPath;
+        this.scriptName = scriptName;
+    }
+
+    @Override
+    public ServiceMetaData getMetadata() {
+        return ServiceArgs.getMetadata(FileBatchCopyProcessor.class, new FileBatchCopyArgs());
+    }
+
+    @Override
+    protected void prepareProcessing(JacsServiceData jacsServiceData) {
+        super.prepareProcessing(jacsServiceData);
+        try {
+            FileBatchCopyArgs args = getArgs(jacsServiceData);
+            if (args.sourceFilenames.size() != args.targetFilenames.size()) {
+                throw new ComputationException(jacsServiceData, "The number of source files (" + args.sourceFilenames.size() +
+                        ") and the number of target files (" + args.targetFilenames.size() + ") must be the same");
+            }
+            for (String targetFilename : args.targetFilenames) {
+                Path targetDir = Paths.get(targetFilename).getParent();
+                if (targetDir != null) {
+                    Files.createDirectories(targetDir);
+                }
+            }
+        } catch (ComputationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ComputationException(jacsServiceData, e);
+        }
+    }
+
+    @Override
+    protected boolean supportsBatchedConfigurations() {
+        return true;
+    }
+
+    @Override
+    protected List<ExternalCodeBlock> prepareConfigurationFiles(JacsServiceData jacsServiceData) {
+        FileBatchCopyArgs args = getArgs(jacsServiceData);
+        return Streams.zip(args.sourceFilenames.stream(), args.targetFilenames.stream(), (sourceFilename, targetFilename) -> {
+                    ExternalCodeBlock configFileBlock = new ExternalCodeBlock();
+                    ScriptWriter configWriter = configFileBlock.getCodeWriter();
+                    configWriter.add(sourceFilename);
+                    configWriter.add(targetFilename);
+                    configWriter.close();
+                    return configFileBlock;
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    protected ExternalCodeBlock prepareExternalScript(JacsServiceData jacsServiceData) {
+        FileBatchCopyArgs args = getArgs(jacsServiceData);
+        ExternalCodeBlock externalScriptCode = new ExternalCodeBlock();
+        ScriptWriter codeWriter = externalScriptCode.getCodeWriter();
+        codeWriter.add("failed_conversions=0");
+        codeWriter.add("while read SRC; do");
+        codeWriter.addIndent();
+        // the config file ends with an empty line
+        codeWriter.add("[ -z \"${SRC}\" ] && continue");
+        codeWriter.read("DST");
+        // keep the target's extension for the temporary file because the convert script uses it to select the format
+        codeWriter.setVar("TMP_DST", "$(dirname \"${DST}\")/.tmp_$$_$(basename \"${DST}\")");
+        codeWriter
+                .addWithArgs(getFullExecutableName(scriptName))
+                .addArg("\"${SRC}\"")
+                .addArg("\"${TMP_DST}\"");
+        if (args.convertTo8Bits) {
+            codeWriter.addArg("8");
+        }
+        codeWriter.endArgs("< /dev/null && [ -s \"${TMP_DST}\" ] && mv -f \"${TMP_DST}\" \"${DST}\" || " +
+                "{ echo \"Failed to convert ${SRC} to ${DST}\" >&2; rm -f \"${TMP_DST}\"; failed_conversions=$((failed_conversions + 1)); }");
+        codeWriter.removeIndent();
+        codeWriter.add("done");
+        codeWriter.add("[ ${failed_conversions} -eq 0 ] || exit 1");
+        codeWriter.close();
+        return externalScriptCode;
+    }
+
+    @Override
+    protected Map<String, String> prepareEnvironment(JacsServiceData jacsServiceData) {
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        builder.put(DY_LIBRARY_PATH_VARNAME, getUpdatedEnvValue(DY_LIBRARY_PATH_VARNAME, libraryPath));
+        builder.put("NSLOTS", String.valueOf(ProcessorHelper.getProcessingSlots(jacsServiceData.getResources())));
+        return builder.build();
+    }
+
+    @Override
+    protected Long getProcessingInputSize(JacsServiceData jacsServiceData) {
+        FileBatchCopyArgs args = getArgs(jacsServiceData);
+        return args.sourceFilenames.stream()
+                .map(Paths::get)
+                .filter(Files::exists)
+                .mapToLong(sourcePath -> sourcePath.toFile().length())
+                .sum();
+    }
+
+    private FileBatchCopyArgs getArgs(JacsServiceData jacsServiceData) {
+        return ServiceArgs.parse(getJacsServiceArgsArray(jacsServiceData), new FileBatchCopyArgs());
+    }
+
+}
@@ -1,7 +1,10 @@
 package org.janelia.jacs2.asyncservice.imageservices;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,11 +46,18 @@ import org.slf4j.Logger;
 @Named("deconvolutionJobs")
 public class DeconvolutionJobsProcessor extends AbstractExeBasedServiceProcessor<Void> {
 
+    private static final List<String> SHARED_TASK_ARGS = ImmutableList.of("psf_filepath", "flatfield_dirpath", "background_value", "psf_z_step", "num_iterations");
+    private static final List<String> TILE_TASK_ARGS = ImmutableList.of("tile_filepath", "output_tile_dir", "output_tile_filepath", "data_z_resolution");
+    private static final String SCHEDULED_TILES_ARG = "scheduledTiles";
+    private static final int DEFAULT_TILE_RUNTIME_IN_SECONDS = 600;
+    private static final int MAX_MEASURED_JOBS = 100;
+
     private final String matlabRootDir;
     private final List<String> matlabLibRelativeDirs;
     private final String matlabX11LibRelativeDir;
     private final String deconvolutionExecutable;
     private final DeconvolutionHelper deconvolutionHelper;
+    private final JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
 
     @Inject
     DeconvolutionJobsProcessor(ServiceComputationFactory computationFactory,
@@ -70,6 +80,7 @@ public class DeconvolutionJobsProcessor extends AbstractExeBasedServiceProcessor
         this.matlabX11LibRelativeDir = matlabX11LibRelativeDir;
         this.deconvolutionExecutable = deconvolutionExecutable;
         this.deconvolutionHelper = new DeconvolutionHelper(objectMapper);
+        this.jacsJobInstanceInfoDao = jacsJobInstanceInfoDao;
     }
 
     @Override
@@ -110,14 +121,11 @@ public class DeconvolutionJobsProcessor extends AbstractExeBasedServiceProcessor
     }
 
     private void createScript(JacsServiceData jacsServiceData, DeconvolutionArgs args, ScriptWriter scriptWriter) {
+        // the PSF and the flatfield are shared by all tiles of a task's configuration
         scriptWriter
-                .read("tile_filepath")
-                .read("output_tile_dir")
-                .read("output_tile_filepath")
                 .read("psf_filepath")
                 .read("flatfield_dirpath")
                 .read("background_value")
-                .read("data_z_resolution")
                 .read("psf_z_step")
                 .read("num_iterations");
         // set MCR_CACHE
@@ -127,8 +135,39 @@ public class DeconvolutionJobsProcessor extends AbstractExeBasedServiceProcessor
                 .add("else")
                 .addIndent().exportVar("MCR_CACHE_ROOT", "`mktemp -u`").removeIndent()
                 .add("fi");
-        // create output directory
         scriptWriter.add("umask 0002");
+        // copy the PSF and the flatfield to the local disk once so that they are not read again
+        // from the shared filesystem for every tile
+        scriptWriter
+                .add("if [ -d /scratch ] ; then")
+                .addIndent()
+                .add("mkdir -p /scratch/${USER}")
+                .setVar("local_data_dir", "`mktemp -d -p /scratch/${USER}`")
+                .removeIndent()
+                .add("else")
+                .addIndent().setVar("local_data_dir", "`mktemp -d`").removeIndent()
+                .add("fi")
+                .add("trap \"rm -rf ${local_data_dir}\" EXIT")
+                .add("if [ -f \"${psf_filepath}\" ] ; then")
+                .addIndent()
+                .add("cp \"${psf_filepath}\" ${local_data_dir} && psf_filepath=${local_data_dir}/`basename \"${psf_filepath}\"`")
+                .removeIndent()
+                .add("fi")
+                .add("if [ -d \"${flatfield_dirpath}\" ] ; then")
+                .addIndent()
+                .add("cp -r \"${flatfield_dirpath}\" ${local_data_dir} && flatfield_dirpath=${local_data_dir}/`basename \"${flatfield_dirpath}\"`")
+                .removeIndent()
+                .add("fi");
+        // deconvolve all tiles from the configuration
+        scriptWriter.setVar("failed_tiles", "0");
+        scriptWriter.add("while read tile_filepath; do");
+        scriptWriter.addIndent();
+        // the config file ends with an empty line
+        scriptWriter.add("[ -z \"$tile_filepath\" ] && continue");
+        scriptWriter
+                .read("output_tile_dir")
+                .read("output_tile_filepath")
+                .read("data_z_resolution");
         scriptWriter.add("echo trying to create $output_tile_dir");
         scriptWriter.add("mkdir -p $output_tile_dir");
         // invoke matlab deconvolution tool
@@ -154,29 +193,101 @@ public class DeconvolutionJobsProcessor extends AbstractExeBasedServiceProcessor
                 .addArg("$data_z_resolution")
                 .addArg("$psf_z_step")
                 .addArg("$num_iterations")
-                .endArgs();
+                .endArgs("< /dev/null || { echo \"Error deconvolving $tile_filepath\" >&2; failed_tiles=$((failed_tiles + 1)); }");
+        scriptWriter.removeIndent();
+        scriptWriter.add("done");
+        scriptWriter.add("[ $failed_tiles -eq 0 ]");
     }
 
+    /**
+     * Each configuration contains the tiles that share the same PSF and flatfield followed by their task arguments.
+     * Tiles whose deconvolved output is newer than their inputs are not deconvolved again and the number of tiles
+     * per configuration is sized such that a task takes about service.[name].batchRuntimeInSeconds based on
+     * the tile runtime measured from the service's previous jobs.
+     */
     @Override
     protected List<ExternalCodeBlock> prepareConfigurationFiles(JacsServiceData jacsServiceData) {
         DeconvolutionArgs args = getArgs(jacsServiceData);
-        return prepareJobConfigs(args)
-                .map(instanceArgs -> {
-                    ExternalCodeBlock instanceConfig = new ExternalCodeBlock();
-                    ScriptWriter configWriter = instanceConfig.getCodeWriter();
-                    configWriter.add(getTileTaskArg(instanceArgs, "tile_filepath"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "output_tile_dir"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "output_tile_filepath"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "psf_filepath"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "flatfield_dirpath"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "background_value"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "data_z_resolution"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "psf_z_step"));
-                    configWriter.add(getTileTaskArg(instanceArgs, "num_iterations"));
-                    configWriter.close();
-                    return instanceConfig;
+        Map<List<String>, List<Map<String, String>>> tileTasksBySharedArgs = prepareJobConfigs(args)
+                .filter(tileTaskArgs -> {
+                    if (isTileDeconvolved(tileTaskArgs)) {
+                        logger.info("Skip tile {} because {} is newer than its inputs", tileTaskArgs.get("tile_filepath"), tileTaskArgs.get("output_tile_filepath"));
+                        return false;
+                    } else {
+                        return true;
+                    }
                 })
-                .collect(Collectors.toList());
+                .collect(Collectors.groupingBy(
+                        tileTaskArgs -> SHARED_TASK_ARGS.stream().map(argName -> getTileTaskArg(tileTaskArgs, argName)).collect(Collectors.toList()),
+                        LinkedHashMap::new,
+                        Collectors.toList()));
+        int numTiles = tileTasksBySharedArgs.values().stream().mapToInt(List::size).sum();
+        jacsServiceData.addDictionaryArg(SCHEDULED_TILES_ARG, String.valueOf(numTiles));
+        int tilesPerTask = getTilesPerTask(jacsServiceData);
+        List<ExternalCodeBlock> taskConfigs = new ArrayList<>();
+        tileTasksBySharedArgs.forEach((sharedArgs, tileTasks) -> {
+            for (int tasksStart = 0; tasksStart < tileTasks.size(); tasksStart += tilesPerTask) {
+                ExternalCodeBlock taskConfig = new ExternalCodeBlock();
+                ScriptWriter configWriter = taskConfig.getCodeWriter();
+                sharedArgs.forEach(configWriter::add);
+                tileTasks.subList(tasksStart, Math.min(tasksStart + tilesPerTask, tileTasks.size()))
+                        .forEach(tileTaskArgs -> TILE_TASK_ARGS.forEach(argName -> configWriter.add(getTileTaskArg(tileTaskArgs, argName))));
+                configWriter.close();
+                taskConfigs.add(taskConfig);
+            }
+        });
+        logger.info("Scheduled {} tiles in {} tasks with up to {} tiles per task for {}", numTiles, taskConfigs.size(), tilesPerTask, jacsServiceData);
+        return taskConfigs;
+    }
+
+    /**
+     * The input size of a deconvolution job is the number of tiles it processes.
+     */
+    @Override
+    protected Long getProcessingInputSize(JacsServiceData jacsServiceData) {
+        String scheduledTiles = jacsServiceData.getDictionaryArgAsString(SCHEDULED_TILES_ARG);
+        return StringUtils.isNotBlank(scheduledTiles) ? Long.valueOf(scheduledTiles) : null;
+    }
+
+    private int getTilesPerTask(JacsServiceData jacsServiceData) {
+        ApplicationConfig applicationConfig = getApplicationConfig();
+        int batchRuntimeInSeconds = applicationConfig.getIntegerPropertyValue(
+                "service." + jacsServiceData.getName() + ".batchRuntimeInSeconds",
+                applicationConfig.getIntegerPropertyValue("service.batchRuntimeInSeconds", 0));
+        if (batchRuntimeInSeconds <= 0) {
+            return 1;
+        }
+        double[] tileRuntimes = jacsJobInstanceInfoDao.findRecentServiceJobInstances(jacsServiceData.getName(), null, MAX_MEASURED_JOBS).stream()
+                .filter(jobInstance -> jobInstance.getExitCode() != null && jobInstance.getExitCode() == 0)
+                .filter(jobInstance -> jobInstance.getRunSecs() != null && jobInstance.getRunSecs() > 0)
+                .filter(jobInstance -> jobInstance.getInputSize() != null && jobInstance.getInputSize() > 0)
+                .mapToDouble(jobInstance -> jobInstance.getRunSecs() / (double) jobInstance.getInputSize())
+                .sorted()
+                .toArray();
+        double tileRuntimeInSeconds = tileRuntimes.length > 0
+                ? Math.max(1., tileRuntimes[tileRuntimes.length / 2])
+                : applicationConfig.getIntegerPropertyValue("service." + jacsServiceData.getName() + ".configRuntimeInSeconds", DEFAULT_TILE_RUNTIME_IN_SECONDS);
+        return Math.max(1, (int) (batchRuntimeInSeconds / tileRuntimeInSeconds));
+    }
+
+    private boolean isTileDeconvolved(Map<String, String> tileTaskArgs) {
+        String outputTileFile = tileTaskArgs.get("output_tile_filepath");
+        if (StringUtils.isBlank(outputTileFile) || FileUtils.fileNotExists(outputTileFile)) {
+            return false;
+        }
+        try {
+            long outputTimestamp = Files.getLastModifiedTime(Paths.get(outputTileFile)).toMillis();
+            for (String inputFile : new String[] {tileTaskArgs.get("tile_filepath"), tileTaskArgs.get("psf_filepath")}) {
+                if (StringUtils.isNotBlank(inputFile) && FileUtils.fileExists(inputFile) &&
+                        Files.getLastModifiedTime(Paths.get(inputFile)).toMillis() > outputTimestamp) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("Error checking the timestamps of {}", outputTileFile, e);
+            return false;
+        }
     }
 
     private String getTileTaskArg(Map<String, String> tileTaskArgs, String argName) {
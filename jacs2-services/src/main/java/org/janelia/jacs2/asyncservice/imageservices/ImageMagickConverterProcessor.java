@@ -165,15 +165,28 @@ public class ImageMagickConverterProcessor extends AbstractExeBasedServiceProces
     protected ExternalCodeBlock prepareExternalScript(JacsServiceData jacsServiceData) {
         ExternalCodeBlock externalScriptCode = new ExternalCodeBlock();
         ScriptWriter externalScriptWriter = externalScriptCode.getCodeWriter();
-        externalScriptWriter.read("INPUT");
+        // convert all input/output pairs from the configuration so that several conversions can be packed in one process
+        externalScriptWriter.add("failed_conversions=0");
+        externalScriptWriter.add("while read INPUT; do");
+        externalScriptWriter.addIndent();
+        // the config file ends with an empty line
+        externalScriptWriter.add("[ -z \"${INPUT}\" ] && continue");
         externalScriptWriter.read("OUTPUT");
         externalScriptWriter.addWithArgs(getExecutable())
-                .addArgs("${INPUT}", "${OUTPUT}")
-                .endArgs("");
+                .addArgs("\"${INPUT}\"", "\"${OUTPUT}\"")
+                .endArgs("< /dev/null || { echo \"Error converting ${INPUT} to ${OUTPUT}\" >&2; failed_conversions=$((failed_conversions + 1)); }");
+        externalScriptWriter.removeIndent();
+        externalScriptWriter.add("done");
+        externalScriptWriter.add("[ ${failed_conversions} -eq 0 ] || exit 1");
         externalScriptWriter.close();
         return externalScriptCode;
     }
 
+    @Override
+    protected boolean supportsBatchedConfigurations() {
+        return true;
+    }
+
     @Override
     protected List<ExternalCodeBlock> prepareConfigurationFiles(JacsServiceData jacsServiceData) {
         ImageConverterArgs args = getArgs(jacsServiceData);
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import javax.inject.Inject;
@@ -46,6 +47,9 @@ public class MultiInputMIPsAndMoviesProcessor extends AbstractServiceProcessor<L
         String options = "mips:movies:hist";
         @Parameter(names = "-outputDir", description = "MIPs output directory")
         String outputDir;
+        @Parameter(names = "-outputDirs", description = "MIPs output directory for each input file, in the same order as the input files. " +
+                "If set it takes precedence over the outputDir")
+        List<String> outputDirs = new ArrayList<>();
 
         MIPsAndMoviesConverterArgs() {
             super("Service which takes a list of LSMs, TIFF or VAA3D files and generates the corresponding MIPs and movies");
@@ -127,12 +131,16 @@ public class MultiInputMIPsAndMoviesProcessor extends AbstractServiceProcessor<L
         } else {
             resultsDir = Paths.get(args.outputDir);
         }
-        return args.inputFiles.stream()
-                .map(inputName -> {
+        if (CollectionUtils.isNotEmpty(args.outputDirs) && args.outputDirs.size() != args.inputFiles.size()) {
+            throw new IllegalArgumentException("The number of output directories " + args.outputDirs.size() +
+                    " does not match the number of input files " + args.inputFiles.size());
+        }
+        return IntStream.range(0, args.inputFiles.size())
+                .mapToObj(inputIndex -> {
                     MIPsAndMoviesArgs mipsAndMoviesArgs = new MIPsAndMoviesArgs();
-                    mipsAndMoviesArgs.imageFile = inputName;
+                    mipsAndMoviesArgs.imageFile = args.inputFiles.get(inputIndex);
                     mipsAndMoviesArgs.chanSpec = args.chanSpec;
-                    mipsAndMoviesArgs.resultsDir = resultsDir.toString();
+                    mipsAndMoviesArgs.resultsDir = CollectionUtils.isNotEmpty(args.outputDirs) ? args.outputDirs.get(inputIndex) : resultsDir.toString();
                     mipsAndMoviesArgs.options = args.options;
                     return mipsAndMoviesArgs;
                 });
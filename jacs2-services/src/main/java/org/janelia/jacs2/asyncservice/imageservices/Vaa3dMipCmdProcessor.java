@@ -148,15 +148,28 @@ public class Vaa3dMipCmdProcessor extends AbstractExeBasedServiceProcessor<List<
     }
 
     private void createScript(Map<String, String> resources, ScriptWriter scriptWriter) {
-        scriptWriter.read("INPUT");
+        scriptWriter.exportVar("NSLOTS", String.valueOf(ProcessorHelper.getProcessingSlots(resources)));
+        // generate the MIPs for all inputs from the configuration so that several inputs can be packed in one process
+        scriptWriter.add("failed_mips=0");
+        scriptWriter.add("while read INPUT; do");
+        scriptWriter.addIndent();
+        // the config file ends with an empty line
+        scriptWriter.add("[ -z \"${INPUT}\" ] && continue");
         scriptWriter.read("OUTPUT");
         scriptWriter.read("EXTRA_OPTIONS");
-        scriptWriter.exportVar("NSLOTS", String.valueOf(ProcessorHelper.getProcessingSlots(resources)));
         scriptWriter.addWithArgs(getExecutable())
                 .addArgs("-cmd", "image-loader")
                 .addArg("-mip")
-                .addArgs("${INPUT}", "${OUTPUT}", "${EXTRA_OPTIONS}")
-                .endArgs("");
+                .addArgs("\"${INPUT}\"", "\"${OUTPUT}\"", "${EXTRA_OPTIONS}")
+                .endArgs("< /dev/null || { echo \"Error generating the MIP for ${INPUT}\" >&2; failed_mips=$((failed_mips + 1)); }");
+        scriptWriter.removeIndent();
+        scriptWriter.add("done");
+        scriptWriter.add("[ ${failed_mips} -eq 0 ] || exit 1");
+    }
+
+    @Override
+    protected boolean supportsBatchedConfigurations() {
+        return true;
     }
 
     @Override
@@ -175,6 +188,16 @@ public class Vaa3dMipCmdProcessor extends AbstractExeBasedServiceProcessor<List<
         }).collect(Collectors.toList());
     }
 
+    @Override
+    protected Long getProcessingInputSize(JacsServiceData jacsServiceData) {
+        Vaa3MipCmdArgs args = getArgs(jacsServiceData);
+        return args.inputFiles.stream()
+                .map(inputFile -> new File(inputFile))
+                .filter(File::exists)
+                .mapToLong(File::length)
+                .sum();
+    }
+
     @Override
     protected Map<String, String> prepareEnvironment(JacsServiceData jacsServiceData) {
         return ImmutableMap.of(DY_LIBRARY_PATH_VARNAME, getUpdatedEnvValue(DY_LIBRARY_PATH_VARNAME, libraryPath));
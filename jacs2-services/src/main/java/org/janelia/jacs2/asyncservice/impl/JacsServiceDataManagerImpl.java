@@ -24,8 +24,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class JacsServiceDataManagerImpl implements JacsServiceDataManager {
@@ -78,6 +80,7 @@ public class JacsServiceDataManagerImpl implements JacsServiceDataManager {
                             return false;
                         }
                     })
+                    .sorted()
                     ;
         }
     }
@@ -106,6 +109,16 @@ public class JacsServiceDataManagerImpl implements JacsServiceDataManager {
         return streamServiceOutputFiles(serviceData.getErrorPath());
     }
 
+    @Override
+    public List<Path> getServiceStdOutputFiles(JacsServiceData serviceData) {
+        return streamOutputDir(serviceData.getOutputPath()).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Path> getServiceStdErrorFiles(JacsServiceData serviceData) {
+        return streamOutputDir(serviceData.getErrorPath()).collect(Collectors.toList());
+    }
+
     private Stream<Supplier<NamedData<InputStream>>> streamServiceOutputFiles(String outputDir) {
         return streamOutputDir(outputDir)
                 .map(outputPath -> () -> {
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.EnumUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.common.AbstractServiceProcessor;
 import org.janelia.jacs2.asyncservice.common.ContinuationCond;
@@ -28,14 +29,17 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Complete lightsheet pipeline processing service which invokes multiple LightsheetPipelineProcessor steps.
+ * Consecutive steps marked with "fuseWithPrevious" in the pipeline config are run as a single step job.
  *
  * @author David Ackerman
  */
@@ -78,24 +82,30 @@ public class LightsheetPipelineProcessor extends AbstractServiceProcessor<Void>
         List<Map<String, Object>> lightsheetStepsConfigs = getLightsheetSteps(lightsheetPipelineConfig);
         ServiceComputation<JacsServiceResult<Void>> stage = computationFactory.newCompletedComputation(new JacsServiceResult<>(null));
         int index = 0;
-        for (Map<String, Object> lightsheetStepConfig : lightsheetStepsConfigs) {
+        for (List<Map<String, Object>> fusedStepsConfigs : fuseSteps(lightsheetStepsConfigs)) {
+            Map<String, Object> lightsheetStepConfig = fusedStepsConfigs.get(0);
             String stepName = getStepName(lightsheetStepConfig);
-            if (!NON_EXECUTABLE_STEPS.contains(stepName)) {
-                final int stepIndex = index;
-                String description = String.format("Step %d - running %s", stepIndex + 1, stepName);
-                stage = stage.thenCompose(previousStageResult -> lightsheetPipelineStepProcessor.process(
-                        new ServiceExecutionContext.Builder(jacsServiceData)
-                                .description(description)
-                                .waitFor(previousStageResult.getJacsServiceData())
-                                .addDictionaryArgs(lightsheetStepConfig)
-                                .addResources(jacsServiceData.getResources())
-                                .addResources(getStepResources(lightsheetStepConfig))
-                                .build(),
-                        new ServiceArg("-step", stepName),
-                        new ServiceArg("-stepIndex", stepIndex)
-                ));
-                index++;
+            final int stepIndex = index;
+            String description = String.format("Step %d - running %s", stepIndex + 1,
+                    fusedStepsConfigs.stream().map(this::getStepName).collect(Collectors.joining("+")));
+            Map<String, Object> stepDictionaryArgs = new LinkedHashMap<>(lightsheetStepConfig);
+            Map<String, String> stepResources = new LinkedHashMap<>();
+            fusedStepsConfigs.forEach(stepConfig -> stepResources.putAll(getStepResources(stepConfig)));
+            if (fusedStepsConfigs.size() > 1) {
+                stepDictionaryArgs.put(LightsheetPipelineStepProcessor.FUSED_STEPS_ARG, fusedStepsConfigs.subList(1, fusedStepsConfigs.size()));
             }
+            stage = stage.thenCompose(previousStageResult -> lightsheetPipelineStepProcessor.process(
+                    new ServiceExecutionContext.Builder(jacsServiceData)
+                            .description(description)
+                            .waitFor(previousStageResult.getJacsServiceData())
+                            .addDictionaryArgs(stepDictionaryArgs)
+                            .addResources(jacsServiceData.getResources())
+                            .addResources(stepResources)
+                            .build(),
+                    new ServiceArg("-step", stepName),
+                    new ServiceArg("-stepIndex", stepIndex)
+            ));
+            index++;
         }
         // wait until all steps are done and then return the last result
         return stage.thenSuspendUntil((JacsServiceResult<Void> lastStepResult) -> new ContinuationCond.Cond<>(lastStepResult, areAllDependenciesDone(jacsServiceData)))
@@ -136,6 +146,39 @@ public class LightsheetPipelineProcessor extends AbstractServiceProcessor<Void>
         return lightsheetSteps == null ? Collections.emptyList() : lightsheetSteps;
     }
 
+    /**
+     * Group the executable steps so that a step marked with "fuseWithPrevious" runs in the same job as the step before it.
+     * Only steps that split their work by time points can be fused since the fused steps process the same time points.
+     */
+    private List<List<Map<String, Object>>> fuseSteps(List<Map<String, Object>> stepsConfigs) {
+        List<List<Map<String, Object>>> fusedStepsConfigs = new ArrayList<>();
+        List<Map<String, Object>> currentStepsConfigs = null;
+        for (Map<String, Object> stepConfig : stepsConfigs) {
+            if (NON_EXECUTABLE_STEPS.contains(getStepName(stepConfig))) {
+                continue;
+            }
+            if (currentStepsConfigs != null && isFusedWithPrevious(stepConfig)
+                    && canSplitByTimePoints(stepConfig) && canSplitByTimePoints(currentStepsConfigs.get(currentStepsConfigs.size() - 1))) {
+                currentStepsConfigs.add(stepConfig);
+            } else {
+                currentStepsConfigs = new ArrayList<>();
+                currentStepsConfigs.add(stepConfig);
+                fusedStepsConfigs.add(currentStepsConfigs);
+            }
+        }
+        return fusedStepsConfigs;
+    }
+
+    private boolean isFusedWithPrevious(Map<String, Object> stepConfig) {
+        Object fuseWithPrevious = stepConfig.get("fuseWithPrevious");
+        return fuseWithPrevious != null && Boolean.parseBoolean(fuseWithPrevious.toString());
+    }
+
+    private boolean canSplitByTimePoints(Map<String, Object> stepConfig) {
+        return EnumUtils.isValidEnum(LightsheetPipelineStep.class, getStepName(stepConfig))
+                && !LightsheetPipelineStep.valueOf(getStepName(stepConfig)).cannotSplitJob();
+    }
+
     @SuppressWarnings("unchecked")
     private Map<String, String> getStepResources(Map<String, Object> stepConfig) {
         Map<String, String> stepResources = (Map<String, String>)stepConfig.get("stepResources");
@@ -26,7 +26,14 @@ import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.jacs2.DataInterval;
+import org.janelia.model.jacs2.page.PageRequest;
+import org.janelia.model.jacs2.page.PageResult;
+import org.janelia.model.jacs2.page.SortCriteria;
+import org.janelia.model.jacs2.page.SortDirection;
 import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceState;
 import org.janelia.model.service.ServiceMetaData;
 import org.slf4j.Logger;
 
@@ -45,6 +52,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
@@ -55,6 +63,10 @@ import java.util.stream.IntStream;
 @Named("lightsheetPipelineStep")
 public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Void> {
 
+    static final String FUSED_STEPS_ARG = "fusedSteps";
+    private static final String TIME_POINTS_PER_JOB_ARG = "timePointsPerJob";
+    private static final int MAX_MEASURED_RUNS = 10;
+
     static class LightsheetPipelineStepArgs extends ServiceArgs {
         @Parameter(names = "-step", description = "Which pipeline step to run", required = true)
         LightsheetPipelineStep step;
@@ -64,12 +76,31 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         String containerImage;
         @Parameter(names = "-numTimePoints", description = "Number of time points")
         Integer numTimePoints = 0;
-        @Parameter(names = "-timePointsPerJob", description = "Number of time points per job")
-        Integer timePointsPerJob = 1;
+        @Parameter(names = "-timePointsPerJob", description = "Number of time points per job. " +
+                "If not set it is derived from the per time point cost measured in previous runs of the same step")
+        Integer timePointsPerJob = 0;
         @Parameter(names = "-configReference", description = "Job's configuration reference")
         String pipelineConfigReference;
     }
 
+    /**
+     * A step that runs in the step job. Besides the step for which the service was invoked the job may also run
+     * the steps fused with it, which process the same time points.
+     */
+    private static class StepInvocation {
+        private final LightsheetPipelineStep step;
+        private final Map<String, Object> stepParameters;
+        private final String stepConfigFile;
+        private final String containerLocation;
+
+        private StepInvocation(LightsheetPipelineStep step, Map<String, Object> stepParameters, String stepConfigFile, String containerLocation) {
+            this.step = step;
+            this.stepParameters = stepParameters;
+            this.stepConfigFile = stepConfigFile;
+            this.containerLocation = containerLocation;
+        }
+    }
+
     private static class StepJobArgs {
         private final List<String> commonBatchArgs; // common arguments for all instances
         private final List<String> instanceArgs = new ArrayList<>(); // arguments specific to each member instance of the batch
@@ -82,6 +113,7 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
     private final WrappedServiceProcessor<PullSingularityContainerProcessor, File> pullContainerProcessor;
     private final WrappedServiceProcessor<SimpleRunSingularityContainerProcessor, Void> runContainerProcessor;
     private final ApplicationConfig applicationConfig;
+    private final JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
     private final ObjectMapper objectMapper;
 
     @Inject
@@ -91,12 +123,14 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
                                     @ApplicationProperties ApplicationConfig applicationConfig,
                                     PullSingularityContainerProcessor pullContainerProcessor,
                                     SimpleRunSingularityContainerProcessor runContainerProcessor,
+                                    JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
                                     ObjectMapper objectMapper,
                                     Logger logger) {
         super(computationFactory, jacsServiceDataPersistence, defaultWorkingDir, logger);
         this.pullContainerProcessor = new WrappedServiceProcessor<>(computationFactory, jacsServiceDataPersistence, pullContainerProcessor);
         this.runContainerProcessor = new WrappedServiceProcessor<>(computationFactory, jacsServiceDataPersistence, runContainerProcessor);
         this.applicationConfig = applicationConfig;
+        this.jacsJobInstanceInfoDao = jacsJobInstanceInfoDao;
         this.objectMapper = objectMapper;
     }
 
@@ -105,39 +139,49 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         return ServiceArgs.getMetadata(LightsheetPipelineStepProcessor.class, new LightsheetPipelineStepArgs());
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public ServiceComputation<JacsServiceResult<Void>> process(JacsServiceData jacsServiceData) {
         try {
             LightsheetPipelineStepArgs args = getArgs(jacsServiceData);
-            Map<String, Object> stepParameters = getStepParameters(jacsServiceData.getActualDictionaryArgs());
-            String stepConfigFile = getSavedStepConfigFile(jacsServiceData, args, stepParameters);
+            List<StepInvocation> stepInvocations = getStepInvocations(jacsServiceData, args);
+            StepInvocation mainStep = stepInvocations.get(0);
             int numTimePoints = args.numTimePoints <= 0
-                    ? getNumTimePointsFromJsonConfig(stepParameters)
+                    ? getNumTimePointsFromJsonConfig(mainStep.stepParameters)
                     : args.numTimePoints;
-            String stepConfigPath = Paths.get(stepConfigFile).getParent().toString();
-            String containerLocation = getContainerLocation(stepParameters, args);
-            StepJobArgs stepJobArgs = getStepJobArgs(stepConfigFile, args, numTimePoints);
-            Map<String, String> stepResources = prepareResources(args, jacsServiceData.getResources());
+            String stepConfigPath = Paths.get(mainStep.stepConfigFile).getParent().toString();
+            String stepsTag = getStepsTag(stepInvocations);
+            int timePointsPerJob = args.timePointsPerJob > 0 || mainStep.step.cannotSplitJob()
+                    ? args.timePointsPerJob
+                    : getMeasuredTimePointsPerJob(stepsTag, numTimePoints);
+            List<StepJobArgs> stepJobArgs = stepInvocations.stream()
+                    .map(stepInvocation -> getStepJobArgs(stepInvocation.stepConfigFile, stepInvocation.step, numTimePoints, timePointsPerJob))
+                    .collect(Collectors.toList());
+            Map<String, String> stepResources = prepareResources(stepInvocations, jacsServiceData.getResources());
 
             Map<String, String> dataMountPoints = new LinkedHashMap<>();
             dataMountPoints.put(stepConfigPath, stepConfigPath);
             dataMountPoints.putAll(getDataMountPointsFromAppConfig());
             dataMountPoints.putAll(getDataMountPointsFromDictionaryArgs(jacsServiceData.getActualDictionaryArgs()));
-            dataMountPoints.putAll(getDataMountPointsFromStepConfig(stepParameters));
-
-            return pullContainerProcessor.process(
-                    new ServiceExecutionContext.Builder(jacsServiceData)
-                            .description("Pull container image " + containerLocation)
-                            .build(),
-                    new ServiceArg("-containerLocation", containerLocation))
-                    .thenCompose(containerImageResult -> createStepJobComputation(
-                                containerImageResult,
+            stepInvocations.forEach(stepInvocation -> dataMountPoints.putAll(getDataMountPointsFromStepConfig(stepInvocation.stepParameters)));
+
+            List<ServiceComputation<?>> containerImageComputations = stepInvocations.stream()
+                    .map(stepInvocation -> pullContainerProcessor.process(
+                            new ServiceExecutionContext.Builder(jacsServiceData)
+                                    .description("Pull container image " + stepInvocation.containerLocation)
+                                    .build(),
+                            new ServiceArg("-containerLocation", stepInvocation.containerLocation)))
+                    .collect(Collectors.toList());
+            return computationFactory.newCompletedComputation(jacsServiceData)
+                    .thenComposeAll(containerImageComputations, (sd, containerImageResults) -> createStepJobComputation(
+                                (List<JacsServiceResult<File>>) containerImageResults,
                                 dataMountPoints,
-                                args.step,
+                                stepInvocations,
                                 args.stepIndex,
                                 stepResources,
-                                stepJobArgs.commonBatchArgs,
-                                stepJobArgs.instanceArgs,
+                                stepJobArgs,
+                                stepsTag,
+                                timePointsPerJob,
                                 jacsServiceData))
                     .thenApply(r -> new JacsServiceResult<>(jacsServiceData))
                     ;
@@ -147,13 +191,41 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         }
     }
 
-    private ServiceComputation<JacsServiceResult<Void>> createStepJobComputation(JacsServiceResult<File> containerImageResult,
+    @SuppressWarnings("unchecked")
+    private List<StepInvocation> getStepInvocations(JacsServiceData jacsServiceData, LightsheetPipelineStepArgs args) {
+        List<StepInvocation> stepInvocations = new ArrayList<>();
+        Map<String, Object> stepParameters = getStepParameters(jacsServiceData.getActualDictionaryArgs());
+        stepInvocations.add(new StepInvocation(
+                args.step,
+                stepParameters,
+                getSavedStepConfigFile(jacsServiceData, args, args.step, stepParameters),
+                getContainerLocation(stepParameters, args.step, args.containerImage)));
+        List<Map<String, Object>> fusedStepsConfigs = (List<Map<String, Object>>) jacsServiceData.getActualDictionaryArgs().get(FUSED_STEPS_ARG);
+        if (fusedStepsConfigs != null) {
+            for (Map<String, Object> fusedStepConfig : fusedStepsConfigs) {
+                LightsheetPipelineStep fusedStep = LightsheetPipelineStep.valueOf((String) fusedStepConfig.get("name"));
+                if (args.step.cannotSplitJob() || fusedStep.cannotSplitJob()) {
+                    throw new IllegalArgumentException("Step " + fusedStep + " cannot be fused with " + args.step + " because they do not split the work by time points");
+                }
+                Map<String, Object> fusedStepParameters = getStepParameters(fusedStepConfig);
+                stepInvocations.add(new StepInvocation(
+                        fusedStep,
+                        fusedStepParameters,
+                        getSavedStepConfigFile(jacsServiceData, args, fusedStep, fusedStepParameters),
+                        getContainerLocation(fusedStepParameters, fusedStep, null)));
+            }
+        }
+        return stepInvocations;
+    }
+
+    private ServiceComputation<JacsServiceResult<Void>> createStepJobComputation(List<JacsServiceResult<File>> containerImageResults,
                                                                                  Map<String, String> mountPoints,
-                                                                                 LightsheetPipelineStep step,
+                                                                                 List<StepInvocation> stepInvocations,
                                                                                  int stepIndex,
                                                                                  Map<String, String> jobResources,
-                                                                                 List<String> stepArgs,
-                                                                                 List<String> jobInstanceArgs,
+                                                                                 List<StepJobArgs> stepJobArgs,
+                                                                                 String stepsTag,
+                                                                                 int timePointsPerJob,
                                                                                  JacsServiceData jacsServiceData) {
         String bindPath = mountPoints.entrySet().stream()
                 .map(en -> {
@@ -165,17 +237,34 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
                 })
                 .reduce((b1, b2) -> b1 + "," + b2)
                 .orElse("");
+        String stepNames = stepInvocations.stream().map(stepInvocation -> stepInvocation.step.name()).collect(Collectors.joining("+"));
+        // all fused steps run on the same time points so they share the instance arguments
+        List<String> jobInstanceArgs = stepJobArgs.get(0).instanceArgs;
+        List<ServiceArg> runContainerArgs = new ArrayList<>();
+        runContainerArgs.add(new ServiceArg("-containerLocation", containerImageResults.get(0).getResult().getAbsolutePath()));
+        runContainerArgs.add(new ServiceArg("-bindPaths", bindPath));
+        runContainerArgs.add(new ServiceArg("-appArgs", stepJobArgs.get(0).commonBatchArgs.stream().reduce((s1, s2) -> s1 + "," + s2).orElse("")));
+        runContainerArgs.add(new ServiceArg("-batchJobArgs", jobInstanceArgs.stream().reduce((s1, s2) -> s1 + "," + s2).orElse("")));
+        if (stepInvocations.size() > 1) {
+            runContainerArgs.add(new ServiceArg("-chainedContainerLocations", containerImageResults.subList(1, containerImageResults.size()).stream()
+                    .map(containerImageResult -> containerImageResult.getResult().getAbsolutePath())
+                    .reduce((s1, s2) -> s1 + "," + s2)
+                    .orElse("")));
+            runContainerArgs.add(new ServiceArg("-chainedAppArgs", stepJobArgs.subList(1, stepJobArgs.size()).stream()
+                    .map(chainedStepJobArgs -> String.join(" ", chainedStepJobArgs.commonBatchArgs))
+                    .reduce((s1, s2) -> s1 + "," + s2)
+                    .orElse("")));
+        }
         return runContainerProcessor.process(
                 new ServiceExecutionContext.Builder(jacsServiceData)
-                        .description("Step " + stepIndex + ": " + step +
+                        .description("Step " + stepIndex + ": " + stepNames +
                                 (jobInstanceArgs.isEmpty() ? "" : " - " + jobInstanceArgs.size() + " timepoint jobs"))
-                        .waitFor(containerImageResult.getJacsServiceData())
+                        .waitFor(containerImageResults.stream().map(JacsServiceResult::getJacsServiceData).collect(Collectors.toList()))
                         .addResources(jobResources)
+                        .addTags(stepsTag)
+                        .addDictionaryArgs(ImmutableMap.of(TIME_POINTS_PER_JOB_ARG, timePointsPerJob))
                         .build(),
-                new ServiceArg("-containerLocation", containerImageResult.getResult().getAbsolutePath()),
-                new ServiceArg("-bindPaths", bindPath),
-                new ServiceArg("-appArgs", stepArgs.stream().reduce((s1, s2) -> s1 + "," + s2).orElse("")),
-                new ServiceArg("-batchJobArgs", jobInstanceArgs.stream().reduce((s1, s2) -> s1 + "," + s2).orElse(""))
+                runContainerArgs
         );
     }
 
@@ -183,17 +272,17 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         return ServiceArgs.parse(getJacsServiceArgsArray(jacsServiceData), new LightsheetPipelineStepArgs());
     }
 
-    private String getContainerLocation(Map<String, Object> stepConfig, LightsheetPipelineStepArgs args) {
-        String containerImage = args.containerImage;
+    private String getContainerLocation(Map<String, Object> stepConfig, LightsheetPipelineStep step, String stepContainerImage) {
+        String containerImage = stepContainerImage;
         if (StringUtils.isNotBlank(containerImage)) {
             return containerImage;
         } else {
             containerImage = (String) stepConfig.get("containerImage");
             if (StringUtils.isBlank(containerImage)) {
                 containerImage = StringUtils.appendIfMissing(applicationConfig.getStringPropertyValue("ImageProcessing.Collection"), "/");
-                containerImage += args.step.toString().toLowerCase();
+                containerImage += step.toString().toLowerCase();
                 String containerImageVersion = applicationConfig.getStringPropertyValue(
-                        "ImageProcessing.Lightsheet." + args.step + ".Version",
+                        "ImageProcessing.Lightsheet." + step + ".Version",
                         applicationConfig.getStringPropertyValue("ImageProcessing.Lightsheet.Version"));
                 if (StringUtils.isNotBlank(containerImageVersion)) {
                     containerImage += containerImageVersion;
@@ -207,8 +296,8 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         }
     }
 
-    private Map<String, String> prepareResources(LightsheetPipelineStepArgs args, Map<String, String> jobResources) {
-        ProcessorHelper.setRequiredSlots(jobResources, args.step.getRecommendedSlots());
+    private Map<String, String> prepareResources(List<StepInvocation> stepInvocations, Map<String, String> jobResources) {
+        ProcessorHelper.setRequiredSlots(jobResources, stepInvocations.stream().mapToInt(stepInvocation -> stepInvocation.step.getRecommendedSlots()).max().orElse(1));
         ProcessorHelper.setSoftJobDurationLimitInSeconds(jobResources, 5*60); // 5 minutes
         ProcessorHelper.setHardJobDurationLimitInSeconds(jobResources, 12*60*60); // 12 hours
         return jobResources;
@@ -303,11 +392,11 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
                 .orElse(ImmutableMap.of());
     }
 
-    private String getSavedStepConfigFile(JacsServiceData jacsServiceData, LightsheetPipelineStepArgs args, Map<String, Object> stepConfig) {
+    private String getSavedStepConfigFile(JacsServiceData jacsServiceData, LightsheetPipelineStepArgs args, LightsheetPipelineStep step, Map<String, Object> stepConfig) {
         // write the final config file
         JacsServiceFolder serviceWorkingFolder = getWorkingDirectory(jacsServiceData);
         String fileName = "stepConfig_" + (StringUtils.isNotBlank(args.pipelineConfigReference) ? args.pipelineConfigReference + "_" : "") +
-                String.valueOf(args.stepIndex) + "_" + args.step.name() + ".json";
+                String.valueOf(args.stepIndex) + "_" + step.name() + ".json";
         File jsonConfigFile = serviceWorkingFolder.getServiceFolder(fileName).toFile();
         writeJsonConfig(stepConfig, jsonConfigFile);
         return jsonConfigFile.getAbsolutePath();
@@ -338,8 +427,8 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         }
     }
 
-    private StepJobArgs getStepJobArgs(String jsonConfig, LightsheetPipelineStepArgs args, int numTimePointsArg) {
-        if (args.step.cannotSplitJob()) {
+    private StepJobArgs getStepJobArgs(String jsonConfig, LightsheetPipelineStep step, int numTimePointsArg, int timePointsPerJobArg) {
+        if (step.cannotSplitJob()) {
             return new StepJobArgs(ImmutableList.of(jsonConfig));
         } else {
             int numTimePoints;
@@ -349,10 +438,10 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
                 numTimePoints = numTimePointsArg;
             }
             int timePointsPerJob;
-            if (args.timePointsPerJob < 1) {
+            if (timePointsPerJobArg < 1) {
                 timePointsPerJob = 1;
             } else {
-                timePointsPerJob = args.timePointsPerJob;
+                timePointsPerJob = timePointsPerJobArg;
             }
             int numJobs = (int) Math.ceil((double)numTimePoints / timePointsPerJob);
             StepJobArgs stepJobArgs = new StepJobArgs(ImmutableList.of(jsonConfig, String.valueOf(timePointsPerJob)));
@@ -363,5 +452,48 @@ public class LightsheetPipelineStepProcessor extends AbstractServiceProcessor<Vo
         }
     }
 
+    private String getStepsTag(List<StepInvocation> stepInvocations) {
+        return "lightsheetSteps:" + stepInvocations.stream().map(stepInvocation -> stepInvocation.step.name()).collect(Collectors.joining("+"));
+    }
+
+    /**
+     * Derive the number of time points per job from the median time per time point measured in the most recent
+     * successful runs of the same steps so that a job takes about ImageProcessing.Lightsheet.TargetJobDurationInSeconds.
+     * Without any previous measurement each job processes a single time point.
+     */
+    private int getMeasuredTimePointsPerJob(String stepsTag, int numTimePoints) {
+        JacsServiceData pattern = new JacsServiceData();
+        pattern.setName(runContainerProcessor.getMetadata().getServiceName());
+        pattern.setState(JacsServiceState.SUCCESSFUL);
+        pattern.addTags(stepsTag);
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setPageSize(MAX_MEASURED_RUNS);
+        pageRequest.setSortCriteria(ImmutableList.of(new SortCriteria("creationDate", SortDirection.DESC)));
+        PageResult<JacsServiceData> previousRuns = jacsServiceDataPersistence.findMatchingServices(pattern, new DataInterval<>(null, null), pageRequest);
+        if (previousRuns == null || previousRuns.isEmpty()) {
+            return 1;
+        }
+        Map<Number, Integer> timePointsPerJobByRun = previousRuns.getResultList().stream()
+                .filter(sd -> sd.getDictionaryArgs().get(TIME_POINTS_PER_JOB_ARG) instanceof Number)
+                .collect(Collectors.toMap(JacsServiceData::getId, sd -> ((Number) sd.getDictionaryArgs().get(TIME_POINTS_PER_JOB_ARG)).intValue()));
+        if (timePointsPerJobByRun.isEmpty()) {
+            return 1;
+        }
+        double[] secsPerTimePoint = jacsJobInstanceInfoDao.findSuccessfulServicesJobInstances(timePointsPerJobByRun.keySet()).stream()
+                .filter(jobInstance -> timePointsPerJobByRun.get(jobInstance.getServiceDataId()) != null)
+                .mapToDouble(jobInstance -> jobInstance.getRunSecs() / (double) Math.max(1, timePointsPerJobByRun.get(jobInstance.getServiceDataId())))
+                .sorted()
+                .toArray();
+        if (secsPerTimePoint.length == 0) {
+            return 1;
+        }
+        double medianSecsPerTimePoint = Math.max(1., secsPerTimePoint[secsPerTimePoint.length / 2]);
+        int targetJobDurationInSeconds = applicationConfig.getIntegerPropertyValue("ImageProcessing.Lightsheet.TargetJobDurationInSeconds", 1800);
+        int timePointsPerJob = (int) Math.max(1, Math.min(Math.max(1, numTimePoints), Math.floor(targetJobDurationInSeconds / medianSecsPerTimePoint)));
+        logger.info("Use {} time points per job for {} based on {}s per time point measured from {} jobs",
+                timePointsPerJob, stepsTag, medianSecsPerTimePoint, secsPerTimePoint.length);
+        return timePointsPerJob;
+    }
+
 }
 
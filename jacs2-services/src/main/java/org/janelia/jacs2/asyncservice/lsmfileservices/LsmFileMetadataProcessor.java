@@ -9,11 +9,15 @@ import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
 import org.janelia.jacs2.asyncservice.common.ExternalProcessRunner;
 import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
 import org.janelia.jacs2.asyncservice.common.ServiceArgs;
+import org.janelia.jacs2.asyncservice.common.ServiceComputation;
 import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
 import org.janelia.jacs2.asyncservice.common.ServiceResultHandler;
 import org.janelia.jacs2.asyncservice.common.resulthandlers.AbstractSingleFileServiceResultHandler;
+import org.janelia.jacs2.asyncservice.sampleprocessing.zeiss.LSMMetadataReader;
 import org.janelia.jacs2.asyncservice.utils.ScriptWriter;
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
 import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
+import org.janelia.jacs2.cdi.qualifier.BoolPropertyValue;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
@@ -30,9 +34,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.Map;
 
+/**
+ * Extracts the LSM metadata. The metadata is read in process by LSMMetadataReader, which only reads the LSM headers,
+ * and the lsm_json_dump script is only run if the native reader is disabled or if it cannot read the file.
+ */
 @Named("lsmFileMetadata")
 public class LsmFileMetadataProcessor extends AbstractExeBasedServiceProcessor<File> {
 
@@ -50,6 +59,7 @@ public class LsmFileMetadataProcessor extends AbstractExeBasedServiceProcessor<F
     private final String perlExecutable;
     private final String perlModule;
     private final String scriptName;
+    private final boolean useNativeReader;
 
     @Inject
     LsmFileMetadataProcessor(ServiceComputationFactory computationFactory,
@@ -59,6 +69,7 @@ public class LsmFileMetadataProcessor extends AbstractExeBasedServiceProcessor<F
                              @PropertyValue(name = "Perl.Path") String perlExecutable,
                              @PropertyValue(name = "Sage.Perllib") String perlModule,
                              @PropertyValue(name = "LSMJSONDump.CMD") String scriptName,
+                             @BoolPropertyValue(name = "LSMMetadata.UseNativeReader") boolean useNativeReader,
                              JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
                              @ApplicationProperties ApplicationConfig applicationConfig,
                              Logger logger) {
@@ -66,6 +77,7 @@ public class LsmFileMetadataProcessor extends AbstractExeBasedServiceProcessor<F
         this.perlExecutable = perlExecutable;
         this.perlModule = perlModule;
         this.scriptName = scriptName;
+        this.useNativeReader = useNativeReader;
     }
 
     @Override
@@ -110,6 +122,50 @@ public class LsmFileMetadataProcessor extends AbstractExeBasedServiceProcessor<F
         };
     }
 
+    @Override
+    public ServiceComputation<JacsServiceResult<File>> process(JacsServiceData jacsServiceData) {
+        if (!useNativeReader) {
+            return super.process(jacsServiceData);
+        }
+        prepareProcessing(jacsServiceData);
+        LsmFileMetadataArgs args = getArgs(jacsServiceData);
+        File outputFile = getOutputFile(args);
+        if (writeLSMMetadata(jacsServiceData, args)) {
+            return computationFactory.newCompletedComputation(updateServiceResult(jacsServiceData, outputFile));
+        } else {
+            return super.process(jacsServiceData);
+        }
+    }
+
+    /**
+     * Read the LSM metadata in process and write it to a working file which is then renamed to the output file
+     * so concurrent invocations for the same LSM do not see a partially written file.
+     *
+     * @return true if the metadata was written or false if the metadata could not be read from the LSM
+     */
+    private boolean writeLSMMetadata(JacsServiceData jacsServiceData, LsmFileMetadataArgs args) {
+        File inputFile = getInputFile(args);
+        Map<String, Object> lsmMetadata;
+        try {
+            lsmMetadata = LSMMetadataReader.readMetadata(inputFile.toPath());
+        } catch (IOException e) {
+            logger.warn("Could not read the metadata from {} - fall back to {}", inputFile, scriptName, e);
+            return false;
+        }
+        Path workingOutputPath = getWorkingOutputFile(jacsServiceData, args).toPath();
+        try {
+            ObjectMapperFactory.instance().getDefaultObjectMapper().writeValue(workingOutputPath.toFile(), lsmMetadata);
+            Files.move(workingOutputPath, getOutputFile(args).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(workingOutputPath);
+            } catch (IOException ignore) {
+            }
+            throw new ComputationException(jacsServiceData, e);
+        }
+    }
+
     @Override
     protected void prepareProcessing(JacsServiceData jacsServiceData) {
         super.prepareProcessing(jacsServiceData);
@@ -35,9 +35,15 @@ import org.slf4j.Logger;
 @Named("ktxCreator")
 public class KTXCreator extends AbstractLVTProcessor<KTXCreator.KTXCreatorArgs, OctreeResult> {
 
+    static final int DEFAULT_SUBTREE_LENGTH = 5;
+
     static class KTXCreatorArgs extends LVTArgs {
         @Parameter(names = "-subtreeLengthForSubjobSplitting", description = "The subtree length considered for job splitting")
-        Integer subtreeLengthForSubjobSplitting = 5;
+        Integer subtreeLengthForSubjobSplitting = DEFAULT_SUBTREE_LENGTH;
+        @Parameter(names = "-subtreeRoot", description = "If set only the subtree rooted at this octree node (e.g. '1' or '1/3') is converted")
+        String subtreeRoot;
+        @Parameter(names = "-topLevelsOnly", description = "If set only the top subtreeLengthForSubjobSplitting levels of the octree are converted")
+        boolean topLevelsOnly = false;
     }
 
     @Inject
@@ -86,29 +92,48 @@ public class KTXCreator extends AbstractLVTProcessor<KTXCreator.KTXCreatorArgs,
 
     @Override
     String getAppBatchArgs(KTXCreatorArgs args) {
-        // traverse the octree and for each instance pass the octree path and how many levels deep to go
+        List<String> startupNodes;
+        if (args.topLevelsOnly) {
+            startupNodes = Collections.singletonList("");
+        } else if (StringUtils.isNotBlank(args.subtreeRoot)) {
+            startupNodes = getStartupNodes(args.levels, args.subtreeLengthForSubjobSplitting).stream()
+                    .filter(n -> isInSubtree(n, args.subtreeRoot))
+                    .collect(Collectors.toList());
+        } else {
+            startupNodes = getStartupNodes(args.levels, args.subtreeLengthForSubjobSplitting);
+        }
+        StringBuilder batchArgsBuilder = startupNodes.stream()
+                .map(p -> "\"" + p + "\"" + " " + args.subtreeLengthForSubjobSplitting)
+                .reduce(new StringBuilder(),
+                        (b, a) -> b.length() == 0 ? b.append(a) : b.append(',').append(a),
+                        (b1, b2) -> b1.length() == 0 ? b1.append(b2) : b1.append(',').append(b2));
+        return batchArgsBuilder.toString();
+    }
+
+    /**
+     * Traverse the octree and collect the nodes from which a KTX job converts the next subtreeLength levels.
+     */
+    static List<String> getStartupNodes(int levels, int subtreeLength) {
         List<String> startupNodes = new ArrayList<>();
 
         List<String> currentNodes = Collections.singletonList("");
         startupNodes.addAll(currentNodes);
 
-        for (int currentLevel = 0; currentLevel + args.subtreeLengthForSubjobSplitting < args.levels; currentLevel += args.subtreeLengthForSubjobSplitting) {
+        for (int currentLevel = 0; currentLevel + subtreeLength < levels; currentLevel += subtreeLength) {
             List<String> nextNodes = currentNodes.stream()
-                    .flatMap(n -> recurseOctree(n, args.subtreeLengthForSubjobSplitting))
+                    .flatMap(n -> recurseOctree(n, subtreeLength))
                     .collect(Collectors.toList());
-            ;
             startupNodes.addAll(nextNodes);
             currentNodes = nextNodes;
         }
-        StringBuilder batchArgsBuilder = startupNodes.stream()
-                .map(p -> "\"" + p + "\"" + " " + args.subtreeLengthForSubjobSplitting)
-                .reduce(new StringBuilder(),
-                        (b, a) -> b.length() == 0 ? b.append(a) : b.append(',').append(a),
-                        (b1, b2) -> b1.length() == 0 ? b1.append(b2) : b1.append(',').append(b2));
-        return batchArgsBuilder.toString();
+        return startupNodes;
+    }
+
+    private static boolean isInSubtree(String octreePath, String subtreeRoot) {
+        return octreePath.equals(subtreeRoot) || octreePath.startsWith(subtreeRoot + "/");
     }
 
-    private Stream<String> recurseOctree(String octreePath, int nlevels) {
+    private static Stream<String> recurseOctree(String octreePath, int nlevels) {
         if (nlevels == 0) {
             return Stream.of(octreePath);
         }
@@ -1,6 +1,12 @@
 package org.janelia.jacs2.asyncservice.lvtservices;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
@@ -13,6 +19,8 @@ import com.google.common.collect.ImmutableList;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.common.AbstractServiceProcessor;
+import org.janelia.jacs2.asyncservice.common.ComputationException;
+import org.janelia.jacs2.asyncservice.common.ContinuationCond;
 import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
 import org.janelia.jacs2.asyncservice.common.ServiceArg;
 import org.janelia.jacs2.asyncservice.common.ServiceArgs;
@@ -30,14 +38,19 @@ import org.janelia.model.service.ServiceMetaData;
 import org.slf4j.Logger;
 
 /**
- * The LV (Large Volume) Data Import first converts the input data into an Octree using OctreeCreator
- * and then runs KTXCreator to create the KTX tiles for Horta.
+ * The LV (Large Volume) Data Import converts the input data into an Octree using OctreeCreator
+ * and runs KTXCreator to create the KTX tiles for Horta. The KTX tiles of each octant are created as soon as the
+ * corresponding TIFF subtree is available and the completed parts are recorded in a checkpoint manifest
+ * so that a retried import only regenerates the missing ones.
  *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
 @Named("lvDataImport")
 public class LVDataImport extends AbstractServiceProcessor<LVResult> {
 
+    private static final String CHECKPOINT_MANIFEST_FILENAME = "lvDataImport.checkpoint";
+    private static final long TIFF_SUBTREE_CHECK_INTERVAL_MILLIS = 30000L;
+
     static class LVDataImportArgs extends LVArgs {
         @Parameter(names = "-containerProcessor", description = "Container processor: docker or singularity")
         String containerProcessor;
@@ -98,7 +111,6 @@ public class LVDataImport extends AbstractServiceProcessor<LVResult> {
         };
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public ServiceComputation<JacsServiceResult<LVResult>> process(JacsServiceData jacsServiceData) {
         LVDataImportArgs args = getArgs(jacsServiceData);
@@ -115,7 +127,19 @@ public class LVDataImport extends AbstractServiceProcessor<LVResult> {
         final int levels = args.levels;
         final String voxelSize = args.voxelSize;
 
-        List<ServiceComputation<?>> octreeComputations = inputChannels.stream()
+        final int subtreeLength = args.subtreeLengthForSubjobSplitting != null ? args.subtreeLengthForSubjobSplitting : KTXCreator.DEFAULT_SUBTREE_LENGTH;
+        final OctreeCheckpointManifest checkpointManifest = OctreeCheckpointManifest.load(Paths.get(octreeDir, CHECKPOINT_MANIFEST_FILENAME));
+
+        // tiles left behind by a failed run for the channels that are regenerated must not be mistaken for new ones,
+        // so for these channels only the tiles written after the channel's octree generation started are considered
+        Map<Integer, Long> regeneratedChannelsStartTimes = inputChannels.stream()
+                .filter(channelNo -> !checkpointManifest.hasTiffOctree(String.valueOf(channelNo)))
+                .collect(Collectors.toMap(
+                        channelNo -> channelNo,
+                        channelNo -> checkpointManifest.startTiffOctree(String.valueOf(channelNo), jacsServiceData.getId()),
+                        (t1, t2) -> t1,
+                        LinkedHashMap::new));
+        List<ServiceComputation<?>> octreeComputations = regeneratedChannelsStartTimes.keySet().stream()
                 .map(channelNo -> String.valueOf(channelNo))
                 .map(channel -> octreeCreator.process(new ServiceExecutionContext.Builder(jacsServiceData)
                                 .description("Create octree")
@@ -128,33 +152,101 @@ public class LVDataImport extends AbstractServiceProcessor<LVResult> {
                         new ServiceArg("-voxelSize", voxelSize),
                         new ServiceArg("-channel", channel),
                         new ServiceArg("-inputFilename", args.intputFileNamePattern.replace("{channel}", channel)),
-                        new ServiceArg("-toolContainerImage", args.tiffOctreeContainerImage)))
+                        new ServiceArg("-toolContainerImage", args.tiffOctreeContainerImage))
+                        .thenApply(octreeResult -> {
+                            checkpointManifest.markTiffOctree(channel);
+                            return octreeResult;
+                        }))
+                .collect(Collectors.toList());
+        // the KTX tiles of a subtree only depend on the TIFF tiles of the same subtree so instead of waiting
+        // for the entire TIFF octree each KTX subtree job starts as soon as its TIFF subtree is available
+        List<ServiceComputation<?>> ktxComputations = getKtxSubtreeRoots(levels, subtreeLength).stream()
+                .filter(subtreeRoot -> !checkpointManifest.hasKtxSubtree(subtreeRoot))
+                .map(subtreeRoot -> computationFactory.newCompletedComputation(jacsServiceData)
+                        .thenSuspendUntil(sd -> new ContinuationCond.Cond<>(sd, isTiffSubtreeAvailable(sd, octreeDir, subtreeRoot, inputChannels, regeneratedChannelsStartTimes, octreeComputations)),
+                                TIFF_SUBTREE_CHECK_INTERVAL_MILLIS,
+                                null)
+                        .thenCompose(sd -> ktxCreator.process(new ServiceExecutionContext.Builder(jacsServiceData)
+                                        .description(StringUtils.isEmpty(subtreeRoot) ? "Create ktx tiles for the top octree levels" : "Create ktx tiles for octree node " + subtreeRoot)
+                                        .build(),
+                                new ServiceArg("-containerProcessor", args.containerProcessor),
+                                new ServiceArg("-containerRuntimeArgs", args.containerRuntimeArgs),
+                                new ServiceArg("-inputDir", octreeDir),
+                                new ServiceArg("-outputDir", ktxDir),
+                                new ServiceArg("-levels", levels),
+                                new ServiceArg("-subtreeLengthForSubjobSplitting", subtreeLength),
+                                new ServiceArg("-subtreeRoot", subtreeRoot),
+                                new ServiceArg("-topLevelsOnly", StringUtils.isEmpty(subtreeRoot)),
+                                new ServiceArg("-toolContainerImage", args.ktxOctreeContainerImage)))
+                        .thenApply(ktxResult -> {
+                            checkpointManifest.markKtxSubtree(subtreeRoot);
+                            return ktxResult;
+                        }))
                 .collect(Collectors.toList());
         return computationFactory.newCompletedComputation(jacsServiceData)
-                .thenComposeAll(octreeComputations, (sd, results) -> {
-                    List<JacsServiceResult<OctreeResult>> octreeResults = (List<JacsServiceResult<OctreeResult>>) results;
-                    return ktxCreator.process(new ServiceExecutionContext.Builder(jacsServiceData)
-                                    .description("Create ktx tiles")
-                                    .waitFor(octreeResults.stream().map(r -> r.getJacsServiceData()).collect(Collectors.toList()))
-                                    .build(),
-                            new ServiceArg("-containerProcessor", args.containerProcessor),
-                            new ServiceArg("-containerRuntimeArgs", args.containerRuntimeArgs),
-                            new ServiceArg("-inputDir", octreeDir),
-                            new ServiceArg("-outputDir", ktxDir),
-                            new ServiceArg("-levels", levels),
-                            new ServiceArg("-subtreeLengthForSubjobSplitting", args.subtreeLengthForSubjobSplitting != null ? args.subtreeLengthForSubjobSplitting.toString() : null),
-                            new ServiceArg("-toolContainerImage", args.ktxOctreeContainerImage));
-                })
-                .thenApply(ktxResult -> {
+                .thenCombineAll(ImmutableList.<ServiceComputation<?>>builder().addAll(octreeComputations).addAll(ktxComputations).build(), (sd, results) -> {
                     LVResult lvResult = new LVResult();
                     lvResult.setBaseTiffPath(octreeDir);
                     lvResult.setBaseKtxPath(ktxDir);
                     lvResult.setLevels(levels);
-                    return updateServiceResult(jacsServiceData, lvResult);
+                    return updateServiceResult(sd, lvResult);
                 })
                 ;
     }
 
+    /**
+     * The KTX generation is split into the top levels, which need the entire TIFF octree, and one subtree
+     * for each of the root's octants.
+     */
+    private List<String> getKtxSubtreeRoots(int levels, int subtreeLength) {
+        if (levels > subtreeLength) {
+            return ImmutableList.of("1", "2", "3", "4", "5", "6", "7", "8", "");
+        } else {
+            return ImmutableList.of("");
+        }
+    }
+
+    /**
+     * The octree tool writes the tiles of a node only after the tiles of all its descendants, therefore a TIFF subtree is
+     * available once its root tiles exist for every channel. The top levels can only be generated once the entire octree is done.
+     */
+    private boolean isTiffSubtreeAvailable(JacsServiceData jacsServiceData, String octreeDir, String subtreeRoot, List<Integer> channels,
+                                           Map<Integer, Long> regeneratedChannelsStartTimes,
+                                           List<ServiceComputation<?>> octreeComputations) {
+        if (octreeComputations.stream().anyMatch(ServiceComputation::isCompletedExceptionally)) {
+            throw new ComputationException(jacsServiceData, "TIFF octree generation failed for " + octreeDir);
+        }
+        if (octreeComputations.stream().allMatch(ServiceComputation::isDone)) {
+            return true;
+        } else if (StringUtils.isEmpty(subtreeRoot)) {
+            return false;
+        }
+        Path subtreeRootDir = Paths.get(octreeDir, subtreeRoot);
+        return channels.stream()
+                .allMatch(channel -> isTiffTileAvailable(
+                        subtreeRootDir.resolve(String.format(OctreeCreator.OUTPUT_FILENAME_PATTERN, channel)),
+                        regeneratedChannelsStartTimes.get(channel)));
+    }
+
+    /**
+     * @param tilePath tile location
+     * @param channelStartTime when the channel's octree generation started or null if the octree was completed before
+     */
+    private boolean isTiffTileAvailable(Path tilePath, Long channelStartTime) {
+        if (Files.notExists(tilePath)) {
+            return false;
+        } else if (channelStartTime == null) {
+            return true;
+        }
+        try {
+            // some file systems only keep the modification time in seconds
+            return Files.getLastModifiedTime(tilePath).toMillis() >= channelStartTime / 1000 * 1000;
+        } catch (IOException e) {
+            logger.warn("Error reading the modification time of {}", tilePath, e);
+            return false;
+        }
+    }
+
     private LVDataImportArgs getArgs(JacsServiceData jacsServiceData) {
         return ServiceArgs.parse(getJacsServiceArgsArray(jacsServiceData), new LVDataImportArgs());
     }
@@ -0,0 +1,97 @@
+package org.janelia.jacs2.asyncservice.lvtservices;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Checkpoint manifest of an LV data import. It records the channel TIFF octrees and the KTX subtrees that
+ * were generated successfully so that a retried import only generates the missing parts.
+ */
+class OctreeCheckpointManifest {
+
+    private static final String TIFF_ENTRY_PREFIX = "tiff:";
+    private static final String KTX_ENTRY_PREFIX = "ktx:";
+    private static final String TIFF_STARTED_ENTRY_PREFIX = "tiffStarted:";
+    private static final String ROOT_NODE = "/";
+
+    private final Path manifestPath;
+    private final Set<String> entries;
+
+    static OctreeCheckpointManifest load(Path manifestPath) {
+        Set<String> entries = new HashSet<>();
+        if (Files.exists(manifestPath)) {
+            try {
+                String content = new String(Files.readAllBytes(manifestPath), StandardCharsets.UTF_8);
+                // an entry that does not end with a new line was interrupted while it was written
+                Arrays.stream(StringUtils.substringBeforeLast(content, "\n").split("\n"))
+                        .filter(StringUtils::isNotBlank)
+                        .map(String::trim)
+                        .forEach(entries::add);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new OctreeCheckpointManifest(manifestPath, entries);
+    }
+
+    private OctreeCheckpointManifest(Path manifestPath, Set<String> entries) {
+        this.manifestPath = manifestPath;
+        this.entries = entries;
+    }
+
+    synchronized boolean hasTiffOctree(String channel) {
+        return entries.contains(TIFF_ENTRY_PREFIX + channel);
+    }
+
+    synchronized boolean hasKtxSubtree(String octreeNode) {
+        return entries.contains(KTX_ENTRY_PREFIX + StringUtils.defaultIfBlank(octreeNode, ROOT_NODE));
+    }
+
+    /**
+     * Record that the given import started to generate the channel's TIFF octree. If the import already recorded it,
+     * e.g. before it was resumed, the recorded time is kept.
+     *
+     * @return the time in milliseconds when the import started to generate the channel's TIFF octree
+     */
+    synchronized long startTiffOctree(String channel, Number importId) {
+        String entryPrefix = TIFF_STARTED_ENTRY_PREFIX + channel + ":" + importId + ":";
+        return entries.stream()
+                .filter(entry -> entry.startsWith(entryPrefix))
+                .map(entry -> Long.valueOf(entry.substring(entryPrefix.length())))
+                .findFirst()
+                .orElseGet(() -> {
+                    long startTime = System.currentTimeMillis();
+                    addEntry(entryPrefix + startTime);
+                    return startTime;
+                });
+    }
+
+    void markTiffOctree(String channel) {
+        addEntry(TIFF_ENTRY_PREFIX + channel);
+    }
+
+    void markKtxSubtree(String octreeNode) {
+        addEntry(KTX_ENTRY_PREFIX + StringUtils.defaultIfBlank(octreeNode, ROOT_NODE));
+    }
+
+    private synchronized void addEntry(String entry) {
+        if (!entries.add(entry)) {
+            return;
+        }
+        try {
+            Files.createDirectories(manifestPath.getParent());
+            Files.write(manifestPath, (entry + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
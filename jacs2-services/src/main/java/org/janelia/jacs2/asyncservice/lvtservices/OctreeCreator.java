@@ -30,7 +30,7 @@ import org.slf4j.Logger;
 public class OctreeCreator extends AbstractLVTProcessor<OctreeCreator.OctreeCreatorArgs, OctreeResult> {
 
     private static final String TRANSFORM_FILENAME = "transform.txt";
-    private static final String OUTPUT_FILENAME_PATTERN = "default.%d.tif";
+    static final String OUTPUT_FILENAME_PATTERN = "default.%d.tif";
 
     static class OctreeCreatorArgs extends LVTArgs {
         @Parameter(names = "-inputFilename", description = "Input file name relative to inputDir", required = true)
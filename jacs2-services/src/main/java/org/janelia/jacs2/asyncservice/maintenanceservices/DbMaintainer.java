@@ -1,20 +1,38 @@
 package org.janelia.jacs2.asyncservice.maintenanceservices;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.dataservice.storage.DataStorageLocationFactory;
 import org.janelia.jacsstorage.clients.api.JadeStorageAttributes;
+import org.janelia.jacsstorage.clients.api.rendering.JadeBasedDataLocation;
 import org.janelia.model.access.dao.LegacyDomainDao;
 import org.janelia.model.access.dao.LegacyDomainDao.DaoIndex;
 import org.janelia.model.domain.DomainUtils;
 import org.janelia.model.domain.enums.FileType;
 import org.janelia.model.domain.tiledMicroscope.TmSample;
+import org.janelia.rendering.DataLocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 
@@ -158,17 +176,51 @@ public class DbMaintainer {
      * Refresh the filesystemSync flag for all TmSamples in the system. This should be called periodically to
      * keep the flags updated with the state of the filesystem.
      *
+     * @param parallelism maximum number of samples checked concurrently
      * @throws Exception
      */
-    void refreshTmSampleSync() throws Exception {
-        // Walk all TmSamples in the database
-        for (TmSample sample : legacyDomainDao.getDomainObjects(null, TmSample.class)) {
-            boolean dirty = refreshTmSampleSync(sample);
-            if (dirty) {
-                // Persist the sample if anything changed
-                legacyDomainDao.save(sample.getOwnerKey(), sample);
-            }
+    void refreshTmSampleSync(int parallelism) throws Exception {
+        int nThreads = parallelism > 0 ? parallelism : 1;
+        ExecutorService sampleCheckExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder()
+                .setNameFormat("TMSAMPLE-SYNC-%d")
+                .setDaemon(true)
+                .build());
+        // limit the number of samples read from the cursor but not checked yet
+        Semaphore pendingChecks = new Semaphore(2 * nThreads);
+        Map<String, JadeBasedDataLocation> volumeLocationsCache = new ConcurrentHashMap<>();
+        Map<Long, Map<String, Object>> updatedFlags = new ConcurrentHashMap<>();
+        List<TmSample> modifiedSamples = Collections.synchronizedList(new ArrayList<>());
+        try (Stream<TmSample> tmSamples = legacyDomainDao.iterateDomainObjects(TmSample.class)) {
+            tmSamples.forEach(sample -> {
+                pendingChecks.acquireUninterruptibly();
+                sampleCheckExecutor.submit(() -> {
+                    try {
+                        boolean existsInStorage = sample.isExistsInStorage();
+                        int nFiles = sample.getFiles().size();
+                        if (refreshTmSampleSync(sample, volumeLocationsCache)) {
+                            if (sample.getFiles().size() != nFiles) {
+                                // empty paths were removed so the entire sample must be saved
+                                modifiedSamples.add(sample);
+                            } else if (sample.isExistsInStorage() != existsInStorage) {
+                                updatedFlags.put(sample.getId(), ImmutableMap.of("existsInStorage", sample.isExistsInStorage()));
+                            }
+                        }
+                    } catch (Exception e) {
+                        LOG.error("Error checking {}", sample, e);
+                    } finally {
+                        pendingChecks.release();
+                    }
+                });
+            });
+        } finally {
+            sampleCheckExecutor.shutdown();
+            sampleCheckExecutor.awaitTermination(1, TimeUnit.DAYS);
+        }
+        long nUpdates = legacyDomainDao.bulkUpdateProperties(TmSample.class, updatedFlags);
+        for (TmSample sample : modifiedSamples) {
+            legacyDomainDao.save(sample.getOwnerKey(), sample);
         }
+        LOG.info("Updated storage flags for {} TmSamples and saved {} TmSamples with empty paths", nUpdates, modifiedSamples.size());
     }
 
     /**
@@ -178,6 +230,10 @@ public class DbMaintainer {
      * @return true if changes were made
      */
     public boolean refreshTmSampleSync(TmSample sample) {
+        return refreshTmSampleSync(sample, new HashMap<>());
+    }
+
+    private boolean refreshTmSampleSync(TmSample sample, Map<String, JadeBasedDataLocation> volumeLocationsCache) {
 
         LOG.info("Checking {} (existsInStorage={})", sample, sample.isExistsInStorage());
 
@@ -193,8 +249,7 @@ public class DbMaintainer {
                 // For the purposes of setting filesystemSync, we only care about these two paths which drive Horta
                 try {
                     // Check JADE to see if the directory is accessible
-                    boolean filepathExists = dataStorageLocationFactory.lookupJadeDataLocation(
-                            filepath, sample.getOwnerKey(), null, new JadeStorageAttributes().setFromMap(sample.getStorageAttributes())).isPresent();
+                    boolean filepathExists = checkStoragePath(filepath, sample, volumeLocationsCache);
                     LOG.info("  {} {}", filepath, filepathExists ? "exists" : "does not exist");
                     if (!filepathExists) {
                         sync = false;
@@ -230,4 +285,31 @@ public class DbMaintainer {
 
         return dirty;
     }
+
+    /**
+     * Check if the path is accessible. Samples are typically located on a handful of storage volumes so the location
+     * found for a path is cached and reused for all other paths from the same parent directory. If the path cannot be
+     * found on the cached location it falls back to a regular JADE lookup.
+     */
+    private boolean checkStoragePath(String filepath, TmSample sample, Map<String, JadeBasedDataLocation> volumeLocationsCache) {
+        if (!filepath.startsWith("/")) {
+            return lookupStoragePath(filepath, sample).isPresent();
+        }
+        Path parentPath = Paths.get(filepath).getParent();
+        String volumeKey = String.format("%s#%s#%s", parentPath != null ? parentPath : filepath, sample.getOwnerKey(), sample.getStorageAttributes());
+        JadeBasedDataLocation cachedLocation = volumeLocationsCache.get(volumeKey);
+        if (cachedLocation != null && cachedLocation.checkContentAtAbsolutePath(filepath)) {
+            return true;
+        }
+        Optional<? extends DataLocation> dataLocation = lookupStoragePath(filepath, sample);
+        dataLocation
+                .filter(dl -> dl instanceof JadeBasedDataLocation)
+                .ifPresent(dl -> volumeLocationsCache.put(volumeKey, (JadeBasedDataLocation) dl));
+        return dataLocation.isPresent();
+    }
+
+    private Optional<? extends DataLocation> lookupStoragePath(String filepath, TmSample sample) {
+        return dataStorageLocationFactory.lookupJadeDataLocation(
+                filepath, sample.getOwnerKey(), null, new JadeStorageAttributes().setFromMap(sample.getStorageAttributes()));
+    }
 }
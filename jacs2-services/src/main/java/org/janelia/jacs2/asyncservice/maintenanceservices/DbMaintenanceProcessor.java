@@ -37,6 +37,8 @@ public class DbMaintenanceProcessor extends AbstractServiceProcessor<Void> {
         boolean refreshPermissionsForFragments = false;
         @Parameter(names = "-refreshTmSampleSync", arity = 0, description = "Refresh filesystem synchronization for TmSamples")
         boolean refreshTmSampleSync = false;
+        @Parameter(names = "-tmSampleSyncParallelism", description = "Number of TmSamples checked concurrently when refreshing the filesystem synchronization")
+        int tmSampleSyncParallelism = 10;
         DbMaintenanceArgs() {
             super("Database maintenance service. It performs index refresh and/or update access permissions");
         }
@@ -102,7 +104,7 @@ public class DbMaintenanceProcessor extends AbstractServiceProcessor<Void> {
             logger.info("Service {} perform TmSample filesystem sync refresh", jacsServiceData);
             logMaintenanceEvent("Refresh TmSample filesystem sync", jacsServiceData.getId());
             try {
-                dbMainainer.refreshTmSampleSync();
+                dbMainainer.refreshTmSampleSync(args.tmSampleSyncParallelism);
                 jacsServiceDataPersistence.addServiceEvent(jacsServiceData, JacsServiceData.createServiceEvent(JacsServiceEventTypes.STEP_COMPLETED, "Completed TM sample sync"));
                 logger.info("TmSample sync completed for {}", jacsServiceData.getShortName());
             } catch (Exception e) {
@@ -84,9 +84,11 @@ public class LockSampleProcessor extends AbstractServiceProcessor<String> {
 
         DataHolder<String> lockHolder = new DataHolder<>();
         Sample sample = sampleDataService.getSampleById(null, args.sampleId);
+        // the lock is held on behalf of the caller, which is also responsible for releasing it
+        Number holderServiceId = jacsServiceData.getParentServiceId() != null ? jacsServiceData.getParentServiceId() : jacsServiceData.getId();
         return computationFactory.newCompletedComputation(jacsServiceData)
                 .thenSuspendUntil(sd -> {
-                    String lockKey = domainObjectService.tryLock(sample);
+                    String lockKey = domainObjectService.tryLock(sample, holderServiceId);
                     if (StringUtils.isBlank(lockKey)) {
                         if (jacsServiceData.hasNotBeenWaitingForDependencies()) {
                             // if the service has not completed yet and it's not already suspended - update the state to suspended
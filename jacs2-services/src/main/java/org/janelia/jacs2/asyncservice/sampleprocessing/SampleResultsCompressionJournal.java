@@ -0,0 +1,115 @@
+package org.janelia.jacs2.asyncservice.sampleprocessing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.base.Splitter;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Journal of a sample results compression. For each compressed input it records, in order, that the output was
+ * converted and verified (with the output's checksum), that the result was updated to reference the output and that
+ * the input was deleted. An interrupted compression uses the journal to resume from the last completed stage
+ * of each input instead of converting again or leaving the input behind.
+ */
+class SampleResultsCompressionJournal {
+
+    enum Stage {
+        CONVERTED,
+        UPDATED,
+        DELETED
+    }
+
+    static class Entry {
+        final String input;
+        final String output;
+        final String checksum;
+        final Stage stage;
+
+        private Entry(String input, String output, String checksum, Stage stage) {
+            this.input = input;
+            this.output = output;
+            this.checksum = checksum;
+            this.stage = stage;
+        }
+    }
+
+    private static final char FIELD_SEPARATOR = '\t';
+
+    private final Path journalPath;
+    private final Map<String, Entry> entries;
+
+    static SampleResultsCompressionJournal load(Path journalPath) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        if (Files.exists(journalPath)) {
+            try {
+                Files.readAllLines(journalPath, StandardCharsets.UTF_8).stream()
+                        .filter(StringUtils::isNotBlank)
+                        .map(line -> Splitter.on(FIELD_SEPARATOR).splitToList(line))
+                        .filter(fields -> fields.size() == 4)
+                        .forEach(fields -> {
+                            // a later record of the same input supersedes the earlier records
+                            Entry entry = new Entry(fields.get(1), fields.get(2), fields.get(3), Stage.valueOf(fields.get(0)));
+                            entries.put(entry.input, entry);
+                        });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return new SampleResultsCompressionJournal(journalPath, entries);
+    }
+
+    private SampleResultsCompressionJournal(Path journalPath, Map<String, Entry> entries) {
+        this.journalPath = journalPath;
+        this.entries = entries;
+    }
+
+    synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    synchronized Optional<Entry> getEntry(String input) {
+        return Optional.ofNullable(entries.get(input));
+    }
+
+    synchronized void markConverted(String input, String output, String checksum) {
+        addEntry(new Entry(input, output, checksum, Stage.CONVERTED));
+    }
+
+    synchronized void markUpdated(String input) {
+        advance(input, Stage.UPDATED);
+    }
+
+    synchronized void markDeleted(String input) {
+        advance(input, Stage.DELETED);
+    }
+
+    private void advance(String input, Stage stage) {
+        Entry entry = entries.get(input);
+        if (entry == null) {
+            throw new IllegalStateException("No conversion was recorded for " + input);
+        }
+        addEntry(new Entry(entry.input, entry.output, entry.checksum, stage));
+    }
+
+    private void addEntry(Entry entry) {
+        entries.put(entry.input, entry);
+        String record = entry.stage.name() + FIELD_SEPARATOR + entry.input + FIELD_SEPARATOR + entry.output + FIELD_SEPARATOR + entry.checksum + "\n";
+        try {
+            Files.createDirectories(journalPath.getParent());
+            Files.write(journalPath, record.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
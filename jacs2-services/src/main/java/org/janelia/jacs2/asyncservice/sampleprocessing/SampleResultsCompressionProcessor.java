@@ -1,20 +1,36 @@
 package org.janelia.jacs2.asyncservice.sampleprocessing;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import com.beust.jcommander.Parameter;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 
+import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.common.AbstractServiceProcessor;
+import org.janelia.jacs2.asyncservice.common.ComputationException;
 import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
 import org.janelia.jacs2.asyncservice.common.ServiceArg;
 import org.janelia.jacs2.asyncservice.common.ServiceArgs;
@@ -25,11 +41,12 @@ import org.janelia.jacs2.asyncservice.common.ServiceExecutionContext;
 import org.janelia.jacs2.asyncservice.common.ServiceResultHandler;
 import org.janelia.jacs2.asyncservice.common.WrappedServiceProcessor;
 import org.janelia.jacs2.asyncservice.common.resulthandlers.AbstractAnyServiceResultHandler;
-import org.janelia.jacs2.asyncservice.fileservices.FileCopyProcessor;
+import org.janelia.jacs2.asyncservice.fileservices.FileBatchCopyProcessor;
 import org.janelia.jacs2.asyncservice.utils.FileUtils;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.jacs2.dataservice.sample.SampleDataService;
+import org.janelia.model.jacs2.EntityFieldValueHandler;
 import org.janelia.model.jacs2.domain.DomainConstants;
 import org.janelia.model.jacs2.domain.enums.FileType;
 import org.janelia.model.jacs2.domain.sample.ObjectiveSample;
@@ -43,6 +60,13 @@ import org.slf4j.Logger;
 @Named("sampleResultsCompression")
 public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<List<PipelineResult>> {
 
+    private static final String JOURNAL_FILENAME = "compression.journal";
+    private static final Map<String, byte[]> IMAGE_SIGNATURES = ImmutableMap.of(
+            "h5j", new byte[] {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'},
+            "v3dpbd", "v3d_volume_pkbitdf_encod".getBytes(StandardCharsets.US_ASCII),
+            "v3draw", "raw_image_stack_by_hpeng".getBytes(StandardCharsets.US_ASCII)
+    );
+
     static class SampleResultsCompressionArgs extends ServiceArgs {
         @Parameter(names = "-sampleId", description = "Sample ID", required = true)
         Long sampleId;
@@ -58,21 +82,38 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
         String outputFileType;
         @Parameter(names = "-keepInput", arity = 0, description = "If set the uncompressed input will not be removed", required = false)
         boolean keepInput = false;
+        @Parameter(names = "-journal", description = "Compression journal used for resuming an interrupted compression. " +
+                "If not set the journal is kept in the service's working directory", required = false)
+        String journal;
+    }
+
+    private static class ResultCompression {
+        private final ObjectiveSample objectiveSample;
+        private final PipelineResult result;
+        private final Path inputPath;
+        private final Path outputPath;
+
+        private ResultCompression(ObjectiveSample objectiveSample, PipelineResult result, Path inputPath, Path outputPath) {
+            this.objectiveSample = objectiveSample;
+            this.result = result;
+            this.inputPath = inputPath;
+            this.outputPath = outputPath;
+        }
     }
 
     private final SampleDataService sampleDataService;
-    private final WrappedServiceProcessor<FileCopyProcessor, File> fileCopyProcessor;
+    private final WrappedServiceProcessor<FileBatchCopyProcessor, Void> fileBatchCopyProcessor;
 
     @Inject
     SampleResultsCompressionProcessor(ServiceComputationFactory computationFactory,
                                       JacsServiceDataPersistence jacsServiceDataPersistence,
                                       @PropertyValue(name = "service.DefaultWorkingDir") String defaultWorkingDir,
                                       SampleDataService sampleDataService,
-                                      FileCopyProcessor fileCopyProcessor,
+                                      FileBatchCopyProcessor fileBatchCopyProcessor,
                                       Logger logger) {
         super(computationFactory, jacsServiceDataPersistence, defaultWorkingDir, logger);
         this.sampleDataService = sampleDataService;
-        this.fileCopyProcessor = new WrappedServiceProcessor<>(computationFactory, jacsServiceDataPersistence, fileCopyProcessor);
+        this.fileBatchCopyProcessor = new WrappedServiceProcessor<>(computationFactory, jacsServiceDataPersistence, fileBatchCopyProcessor);
     }
 
     @Override
@@ -95,7 +136,6 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
         };
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public ServiceComputation<JacsServiceResult<List<PipelineResult>>> process(JacsServiceData jacsServiceData) {
         SampleResultsCompressionArgs args = getArgs(jacsServiceData);
@@ -104,7 +144,8 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
                         jacsServiceData.getOwnerKey(),
                         args.sampleId,
                         args.sampleObjective);
-        List<ServiceComputation<?>> updateResultComputations = new ArrayList<>();
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(getJournalPath(jacsServiceData, args));
+        List<ResultCompression> resultCompressions = new ArrayList<>();
         for (ObjectiveSample objectiveSample : objectivesSample) {
             for(SamplePipelineRun run : objectiveSample.getPipelineRuns()) {
                 if (args.pipelineRunId != null &&
@@ -115,15 +156,61 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
                         .map(indexedResult -> indexedResult.getReference())
                         .filter((PipelineResult result) -> args.pipelineResultId == null || result.sameId(args.pipelineResultId))
                         .forEach((PipelineResult result) -> {
-                            setNewResultFile(jacsServiceData, objectiveSample, run, result, args.inputFileTypes, args.outputFileType, !args.keepInput)
-                                    .ifPresent(updateResultComputations::add);
+                            getResultCompression(objectiveSample, result, args.inputFileTypes, args.outputFileType)
+                                    .ifPresent(resultCompressions::add);
                         });
             }
         }
-        return computationFactory.newCompletedComputation(null)
-                .thenCombineAll(updateResultComputations, (nullResult, prs) -> new JacsServiceResult<>(jacsServiceData, (List<PipelineResult>) prs))
-                .thenSuspendUntil(this.suspendCondition(jacsServiceData))
-                .thenApply(prs -> updateServiceResult(jacsServiceData, prs.getResult())) // update the result
+        // results converted by a previous run of the compression whose outputs did not change do not have to be converted again
+        List<ResultCompression> pendingConversions = new ArrayList<>();
+        List<String> missingInputs = new ArrayList<>();
+        // the outputs may be very large so each output is only hashed once
+        Map<Path, String> verifiedChecksums = new HashMap<>();
+        for (ResultCompression resultCompression : resultCompressions) {
+            if (hasVerifiedConversion(resultCompression, journal, verifiedChecksums)) {
+                continue;
+            }
+            if (!Files.exists(resultCompression.inputPath)) {
+                // an output left next to a missing input cannot be verified and it may be the only copy of the data
+                logger.error("Input {} of result {} not found", resultCompression.inputPath, resultCompression.result.getId());
+                missingInputs.add(resultCompression.inputPath.toString());
+                continue;
+            }
+            // an output that was not recorded in the journal was not produced by this compression so it is removed
+            // before the conversion, otherwise a failed conversion would leave the stale output to be committed
+            removeUnverifiedOutput(resultCompression);
+            verifiedChecksums.remove(resultCompression.outputPath);
+            pendingConversions.add(resultCompression);
+        }
+        List<ResultCompression> compressionsToCommit = resultCompressions.stream()
+                .filter(resultCompression -> !missingInputs.contains(resultCompression.inputPath.toString()))
+                .collect(Collectors.toList());
+        ServiceComputation<JacsServiceResult<Void>> conversionComputation;
+        if (pendingConversions.isEmpty()) {
+            conversionComputation = computationFactory.newCompletedComputation(null);
+        } else {
+            conversionComputation = fileBatchCopyProcessor.process(new ServiceExecutionContext.Builder(jacsServiceData)
+                            .description("Convert " + pendingConversions.size() + " results")
+                            .registerProcessingNotification(
+                                    FlylightSampleEvents.COMPRESS_RESULTS,
+                                    new RegisteredJacsNotification().withDefaultLifecycleStages()
+                                            .addNotificationField("sampleId", args.sampleId)
+                                            .addNotificationField("objective", args.sampleObjective)
+                                            .addNotificationField("results", pendingConversions.size())
+                                            .addNotificationField("removeInput", String.valueOf(!args.keepInput))
+                            )
+                            .build(),
+                    new ServiceArg("-src", pendingConversions.stream().map(resultCompression -> resultCompression.inputPath.toString()).collect(Collectors.joining(","))),
+                    new ServiceArg("-dst", pendingConversions.stream().map(resultCompression -> resultCompression.outputPath.toString()).collect(Collectors.joining(",")))
+            ).exceptionally(exc -> {
+                // the outputs that were converted are still committed; the others are reported after that
+                logger.warn("Not all results of sample {} could be converted", args.sampleId, exc);
+                return null;
+            });
+        }
+        return conversionComputation
+                .thenApply(conversionResult -> commitResultCompressions(jacsServiceData, objectivesSample, compressionsToCommit, missingInputs, journal, verifiedChecksums, args.outputFileType, !args.keepInput))
+                .thenApply(prs -> updateServiceResult(jacsServiceData, prs))
                 ;
     }
 
@@ -131,10 +218,16 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
         return ServiceArgs.parse(getJacsServiceArgsArray(jacsServiceData), new SampleResultsCompressionArgs());
     }
 
-    private Optional<ServiceComputation<PipelineResult>> setNewResultFile(JacsServiceData jacsServiceData,
-                                                                          ObjectiveSample objectiveSample, SamplePipelineRun run,
-                                                                          PipelineResult result, List<String> inputTypes, String outputType,
-                                                                          boolean deleteUncompressedInput) {
+    private Path getJournalPath(JacsServiceData jacsServiceData, SampleResultsCompressionArgs args) {
+        if (StringUtils.isNotBlank(args.journal)) {
+            return Paths.get(args.journal);
+        } else {
+            return getWorkingDirectory(jacsServiceData).getServiceFolder(JOURNAL_FILENAME);
+        }
+    }
+
+    private Optional<ResultCompression> getResultCompression(ObjectiveSample objectiveSample, PipelineResult result,
+                                                             List<String> inputTypes, String outputType) {
         Path inputPath = result.getFullFilePath(FileType.LosslessStack);
         String inputExt = inputPath != null ? FileUtils.getFileExtensionOnly(inputPath) : null;
         if (inputExt == null || inputPath.startsWith(DomainConstants.SCALITY_PATH_PREFIX) || inputExt.endsWith(outputType) || inputTypes.stream().noneMatch(inputExt::endsWith)) {
@@ -143,45 +236,222 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
         }
         Path outputPath = getOutput(result, outputType);
         if (outputPath == null || !FileUtils.getFileExtensionOnly(outputPath).endsWith(outputType)) {
-            Path newOutputPath = FileUtils.replaceFileExt(inputPath, outputType);
-            return Optional.of(
-                    fileCopyProcessor.process(new ServiceExecutionContext.Builder(jacsServiceData)
-                                    .description("Convert input file")
-                                    .registerProcessingNotification(
-                                            FlylightSampleEvents.COMPRESS_RESULTS,
-                                            new RegisteredJacsNotification().withDefaultLifecycleStages()
-                                                    .addNotificationField("sampleId", objectiveSample.getParent().getId())
-                                                    .addNotificationField("objective", objectiveSample.getObjective())
-                                                    .addNotificationField("run", run.getId())
-                                                    .addNotificationField("result", result.getId())
-                                                    .addNotificationField("input", inputPath.toString())
-                                                    .addNotificationField("output", newOutputPath.toString())
-                                                    .addNotificationField("removeInput", String.valueOf(deleteUncompressedInput))
-                                    )
-                                    .build(),
-                            new ServiceArg("-src", inputPath.toString()),
-                            new ServiceArg("-dst", newOutputPath.toString())
-                    ).thenApply((JacsServiceResult<File> fr) -> {
-                        setOutput(result, outputType, newOutputPath);
-                        if (deleteUncompressedInput) {
-                            result.setFileName(FileType.LosslessStack, null);
-                        }
-                        sampleDataService.updateSampleObjectivePipelineRunResult(objectiveSample.getParent(), objectiveSample.getObjective(), run.getId(), result);
-                        if (deleteUncompressedInput) {
-                            try {
-                                Files.delete(inputPath);
-                            } catch (IOException e) {
-                                logger.warn("Failed to delete {}", inputPath, e);
-                            }
-                        }
-                        return result;
-                    })
-            );
+            return Optional.of(new ResultCompression(objectiveSample, result, inputPath, FileUtils.replaceFileExt(inputPath, outputType)));
         } else {
             return Optional.empty();
         }
     }
 
+    private boolean hasVerifiedConversion(ResultCompression resultCompression, SampleResultsCompressionJournal journal, Map<Path, String> verifiedChecksums) {
+        return journal.getEntry(resultCompression.inputPath.toString())
+                .filter(journalEntry -> journalEntry.output.equals(resultCompression.outputPath.toString()))
+                .map(journalEntry -> getVerifiedChecksum(resultCompression.outputPath, verifiedChecksums).map(checksum -> checksum.equals(journalEntry.checksum)).orElse(false))
+                .orElse(false);
+    }
+
+    private void removeUnverifiedOutput(ResultCompression resultCompression) {
+        try {
+            if (Files.deleteIfExists(resultCompression.outputPath)) {
+                logger.warn("Removed {} because it was not produced by a recorded conversion of {}", resultCompression.outputPath, resultCompression.inputPath);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Verify the converted outputs, update all results that have a verified output in one bulk write and then
+     * remove the inputs. Each stage is recorded in the journal before moving to the next stage, so if the
+     * compression is interrupted no input is removed before its result references the output.
+     */
+    private List<PipelineResult> commitResultCompressions(JacsServiceData jacsServiceData, List<ObjectiveSample> objectivesSample,
+                                                          List<ResultCompression> resultCompressions,
+                                                          List<String> missingInputs,
+                                                          SampleResultsCompressionJournal journal,
+                                                          Map<Path, String> verifiedChecksums,
+                                                          String outputType,
+                                                          boolean deleteUncompressedInput) {
+        List<ResultCompression> verifiedCompressions = new ArrayList<>();
+        List<String> failedCompressions = new ArrayList<>(missingInputs);
+        for (ResultCompression resultCompression : resultCompressions) {
+            Optional<String> outputChecksum = getVerifiedChecksum(resultCompression.outputPath, verifiedChecksums);
+            if (outputChecksum.isPresent()) {
+                journal.markConverted(resultCompression.inputPath.toString(), resultCompression.outputPath.toString(), outputChecksum.get());
+                verifiedCompressions.add(resultCompression);
+            } else {
+                logger.error("No valid output {} was found for {}", resultCompression.outputPath, resultCompression.inputPath);
+                failedCompressions.add(resultCompression.inputPath.toString());
+            }
+        }
+        if (!verifiedCompressions.isEmpty()) {
+            Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsUpdates = new LinkedHashMap<>();
+            for (ResultCompression resultCompression : verifiedCompressions) {
+                // only send the changed fields of the result; the output is set last because a
+                // non h5j output replaces the input as the lossless stack
+                Map<String, EntityFieldValueHandler<?>> resultUpdates = new LinkedHashMap<>();
+                if (deleteUncompressedInput) {
+                    resultUpdates.putAll(resultCompression.result.setFileName(FileType.LosslessStack, null));
+                }
+                resultUpdates.putAll(setOutput(resultCompression.result, outputType, resultCompression.outputPath));
+                resultsUpdates.put(resultCompression.result.getId(), resultUpdates);
+            }
+            sampleDataService.updateSamplePipelineResults(verifiedCompressions.get(0).objectiveSample.getParent(), resultsUpdates);
+            verifiedCompressions.forEach(resultCompression -> journal.markUpdated(resultCompression.inputPath.toString()));
+        }
+        if (deleteUncompressedInput) {
+            Set<String> referencedOutputs = objectivesSample.stream()
+                    .flatMap(objectiveSample -> objectiveSample.getPipelineRuns().stream())
+                    .flatMap(SamplePipelineRun::streamResults)
+                    .map(indexedResult -> getOutput(indexedResult.getReference(), outputType))
+                    .filter(Objects::nonNull)
+                    .map(Path::toString)
+                    .collect(Collectors.toSet());
+            // this includes the inputs from an interrupted compression which were not deleted yet
+            journal.getEntries().stream()
+                    .filter(journalEntry -> journalEntry.stage == SampleResultsCompressionJournal.Stage.UPDATED ||
+                            (journalEntry.stage == SampleResultsCompressionJournal.Stage.CONVERTED && referencedOutputs.contains(journalEntry.output)))
+                    .forEach(journalEntry -> deleteInput(journalEntry, journal, verifiedChecksums));
+        }
+        if (!failedCompressions.isEmpty()) {
+            throw new ComputationException(jacsServiceData, "Failed to compress " + String.join(",", failedCompressions));
+        }
+        return verifiedCompressions.stream().map(resultCompression -> resultCompression.result).collect(Collectors.toList());
+    }
+
+    private void deleteInput(SampleResultsCompressionJournal.Entry journalEntry, SampleResultsCompressionJournal journal, Map<Path, String> verifiedChecksums) {
+        // check that the output is still the one that was verified before removing the input
+        if (!getVerifiedChecksum(Paths.get(journalEntry.output), verifiedChecksums).map(checksum -> checksum.equals(journalEntry.checksum)).orElse(false)) {
+            logger.error("{} is not deleted because {} changed after it was verified", journalEntry.input, journalEntry.output);
+            return;
+        }
+        try {
+            Files.deleteIfExists(Paths.get(journalEntry.input));
+            journal.markDeleted(journalEntry.input);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", journalEntry.input, e);
+        }
+    }
+
+    /**
+     * @return the checksum already computed by this run for the file or else the checksum computed by {@link #getVerifiedChecksum(Path)}.
+     */
+    private Optional<String> getVerifiedChecksum(Path filePath, Map<Path, String> verifiedChecksums) {
+        String verifiedChecksum = verifiedChecksums.get(filePath);
+        if (verifiedChecksum != null) {
+            return Optional.of(verifiedChecksum);
+        }
+        Optional<String> checksum = getVerifiedChecksum(filePath);
+        checksum.ifPresent(c -> verifiedChecksums.put(filePath, c));
+        return checksum;
+    }
+
+    /**
+     * @return the checksum of the file if the file starts with the header of its image format and it can be read entirely.
+     */
+    private Optional<String> getVerifiedChecksum(Path filePath) {
+        if (!Files.isRegularFile(filePath)) {
+            return Optional.empty();
+        }
+        try {
+            if (Files.size(filePath) == 0) {
+                return Optional.empty();
+            }
+            if (!hasImageHeader(filePath)) {
+                logger.warn("{} does not have a valid image header", filePath);
+                return Optional.empty();
+            }
+            return Optional.of(com.google.common.io.Files.asByteSource(filePath.toFile()).hash(Hashing.sha256()).toString());
+        } catch (IOException e) {
+            logger.warn("Error reading {}", filePath, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Check the signature of the formats produced by the convert script. For HDF5 based formats the end of file
+     * address from the superblock must also be within the file so that a truncated output is not accepted.
+     */
+    private boolean hasImageHeader(Path filePath) throws IOException {
+        String fileExt = FileUtils.getFileExtensionOnly(filePath);
+        Optional<String> imageFormat = IMAGE_SIGNATURES.keySet().stream().filter(fileExt::endsWith).findFirst();
+        if (!imageFormat.isPresent()) {
+            // no known signature for this format
+            return true;
+        }
+        byte[] signature = IMAGE_SIGNATURES.get(imageFormat.get());
+        long fileSize = Files.size(filePath);
+        try (SeekableByteChannel fileChannel = Files.newByteChannel(filePath)) {
+            if ("h5j".equals(imageFormat.get())) {
+                // the HDF5 superblock may be preceded by a user block whose size is a power of 2 starting from 512
+                for (long offset = 0; offset + signature.length <= fileSize; offset = offset == 0 ? 512 : offset * 2) {
+                    if (Arrays.equals(signature, readBytes(fileChannel, offset, signature.length).array())) {
+                        return isCompleteHdf5File(fileChannel, offset, fileSize);
+                    }
+                }
+                return false;
+            } else {
+                return fileSize >= signature.length && Arrays.equals(signature, readBytes(fileChannel, 0, signature.length).array());
+            }
+        }
+    }
+
+    private boolean isCompleteHdf5File(SeekableByteChannel fileChannel, long superblockOffset, long fileSize) throws IOException {
+        ByteBuffer superblock = readBytes(fileChannel, superblockOffset, (int) Math.min(64, fileSize - superblockOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        if (superblock.limit() < 16) {
+            return false;
+        }
+        int offsetSize;
+        int baseAddressPos;
+        switch (superblock.get(8)) {
+            case 0:
+                offsetSize = superblock.get(13);
+                baseAddressPos = 24;
+                break;
+            case 1:
+                offsetSize = superblock.get(13);
+                baseAddressPos = 28;
+                break;
+            case 2:
+            case 3:
+                offsetSize = superblock.get(9);
+                baseAddressPos = 12;
+                break;
+            default:
+                return false;
+        }
+        // the end of file address follows the base address and the free space (v0, v1) or superblock extension (v2, v3) address
+        int eofAddressPos = baseAddressPos + 2 * offsetSize;
+        if (eofAddressPos + offsetSize > superblock.limit()) {
+            return false;
+        }
+        long baseAddress = readHdf5Address(superblock, baseAddressPos, offsetSize);
+        long eofAddress = readHdf5Address(superblock, eofAddressPos, offsetSize);
+        return baseAddress >= 0 && eofAddress > 0 && baseAddress + eofAddress <= fileSize;
+    }
+
+    private long readHdf5Address(ByteBuffer buffer, int pos, int addressSize) {
+        switch (addressSize) {
+            case 2:
+                return buffer.getShort(pos) & 0xFFFFL;
+            case 4:
+                return buffer.getInt(pos) & 0xFFFFFFFFL;
+            case 8:
+                return buffer.getLong(pos); // an undefined address is negative
+            default:
+                return -1;
+        }
+    }
+
+    private ByteBuffer readBytes(SeekableByteChannel fileChannel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        fileChannel.position(offset);
+        while (buffer.hasRemaining() && fileChannel.read(buffer) > 0) {
+            // read until the buffer is full
+        }
+        buffer.flip();
+        return buffer;
+    }
+
     private Path getOutput(PipelineResult result, String outputType) {
         if ("h5j".equals(outputType)) {
             return result.getFullFilePath(FileType.VisuallyLosslessStack);
@@ -190,11 +460,11 @@ public class SampleResultsCompressionProcessor extends AbstractServiceProcessor<
         }
     }
 
-    private void setOutput(PipelineResult result, String outputType, Path output) {
+    private Map<String, EntityFieldValueHandler<?>> setOutput(PipelineResult result, String outputType, Path output) {
         if ("h5j".equals(outputType)) {
-            result.setFileName(FileType.VisuallyLosslessStack, output.toString());
+            return result.setFileName(FileType.VisuallyLosslessStack, output.toString());
         } else {
-            result.setFileName(FileType.LosslessStack, output.toString());
+            return result.setFileName(FileType.LosslessStack, output.toString());
         }
     }
 }
@@ -128,4 +128,16 @@ public class LSMMetadata {
         return objectMapper.readValue(Files.readAllBytes(file.toPath()), LSMMetadata.class);
     }
 
+    /**
+     * Read LSM metadata directly from the LSM file
+     * @param lsmFile LSM file
+     * @return the internal representation of the LSM metadata
+     * @throws IOException
+     */
+    public static LSMMetadata fromLSMFile(File lsmFile) throws IOException {
+        Preconditions.checkArgument(lsmFile.exists(), "LSM file " + lsmFile + " is missing");
+        ObjectMapper objectMapper = ObjectMapperFactory.instance().getDefaultObjectMapper();
+        return objectMapper.convertValue(LSMMetadataReader.readMetadata(lsmFile.toPath()), LSMMetadata.class);
+    }
+
 }
@@ -0,0 +1,466 @@
+package org.janelia.jacs2.asyncservice.sampleprocessing.zeiss;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the Zeiss LSM metadata directly from an LSM file. Only the first TIFF directory, the CZ_LSMINFO structure,
+ * the channel colors and the scan information blocks are read - the pixel data is never touched.
+ * The result has the same structure and uses the same keys as the JSON output by lsm_json_dump.pl so it can be
+ * written as the LSM metadata file or converted to LSMMetadata.
+ */
+public class LSMMetadataReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIFF_MAGIC = 42;
+    private static final int CZ_LSMINFO_TAG = 34412;
+    private static final long CZ_LSMINFO_MAGIC_V1 = 0x0300494CL;
+    private static final long CZ_LSMINFO_MAGIC_V2 = 0x0400494CL;
+    private static final int CZ_LSMINFO_CHANNEL_COLORS_OFFSET = 108;
+    private static final int CZ_LSMINFO_SCAN_INFORMATION_OFFSET = 124;
+
+    private static final long SUBBLOCK_RECORDING = 0x10000000L;
+    private static final long SUBBLOCK_END = 0xFFFFFFFFL;
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    /**
+     * Scan information sub blocks that hold a list of entries.
+     */
+    private static final Map<Long, String> SCANINFO_LISTS = ImmutableMap.<Long, String>builder()
+            .put(0x20000000L, "tracks")
+            .put(0x30000000L, "lasers")
+            .put(0x60000000L, "detection_channels")
+            .put(0x80000000L, "illumination_channels")
+            .put(0xA0000000L, "beam_splitters")
+            .put(0xC0000000L, "data_channels")
+            .put(0x11000000L, "timers")
+            .put(0x13000000L, "markers")
+            .build();
+
+    /**
+     * Scan information attributes that are mapped to the lsm_json_dump.pl names.
+     */
+    private static final Map<Long, String> SCANINFO_ATTRIBUTES = ImmutableMap.<Long, String>builder()
+            // recording
+            .put(0x10000001L, "RECORDING_ENTRY_NAME")
+            .put(0x10000002L, "RECORDING_ENTRY_DESCRIPTION")
+            .put(0x10000003L, "RECORDING_ENTRY_NOTES")
+            .put(0x10000004L, "RECORDING_ENTRY_OBJECTIVE")
+            .put(0x10000005L, "RECORDING_ENTRY_PROCESSING_SUMMARY")
+            .put(0x10000006L, "RECORDING_ENTRY_SPECIAL_SCAN_MODE")
+            .put(0x10000007L, "RECORDING_ENTRY_SCAN_TYPE")
+            .put(0x10000008L, "RECORDING_ENTRY_SCAN_MODE")
+            .put(0x10000009L, "RECORDING_ENTRY_NUMBER_OF_STACKS")
+            .put(0x1000000AL, "RECORDING_ENTRY_LINES_PER_PLANE")
+            .put(0x1000000BL, "RECORDING_ENTRY_SAMPLES_PER_LINE")
+            .put(0x1000000CL, "RECORDING_ENTRY_PLANES_PER_VOLUME")
+            .put(0x1000000DL, "RECORDING_ENTRY_IMAGES_WIDTH")
+            .put(0x1000000EL, "RECORDING_ENTRY_IMAGES_HEIGHT")
+            .put(0x1000000FL, "RECORDING_ENTRY_IMAGES_NUMBER_PLANES")
+            .put(0x10000010L, "RECORDING_ENTRY_IMAGES_NUMBER_STACKS")
+            .put(0x10000011L, "RECORDING_ENTRY_IMAGES_NUMBER_CHANNELS")
+            .put(0x10000012L, "RECORDING_ENTRY_LINSCAN_XY_SIZE")
+            .put(0x10000013L, "RECORDING_ENTRY_SCAN_DIRECTION")
+            .put(0x10000014L, "RECORDING_ENTRY_TIME_SERIES")
+            .put(0x10000015L, "RECORDING_ENTRY_ORIGINAL_SCAN_DATA")
+            .put(0x10000016L, "RECORDING_ENTRY_ZOOM_X")
+            .put(0x10000017L, "RECORDING_ENTRY_ZOOM_Y")
+            .put(0x10000018L, "RECORDING_ENTRY_ZOOM_Z")
+            .put(0x10000019L, "RECORDING_ENTRY_SAMPLE_0X")
+            .put(0x1000001AL, "RECORDING_ENTRY_SAMPLE_0Y")
+            .put(0x1000001BL, "RECORDING_ENTRY_SAMPLE_0Z")
+            .put(0x1000001CL, "RECORDING_ENTRY_SAMPLE_SPACING")
+            .put(0x1000001DL, "RECORDING_ENTRY_LINE_SPACING")
+            .put(0x1000001EL, "RECORDING_ENTRY_PLANE_SPACING")
+            .put(0x1000001FL, "RECORDING_ENTRY_PLANE_WIDTH")
+            .put(0x10000020L, "RECORDING_ENTRY_PLANE_HEIGHT")
+            .put(0x10000021L, "RECORDING_ENTRY_VOLUME_DEPTH")
+            .put(0x10000023L, "RECORDING_ENTRY_NUTATION")
+            .put(0x10000034L, "RECORDING_ENTRY_ROTATION")
+            .put(0x10000035L, "RECORDING_ENTRY_PRECESSION")
+            .put(0x10000036L, "RECORDING_ENTRY_SAMPLE_0TIME")
+            .put(0x10000037L, "RECORDING_ENTRY_START_SCAN_TRIGGER_IN")
+            .put(0x10000038L, "RECORDING_ENTRY_START_SCAN_TRIGGER_OUT")
+            .put(0x10000039L, "RECORDING_ENTRY_START_SCAN_EVENT")
+            .put(0x10000040L, "RECORDING_ENTRY_START_SCAN_TIME")
+            .put(0x10000041L, "RECORDING_ENTRY_STOP_SCAN_TRIGGER_IN")
+            .put(0x10000042L, "RECORDING_ENTRY_STOP_SCAN_TRIGGER_OUT")
+            .put(0x10000043L, "RECORDING_ENTRY_STOP_SCAN_EVENT")
+            .put(0x10000044L, "RECORDING_ENTRY_STOP_SCAN_TIME")
+            .put(0x10000045L, "RECORDING_ENTRY_USE_ROIS")
+            .put(0x10000046L, "RECORDING_ENTRY_USE_REDUCED_MEMORY_ROIS")
+            .put(0x10000047L, "RECORDING_ENTRY_USER")
+            .put(0x10000048L, "RECORDING_ENTRY_USEBCCORRECTION")
+            .put(0x10000049L, "RECORDING_ENTRY_POSITIONBCCORRECTION1")
+            .put(0x10000050L, "RECORDING_ENTRY_POSITIONBCCORRECTION2")
+            .put(0x10000051L, "RECORDING_ENTRY_INTERPOLATIONY")
+            .put(0x10000052L, "RECORDING_ENTRY_CAMERA_BINNING")
+            .put(0x10000053L, "RECORDING_ENTRY_CAMERA_SUPERSAMPLING")
+            .put(0x10000054L, "RECORDING_ENTRY_CAMERA_FRAME_WIDTH")
+            .put(0x10000055L, "RECORDING_ENTRY_CAMERA_FRAME_HEIGHT")
+            .put(0x10000056L, "RECORDING_ENTRY_CAMERA_OFFSETX")
+            .put(0x10000057L, "RECORDING_ENTRY_CAMERA_OFFSETY")
+            .put(0x10000058L, "RECORDING_ENTRY_RT_SUPERSAMPLING")
+            .put(0x10000059L, "RECORDING_ENTRY_RT_BINNING")
+            .put(0x1000005AL, "RECORDING_ENTRY_RT_FRAME_WIDTH")
+            .put(0x1000005BL, "RECORDING_ENTRY_RT_FRAME_HEIGHT")
+            .put(0x1000005CL, "RECORDING_ENTRY_RT_REGION_WIDTH")
+            .put(0x1000005DL, "RECORDING_ENTRY_RT_REGION_HEIGHT")
+            .put(0x1000005EL, "RECORDING_ENTRY_RT_OFFSETX")
+            .put(0x1000005FL, "RECORDING_ENTRY_RT_OFFSETY")
+            .put(0x10000060L, "RECORDING_ENTRY_RT_ZOOM")
+            .put(0x10000061L, "RECORDING_ENTRY_RT_LINEPERIOD")
+            .put(0x10000062L, "RECORDING_ENTRY_PRESCAN")
+            .put(0x10000063L, "RECORDING_ENTRY_SCAN_DIRECTIONZ")
+            // track
+            .put(0x40000001L, "TRACK_ENTRY_MULTIPLEX_TYPE")
+            .put(0x40000002L, "TRACK_ENTRY_MULTIPLEX_ORDER")
+            .put(0x40000003L, "TRACK_ENTRY_SAMPLING_MODE")
+            .put(0x40000004L, "TRACK_ENTRY_SAMPLING_METHOD")
+            .put(0x40000005L, "TRACK_ENTRY_SAMPLING_NUMBER")
+            .put(0x40000006L, "TRACK_ENTRY_ACQUIRE")
+            .put(0x40000007L, "TRACK_ENTRY_SAMPLE_OBSERVATION_TIME")
+            .put(0x4000000BL, "TRACK_ENTRY_TIME_BETWEEN_STACKS")
+            .put(0x4000000CL, "TRACK_ENTRY_NAME")
+            .put(0x40000011L, "TRACK_ENTRY_IS_BLEACH_TRACK")
+            .put(0x40000012L, "TRACK_ENTRY_IS_BLEACH_AFTER_SCAN_NUMBER")
+            .put(0x40000013L, "TRACK_ENTRY_BLEACH_SCAN_NUMBER")
+            .put(0x40000014L, "TRACK_ENTRY_TRIGGER_IN")
+            .put(0x40000015L, "TRACK_ENTRY_TRIGGER_OUT")
+            .put(0x40000016L, "TRACK_ENTRY_IS_RATIO_STACK")
+            .put(0x40000017L, "TRACK_ENTRY_BLEACH_COUNT")
+            .put(0x40000018L, "TRACK_ENTRY_SPI_CENTER_WAVELENGTH")
+            .put(0x40000019L, "TRACK_ENTRY_PIXEL_TIME")
+            .put(0x40000039L, "TRACK_TRANSMITTED_LIGHT")
+            .put(0x4000003AL, "TRACK_REFLECTED_LIGHT")
+            // laser
+            .put(0x50000001L, "OLEDB_LASER_ENTRY_NAME")
+            .put(0x50000002L, "OLEDB_LASER_ENTRY_ACQUIRE")
+            .put(0x50000003L, "OLEDB_LASER_ENTRY_POWER")
+            // detection channel
+            .put(0x70000001L, "DETCHANNEL_ENTRY_INTEGRATION_MODE")
+            .put(0x70000002L, "DETCHANNEL_ENTRY_SPECIAL_MODE")
+            .put(0x70000003L, "DETCHANNEL_ENTRY_DETECTOR_GAIN")
+            .put(0x70000004L, "DETCHANNEL_ENTRY_DETECTOR_GAIN_LAST")
+            .put(0x70000005L, "DETCHANNEL_ENTRY_AMPLIFIER_GAIN")
+            .put(0x70000006L, "DETCHANNEL_ENTRY_AMPLIFIER_GAIN_LAST")
+            .put(0x70000007L, "DETCHANNEL_ENTRY_AMPLIFIER_OFFS")
+            .put(0x70000008L, "DETCHANNEL_ENTRY_AMPLIFIER_OFFS_LAST")
+            .put(0x70000009L, "DETCHANNEL_ENTRY_PINHOLE_DIAMETER")
+            .put(0x7000000AL, "DETCHANNEL_ENTRY_COUNTING_TRIGGER")
+            .put(0x7000000BL, "DETCHANNEL_ENTRY_ACQUIRE")
+            .put(0x7000000CL, "DETCHANNEL_POINT_DETECTOR_NAME")
+            .put(0x7000000DL, "DETCHANNEL_AMPLIFIER_NAME")
+            .put(0x7000000EL, "DETCHANNEL_PINHOLE_NAME")
+            .put(0x7000000FL, "DETCHANNEL_FILTER_SET_NAME")
+            .put(0x70000010L, "DETCHANNEL_FILTER_NAME")
+            .put(0x70000013L, "DETCHANNEL_INTEGRATOR_NAME")
+            .put(0x70000014L, "DETCHANNEL_DETECTION_CHANNEL_NAME")
+            .put(0x70000015L, "DETCHANNEL_ENTRY_DETECTOR_GAIN_BC1")
+            .put(0x70000016L, "DETCHANNEL_ENTRY_DETECTOR_GAIN_BC2")
+            .put(0x70000017L, "DETCHANNEL_ENTRY_AMPLIFIER_GAIN_BC1")
+            .put(0x70000018L, "DETCHANNEL_ENTRY_AMPLIFIER_GAIN_BC2")
+            .put(0x70000019L, "DETCHANNEL_ENTRY_AMPLIFIER_OFFS_BC1")
+            .put(0x70000020L, "DETCHANNEL_ENTRY_AMPLIFIER_OFFS_BC2")
+            .put(0x70000021L, "DETCHANNEL_ENTRY_SPECTRAL_SCAN_CHANNELS")
+            .put(0x70000022L, "DETCHANNEL_ENTRY_SPI_WAVELENGTH_START")
+            .put(0x70000023L, "DETCHANNEL_ENTRY_SPI_WAVELENGTH_END")
+            .put(0x70000026L, "DETCHANNEL_ENTRY_DYE_NAME")
+            .put(0x70000027L, "DETCHANNEL_ENTRY_DYE_FOLDER")
+            // illumination channel
+            .put(0x90000001L, "ILLUMCHANNEL_ENTRY_NAME")
+            .put(0x90000002L, "ILLUMCHANNEL_ENTRY_POWER")
+            .put(0x90000003L, "ILLUMCHANNEL_ENTRY_WAVELENGTH")
+            .put(0x90000004L, "ILLUMCHANNEL_ENTRY_ACQUIRE")
+            .put(0x90000005L, "ILLUMCHANNEL_DETCHANNEL_NAME")
+            .put(0x90000006L, "ILLUMCHANNEL_ENTRY_POWER_BC1")
+            .put(0x90000007L, "ILLUMCHANNEL_ENTRY_POWER_BC2")
+            // beam splitter
+            .put(0xB0000001L, "BEAMSPLITTER_ENTRY_FILTER_SET")
+            .put(0xB0000002L, "BEAMSPLITTER_ENTRY_FILTER")
+            .put(0xB0000003L, "BEAMSPLITTER_ENTRY_NAME")
+            // data channel
+            .put(0xD0000001L, "DATACHANNEL_ENTRY_NAME")
+            .put(0xD0000003L, "DATACHANNEL_ENTRY_ACQUIRE")
+            .put(0xD0000004L, "DATACHANNEL_ENTRY_COLOR")
+            .put(0xD0000005L, "DATACHANNEL_ENTRY_SAMPLETYPE")
+            .put(0xD0000006L, "DATACHANNEL_ENTRY_BITSPERSAMPLE")
+            .put(0xD0000007L, "DATACHANNEL_ENTRY_RATIO_TYPE")
+            .put(0xD0000008L, "DATACHANNEL_ENTRY_RATIO_TRACK1")
+            .put(0xD0000009L, "DATACHANNEL_ENTRY_RATIO_TRACK2")
+            .put(0xD000000AL, "DATACHANNEL_ENTRY_RATIO_CHANNEL1")
+            .put(0xD000000BL, "DATACHANNEL_ENTRY_RATIO_CHANNEL2")
+            .put(0xD000000CL, "DATACHANNEL_ENTRY_RATIO_CONST1")
+            .put(0xD000000DL, "DATACHANNEL_ENTRY_RATIO_CONST2")
+            .put(0xD000000EL, "DATACHANNEL_ENTRY_RATIO_CONST3")
+            .put(0xD000000FL, "DATACHANNEL_ENTRY_RATIO_CONST4")
+            .put(0xD0000010L, "DATACHANNEL_ENTRY_RATIO_CONST5")
+            .put(0xD0000011L, "DATACHANNEL_ENTRY_RATIO_CONST6")
+            // timer
+            .put(0x12000001L, "TIMER_NAME")
+            .put(0x12000003L, "INTERVAL")
+            .put(0x12000004L, "TRIGGER_IN")
+            .put(0x12000005L, "TRIGGER_OUT")
+            // marker
+            .put(0x14000001L, "MARKER_NAME")
+            .put(0x14000002L, "DESCRIPTION")
+            .put(0x14000003L, "TRIGGER_IN")
+            .put(0x14000004L, "TRIGGER_OUT")
+            .build();
+
+    /**
+     * Buffered little endian reader over a file channel that only reads the file regions it is positioned at.
+     */
+    private static class LittleEndianChannelReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long bufferStart;
+
+        LittleEndianChannelReader(FileChannel channel) {
+            this.channel = channel;
+            this.buffer.limit(0);
+        }
+
+        long position() {
+            return bufferStart + buffer.position();
+        }
+
+        void seek(long position) {
+            if (position >= bufferStart && position <= bufferStart + buffer.limit()) {
+                buffer.position((int) (position - bufferStart));
+            } else {
+                bufferStart = position;
+                buffer.clear();
+                buffer.limit(0);
+            }
+        }
+
+        int readInt() throws IOException {
+            fill(4);
+            return buffer.getInt();
+        }
+
+        long readUnsignedInt() throws IOException {
+            return readInt() & 0xFFFFFFFFL;
+        }
+
+        int readUnsignedShort() throws IOException {
+            fill(2);
+            return buffer.getShort() & 0xFFFF;
+        }
+
+        double readDouble() throws IOException {
+            fill(8);
+            return buffer.getDouble();
+        }
+
+        byte[] readBytes(int n) throws IOException {
+            byte[] bytes = new byte[n];
+            if (n <= buffer.capacity()) {
+                fill(n);
+                buffer.get(bytes);
+            } else {
+                ByteBuffer bytesBuffer = ByteBuffer.wrap(bytes);
+                long position = position();
+                while (bytesBuffer.hasRemaining()) {
+                    if (channel.read(bytesBuffer, position + bytesBuffer.position()) < 0) {
+                        throw new EOFException("Unexpected end of file at " + (position + bytesBuffer.position()));
+                    }
+                }
+                seek(position + n);
+            }
+            return bytes;
+        }
+
+        void skip(long n) {
+            seek(position() + n);
+        }
+
+        private void fill(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return;
+            }
+            long position = position();
+            buffer.compact();
+            bufferStart = position;
+            while (buffer.position() < n) {
+                if (channel.read(buffer, bufferStart + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of file at " + (bufferStart + buffer.position()));
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Read the LSM metadata.
+     *
+     * @param lsmFile LSM file
+     * @return the metadata with the same structure as the JSON output by lsm_json_dump.pl
+     * @throws IOException if the file cannot be read or if it is not an LSM file.
+     */
+    public static Map<String, Object> readMetadata(Path lsmFile) throws IOException {
+        try (FileChannel lsmChannel = FileChannel.open(lsmFile, StandardOpenOption.READ)) {
+            LittleEndianChannelReader reader = new LittleEndianChannelReader(lsmChannel);
+            long lsmInfoOffset = findLSMInfoOffset(reader, lsmFile);
+            reader.seek(lsmInfoOffset);
+            long magicNumber = reader.readUnsignedInt();
+            if (magicNumber != CZ_LSMINFO_MAGIC_V1 && magicNumber != CZ_LSMINFO_MAGIC_V2) {
+                throw new IOException("Invalid CZ_LSMINFO magic number " + Long.toHexString(magicNumber) + " in " + lsmFile);
+            }
+            reader.seek(lsmInfoOffset + CZ_LSMINFO_CHANNEL_COLORS_OFFSET);
+            long channelColorsOffset = reader.readUnsignedInt();
+            reader.seek(lsmInfoOffset + CZ_LSMINFO_SCAN_INFORMATION_OFFSET);
+            long scanInformationOffset = reader.readUnsignedInt();
+
+            Map<String, Object> lsmMetadata = new LinkedHashMap<>();
+            lsmMetadata.put("stack", lsmFile.getFileName().toString());
+            lsmMetadata.put("channels", channelColorsOffset > 0 ? readChannels(reader, channelColorsOffset) : new ArrayList<>());
+            Map<String, Object> recording = scanInformationOffset > 0 ? readScanInformation(reader, scanInformationOffset) : new LinkedHashMap<>();
+            for (String listName : SCANINFO_LISTS.values()) {
+                // the lists are at the top level of the metadata while the recording only has the attributes
+                Object entries = recording.remove(listName);
+                if (entries != null) {
+                    lsmMetadata.put(listName, entries);
+                }
+            }
+            lsmMetadata.put("recording", recording);
+            return lsmMetadata;
+        }
+    }
+
+    private static long findLSMInfoOffset(LittleEndianChannelReader reader, Path lsmFile) throws IOException {
+        reader.seek(0);
+        int byteOrder = reader.readUnsignedShort();
+        if (byteOrder != 0x4949) {
+            throw new IOException(lsmFile + " is not a little endian TIFF file");
+        }
+        if (reader.readUnsignedShort() != TIFF_MAGIC) {
+            throw new IOException(lsmFile + " is not a TIFF file");
+        }
+        long ifdOffset = reader.readUnsignedInt();
+        reader.seek(ifdOffset);
+        int nEntries = reader.readUnsignedShort();
+        for (int i = 0; i < nEntries; i++) {
+            int tag = reader.readUnsignedShort();
+            reader.skip(6); // type and count
+            long valueOffset = reader.readUnsignedInt();
+            if (tag == CZ_LSMINFO_TAG) {
+                return valueOffset;
+            }
+        }
+        throw new IOException("No CZ_LSMINFO tag found in " + lsmFile);
+    }
+
+    private static List<Map<String, Object>> readChannels(LittleEndianChannelReader reader, long channelColorsOffset) throws IOException {
+        reader.seek(channelColorsOffset);
+        int blockSize = reader.readInt();
+        int nColors = reader.readInt();
+        int nNames = reader.readInt();
+        int colorsOffset = reader.readInt();
+        int namesOffset = reader.readInt();
+        List<Map<String, Object>> channels = new ArrayList<>();
+        List<String> colors = new ArrayList<>();
+        reader.seek(channelColorsOffset + colorsOffset);
+        for (int i = 0; i < nColors; i++) {
+            byte[] rgba = reader.readBytes(4);
+            colors.add(String.format("#%02x%02x%02x", rgba[0] & 0xFF, rgba[1] & 0xFF, rgba[2] & 0xFF));
+        }
+        reader.seek(channelColorsOffset + namesOffset);
+        long namesEnd = channelColorsOffset + blockSize;
+        for (int i = 0; i < nNames && reader.position() + 4 < namesEnd; i++) {
+            int nameLength = reader.readInt();
+            String name = toString(reader.readBytes(nameLength));
+            Map<String, Object> channel = new LinkedHashMap<>();
+            channel.put("color", i < colors.size() ? colors.get(i) : null);
+            channel.put("name", name);
+            channels.add(channel);
+        }
+        return channels;
+    }
+
+    /**
+     * The scan information is a tree of entries; every entry has a tag, a type and a size followed by its value.
+     * Lists and their elements are sub blocks that are terminated by an end entry.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readScanInformation(LittleEndianChannelReader reader, long scanInformationOffset) throws IOException {
+        Map<String, Object> recording = new LinkedHashMap<>();
+        reader.seek(scanInformationOffset);
+        if (reader.readUnsignedInt() != SUBBLOCK_RECORDING) {
+            return recording;
+        }
+        reader.skip(8);
+        Deque<Object> blocks = new ArrayDeque<>();
+        Object currentBlock = recording;
+        blocks.push(currentBlock);
+        while (!blocks.isEmpty()) {
+            long entryTag = reader.readUnsignedInt();
+            int entryType = reader.readInt();
+            int entrySize = reader.readInt();
+            Object value = readValue(reader, entryType, entrySize);
+            if (entryTag == SUBBLOCK_END) {
+                currentBlock = blocks.pop();
+            } else if (SCANINFO_LISTS.containsKey(entryTag)) {
+                List<Object> list = new ArrayList<>();
+                ((Map<String, Object>) currentBlock).put(SCANINFO_LISTS.get(entryTag), list);
+                blocks.push(currentBlock);
+                currentBlock = list;
+            } else if (currentBlock instanceof List) {
+                // an element of the current list
+                Map<String, Object> element = new LinkedHashMap<>();
+                ((List<Object>) currentBlock).add(element);
+                blocks.push(currentBlock);
+                currentBlock = element;
+            } else if (SCANINFO_ATTRIBUTES.containsKey(entryTag)) {
+                ((Map<String, Object>) currentBlock).put(SCANINFO_ATTRIBUTES.get(entryTag), value);
+            }
+        }
+        return recording;
+    }
+
+    private static Object readValue(LittleEndianChannelReader reader, int entryType, int entrySize) throws IOException {
+        long valueEnd = reader.position() + entrySize;
+        Object value;
+        switch (entryType) {
+            case TYPE_ASCII:
+                value = toString(reader.readBytes(entrySize));
+                break;
+            case TYPE_LONG:
+                value = entrySize >= 4 ? (Object) reader.readInt() : null;
+                break;
+            case TYPE_RATIONAL:
+                value = entrySize >= 8 ? (Object) reader.readDouble() : null;
+                break;
+            default:
+                value = null;
+                break;
+        }
+        reader.seek(valueEnd);
+        return value;
+    }
+
+    private static String toString(byte[] bytes) {
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -1,29 +1,115 @@
 package org.janelia.jacs2.asyncservice.utils;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import javax.el.ELContext;
+import javax.el.ELException;
 import javax.el.ELManager;
-import javax.el.ELProcessor;
+import javax.el.ELResolver;
 import javax.el.ExpressionFactory;
 import javax.el.PropertyNotFoundException;
+import javax.el.StandardELContext;
 import javax.el.ValueExpression;
+import java.beans.FeatureDescriptor;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
 
+/**
+ * Evaluates forwarded argument expressions. The parsed expressions are cached and shared since the top level
+ * identifiers are not bound when an expression is parsed - they are resolved during evaluation
+ * using the variable resolver passed to eval so only the variables actually referenced get looked up.
+ */
 public class ExprEvalHelper {
 
+    private static final ExpressionFactory EXPRESSION_FACTORY = ELManager.getExpressionFactory();
+    private static final int MAX_CACHED_EXPRESSIONS = 10000;
+    private static final LoadingCache<String, ValueExpression> EXPRESSIONS_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_EXPRESSIONS)
+            .build(new CacheLoader<String, ValueExpression>() {
+                @Override
+                public ValueExpression load(String expr) {
+                    return EXPRESSION_FACTORY.createValueExpression(new StandardELContext(EXPRESSION_FACTORY), expr, Object.class);
+                }
+            });
+
+    /**
+     * Resolves the top level identifiers of an expression.
+     */
+    private static class VariableELResolver extends ELResolver {
+        private final Function<String, Optional<Object>> variableResolver;
+
+        VariableELResolver(Function<String, Optional<Object>> variableResolver) {
+            this.variableResolver = variableResolver;
+        }
+
+        @Override
+        public Object getValue(ELContext context, Object base, Object property) {
+            if (base == null && property instanceof String) {
+                Optional<Object> value = variableResolver.apply((String) property);
+                if (value.isPresent()) {
+                    context.setPropertyResolved(true);
+                    return value.get();
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Class<?> getType(ELContext context, Object base, Object property) {
+            return null;
+        }
+
+        @Override
+        public void setValue(ELContext context, Object base, Object property, Object value) {
+        }
+
+        @Override
+        public boolean isReadOnly(ELContext context, Object base, Object property) {
+            return true;
+        }
+
+        @Override
+        public Iterator<FeatureDescriptor> getFeatureDescriptors(ELContext context, Object base) {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public Class<?> getCommonPropertyType(ELContext context, Object base) {
+            return base == null ? String.class : null;
+        }
+    }
+
     public static Object eval(String argExpr, Map<String, List<Object>> evalContext) {
-        ELProcessor elp = new ELProcessor();
-        ELManager elm = elp.getELManager();
-        ExpressionFactory factory = ELManager.getExpressionFactory();
-        evalContext.forEach((field, value) -> {
-            if (value.size() == 1) {
-                elm.setVariable(field, factory.createValueExpression(value.get(0), Object.class));
-            } else {
-                elm.setVariable(field, factory.createValueExpression(value, Object.class));
+        return eval(argExpr, (String field) -> Optional.ofNullable(evalContext.get(field))
+                .map(value -> value.size() == 1 ? value.get(0) : value));
+    }
+
+    /**
+     * Evaluate the expression.
+     *
+     * @param argExpr expression to evaluate
+     * @param variableResolver resolves a top level identifier to its value
+     * @return the expression value or the expression itself if it cannot be evaluated
+     */
+    public static Object eval(String argExpr, Function<String, Optional<Object>> variableResolver) {
+        ValueExpression argValExpr;
+        try {
+            argValExpr = EXPRESSIONS_CACHE.getUnchecked(argExpr);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof ELException) {
+                throw (ELException) e.getCause();
             }
-        });
-        ELContext context = elm.getELContext();
-        ValueExpression argValExpr = factory.createValueExpression(context, argExpr, Object.class);
+            throw e;
+        }
+        StandardELContext context = new StandardELContext(EXPRESSION_FACTORY);
+        context.addELResolver(new VariableELResolver(variableResolver));
         try {
             Object argValue = argValExpr.getValue(context);
             if (argValue == null) {
@@ -2,7 +2,9 @@ package org.janelia.jacs2.cdi;
 
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.cdi.qualifier.HortaSharedData;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
+import org.janelia.jacs2.dataservice.messaging.AsyncMessagePublisher;
 import org.janelia.messaging.core.ConnectionManager;
 import org.janelia.messaging.core.MessageConnection;
 import org.janelia.messaging.core.MessageSender;
@@ -12,6 +14,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Disposes;
 import javax.enterprise.inject.Produces;
 
 @ApplicationScoped
@@ -70,4 +73,21 @@ public class MessagingProducer {
         }
         return messageSender;
     }
+
+    @HortaSharedData
+    @ApplicationScoped
+    @Produces
+    public AsyncMessagePublisher createHortaMessagePublisher(@HortaSharedData MessageSender messageSender,
+                                                             @IntPropertyValue(name = "Messaging.HortaSharedDataQueueCapacity", defaultValue = 1000) int capacity,
+                                                             @IntPropertyValue(name = "Messaging.HortaSharedDataBatchSize", defaultValue = 100) int batchSize,
+                                                             @IntPropertyValue(name = "Messaging.HortaSharedDataPublishTimeoutInMillis", defaultValue = 10000) int publishTimeoutInMillis) {
+        AsyncMessagePublisher messagePublisher = new AsyncMessagePublisher(messageSender, capacity, batchSize, publishTimeoutInMillis);
+        messagePublisher.start();
+        return messagePublisher;
+    }
+
+    public void stopHortaMessagePublisher(@Disposes @HortaSharedData AsyncMessagePublisher messagePublisher) {
+        LOG.info("Stopping horta message publisher");
+        messagePublisher.stop();
+    }
 }
@@ -50,4 +50,14 @@ public class DaoFactory {
         }
     }
 
+    public List<DomainObjectDao<?>> getAllDomainObjectDaos() {
+        List<DomainObjectDao<?>> domainObjectDaos = new LinkedList<>();
+        for (Dao<?, Number> dao : daosSource) {
+            if (dao instanceof DomainObjectDao) {
+                domainObjectDaos.add((DomainObjectDao<?>) dao);
+            }
+        }
+        return domainObjectDaos;
+    }
+
 }
@@ -2,29 +2,97 @@ package org.janelia.jacs2.dataservice;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.model.domain.Reference;
 import org.janelia.model.jacs2.domain.DomainObject;
 import org.janelia.model.jacs2.domain.Subject;
 import org.janelia.jacs2.dao.DaoFactory;
 import org.janelia.model.jacs2.dao.DomainObjectDao;
+import org.janelia.model.service.JacsServiceData;
+import org.slf4j.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
+/**
+ * Domain object service which also implements the entity locks. A lock is a lease that expires if it is not renewed
+ * so a lock left behind by a crashed holder is eventually reclaimed. The service renews the leases of the locks
+ * acquired by this process as long as the holder service is still active and it releases the locks whose holder
+ * completed without releasing them. The holder service is persisted with the lock, so on startup the service takes
+ * over the leases of the locks whose holder is still active.
+ */
+@Singleton
 public class DomainObjectService implements LockService {
 
+    private static class Lease<T extends DomainObject> {
+        private final T entity;
+        private final DomainObjectDao<T> dao;
+        private final Number holderServiceId;
+
+        private Lease(T entity, DomainObjectDao<T> dao, Number holderServiceId) {
+            this.entity = entity;
+            this.dao = dao;
+            this.holderServiceId = holderServiceId;
+        }
+    }
+
+    private static class LockReleaseSignal {
+        private final CountDownLatch released = new CountDownLatch(1);
+        private int waiters;
+    }
+
     private static final SecureRandom LOCK_KEY_GENERATOR = new SecureRandom();
 
     private final DaoFactory daoFactory;
+    private final JacsServiceDataPersistence jacsServiceDataPersistence;
+    private final long leaseTimeoutMillis;
+    private final long leaseRenewalMillis;
+    private final Logger logger;
+    private final Map<String, Lease<?>> heldLeases = new ConcurrentHashMap<>();
+    private final Map<String, LockReleaseSignal> lockReleaseSignals = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService leaseRenewalScheduler;
 
     @Inject
-    public DomainObjectService(DaoFactory daoFactory) {
+    public DomainObjectService(DaoFactory daoFactory,
+                               JacsServiceDataPersistence jacsServiceDataPersistence,
+                               @IntPropertyValue(name = "service.lock.leaseTimeoutInSeconds", defaultValue = 600) Integer leaseTimeoutInSeconds,
+                               Logger logger) {
         this.daoFactory = daoFactory;
+        this.jacsServiceDataPersistence = jacsServiceDataPersistence;
+        this.leaseTimeoutMillis = TimeUnit.SECONDS.toMillis(leaseTimeoutInSeconds);
+        // renew the leases often enough so that a missed renewal does not cause a lease to expire
+        this.leaseRenewalMillis = Math.max(this.leaseTimeoutMillis / 3, 1000L);
+        this.logger = logger;
+        this.leaseRenewalScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("JACS-LOCK-LEASES-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @PostConstruct
+    public void initialize() {
+        leaseRenewalScheduler.execute(this::adoptPersistedLeases);
+        leaseRenewalScheduler.scheduleAtFixedRate(this::renewLeases, leaseRenewalMillis, leaseRenewalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        leaseRenewalScheduler.shutdownNow();
     }
 
     public Stream<DomainObject> streamAllReferences(Subject subject, Stream<Reference> refStream) {
@@ -37,42 +105,55 @@ public class DomainObjectService implements LockService {
                 });
     }
 
+    /**
+     * Wait for the lock until the timeout expires. Instead of polling, the caller waits until a lock held by
+     * this process is released; locks held by other processes are only checked at every lease renewal interval.
+     * Services should rather use {@link #tryLock(DomainObject, Number)} and suspend until the lock is available.
+     */
     @Override
     public <T extends DomainObject> String lock(T entity, long timeout, TimeUnit timeunit) {
-        long startTimeMillis = System.currentTimeMillis();
+        long deadlineMillis = timeout > 0 ? System.currentTimeMillis() + timeunit.toMillis(timeout) : Long.MAX_VALUE;
         @SuppressWarnings("unchecked")
         DomainObjectDao<T> dao = (DomainObjectDao<T>) daoFactory.createDomainObjectDao(entity.getEntityName());
         String lockKey = nextKey();
         for (;;) {
-            String lock = tryLock(entity, lockKey, dao);
-            if (lock != null) {
-                return lock;
-            }
-            if (timeout > 0) {
-                long nowInMillis = System.currentTimeMillis();
-                if (nowInMillis - startTimeMillis > timeunit.toMillis(timeout)) {
-                    break;
-                }
-            }
+            // get the release signal before trying the lock so that a release that happens in between is not missed
+            LockReleaseSignal lockReleaseSignal = addLockReleaseWaiter(entity);
             try {
-                Thread.sleep(500);
+                String lock = tryLock(entity, lockKey, dao, null);
+                if (lock != null) {
+                    return lock;
+                }
+                long remainingMillis = deadlineMillis - System.currentTimeMillis();
+                if (remainingMillis <= 0) {
+                    return null;
+                }
+                lockReleaseSignal.released.await(Math.min(remainingMillis, leaseRenewalMillis), TimeUnit.MILLISECONDS);
             } catch (InterruptedException e) {
-                break;
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                removeLockReleaseWaiter(entity, lockReleaseSignal);
             }
         }
-        return null;
     }
 
     @Override
     public <T extends DomainObject> String tryLock(T entity) {
+        return tryLock(entity, null);
+    }
+
+    @Override
+    public <T extends DomainObject> String tryLock(T entity, Number holderServiceId) {
         @SuppressWarnings("unchecked")
         DomainObjectDao<T> dao = (DomainObjectDao<T>) daoFactory.createDomainObjectDao(entity.getEntityName());
         String lockKey = nextKey();
-        return tryLock(entity, lockKey, dao);
+        return tryLock(entity, lockKey, dao, holderServiceId);
     }
 
-    private <T extends DomainObject> String tryLock(T entity, String lockKey, DomainObjectDao<T> dao) {
-        if (dao.lockEntity(lockKey, entity)) {
+    private <T extends DomainObject> String tryLock(T entity, String lockKey, DomainObjectDao<T> dao, Number holderServiceId) {
+        if (dao.lockEntity(lockKey, entity, holderServiceId, leaseTimeoutMillis)) {
+            heldLeases.put(lockKey, new Lease<>(entity, dao, holderServiceId));
             return lockKey;
         } else {
             return null;
@@ -94,7 +175,106 @@ public class DomainObjectService implements LockService {
     public <T extends DomainObject> boolean unlock(String lockKey, T entity) {
         @SuppressWarnings("unchecked")
         DomainObjectDao<T> dao = (DomainObjectDao<T>) daoFactory.createDomainObjectDao(entity.getEntityName());
-        return dao.unlockEntity(lockKey, entity);
+        boolean unlocked = dao.unlockEntity(lockKey, entity);
+        if (unlocked) {
+            heldLeases.remove(lockKey);
+            signalLockRelease(entity);
+        }
+        return unlocked;
+    }
+
+    /**
+     * Take over the leases of the locks whose holder service is still active. These are typically locks acquired
+     * before a restart, which would otherwise expire while their holder still relies on them. Locks without a holder
+     * service are left to expire because their holder did not survive the restart.
+     */
+    void adoptPersistedLeases() {
+        for (DomainObjectDao<?> dao : daoFactory.getAllDomainObjectDaos()) {
+            try {
+                adoptPersistedLeases(dao);
+            } catch (Exception e) {
+                logger.warn("Error adopting the persisted leases using {}", dao.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    private <T extends DomainObject> void adoptPersistedLeases(DomainObjectDao<T> dao) {
+        for (T lockedEntity : dao.findLockedEntities()) {
+            if (lockedEntity.getLockHolderId() != null) {
+                // renewLeases() releases the lock if the holder has already completed
+                Lease<T> lease = new Lease<>(lockedEntity, dao, lockedEntity.getLockHolderId());
+                if (heldLeases.putIfAbsent(lockedEntity.getLockKey(), lease) == null) {
+                    logger.info("Adopted lock {} for {} held by {}",
+                            lockedEntity.getLockKey(), lockedEntity.getEntityRefId(), lockedEntity.getLockHolderId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Renew the leases held by this process. The lock is released if its holder service completed without releasing it
+     * and it is forgotten if the lease was lost in the meantime.
+     */
+    void renewLeases() {
+        heldLeases.forEach((lockKey, lease) -> {
+            try {
+                renewLease(lockKey, lease);
+            } catch (Exception e) {
+                logger.warn("Error renewing lease {} for {}", lockKey, lease.entity.getEntityRefId(), e);
+            }
+        });
+    }
+
+    private <T extends DomainObject> void renewLease(String lockKey, Lease<T> lease) {
+        if (lease.holderServiceId != null) {
+            JacsServiceData holderService = jacsServiceDataPersistence.findById(lease.holderServiceId);
+            if (holderService == null || holderService.hasCompleted()) {
+                logger.warn("Release lock {} for {} because its holder service {} is no longer active",
+                        lockKey, lease.entity.getEntityRefId(), lease.holderServiceId);
+                if (lease.dao.unlockEntity(lockKey, lease.entity)) {
+                    signalLockRelease(lease.entity);
+                }
+                heldLeases.remove(lockKey);
+                return;
+            }
+        }
+        if (!lease.dao.renewEntityLock(lockKey, lease.entity)) {
+            logger.warn("Lease {} for {} held by {} was lost", lockKey, lease.entity.getEntityRefId(), lease.holderServiceId);
+            heldLeases.remove(lockKey);
+        }
+    }
+
+    private LockReleaseSignal addLockReleaseWaiter(DomainObject entity) {
+        return lockReleaseSignals.compute(entity.getEntityRefId(), (ref, signal) -> {
+            LockReleaseSignal lockReleaseSignal = signal != null ? signal : new LockReleaseSignal();
+            lockReleaseSignal.waiters++;
+            return lockReleaseSignal;
+        });
+    }
+
+    /**
+     * Remove the waiter and drop the signal once nobody waits for it any more, otherwise every entity that was
+     * ever waited for and not released by this process would leave a signal behind.
+     */
+    private void removeLockReleaseWaiter(DomainObject entity, LockReleaseSignal lockReleaseSignal) {
+        lockReleaseSignals.computeIfPresent(entity.getEntityRefId(), (ref, signal) -> {
+            if (signal != lockReleaseSignal) {
+                // the signal was already fired and replaced by the signal of a newer waiter
+                return signal;
+            }
+            return --signal.waiters > 0 ? signal : null;
+        });
+    }
+
+    private void signalLockRelease(DomainObject entity) {
+        LockReleaseSignal lockReleaseSignal = lockReleaseSignals.remove(entity.getEntityRefId());
+        if (lockReleaseSignal != null) {
+            lockReleaseSignal.released.countDown();
+        }
+    }
+
+    int countLockReleaseSignals() {
+        return lockReleaseSignals.size();
     }
 
     private String nextKey() {
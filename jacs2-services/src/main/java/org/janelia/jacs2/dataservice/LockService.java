@@ -7,6 +7,12 @@ import java.util.concurrent.TimeUnit;
 public interface LockService {
     <T extends DomainObject> String lock(T entity, long timeout, TimeUnit timeunit);
     <T extends DomainObject> String tryLock(T entity);
+
+    /**
+     * Try to lock the entity on behalf of the given service. The lock's lease is kept alive only while the holder
+     * service is active.
+     */
+    <T extends DomainObject> String tryLock(T entity, Number holderServiceId);
     <T extends DomainObject> boolean isLocked(T entity);
     <T extends DomainObject> boolean unlock(String lockKey, T entity);
 }
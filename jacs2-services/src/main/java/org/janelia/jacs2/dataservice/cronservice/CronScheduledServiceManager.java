@@ -1,13 +1,9 @@
 package org.janelia.jacs2.dataservice.cronservice;
 
-import com.cronutils.model.Cron;
-import com.cronutils.model.CronType;
-import com.cronutils.model.definition.CronDefinition;
-import com.cronutils.model.definition.CronDefinitionBuilder;
 import com.cronutils.model.time.ExecutionTime;
-import com.cronutils.parser.CronParser;
 import com.google.common.collect.ImmutableMap;
 import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.dataservice.persistence.JacsScheduledServiceDataPersistence;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
@@ -23,8 +19,11 @@ import org.slf4j.LoggerFactory;
 import javax.inject.Inject;
 import java.time.Duration;
 import java.time.ZonedDateTime;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -34,23 +33,28 @@ public class CronScheduledServiceManager {
 
     private final JacsScheduledServiceDataPersistence jacsScheduledServiceDataPersistence;
     private final JacsServiceDataPersistence jacsServiceDataPersistence;
+    private final ScheduledServicesIndex scheduledServicesIndex;
     private final String queueId;
-    private final CronParser cronParser;
+    private final long indexRefreshIntervalInMillis;
 
     @Inject
     public CronScheduledServiceManager(JacsScheduledServiceDataPersistence jacsScheduledServiceDataPersistence,
                                        JacsServiceDataPersistence jacsServiceDataPersistence,
-                                       @PropertyValue(name = "service.queue.id") String queueId) {
+                                       ScheduledServicesIndex scheduledServicesIndex,
+                                       @PropertyValue(name = "service.queue.id") String queueId,
+                                       @IntPropertyValue(name = "service.crontab.IndexRefreshIntervalInSeconds", defaultValue = 300) int indexRefreshIntervalInSeconds) {
         this.jacsScheduledServiceDataPersistence = jacsScheduledServiceDataPersistence;
         this.jacsServiceDataPersistence = jacsServiceDataPersistence;
+        this.scheduledServicesIndex = scheduledServicesIndex;
         this.queueId = queueId;
-        CronDefinition cronDefinition = CronDefinitionBuilder.instanceDefinitionFor(CronType.UNIX);
-        this.cronParser = new CronParser(cronDefinition);
+        this.indexRefreshIntervalInMillis = TimeUnit.SECONDS.toMillis(indexRefreshIntervalInSeconds);
     }
 
     public JacsScheduledServiceData createScheduledService(JacsScheduledServiceData scheduledServiceData) {
         validateScheduledService(scheduledServiceData);
-        return jacsScheduledServiceDataPersistence.createEntity(scheduledServiceData);
+        JacsScheduledServiceData createdScheduledService = jacsScheduledServiceDataPersistence.createEntity(scheduledServiceData);
+        scheduledServicesIndex.invalidate();
+        return createdScheduledService;
     }
 
     public JacsScheduledServiceData updateScheduledService(JacsScheduledServiceData scheduledServiceData) {
@@ -77,6 +81,7 @@ public class CronScheduledServiceManager {
             scheduledServiceUpdatesBuilder.put("nextStartTime", new SetFieldValueHandler<>(scheduledServiceData.getNextStartTime()));
         }
         jacsScheduledServiceDataPersistence.update(scheduledServiceData, scheduledServiceUpdatesBuilder.build());
+        scheduledServicesIndex.invalidate();
         return scheduledServiceData;
     }
 
@@ -87,7 +92,7 @@ public class CronScheduledServiceManager {
         if (StringUtils.isBlank(scheduledServiceData.getCronScheduleDescriptor())) {
             throw new IllegalArgumentException("Empty schedule descriptor: " + scheduledServiceData);
         }
-        cronParser.parse(scheduledServiceData.getCronScheduleDescriptor());
+        scheduledServicesIndex.getCronParser().parse(scheduledServiceData.getCronScheduleDescriptor());
     }
 
     public JacsScheduledServiceData getScheduledServiceById(Number id) {
@@ -100,18 +105,33 @@ public class CronScheduledServiceManager {
 
     public void removeScheduledServiceById(JacsScheduledServiceData scheduledServiceData) {
         jacsScheduledServiceDataPersistence.delete(scheduledServiceData);
+        scheduledServicesIndex.invalidate();
     }
 
+    /**
+     * @return the earliest time when a scheduled service must run or empty if the schedule is not known.
+     */
+    public Optional<Date> getNextScheduledTime() {
+        return scheduledServicesIndex.getNextStartTime();
+    }
+
+    /**
+     * Create service instances for all scheduled services that are due.
+     *
+     * @param checkInterval the next start time of a scheduled service is computed relative to the current time
+     *                      incremented with this interval
+     * @return the service instances created by this node
+     */
     public List<JacsServiceData> scheduleServices(Duration checkInterval) {
         ZonedDateTime now = ZonedDateTime.now();
         Date nowAsDate = Date.from(now.toInstant());
-        List<JacsScheduledServiceData> scheduledCandidates = jacsScheduledServiceDataPersistence.findServicesScheduledAtOrBefore(queueId, nowAsDate)
+        if (scheduledServicesIndex.needsRefresh(indexRefreshIntervalInMillis)) {
+            scheduledServicesIndex.refresh(jacsScheduledServiceDataPersistence.findEnabledScheduledServices(queueId));
+        }
+        List<JacsScheduledServiceData> scheduledCandidates = scheduledServicesIndex.getServicesScheduledAtOrBefore(nowAsDate)
                 .stream()
-                .filter(scheduledService -> StringUtils.isNotBlank(scheduledService.getCronScheduleDescriptor()))
-                .filter(scheduledService -> StringUtils.isNotBlank(scheduledService.getServiceName()))
                 .flatMap(scheduledService -> {
-                    Cron cron = cronParser.parse(scheduledService.getCronScheduleDescriptor());
-                    ExecutionTime executionTime = ExecutionTime.forCron(cron);
+                    ExecutionTime executionTime = scheduledServicesIndex.getExecutionTime(scheduledService.getCronScheduleDescriptor());
                     if (scheduledService.getNextStartTime() != null || executionTime.isMatch(now)) {
                         return executionTime.nextExecution(now.plus(checkInterval))
                                 .map(nextTime -> {
@@ -134,16 +154,22 @@ public class CronScheduledServiceManager {
                     }
                 })
                 .collect(Collectors.toList());
-        if (!scheduledCandidates.isEmpty()) {
-            LOG.debug("Service candidates to run at {}: {}", nowAsDate, scheduledCandidates);
+        if (scheduledCandidates.isEmpty()) {
+            return Collections.emptyList();
         }
+        LOG.debug("Service candidates to run at {}: {}", nowAsDate, scheduledCandidates);
+        // the update only succeeds if the service was not already claimed by another node,
+        // which guarantees that only one node creates an instance for each scheduled run
         List<JacsScheduledServiceData> scheduledServices = jacsScheduledServiceDataPersistence.updateServicesScheduledAtOrBefore(scheduledCandidates, nowAsDate);
+        if (scheduledServices.size() < scheduledCandidates.size()) {
+            // some services were claimed by other nodes or were changed in the meantime so reload the schedule
+            scheduledServicesIndex.invalidate();
+        }
         if (!scheduledServices.isEmpty()) {
             LOG.debug("Services scheduled to run at {}: {}", nowAsDate, scheduledServices);
         }
-        return scheduledServices.stream()
+        return jacsServiceDataPersistence.createEntities(scheduledServices.stream()
                 .map(scheduledService -> scheduledService.createServiceInstance())
-                .map(sd -> jacsServiceDataPersistence.createEntity(sd))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
 }
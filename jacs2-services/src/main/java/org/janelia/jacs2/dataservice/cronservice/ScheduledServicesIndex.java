@@ -0,0 +1,87 @@
+package org.janelia.jacs2.dataservice.cronservice;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import com.cronutils.model.CronType;
+import com.cronutils.model.definition.CronDefinitionBuilder;
+import com.cronutils.model.time.ExecutionTime;
+import com.cronutils.parser.CronParser;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.model.service.JacsScheduledServiceData;
+
+/**
+ * In memory index of the enabled scheduled services together with their parsed cron schedules. The index is shared
+ * by all CronScheduledServiceManager instances so that any local change of a scheduled service invalidates it.
+ */
+@ApplicationScoped
+public class ScheduledServicesIndex {
+
+    private final CronParser cronParser = new CronParser(CronDefinitionBuilder.instanceDefinitionFor(CronType.UNIX));
+    private final Map<String, ExecutionTime> executionTimesCache = new ConcurrentHashMap<>();
+    private volatile List<JacsScheduledServiceData> scheduledServices;
+    private volatile long lastRefreshTimestamp;
+
+    /**
+     * @return the execution time for the cron descriptor - the descriptor is only parsed the first time it is used.
+     */
+    ExecutionTime getExecutionTime(String cronDescriptor) {
+        return executionTimesCache.computeIfAbsent(cronDescriptor, cd -> ExecutionTime.forCron(cronParser.parse(cd)));
+    }
+
+    CronParser getCronParser() {
+        return cronParser;
+    }
+
+    boolean needsRefresh(long maxAgeInMillis) {
+        return scheduledServices == null || System.currentTimeMillis() - lastRefreshTimestamp >= maxAgeInMillis;
+    }
+
+    void refresh(List<JacsScheduledServiceData> enabledScheduledServices) {
+        scheduledServices = enabledScheduledServices.stream()
+                .filter(scheduledService -> StringUtils.isNotBlank(scheduledService.getCronScheduleDescriptor()))
+                .filter(scheduledService -> StringUtils.isNotBlank(scheduledService.getServiceName()))
+                .collect(Collectors.toList());
+        lastRefreshTimestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Force the index to be reloaded on the next scheduling run.
+     */
+    public void invalidate() {
+        scheduledServices = null;
+    }
+
+    List<JacsScheduledServiceData> getServicesScheduledAtOrBefore(Date scheduledTime) {
+        List<JacsScheduledServiceData> currentScheduledServices = scheduledServices;
+        if (currentScheduledServices == null) {
+            return Collections.emptyList();
+        }
+        return currentScheduledServices.stream()
+                .filter(scheduledService -> scheduledService.getNextStartTime() == null || !scheduledService.getNextStartTime().after(scheduledTime))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the earliest start time of all indexed services.
+     */
+    Optional<Date> getNextStartTime() {
+        List<JacsScheduledServiceData> currentScheduledServices = scheduledServices;
+        if (currentScheduledServices == null) {
+            return Optional.empty();
+        }
+        return currentScheduledServices.stream()
+                .map(JacsScheduledServiceData::getNextStartTime)
+                .filter(Objects::nonNull)
+                .min(Date::compareTo);
+    }
+}
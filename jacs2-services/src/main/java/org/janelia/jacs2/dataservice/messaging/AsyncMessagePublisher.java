@@ -0,0 +1,225 @@
+package org.janelia.jacs2.dataservice.messaging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.janelia.messaging.core.MessageSender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes messages from a bounded in-memory queue on a dedicated thread so that the callers do not have to wait
+ * for the broker. Messages are published in the order in which they were queued. A message queued with a key for
+ * which there is already a pending coalescable message simply replaces the content of the pending one, so for
+ * the same key the consumers always see the messages in order but may not see the intermediate states.
+ * When the queue is full the callers block until there is room or until the configured timeout expires.
+ */
+public class AsyncMessagePublisher {
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncMessagePublisher.class);
+
+    private static class PendingMessage {
+        private final String key;
+        private final boolean coalescable;
+        private Map<String, Object> headers;
+        private byte[] body;
+        private final long queuedTimestamp;
+
+        private PendingMessage(String key, boolean coalescable, Map<String, Object> headers, byte[] body) {
+            this.key = key;
+            this.coalescable = coalescable;
+            this.headers = headers;
+            this.body = body;
+            this.queuedTimestamp = System.nanoTime();
+        }
+    }
+
+    private final MessageSender messageSender;
+    private final int capacity;
+    private final int batchSize;
+    private final long publishTimeoutInMillis;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<PendingMessage> pendingMessages = new ArrayDeque<>();
+    private final Map<String, PendingMessage> lastPendingMessageByKey = new HashMap<>();
+    private final AtomicLong sentMessagesCount = new AtomicLong();
+    private final AtomicLong coalescedMessagesCount = new AtomicLong();
+    private final AtomicLong failedMessagesCount = new AtomicLong();
+    private final AtomicLong totalSendLatencyInMicros = new AtomicLong();
+    private final AtomicLong maxSendLatencyInMicros = new AtomicLong();
+    private Thread publisherThread;
+    private volatile boolean running;
+
+    AsyncMessagePublisher() {
+        // CDI required ctor
+        this(null, 0, 0, 0);
+    }
+
+    public AsyncMessagePublisher(MessageSender messageSender, int capacity, int batchSize, long publishTimeoutInMillis) {
+        this.messageSender = messageSender;
+        this.capacity = capacity > 0 ? capacity : 1000;
+        this.batchSize = batchSize > 0 ? batchSize : 100;
+        this.publishTimeoutInMillis = publishTimeoutInMillis;
+    }
+
+    public synchronized void start() {
+        if (publisherThread == null) {
+            running = true;
+            publisherThread = new Thread(this::publishPendingMessages, "JACS-MESSAGE-PUBLISHER");
+            publisherThread.setDaemon(true);
+            publisherThread.start();
+        }
+    }
+
+    /**
+     * Stop accepting new messages and wait until all pending messages are sent.
+     */
+    public synchronized void stop() {
+        if (publisherThread != null) {
+            running = false;
+            lock.lock();
+            try {
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            try {
+                publisherThread.join(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            publisherThread = null;
+            LOG.info("Stopped message publisher after sending {} messages ({} coalesced, {} failed) with an average latency of {}us",
+                    getSentMessagesCount(), getCoalescedMessagesCount(), getFailedMessagesCount(), getAverageSendLatencyInMicros());
+        }
+    }
+
+    /**
+     * Queue a message for publishing.
+     *
+     * @param key the ordering key - messages with the same key are published in the order in which they were queued
+     * @param coalescable if true and the last pending message with the same key is also coalescable,
+     *                    the pending message is replaced with this one
+     * @param headers message headers
+     * @param body message body
+     * @throws IllegalStateException if the message could not be queued within the configured timeout
+     */
+    public void publish(String key, boolean coalescable, Map<String, Object> headers, byte[] body) {
+        lock.lock();
+        try {
+            PendingMessage lastPendingMessage = lastPendingMessageByKey.get(key);
+            if (coalescable && lastPendingMessage != null && lastPendingMessage.coalescable) {
+                lastPendingMessage.headers = headers;
+                lastPendingMessage.body = body;
+                coalescedMessagesCount.incrementAndGet();
+                return;
+            }
+            long remainingWaitInNanos = TimeUnit.MILLISECONDS.toNanos(publishTimeoutInMillis);
+            while (pendingMessages.size() >= capacity) {
+                if (remainingWaitInNanos <= 0) {
+                    throw new IllegalStateException("Timed out queueing message for " + key + " - " + pendingMessages.size() + " messages are still pending");
+                }
+                remainingWaitInNanos = notFull.awaitNanos(remainingWaitInNanos);
+            }
+            PendingMessage pendingMessage = new PendingMessage(key, coalescable, headers, body);
+            pendingMessages.add(pendingMessage);
+            lastPendingMessageByKey.put(key, pendingMessage);
+            notEmpty.signal();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing message for " + key, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publishPendingMessages() {
+        for (;;) {
+            List<PendingMessage> batch = takeBatch();
+            if (batch.isEmpty()) {
+                return;
+            }
+            batch.forEach(this::send);
+        }
+    }
+
+    private List<PendingMessage> takeBatch() {
+        lock.lock();
+        try {
+            while (pendingMessages.isEmpty()) {
+                if (!running) {
+                    return new ArrayList<>();
+                }
+                notEmpty.await();
+            }
+            List<PendingMessage> batch = new ArrayList<>();
+            while (batch.size() < batchSize && !pendingMessages.isEmpty()) {
+                PendingMessage pendingMessage = pendingMessages.poll();
+                // once taken the message can no longer be coalesced
+                lastPendingMessageByKey.remove(pendingMessage.key, pendingMessage);
+                batch.add(pendingMessage);
+            }
+            notFull.signalAll();
+            return batch;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(PendingMessage pendingMessage) {
+        try {
+            messageSender.sendMessage(pendingMessage.headers, pendingMessage.body);
+            long sendLatencyInMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pendingMessage.queuedTimestamp);
+            sentMessagesCount.incrementAndGet();
+            totalSendLatencyInMicros.addAndGet(sendLatencyInMicros);
+            maxSendLatencyInMicros.accumulateAndGet(sendLatencyInMicros, Math::max);
+        } catch (Exception e) {
+            failedMessagesCount.incrementAndGet();
+            LOG.error("Error sending message {} for {}", pendingMessage.headers, pendingMessage.key, e);
+        }
+    }
+
+    public int getPendingMessagesCount() {
+        lock.lock();
+        try {
+            return pendingMessages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSentMessagesCount() {
+        return sentMessagesCount.get();
+    }
+
+    public long getCoalescedMessagesCount() {
+        return coalescedMessagesCount.get();
+    }
+
+    public long getFailedMessagesCount() {
+        return failedMessagesCount.get();
+    }
+
+    /**
+     * @return the average time in microseconds between queueing a message and handing it to the broker.
+     */
+    public long getAverageSendLatencyInMicros() {
+        long n = sentMessagesCount.get();
+        return n > 0 ? totalSendLatencyInMicros.get() / n : 0;
+    }
+
+    public long getMaxSendLatencyInMicros() {
+        return maxSendLatencyInMicros.get();
+    }
+}
@@ -30,6 +30,18 @@ public class AbstractDataPersistence<D extends ReadWriteDao<T, I>, T, I> {
         }
     }
 
+    public List<T> createEntities(List<T> entities) {
+        if (CollectionUtils.isNotEmpty(entities)) {
+            D dao = daoSource.get();
+            try {
+                dao.saveAll(entities);
+            } finally {
+                daoSource.destroy(dao);
+            }
+        }
+        return entities;
+    }
+
     public T findById(I id) {
         D dao = daoSource.get();
         try {
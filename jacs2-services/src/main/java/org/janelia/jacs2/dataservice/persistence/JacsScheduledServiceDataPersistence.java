@@ -20,6 +20,15 @@ public class JacsScheduledServiceDataPersistence extends AbstractDataPersistence
         super(daoSource);
     }
 
+    public List<JacsScheduledServiceData> findEnabledScheduledServices(String queueId) {
+        JacsScheduledServiceDataDao dataDao = daoSource.get();
+        try {
+            return dataDao.findScheduledServices(queueId, false);
+        } finally {
+            daoSource.destroy(dataDao);
+        }
+    }
+
     public List<JacsScheduledServiceData> findServicesScheduledAtOrBefore(String queueId, Date scheduledTime) {
         JacsScheduledServiceDataDao dataDao = daoSource.get();
         try {
@@ -245,4 +245,12 @@ public class SampleDataService {
     public void updateSampleObjectivePipelineRunResult(Sample sample, String objective, Number runId, PipelineResult pipelineResult) {
         sampleDao.updateSampleObjectivePipelineRunResult(sample, objective, runId, pipelineResult);
     }
+
+    public void updateSampleObjectivePipelineRunResults(Sample sample, String objective, Number runId, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates) {
+        sampleDao.updateSampleObjectivePipelineRunResults(sample, objective, runId, resultsFieldUpdates);
+    }
+
+    public void updateSamplePipelineResults(Sample sample, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates) {
+        sampleDao.updateSamplePipelineResults(sample, resultsFieldUpdates);
+    }
 }
@@ -0,0 +1,57 @@
+package org.janelia.jacs2.dataservice.search;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * A change of a searchable domain object as reported by a {@link DocumentChangeFeed}.
+ */
+public class DocumentChange {
+
+    private final Long objectId;
+    private final String objectClassName;
+    private final boolean removed;
+    private final String resumeToken;
+
+    public static DocumentChange updated(Long objectId, String objectClassName, String resumeToken) {
+        return new DocumentChange(objectId, objectClassName, false, resumeToken);
+    }
+
+    public static DocumentChange removed(Long objectId, String resumeToken) {
+        return new DocumentChange(objectId, null, true, resumeToken);
+    }
+
+    private DocumentChange(Long objectId, String objectClassName, boolean removed, String resumeToken) {
+        this.objectId = objectId;
+        this.objectClassName = objectClassName;
+        this.removed = removed;
+        this.resumeToken = resumeToken;
+    }
+
+    public Long getObjectId() {
+        return objectId;
+    }
+
+    public String getObjectClassName() {
+        return objectClassName;
+    }
+
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the token from which the feed can be resumed right after this change
+     */
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("objectId", objectId)
+                .append("objectClassName", objectClassName)
+                .append("removed", removed)
+                .toString();
+    }
+}
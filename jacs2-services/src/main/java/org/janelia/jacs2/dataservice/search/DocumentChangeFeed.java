@@ -0,0 +1,26 @@
+package org.janelia.jacs2.dataservice.search;
+
+/**
+ * A feed of changes to the searchable domain objects. The feed keeps track of the last change that was
+ * successfully processed so that after a restart it can resume from where it left off.
+ */
+public interface DocumentChangeFeed {
+    /**
+     * Open the feed positioned right after the last committed change or at the current time if nothing was committed yet.
+     */
+    void open();
+
+    /**
+     * @return the next available change or null if no change is currently available.
+     */
+    DocumentChange tryNext();
+
+    /**
+     * Record that all changes up to and including the one identified by the resume token have been processed.
+     *
+     * @param resumeToken
+     */
+    void commit(String resumeToken);
+
+    void close();
+}
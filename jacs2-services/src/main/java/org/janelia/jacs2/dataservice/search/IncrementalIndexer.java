@@ -0,0 +1,124 @@
+package org.janelia.jacs2.dataservice.search;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.DomainUtils;
+import org.janelia.model.domain.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the live SOLR core up to date by applying the changes reported by a {@link DocumentChangeFeed}.
+ * Repeated changes of the same object that arrive within the debounce interval are collapsed into a single
+ * index operation and all pending changes are sent to SOLR in batches. The feed position is only committed after
+ * a batch was successfully indexed so if anything fails the changes will be replayed from the last committed position.
+ */
+public class IncrementalIndexer {
+    private static final Logger LOG = LoggerFactory.getLogger(IncrementalIndexer.class);
+
+    private final DocumentChangeFeed documentChangeFeed;
+    private final DocumentIndexingService documentIndexingService;
+    private final long debounceIntervalInMillis;
+    private final int maxBatchSize;
+    private final Map<Long, DocumentChange> pendingChanges = new LinkedHashMap<>();
+    private String pendingResumeToken;
+    private long firstPendingChangeTimestamp;
+    private boolean feedOpened;
+
+    public IncrementalIndexer(DocumentChangeFeed documentChangeFeed,
+                              DocumentIndexingService documentIndexingService,
+                              long debounceIntervalInMillis,
+                              int maxBatchSize) {
+        this.documentChangeFeed = documentChangeFeed;
+        this.documentIndexingService = documentIndexingService;
+        this.debounceIntervalInMillis = debounceIntervalInMillis;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : 1;
+    }
+
+    /**
+     * Read all currently available changes and index the ones that are due.
+     *
+     * @return the number of documents that were added to or removed from the index
+     */
+    public synchronized int processChanges() {
+        try {
+            if (!feedOpened) {
+                documentChangeFeed.open();
+                feedOpened = true;
+            }
+            int nDocs = 0;
+            for (DocumentChange documentChange = documentChangeFeed.tryNext(); documentChange != null; documentChange = documentChangeFeed.tryNext()) {
+                addPendingChange(documentChange);
+                if (pendingChanges.size() >= maxBatchSize) {
+                    nDocs += flushPendingChanges();
+                }
+            }
+            if (pendingResumeToken != null && System.currentTimeMillis() - firstPendingChangeTimestamp >= debounceIntervalInMillis) {
+                nDocs += flushPendingChanges();
+            }
+            return nDocs;
+        } catch (Exception e) {
+            // drop everything that was not committed - it will be replayed once the feed is re-opened
+            LOG.error("Error processing document changes - the feed will be re-opened from the last committed change", e);
+            close();
+            throw e;
+        }
+    }
+
+    public synchronized void close() {
+        pendingChanges.clear();
+        pendingResumeToken = null;
+        if (feedOpened) {
+            feedOpened = false;
+            documentChangeFeed.close();
+        }
+    }
+
+    private void addPendingChange(DocumentChange documentChange) {
+        if (pendingResumeToken == null) {
+            firstPendingChangeTimestamp = System.currentTimeMillis();
+        }
+        pendingResumeToken = documentChange.getResumeToken();
+        if (documentChange.isRemoved() || isSearchable(documentChange.getObjectClassName())) {
+            // remove it first so that the map order reflects the latest change
+            pendingChanges.remove(documentChange.getObjectId());
+            pendingChanges.put(documentChange.getObjectId(), documentChange);
+        }
+    }
+
+    private boolean isSearchable(String objectClassName) {
+        if (objectClassName == null) {
+            return false;
+        }
+        Class<? extends DomainObject> objectClass = DomainUtils.getObjectClassByName(objectClassName);
+        return objectClass != null && DomainUtils.isSearcheableType(objectClass);
+    }
+
+    private int flushPendingChanges() {
+        List<Reference> updatedObjects = pendingChanges.values().stream()
+                .filter(documentChange -> !documentChange.isRemoved())
+                .map(documentChange -> Reference.createFor(documentChange.getObjectClassName(), documentChange.getObjectId()))
+                .collect(Collectors.toList());
+        List<Long> removedObjects = pendingChanges.values().stream()
+                .filter(DocumentChange::isRemoved)
+                .map(DocumentChange::getObjectId)
+                .collect(Collectors.toList());
+        int nDocs = 0;
+        if (!updatedObjects.isEmpty()) {
+            nDocs += documentIndexingService.indexDocuments(updatedObjects);
+        }
+        if (!removedObjects.isEmpty()) {
+            nDocs += documentIndexingService.removeDocuments(removedObjects);
+        }
+        documentChangeFeed.commit(pendingResumeToken);
+        LOG.debug("Indexed {} and removed {} documents", updatedObjects.size(), removedObjects.size());
+        pendingChanges.clear();
+        pendingResumeToken = null;
+        return nDocs;
+    }
+
+}
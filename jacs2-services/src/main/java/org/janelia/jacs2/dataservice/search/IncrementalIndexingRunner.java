@@ -0,0 +1,101 @@
+package org.janelia.jacs2.dataservice.search;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.client.MongoDatabase;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.cdi.qualifier.BoolPropertyValue;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.DomainUtils;
+import org.janelia.model.domain.support.SearchType;
+import org.slf4j.Logger;
+
+/**
+ * Periodically applies the changes from the domain collections to the live SOLR core.
+ */
+public class IncrementalIndexingRunner {
+
+    private final IncrementalIndexer incrementalIndexer;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+    private final boolean enabled;
+    private final int period;
+
+    @Inject
+    public IncrementalIndexingRunner(MongoDatabase mongoDatabase,
+                                     DocumentIndexingService documentIndexingService,
+                                     SolrConfig solrConfig,
+                                     @BoolPropertyValue(name = "Solr.IncrementalIndexing.Enabled") boolean enabled,
+                                     @IntPropertyValue(name = "Solr.IncrementalIndexing.PeriodInMillis", defaultValue = 1000) int period,
+                                     @IntPropertyValue(name = "Solr.IncrementalIndexing.DebounceInMillis", defaultValue = 5000) int debounceInterval,
+                                     @IntPropertyValue(name = "Solr.IncrementalIndexing.BatchSize", defaultValue = 1000) int batchSize,
+                                     Logger logger) {
+        this.incrementalIndexer = new IncrementalIndexer(
+                new MongoDocumentChangeFeed(mongoDatabase, solrConfig.getSolrMainCore(), getSearchableCollectionNames()),
+                documentIndexingService,
+                debounceInterval,
+                batchSize);
+        this.enabled = enabled && StringUtils.isNotBlank(solrConfig.getSolrServerBaseURL());
+        this.period = period > 0 ? period : 1000;
+        this.logger = logger;
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("JACS-INDEXER-%d")
+                .setDaemon(true)
+                .build();
+        this.scheduler = Executors.newScheduledThreadPool(1, threadFactory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> getSearchableCollectionNames() {
+        Set<Class<? extends DomainObject>> searchableClasses = DomainUtils.getDomainClassesAnnotatedWith(SearchType.class).stream()
+                .filter(DomainObject.class::isAssignableFrom)
+                .map(clazz -> (Class<? extends DomainObject>) clazz)
+                .collect(Collectors.toSet());
+        return DomainUtils.getCollectionNames().stream()
+                .filter(collectionName -> {
+                    Class<? extends DomainObject> baseClass = DomainUtils.getBaseClass(collectionName);
+                    return baseClass != null && searchableClasses.stream().anyMatch(baseClass::isAssignableFrom);
+                })
+                .collect(Collectors.toSet());
+    }
+
+    private void doWork() {
+        try {
+            int nDocs = incrementalIndexer.processChanges();
+            if (nDocs > 0) {
+                logger.debug("Incremental indexer updated {} documents", nDocs);
+            }
+        } catch (Exception e) {
+            logger.error("Incremental indexing failed", e);
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        if (enabled) {
+            logger.info("Initialize incremental indexer to run every {}ms", period);
+            scheduler.scheduleWithFixedDelay(() -> doWork(), period, period, TimeUnit.MILLISECONDS);
+        } else {
+            logger.info("Incremental indexing is not enabled");
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        logger.info("Shutdown incremental indexer");
+        scheduler.shutdownNow();
+        incrementalIndexer.close();
+    }
+}
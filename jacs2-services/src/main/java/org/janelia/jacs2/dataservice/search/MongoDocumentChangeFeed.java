@@ -0,0 +1,134 @@
+package org.janelia.jacs2.dataservice.search;
+
+import java.util.Collections;
+import java.util.Set;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+import org.apache.commons.lang3.StringUtils;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.janelia.model.domain.DomainObject;
+import org.janelia.model.domain.DomainUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Document change feed backed by a Mongo change stream opened on the domain collections.
+ * The resume token of the last committed change is persisted in a dedicated collection.
+ */
+public class MongoDocumentChangeFeed implements DocumentChangeFeed {
+    private static final Logger LOG = LoggerFactory.getLogger(MongoDocumentChangeFeed.class);
+    private static final String RESUME_TOKENS_COLLECTION = "searchIndexResumeToken";
+
+    private final MongoDatabase mongoDatabase;
+    private final String feedId;
+    private final Set<String> collectionNames;
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> changeStreamCursor;
+
+    public MongoDocumentChangeFeed(MongoDatabase mongoDatabase, String feedId, Set<String> collectionNames) {
+        this.mongoDatabase = mongoDatabase;
+        this.feedId = feedId;
+        this.collectionNames = collectionNames;
+    }
+
+    @Override
+    public void open() {
+        ChangeStreamIterable<Document> changeStream = mongoDatabase
+                .watch(Collections.singletonList(Aggregates.match(Filters.in("ns.coll", collectionNames))))
+                .fullDocument(FullDocument.UPDATE_LOOKUP);
+        Document resumeTokenDoc = getResumeTokensCollection().find(Filters.eq("_id", feedId)).first();
+        String resumeToken = resumeTokenDoc != null ? resumeTokenDoc.getString("resumeToken") : null;
+        if (StringUtils.isNotBlank(resumeToken)) {
+            LOG.info("Resume change feed {} after {}", feedId, resumeToken);
+            changeStream = changeStream.resumeAfter(BsonDocument.parse(resumeToken));
+        } else {
+            LOG.info("Open change feed {} from the current time", feedId);
+        }
+        changeStreamCursor = changeStream.cursor();
+    }
+
+    @Override
+    public DocumentChange tryNext() {
+        if (changeStreamCursor == null) {
+            throw new IllegalStateException("Change feed " + feedId + " has not been opened");
+        }
+        for (;;) {
+            ChangeStreamDocument<Document> changeStreamDocument = changeStreamCursor.tryNext();
+            if (changeStreamDocument == null) {
+                return null;
+            }
+            DocumentChange documentChange = toDocumentChange(changeStreamDocument);
+            if (documentChange != null) {
+                return documentChange;
+            }
+        }
+    }
+
+    private DocumentChange toDocumentChange(ChangeStreamDocument<Document> changeStreamDocument) {
+        String resumeToken = changeStreamDocument.getResumeToken().toJson();
+        BsonDocument documentKey = changeStreamDocument.getDocumentKey();
+        BsonValue objectIdValue = documentKey != null ? documentKey.get("_id") : null;
+        if (objectIdValue == null || !objectIdValue.isNumber()) {
+            // only domain objects, which all have a numeric id, are of interest
+            return null;
+        }
+        Long objectId = objectIdValue.asNumber().longValue();
+        switch (changeStreamDocument.getOperationType()) {
+            case INSERT:
+            case UPDATE:
+            case REPLACE:
+                return DocumentChange.updated(objectId, getObjectClassName(changeStreamDocument), resumeToken);
+            case DELETE:
+                return DocumentChange.removed(objectId, resumeToken);
+            default:
+                LOG.info("Ignore {} change event on {}", changeStreamDocument.getOperationType(), changeStreamDocument.getNamespace());
+                return null;
+        }
+    }
+
+    private String getObjectClassName(ChangeStreamDocument<Document> changeStreamDocument) {
+        Document fullDocument = changeStreamDocument.getFullDocument();
+        String objectClassName = fullDocument != null ? fullDocument.getString("class") : null;
+        if (StringUtils.isNotBlank(objectClassName)) {
+            // the documents store the fully qualified class name but the references use the simple name
+            return objectClassName.contains(".") ? StringUtils.substringAfterLast(objectClassName, ".") : objectClassName;
+        }
+        Class<? extends DomainObject> baseClass = DomainUtils.getBaseClass(changeStreamDocument.getNamespace().getCollectionName());
+        return baseClass != null ? baseClass.getSimpleName() : null;
+    }
+
+    @Override
+    public void commit(String resumeToken) {
+        getResumeTokensCollection().replaceOne(
+                Filters.eq("_id", feedId),
+                new Document("_id", feedId).append("resumeToken", resumeToken),
+                new ReplaceOptions().upsert(true));
+    }
+
+    @Override
+    public void close() {
+        if (changeStreamCursor != null) {
+            try {
+                changeStreamCursor.close();
+            } catch (Exception e) {
+                LOG.warn("Error closing change feed {}", feedId, e);
+            } finally {
+                changeStreamCursor = null;
+            }
+        }
+    }
+
+    private MongoCollection<Document> getResumeTokensCollection() {
+        return mongoDatabase.getCollection(RESUME_TOKENS_COLLECTION);
+    }
+}
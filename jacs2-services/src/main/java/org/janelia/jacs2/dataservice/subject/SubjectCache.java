@@ -0,0 +1,192 @@
+package org.janelia.jacs2.dataservice.subject;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.janelia.model.access.domain.dao.SubjectDao;
+import org.janelia.model.security.Subject;
+import org.janelia.model.security.User;
+
+/**
+ * In memory cache of the subjects and of their group memberships, so that authenticating a request or checking
+ * a subject's groups does not have to read the subject collection every time. Local subject changes must invalidate
+ * the cache, which bumps its version. Changes made through other servers are picked up once the cached entries
+ * get older than Subjects.CacheMaxAgeInSeconds. Subjects that are not found are not cached so a subject
+ * created elsewhere is visible right away.
+ */
+@ApplicationScoped
+public class SubjectCache {
+
+    public static class SubjectCacheStats {
+        private final long version;
+        private final long maxAgeInSeconds;
+        private final long secondsSinceLastInvalidation;
+        private final long subjectRequests;
+        private final double subjectHitRate;
+        private final long subjectKeysRequests;
+        private final double subjectKeysHitRate;
+        private final long loads;
+        private final long evictions;
+
+        private SubjectCacheStats(long version, long maxAgeInSeconds, long secondsSinceLastInvalidation,
+                                  CacheStats subjectStats, CacheStats subjectKeysStats) {
+            this.version = version;
+            this.maxAgeInSeconds = maxAgeInSeconds;
+            this.secondsSinceLastInvalidation = secondsSinceLastInvalidation;
+            this.subjectRequests = subjectStats.requestCount();
+            this.subjectHitRate = subjectStats.hitRate();
+            this.subjectKeysRequests = subjectKeysStats.requestCount();
+            this.subjectKeysHitRate = subjectKeysStats.hitRate();
+            this.loads = subjectStats.loadCount() + subjectKeysStats.loadCount();
+            this.evictions = subjectStats.evictionCount() + subjectKeysStats.evictionCount();
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getMaxAgeInSeconds() {
+            return maxAgeInSeconds;
+        }
+
+        public long getSecondsSinceLastInvalidation() {
+            return secondsSinceLastInvalidation;
+        }
+
+        public long getSubjectRequests() {
+            return subjectRequests;
+        }
+
+        public double getSubjectHitRate() {
+            return subjectHitRate;
+        }
+
+        public long getSubjectKeysRequests() {
+            return subjectKeysRequests;
+        }
+
+        public double getSubjectKeysHitRate() {
+            return subjectKeysHitRate;
+        }
+
+        public long getLoads() {
+            return loads;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+    }
+
+    private SubjectDao subjectDao;
+    private long maxAgeInSeconds;
+    private LoadingCache<String, Subject> subjectsByNameOrKey;
+    private LoadingCache<String, Set<String>> subjectKeysWithGroups;
+    private final AtomicLong version = new AtomicLong();
+    private volatile long lastInvalidationTimestamp = System.currentTimeMillis();
+
+    SubjectCache() {
+        // CDI required ctor
+    }
+
+    @Inject
+    public SubjectCache(SubjectDao subjectDao,
+                        @IntPropertyValue(name = "Subjects.CacheMaxAgeInSeconds", defaultValue = 60) Integer maxAgeInSeconds) {
+        this.subjectDao = subjectDao;
+        this.maxAgeInSeconds = maxAgeInSeconds;
+        this.subjectsByNameOrKey = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(maxAgeInSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, Subject>() {
+                    @Override
+                    public Subject load(String subjectNameOrKey) {
+                        // a null subject is not cached - the cache throws an InvalidCacheLoadException instead
+                        return subjectDao.findSubjectByNameOrKey(subjectNameOrKey);
+                    }
+                });
+        this.subjectKeysWithGroups = CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(maxAgeInSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, Set<String>>() {
+                    @Override
+                    public Set<String> load(String subjectNameOrKey) {
+                        Subject subject = getSubjectByNameOrKey(subjectNameOrKey);
+                        if (subject == null) {
+                            return Collections.emptySet();
+                        }
+                        Set<String> subjectKeys = new LinkedHashSet<>();
+                        subjectKeys.add(subject.getKey());
+                        if (subject instanceof User) {
+                            subjectKeys.addAll(((User) subject).getReadGroups());
+                        }
+                        return Collections.unmodifiableSet(subjectKeys);
+                    }
+                });
+    }
+
+    /**
+     * @return the subject with the given name or key or null if there is no such subject.
+     */
+    public Subject getSubjectByNameOrKey(String subjectNameOrKey) {
+        if (StringUtils.isBlank(subjectNameOrKey)) {
+            return null;
+        }
+        try {
+            return subjectsByNameOrKey.getUnchecked(subjectNameOrKey);
+        } catch (InvalidCacheLoadException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the subject's key together with the keys of all the groups the subject belongs to, which are the keys
+     * that grant the subject access to an entity, or an empty set if there is no such subject.
+     */
+    public Set<String> getSubjectKeysWithGroups(String subjectNameOrKey) {
+        if (StringUtils.isBlank(subjectNameOrKey)) {
+            return Collections.emptySet();
+        }
+        Set<String> subjectKeys = subjectKeysWithGroups.getUnchecked(subjectNameOrKey);
+        if (subjectKeys.isEmpty()) {
+            // the subject was not found so do not remember that
+            subjectKeysWithGroups.invalidate(subjectNameOrKey);
+        }
+        return subjectKeys;
+    }
+
+    /**
+     * Invalidate all cached subjects. A change of a single subject may change the membership of its groups
+     * so the whole cache is invalidated instead of only the changed subject.
+     */
+    public void invalidateAll() {
+        subjectsByNameOrKey.invalidateAll();
+        subjectKeysWithGroups.invalidateAll();
+        version.incrementAndGet();
+        lastInvalidationTimestamp = System.currentTimeMillis();
+    }
+
+    public SubjectCacheStats getStats() {
+        return new SubjectCacheStats(
+                version.get(),
+                maxAgeInSeconds,
+                TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - lastInvalidationTimestamp),
+                subjectsByNameOrKey.stats(),
+                subjectKeysWithGroups.stats());
+    }
+}
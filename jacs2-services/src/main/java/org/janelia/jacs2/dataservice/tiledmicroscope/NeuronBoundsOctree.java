@@ -0,0 +1,185 @@
+package org.janelia.jacs2.dataservice.tiledmicroscope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Octree of the neuron bounding boxes of a single workspace. A box is stored in the deepest node that fully contains
+ * it, so a query only visits the nodes that intersect the query box. Boxes that do not fit inside the bounds
+ * the tree was created with stay in the root node, therefore the tree remains correct if neurons grow outside
+ * of the initial bounds, it only gets slower until it is rebuilt.
+ */
+class NeuronBoundsOctree {
+
+    private static final int MAX_NODE_ENTRIES = 32;
+    private static final int MAX_DEPTH = 12;
+
+    static class Bounds {
+        final double[] min;
+        final double[] max;
+
+        Bounds(double[] min, double[] max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean intersects(Bounds other) {
+            for (int i = 0; i < 3; i++) {
+                if (max[i] < other.min[i] || min[i] > other.max[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(Bounds other) {
+            for (int i = 0; i < 3; i++) {
+                if (other.min[i] < min[i] || other.max[i] > max[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        double getLargestDimension() {
+            return Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+        }
+
+        static Bounds union(Iterable<Bounds> boundsList) {
+            double[] min = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+            double[] max = new double[]{-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (Bounds bounds : boundsList) {
+                for (int i = 0; i < 3; i++) {
+                    min[i] = Math.min(min[i], bounds.min[i]);
+                    max[i] = Math.max(max[i], bounds.max[i]);
+                }
+            }
+            return new Bounds(min, max);
+        }
+    }
+
+    private static class Entry {
+        final Long neuronId;
+        final Bounds bounds;
+        Node node;
+
+        Entry(Long neuronId, Bounds bounds) {
+            this.neuronId = neuronId;
+            this.bounds = bounds;
+        }
+    }
+
+    private static class Node {
+        final Bounds bounds;
+        final int depth;
+        final List<Entry> entries = new ArrayList<>();
+        Node[] children;
+
+        Node(Bounds bounds, int depth) {
+            this.bounds = bounds;
+            this.depth = depth;
+        }
+
+        void add(Entry entry) {
+            if (children != null) {
+                Node child = findContainingChild(entry.bounds);
+                if (child != null) {
+                    child.add(entry);
+                    return;
+                }
+            }
+            entries.add(entry);
+            entry.node = this;
+            if (children == null && entries.size() > MAX_NODE_ENTRIES && depth < MAX_DEPTH) {
+                split();
+            }
+        }
+
+        private void split() {
+            double[] center = new double[3];
+            for (int i = 0; i < 3; i++) {
+                center[i] = (bounds.min[i] + bounds.max[i]) / 2;
+            }
+            children = new Node[8];
+            for (int octant = 0; octant < 8; octant++) {
+                double[] childMin = new double[3];
+                double[] childMax = new double[3];
+                for (int i = 0; i < 3; i++) {
+                    boolean upperHalf = (octant & (1 << i)) != 0;
+                    childMin[i] = upperHalf ? center[i] : bounds.min[i];
+                    childMax[i] = upperHalf ? bounds.max[i] : center[i];
+                }
+                children[octant] = new Node(new Bounds(childMin, childMax), depth + 1);
+            }
+            List<Entry> currentEntries = new ArrayList<>(entries);
+            entries.clear();
+            currentEntries.forEach(this::add);
+        }
+
+        private Node findContainingChild(Bounds entryBounds) {
+            for (Node child : children) {
+                if (child.bounds.contains(entryBounds)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void collect(Bounds queryBounds, Predicate<Bounds> filter, List<Long> result) {
+            for (Entry entry : entries) {
+                if (entry.bounds.intersects(queryBounds) && filter.test(entry.bounds)) {
+                    result.add(entry.neuronId);
+                }
+            }
+            if (children != null) {
+                for (Node child : children) {
+                    if (child.bounds.intersects(queryBounds)) {
+                        child.collect(queryBounds, filter, result);
+                    }
+                }
+            }
+        }
+    }
+
+    private final Node root;
+    private final Map<Long, Entry> entriesByNeuronId = new HashMap<>();
+
+    NeuronBoundsOctree(Bounds rootBounds) {
+        this.root = new Node(rootBounds, 0);
+    }
+
+    synchronized void put(Long neuronId, Bounds bounds) {
+        remove(neuronId);
+        Entry entry = new Entry(neuronId, bounds);
+        entriesByNeuronId.put(neuronId, entry);
+        if (root.bounds.contains(bounds)) {
+            root.add(entry);
+        } else {
+            root.entries.add(entry);
+            entry.node = root;
+        }
+    }
+
+    synchronized void remove(Long neuronId) {
+        Entry entry = entriesByNeuronId.remove(neuronId);
+        if (entry != null) {
+            entry.node.entries.remove(entry);
+        }
+    }
+
+    /**
+     * @return the ids of the neurons whose bounding box intersects the query bounds and is accepted by the filter.
+     */
+    synchronized List<Long> find(Bounds queryBounds, Predicate<Bounds> filter) {
+        List<Long> result = new ArrayList<>();
+        root.collect(queryBounds, filter, result);
+        return result;
+    }
+
+    synchronized int size() {
+        return entriesByNeuronId.size();
+    }
+}
@@ -0,0 +1,191 @@
+package org.janelia.jacs2.dataservice.tiledmicroscope;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.janelia.jacs2.cdi.qualifier.IntPropertyValue;
+import org.janelia.model.access.domain.dao.TmNeuronMetadataDao;
+import org.janelia.model.domain.tiledMicroscope.TmGeoAnnotation;
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In memory spatial index of the neuron bounding boxes of a workspace. The index of a workspace is built from
+ * the persisted neurons the first time the workspace is queried and it is maintained by the local neuron create,
+ * update and delete operations. Since the index is local to this server, changes made through other servers are only
+ * picked up when the index gets older than Horta.NeuronSpatialIndex.MaxAgeInSeconds and it is rebuilt.
+ * The index does not check any permissions so the callers must only return the found neurons that the requesting
+ * subject can read.
+ */
+@ApplicationScoped
+public class TmNeuronSpatialIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TmNeuronSpatialIndex.class);
+
+    private static class WorkspaceIndex {
+        final NeuronBoundsOctree octree;
+        final long creationTimestamp;
+
+        WorkspaceIndex(NeuronBoundsOctree octree) {
+            this.octree = octree;
+            this.creationTimestamp = System.currentTimeMillis();
+        }
+    }
+
+    private TmNeuronMetadataDao tmNeuronMetadataDao;
+    private long maxAgeInMillis;
+    private final Map<Long, WorkspaceIndex> workspaceIndexes = new ConcurrentHashMap<>();
+    private final Map<Long, Object> workspaceBuildLocks = new ConcurrentHashMap<>();
+    private final Map<Long, List<Consumer<NeuronBoundsOctree>>> indexChangesDuringBuild = new ConcurrentHashMap<>();
+
+    TmNeuronSpatialIndex() {
+        // CDI required ctor
+    }
+
+    @Inject
+    public TmNeuronSpatialIndex(TmNeuronMetadataDao tmNeuronMetadataDao,
+                                @IntPropertyValue(name = "Horta.NeuronSpatialIndex.MaxAgeInSeconds", defaultValue = 600) Integer maxAgeInSeconds) {
+        this.tmNeuronMetadataDao = tmNeuronMetadataDao;
+        this.maxAgeInMillis = maxAgeInSeconds * 1000L;
+    }
+
+    /**
+     * Find the neurons from the workspace whose bounding box intersects the query box. If a level of detail is set,
+     * the neurons that are smaller than the query box size divided by 2^lod are left out, so a client that looks at
+     * a large region only gets the neurons that are visible at that scale and gets the smaller neurons as it zooms in.
+     *
+     * @param workspace neurons' workspace
+     * @param min query box min corner
+     * @param max query box max corner
+     * @param lod level of detail - if null all intersecting neurons are returned
+     * @return the ids of the matching neurons
+     */
+    public List<Long> findNeurons(TmWorkspace workspace, double[] min, double[] max, Integer lod) {
+        NeuronBoundsOctree.Bounds queryBounds = new NeuronBoundsOctree.Bounds(min, max);
+        double minNeuronSize = lod == null || lod < 0
+                ? 0
+                : queryBounds.getLargestDimension() / Math.pow(2, lod);
+        return getWorkspaceIndex(workspace).octree.find(queryBounds, neuronBounds -> neuronBounds.getLargestDimension() >= minNeuronSize);
+    }
+
+    /**
+     * Update the neuron's bounding box if its workspace is indexed.
+     */
+    public void neuronUpdated(TmNeuronMetadata neuron) {
+        NeuronBoundsOctree.Bounds neuronBounds = calculateBounds(neuron);
+        applyIndexChange(neuron.getWorkspaceId(), octree -> {
+            if (neuronBounds == null) {
+                octree.remove(neuron.getId());
+            } else {
+                octree.put(neuron.getId(), neuronBounds);
+            }
+        });
+    }
+
+    public void neuronRemoved(Long workspaceId, Long neuronId) {
+        applyIndexChange(workspaceId, octree -> octree.remove(neuronId));
+    }
+
+    /**
+     * Force the workspace index to be rebuilt on the next query.
+     */
+    public void invalidate(Long workspaceId) {
+        workspaceIndexes.remove(workspaceId);
+    }
+
+    private void applyIndexChange(Long workspaceId, Consumer<NeuronBoundsOctree> indexChange) {
+        List<Consumer<NeuronBoundsOctree>> changesDuringBuild = indexChangesDuringBuild.get(workspaceId);
+        if (changesDuringBuild != null) {
+            synchronized (changesDuringBuild) {
+                // the change is replayed on the new index unless the index was already published
+                if (indexChangesDuringBuild.get(workspaceId) == changesDuringBuild) {
+                    changesDuringBuild.add(indexChange);
+                }
+            }
+        }
+        WorkspaceIndex workspaceIndex = workspaceIndexes.get(workspaceId);
+        if (workspaceIndex != null) {
+            indexChange.accept(workspaceIndex.octree);
+        }
+    }
+
+    /**
+     * The index is built outside of the map's compute, which would otherwise block the updates of all the workspaces
+     * mapped to the same bin while the neurons are read. Changes made while the index is built are replayed on the
+     * new index before it replaces the old one.
+     */
+    private WorkspaceIndex getWorkspaceIndex(TmWorkspace workspace) {
+        WorkspaceIndex workspaceIndex = workspaceIndexes.get(workspace.getId());
+        if (isCurrent(workspaceIndex)) {
+            return workspaceIndex;
+        }
+        synchronized (workspaceBuildLocks.computeIfAbsent(workspace.getId(), workspaceId -> new Object())) {
+            workspaceIndex = workspaceIndexes.get(workspace.getId());
+            if (isCurrent(workspaceIndex)) {
+                // the index was built by a concurrent query
+                return workspaceIndex;
+            }
+            List<Consumer<NeuronBoundsOctree>> changesDuringBuild = new ArrayList<>();
+            indexChangesDuringBuild.put(workspace.getId(), changesDuringBuild);
+            try {
+                WorkspaceIndex newWorkspaceIndex = buildWorkspaceIndex(workspace);
+                synchronized (changesDuringBuild) {
+                    changesDuringBuild.forEach(indexChange -> indexChange.accept(newWorkspaceIndex.octree));
+                    workspaceIndexes.put(workspace.getId(), newWorkspaceIndex);
+                    indexChangesDuringBuild.remove(workspace.getId());
+                }
+                return newWorkspaceIndex;
+            } finally {
+                indexChangesDuringBuild.remove(workspace.getId());
+            }
+        }
+    }
+
+    private boolean isCurrent(WorkspaceIndex workspaceIndex) {
+        return workspaceIndex != null && System.currentTimeMillis() - workspaceIndex.creationTimestamp < maxAgeInMillis;
+    }
+
+    private WorkspaceIndex buildWorkspaceIndex(TmWorkspace workspace) {
+        long startTime = System.currentTimeMillis();
+        Map<Long, NeuronBoundsOctree.Bounds> neuronsBounds = new HashMap<>();
+        tmNeuronMetadataDao.streamWorkspaceNeurons(workspace, workspace.getOwnerKey(), 0, -1, false)
+                .forEach(neuron -> {
+                    TmNeuronMetadata neuronWithPoints = neuron.isLargeNeuron()
+                            ? tmNeuronMetadataDao.getTmNeuronMetadata(workspace.getOwnerKey(), workspace, neuron.getId())
+                            : neuron;
+                    NeuronBoundsOctree.Bounds neuronBounds = calculateBounds(neuronWithPoints);
+                    if (neuronBounds != null) {
+                        neuronsBounds.put(neuron.getId(), neuronBounds);
+                    }
+                });
+        NeuronBoundsOctree octree = new NeuronBoundsOctree(NeuronBoundsOctree.Bounds.union(neuronsBounds.values()));
+        neuronsBounds.forEach(octree::put);
+        LOG.info("Indexed {} neurons from workspace {} in {}ms", octree.size(), workspace.getId(), System.currentTimeMillis() - startTime);
+        return new WorkspaceIndex(octree);
+    }
+
+    private NeuronBoundsOctree.Bounds calculateBounds(TmNeuronMetadata neuron) {
+        if (neuron == null || neuron.getNeuronData() == null || neuron.getGeoAnnotationMap() == null || neuron.getGeoAnnotationMap().isEmpty()) {
+            return null;
+        }
+        double[] min = new double[]{Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+        double[] max = new double[]{-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (TmGeoAnnotation point : neuron.getGeoAnnotationMap().values()) {
+            double[] coords = new double[]{point.getX(), point.getY(), point.getZ()};
+            for (int i = 0; i < 3; i++) {
+                min[i] = Math.min(min[i], coords[i]);
+                max[i] = Math.max(max[i], coords[i]);
+            }
+        }
+        return new NeuronBoundsOctree.Bounds(min, max);
+    }
+}
@@ -2,5 +2,30 @@ package org.janelia.model.access.dao;
 
 import org.janelia.model.service.JacsJobInstanceInfo;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
 public interface JacsJobInstanceInfoDao extends ReadWriteDao<JacsJobInstanceInfo, Number> {
+    /**
+     * @param jobName cluster job name
+     * @param maxResults maximum number of returned instances
+     * @return the most recently finished job instances with the given name that have a known run time.
+     */
+    List<JacsJobInstanceInfo> findRecentJobInstances(String jobName, int maxResults);
+
+    /**
+     * @param serviceName name of the service that invoked the jobs
+     * @param finishedAfter if set only return jobs that finished after this time
+     * @param maxResults maximum number of returned instances
+     * @return the most recently finished job instances of the given service that have a known run time, whether they
+     * succeeded or failed.
+     */
+    List<JacsJobInstanceInfo> findRecentServiceJobInstances(String serviceName, Date finishedAfter, int maxResults);
+
+    /**
+     * @param serviceIds ids of the services that invoked the jobs
+     * @return the successful job instances of the given services that have a known run time.
+     */
+    List<JacsJobInstanceInfo> findSuccessfulServicesJobInstances(Collection<Number> serviceIds);
 }
@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Optional;
 
 public interface JacsScheduledServiceDataDao extends ReadWriteDao<JacsScheduledServiceData, Number> {
+    List<JacsScheduledServiceData> findScheduledServices(String queueId, boolean includeDisabled);
     List<JacsScheduledServiceData> findServicesScheduledAtOrBefore(String queueId, Date scheduledTime, boolean includeDisabled);
     Optional<JacsScheduledServiceData> updateServiceScheduledTime(JacsScheduledServiceData scheduledServiceData, Date currentScheduledTime);
 }
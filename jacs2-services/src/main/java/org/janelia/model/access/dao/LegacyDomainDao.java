@@ -341,6 +341,16 @@ public interface LegacyDomainDao {
 
     DomainObject updateProperty(String subjectKey, String className, Long id, String propName, Object propValue, Class<?> propType) throws Exception;
 
+    /**
+     * Set the given properties for the specified objects using a single bulk write. No permission check is done
+     * and no indexing request is queued for the updated objects so this is only intended for maintenance services.
+     *
+     * @param clazz domain class
+     * @param updatedPropertiesById properties values to be set keyed by object id
+     * @return the number of modified objects
+     */
+    <T extends DomainObject> long bulkUpdateProperties(Class<T> clazz, Map<Long, Map<String, Object>> updatedPropertiesById);
+
     <T extends DomainObject> void deleteProperty(String ownerKey, Class<T> clazz, String propName);
 
     void addPermissions(String ownerKey, String className, Long id, DomainObject permissionTemplate, boolean forceChildUpdates) throws Exception;
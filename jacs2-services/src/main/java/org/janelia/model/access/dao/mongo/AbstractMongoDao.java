@@ -12,7 +12,10 @@ import java.util.stream.Collectors;
 import com.google.common.collect.ImmutableList;
 import com.mongodb.MongoException;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.UpdateResult;
@@ -147,6 +150,23 @@ public abstract class AbstractMongoDao<T extends HasIdentifier> extends Abstract
         }
     }
 
+    /**
+     * Apply all updates in a single unordered bulk write.
+     */
+    protected DaoUpdateResult bulkUpdate(List<UpdateOneModel<T>> updates) {
+        if (updates.isEmpty()) {
+            return new DaoUpdateResult(0, 0);
+        }
+        try {
+            LOG.trace("Bulk update: {}", updates);
+            BulkWriteResult result = mongoCollection.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            return new DaoUpdateResult(result.getMatchedCount(), result.getModifiedCount());
+        } catch (MongoException e) {
+            LOG.error("Error while applying bulk updates: {}", updates);
+            throw e;
+        }
+    }
+
     private Bson getUpdates(Map<String, EntityFieldValueHandler<?>> fieldsToUpdate) {
         List<Bson> fieldUpdates = fieldsToUpdate.entrySet().stream()
                 .map(e -> getFieldUpdate(e.getKey(), e.getValue()))
@@ -165,7 +185,7 @@ public abstract class AbstractMongoDao<T extends HasIdentifier> extends Abstract
     }
 
     @SuppressWarnings("unchecked")
-    private Bson getFieldUpdate(String fieldName, EntityFieldValueHandler<?> valueHandler) {
+    protected Bson getFieldUpdate(String fieldName, EntityFieldValueHandler<?> valueHandler) {
         if (valueHandler == null || valueHandler.getFieldValue() == null) {
             return Updates.unset(fieldName);
         } else if (valueHandler instanceof NoOpFieldValueHandler) {
@@ -1,12 +1,22 @@
 package org.janelia.model.access.dao.mongo;
 
+import com.google.common.collect.ImmutableList;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import org.bson.conversions.Bson;
 import org.janelia.jacs2.cdi.qualifier.JacsDefault;
 import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
 import org.janelia.model.access.domain.IdGenerator;
+import org.janelia.model.jacs2.page.SortCriteria;
+import org.janelia.model.jacs2.page.SortDirection;
 import org.janelia.model.service.JacsJobInstanceInfo;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 /**
  * Mongo based implementation of JacsJobInstanceInfoDao.
@@ -17,4 +27,46 @@ public class JacsJobInstanceInfoMongoDao extends AbstractMongoDao<JacsJobInstanc
     public JacsJobInstanceInfoMongoDao(MongoDatabase mongoDatabase, @JacsDefault IdGenerator<Long> idGenerator) {
         super(mongoDatabase, idGenerator);
     }
+
+    @Override
+    public List<JacsJobInstanceInfo> findRecentJobInstances(String jobName, int maxResults) {
+        return find(
+                Filters.and(Filters.eq("name", jobName), Filters.gt("runSecs", 0)),
+                MongoDaoHelper.createBsonSortCriteria(ImmutableList.of(new SortCriteria("finishTime", SortDirection.DESC))),
+                0,
+                maxResults,
+                JacsJobInstanceInfo.class);
+    }
+
+    @Override
+    public List<JacsJobInstanceInfo> findRecentServiceJobInstances(String serviceName, Date finishedAfter, int maxResults) {
+        List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.eq("serviceName", serviceName));
+        filters.add(Filters.gt("runSecs", 0));
+        if (finishedAfter != null) {
+            filters.add(Filters.gt("finishTime", finishedAfter));
+        }
+        return find(
+                Filters.and(filters),
+                MongoDaoHelper.createBsonSortCriteria(ImmutableList.of(new SortCriteria("finishTime", SortDirection.DESC))),
+                0,
+                maxResults,
+                JacsJobInstanceInfo.class);
+    }
+
+    @Override
+    public List<JacsJobInstanceInfo> findSuccessfulServicesJobInstances(Collection<Number> serviceIds) {
+        if (serviceIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return find(
+                Filters.and(
+                        Filters.in("serviceDataId", serviceIds),
+                        Filters.eq("exitCode", 0),
+                        Filters.gt("runSecs", 0)),
+                null,
+                0,
+                -1,
+                JacsJobInstanceInfo.class);
+    }
 }
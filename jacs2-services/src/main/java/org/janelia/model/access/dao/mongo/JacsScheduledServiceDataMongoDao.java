@@ -42,8 +42,17 @@ public class JacsScheduledServiceDataMongoDao extends AbstractMongoDao<JacsSched
         }
     }
 
+    @Override
+    public List<JacsScheduledServiceData> findScheduledServices(String queueId, boolean includeDisabled) {
+        return find(createScheduledServicesFilter(queueId, null, includeDisabled), null, 0, -1, getEntityType());
+    }
+
     @Override
     public List<JacsScheduledServiceData> findServicesScheduledAtOrBefore(String queueId, Date scheduledTime, boolean includeDisabled) {
+        return find(createScheduledServicesFilter(queueId, scheduledTime, includeDisabled), null, 0, -1, getEntityType());
+    }
+
+    private Bson createScheduledServicesFilter(String queueId, Date scheduledTime, boolean includeDisabled) {
         ImmutableList.Builder<Bson> filtersBuilder = new ImmutableList.Builder<>();
         if (StringUtils.isNotBlank(queueId)) {
             // if a queue is provided lookup only services for the specified queue
@@ -55,9 +64,11 @@ public class JacsScheduledServiceDataMongoDao extends AbstractMongoDao<JacsSched
             filtersBuilder.add(Filters.exists("serviceQueueId", false));
         }
 
-        filtersBuilder.add(Filters.or(
-                Filters.lte("nextStartTime", scheduledTime),
-                Filters.exists("nextStartTime", false)));
+        if (scheduledTime != null) {
+            filtersBuilder.add(Filters.or(
+                    Filters.lte("nextStartTime", scheduledTime),
+                    Filters.exists("nextStartTime", false)));
+        }
 
         if (!includeDisabled) {
             // if it does not explicitly request disabled services only get the ones that are not disabled
@@ -66,9 +77,7 @@ public class JacsScheduledServiceDataMongoDao extends AbstractMongoDao<JacsSched
                     Filters.exists("disabled", false)));
         } // otherwise don't use disabled flag for filtering
 
-        Bson queryFilter = Filters.and(filtersBuilder.build());
-
-        return find(queryFilter, null, 0, -1, getEntityType());
+        return Filters.and(filtersBuilder.build());
     }
 
     @Override
@@ -4,6 +4,9 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multimap;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
 import com.mongodb.DBCursor;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.model.access.cdi.AsyncIndex;
@@ -583,6 +586,22 @@ public class LegacyDomainMongoDao implements LegacyDomainDao {
         return updatedDomainObject;
     }
 
+    @Override
+    public <T extends DomainObject> long bulkUpdateProperties(Class<T> clazz, Map<Long, Map<String, Object>> updatedPropertiesById) {
+        if (updatedPropertiesById.isEmpty()) {
+            return 0L;
+        }
+        MongoCollection mongoCollection = dao.getCollectionByClass(clazz);
+        BulkWriteOperation bulkWriteOperation = mongoCollection.getDBCollection().initializeUnorderedBulkOperation();
+        updatedPropertiesById.forEach((id, updatedProperties) -> bulkWriteOperation
+                .find(new BasicDBObject("_id", id))
+                .updateOne(new BasicDBObject("$set", new BasicDBObject(updatedProperties))));
+        BulkWriteResult bulkWriteResult = bulkWriteOperation.execute();
+        // this method is invoked from a batch service so we do not queue any indexing requests
+        LOG.info("Updated {} entities of type {}", bulkWriteResult.getModifiedCount(), clazz.getSimpleName());
+        return bulkWriteResult.getModifiedCount();
+    }
+
     @Override
     public <T extends DomainObject> void deleteProperty(String ownerKey, Class<T> clazz, String propName) {
         Stream<? extends DomainObject> affectedDomainObjects = dao.deleteProperty(ownerKey, clazz, propName);
@@ -13,5 +13,24 @@ public interface DomainObjectDao<T extends DomainObject> extends ReadWriteDao<T,
     <U extends T> List<U> findSubtypesByIds(Subject subject, List<Number> ids, Class<U> entityType);
     PageResult<T> findByOwnerKey(Subject subject, String ownerKey, PageRequest pageRequest);
     boolean lockEntity(String lockKey, T entity);
+
+    /**
+     * Lock the entity with a lease. A lock held by someone else can be reclaimed if it has not been renewed in the
+     * last leaseTimeoutMillis; a non-positive timeout means that existing locks never expire. The lock holder, if set,
+     * is persisted with the lock so that the lease can be taken over after a restart.
+     */
+    boolean lockEntity(String lockKey, T entity, Number lockHolderId, long leaseTimeoutMillis);
+
+    /**
+     * @return all entities that are currently locked
+     */
+    List<T> findLockedEntities();
+
+    /**
+     * Renew the lease of a lock held with the given key.
+     *
+     * @return false if the entity is no longer locked with this key
+     */
+    boolean renewEntityLock(String lockKey, T entity);
     boolean unlockEntity(String lockKey, T entity);
 }
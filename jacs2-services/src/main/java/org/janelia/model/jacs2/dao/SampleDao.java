@@ -5,14 +5,30 @@ import org.janelia.model.jacs2.domain.sample.PipelineResult;
 import org.janelia.model.jacs2.domain.sample.Sample;
 import org.janelia.model.jacs2.domain.sample.SamplePipelineRun;
 import org.janelia.model.jacs2.DataInterval;
+import org.janelia.model.jacs2.EntityFieldValueHandler;
 import org.janelia.model.jacs2.page.PageRequest;
 import org.janelia.model.jacs2.page.PageResult;
 
 import java.util.Date;
+import java.util.Map;
 
 public interface SampleDao extends DomainObjectDao<Sample> {
     PageResult<Sample> findMatchingSamples(Subject subject, Sample pattern, DataInterval<Date> tmogInterval, PageRequest pageRequest);
     void addObjectivePipelineRun(Sample sample, String objective, SamplePipelineRun samplePipelineRun);
     void addSampleObjectivePipelineRunResult(Sample sample, String objective, Number runId, Number parentResultId, PipelineResult pipelineResult);
     void updateSampleObjectivePipelineRunResult(Sample sample, String objective, Number runId, PipelineResult pipelineResult);
+
+    /**
+     * Apply field level updates to results of the same pipeline run in a single bulk write.
+     *
+     * @param resultsFieldUpdates updates of the result fields, relative to the result, keyed by the result id
+     */
+    void updateSampleObjectivePipelineRunResults(Sample sample, String objective, Number runId, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates);
+
+    /**
+     * Apply field level updates to results from any objective and pipeline run of the sample in a single bulk write.
+     *
+     * @param resultsFieldUpdates updates of the result fields, relative to the result, keyed by the result id
+     */
+    void updateSamplePipelineResults(Sample sample, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates);
 }
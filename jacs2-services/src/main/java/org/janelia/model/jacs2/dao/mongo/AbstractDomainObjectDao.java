@@ -84,43 +84,93 @@ public abstract class AbstractDomainObjectDao<T extends DomainObject> extends Ab
 
     @Override
     public boolean lockEntity(String lockKey, T entity) {
+        return lockEntity(lockKey, entity, null, 0L);
+    }
+
+    @Override
+    public boolean lockEntity(String lockKey, T entity, Number lockHolderId, long leaseTimeoutMillis) {
         Preconditions.checkArgument(StringUtils.isNotBlank(lockKey));
-        Bson lockedEntity = Updates.combine(Updates.set("lockKey", lockKey), Updates.set("lockTimestamp", new Date()));
+        Date lockTimestamp = new Date();
+        Bson lockedEntity = Updates.combine(
+                Updates.set("lockKey", lockKey),
+                Updates.set("lockTimestamp", lockTimestamp),
+                lockHolderId != null ? Updates.set("lockHolderId", lockHolderId) : Updates.unset("lockHolderId"));
         entity.setLockKey(lockKey);
-        DaoUpdateResult updateResult = update(getUpdateMatchCriteria(entity), lockedEntity, new UpdateOptions());
-        return updateResult.getEntitiesFound() > 0 && updateResult.getEntitiesAffected() > 0;
+        Bson lockFilter = createLockFilter(entity);
+        if (leaseTimeoutMillis > 0) {
+            // a lock that was not renewed within the lease timeout was left behind by a holder that is gone
+            lockFilter = Filters.or(lockFilter, Filters.lt("lockTimestamp", new Date(lockTimestamp.getTime() - leaseTimeoutMillis)));
+        }
+        DaoUpdateResult updateResult = update(
+                Filters.and(eq("_id", entity.getId()), lockFilter, createSubjectFilter(entity)),
+                lockedEntity,
+                new UpdateOptions());
+        boolean locked = updateResult.getEntitiesFound() > 0 && updateResult.getEntitiesAffected() > 0;
+        if (locked) {
+            entity.setLockTimestamp(lockTimestamp);
+            entity.setLockHolderId(lockHolderId);
+        }
+        return locked;
+    }
+
+    @Override
+    public List<T> findLockedEntities() {
+        return find(Filters.and(Filters.exists("lockKey"), Filters.ne("lockKey", null)),
+                null,
+                0,
+                -1,
+                getEntityType());
+    }
+
+    @Override
+    public boolean renewEntityLock(String lockKey, T entity) {
+        Preconditions.checkArgument(StringUtils.isNotBlank(lockKey));
+        Date lockTimestamp = new Date();
+        DaoUpdateResult updateResult = update(
+                Filters.and(eq("_id", entity.getId()), eq("lockKey", lockKey)),
+                Updates.set("lockTimestamp", lockTimestamp),
+                new UpdateOptions());
+        boolean renewed = updateResult.getEntitiesFound() > 0 && updateResult.getEntitiesAffected() > 0;
+        if (renewed) {
+            entity.setLockTimestamp(lockTimestamp);
+        }
+        return renewed;
     }
 
     @Override
     public boolean unlockEntity(String lockKey, T entity) {
-        Bson lockedEntity = Updates.combine(Updates.unset("lockKey"), Updates.unset("lockTimestamp"));
+        Bson lockedEntity = Updates.combine(Updates.unset("lockKey"), Updates.unset("lockTimestamp"), Updates.unset("lockHolderId"));
         entity.setLockKey(lockKey);
         DaoUpdateResult updateResult = update(getUpdateMatchCriteria(entity), lockedEntity, new UpdateOptions());
         return updateResult.getEntitiesFound() > 0 && updateResult.getEntitiesAffected() > 0;
     }
 
     protected Bson getUpdateMatchCriteria(T entity) {
-        Bson lockFilter;
+        return Filters.and(
+                eq("_id", entity.getId()),
+                createLockFilter(entity),
+                createSubjectFilter(entity)
+        );
+    }
+
+    private Bson createLockFilter(T entity) {
         if (StringUtils.isNotBlank(entity.getLockKey())) {
-            lockFilter = Filters.or(Filters.exists("lockKey", false), Filters.eq("lockKey", null), eq("lockKey", entity.getLockKey()));
+            return Filters.or(Filters.exists("lockKey", false), Filters.eq("lockKey", null), eq("lockKey", entity.getLockKey()));
         } else {
-            lockFilter = Filters.or(Filters.exists("lockKey", false), Filters.eq("lockKey", null));
+            return Filters.or(Filters.exists("lockKey", false), Filters.eq("lockKey", null));
         }
-        Bson subjectFilter;
+    }
+
+    private Bson createSubjectFilter(T entity) {
         if (StringUtils.isBlank(entity.getOwnerName())) {
             // either there's no owner key or the writers contain group:all
-            subjectFilter = Filters.or(Filters.exists("ownerKey", false), Filters.elemMatch("writers", eq("group:all")));
+            return Filters.or(Filters.exists("ownerKey", false), Filters.elemMatch("writers", eq("group:all")));
         } else {
             // use the owner key to check for write permissions
             Subject subject = new Subject();
             subject.setKey(entity.getOwnerKey());
-            subjectFilter = createSubjectWritePermissionFilter(subject);
+            return createSubjectWritePermissionFilter(subject);
         }
-        return Filters.and(
-                eq("_id", entity.getId()),
-                lockFilter,
-                subjectFilter
-        );
     }
 
     @Override
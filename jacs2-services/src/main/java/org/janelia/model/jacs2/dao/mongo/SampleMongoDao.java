@@ -2,6 +2,7 @@ package org.janelia.model.jacs2.dao.mongo;
 
 import com.google.common.collect.ImmutableList;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.Updates;
 import org.apache.commons.lang3.StringUtils;
@@ -11,6 +12,7 @@ import org.janelia.model.access.dao.mongo.MongoDaoHelper;
 import org.janelia.model.access.domain.IdGenerator;
 import org.janelia.model.jacs2.domain.IndexedReference;
 import org.janelia.model.jacs2.domain.Subject;
+import org.janelia.model.jacs2.domain.sample.ObjectiveSample;
 import org.janelia.model.jacs2.domain.sample.PipelineResult;
 import org.janelia.model.jacs2.domain.sample.Sample;
 import org.janelia.model.jacs2.domain.sample.SamplePipelineRun;
@@ -18,14 +20,19 @@ import org.janelia.jacs2.cdi.qualifier.JacsDefault;
 import org.janelia.model.jacs2.dao.SampleDao;
 import org.janelia.model.jacs2.DataInterval;
 import org.janelia.model.jacs2.DomainModelUtils;
+import org.janelia.model.jacs2.EntityFieldValueHandler;
 import org.janelia.model.jacs2.page.PageRequest;
 import org.janelia.model.jacs2.page.PageResult;
 
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
@@ -33,6 +40,21 @@ import static com.mongodb.client.model.Filters.gte;
 import static com.mongodb.client.model.Filters.lt;
 
 public class SampleMongoDao extends AbstractDomainObjectDao<Sample> implements SampleDao {
+
+    private static class PipelineRunResultLocation {
+        private final String path;
+        private final List<Bson> arrayFilters;
+
+        private PipelineRunResultLocation(String path, List<Bson> arrayFilters) {
+            this.path = path;
+            this.arrayFilters = arrayFilters;
+        }
+
+        private String fieldName(String relativeFieldName) {
+            return path + "." + relativeFieldName;
+        }
+    }
+
     @Inject
     @Jacs2Future
     public SampleMongoDao(MongoDatabase mongoDatabase, @JacsDefault IdGenerator<Long> idGenerator) {
@@ -100,33 +122,25 @@ public class SampleMongoDao extends AbstractDomainObjectDao<Sample> implements S
         if (sample.getObjectiveSamples() == null) {
             throw new IllegalArgumentException("Sample " + sample + " has no objective samples");
         }
-        List<Bson> updatedFields = new ArrayList<>();
-        sample.lookupIndexedObjective(objective)
-                .map(indexedObjectiveSample -> {
-                            Optional<IndexedReference<SamplePipelineRun, Integer>> indexedPipelineRun = indexedObjectiveSample.getReference().findPipelineRunById(samplePipelineRun.getId());
-                            if (!indexedPipelineRun.isPresent()) {
-                                // if no pipeline run was found create one
-                                String fieldName = String.format("objectiveSamples.%d.pipelineRuns", indexedObjectiveSample.getPos());
-                                updatedFields.add(Updates.push(fieldName, samplePipelineRun));
-                                return true; // add pipeline run
-                            } else {
-                                if (StringUtils.isNotBlank(samplePipelineRun.getName())) {
-                                    String fieldName = String.format("objectiveSamples.%d.pipelineRuns.%d.name", indexedObjectiveSample.getPos(), indexedPipelineRun.get().getPos());
-                                    updatedFields.add(Updates.set(fieldName, samplePipelineRun.getName()));
-                                }
-                                if (StringUtils.isNotBlank(samplePipelineRun.getPipelineProcess())) {
-                                    String fieldName = String.format("objectiveSamples.%d.pipelineRuns.%d.pipelineProcess", indexedObjectiveSample.getPos(), indexedPipelineRun.get().getPos());
-                                    updatedFields.add(Updates.set(fieldName, samplePipelineRun.getPipelineProcess()));
-                                }
-                                return false; // update the pipeline run
-                            }
-                        }
-                )
+        ObjectiveSample objectiveSample = sample.lookupObjective(objective)
                 .orElseThrow(() -> new IllegalArgumentException("No '" + objective + "' found for " + sample.getName()));
+        List<Bson> updatedFields = new ArrayList<>();
+        List<Bson> arrayFilters = new ArrayList<>();
+        arrayFilters.add(eq("o.objective", objective));
+        if (!objectiveSample.findPipelineRunById(samplePipelineRun.getId()).isPresent()) {
+            // if no pipeline run was found create one
+            updatedFields.add(Updates.push("objectiveSamples.$[o].pipelineRuns", samplePipelineRun));
+        } else {
+            if (StringUtils.isNotBlank(samplePipelineRun.getName())) {
+                updatedFields.add(Updates.set("objectiveSamples.$[o].pipelineRuns.$[run].name", samplePipelineRun.getName()));
+            }
+            if (StringUtils.isNotBlank(samplePipelineRun.getPipelineProcess())) {
+                updatedFields.add(Updates.set("objectiveSamples.$[o].pipelineRuns.$[run].pipelineProcess", samplePipelineRun.getPipelineProcess()));
+            }
+            arrayFilters.add(eq("run.id", samplePipelineRun.getId()));
+        }
         if (!updatedFields.isEmpty()) {
-            UpdateOptions updateOptions = new UpdateOptions();
-            updateOptions.upsert(false);
-            update(getUpdateMatchCriteria(sample), Updates.combine(updatedFields), updateOptions);
+            update(getUpdateMatchCriteria(sample), Updates.combine(updatedFields), createUpdateOptions(arrayFilters));
         }
     }
 
@@ -135,75 +149,117 @@ public class SampleMongoDao extends AbstractDomainObjectDao<Sample> implements S
         if (sample.getObjectiveSamples() == null) {
             throw new IllegalArgumentException("Sample " + sample + " has no objective samples");
         }
+        locatePipelineRunResult(sample, objective, runId, resultId)
+                .ifPresent(resultLocation -> update(
+                        getUpdateMatchCriteria(sample),
+                        Updates.push(resultLocation.fieldName("results"), pipelineResult),
+                        createUpdateOptions(resultLocation.arrayFilters)));
+    }
 
-        List<Bson> updatedFields = new ArrayList<>();
-        sample.lookupIndexedObjective(objective)
-                .flatMap(positionalObjectiveSample -> {
-                    Optional<IndexedReference<SamplePipelineRun, Integer>> positionalPipelineRun = positionalObjectiveSample.getReference().findPipelineRunById(runId);
-                    if (positionalPipelineRun.isPresent()) {
-                        if (resultId == null) {
-                            return Optional.of(String.format("objectiveSamples.%d.pipelineRuns.%d.results", positionalObjectiveSample.getPos(), positionalPipelineRun.get().getPos()));
-                        } else {
-                            return positionalPipelineRun.get().getReference().streamResults()
-                                    .filter(indexedResult -> indexedResult.getReference().sameId(resultId))
-                                    .findFirst()
-                                    .map(indexedResult -> {
-                                        List<Object> formatArgs = new ArrayList<>(ImmutableList.of(positionalObjectiveSample.getPos(), positionalPipelineRun.get().getPos()));
-                                        StringBuilder fieldFormat = new StringBuilder("objectiveSamples.%d.pipelineRuns.%d");
-                                        for (IndexedReference<Integer, Integer> treePos : indexedResult.getPos()) {
-                                            fieldFormat.append(".results.%d");
-                                            formatArgs.add(treePos.getPos());
-                                        }
-                                        fieldFormat.append(".results");
-                                        return String.format(fieldFormat.toString(), formatArgs.toArray());
-                                    })
-                                    ;
-                        }
-                    } else {
-                        return Optional.<String>empty();
-                    }
-                })
-                .ifPresent(fn -> updatedFields.add(Updates.push(fn, pipelineResult)));
-        if (!updatedFields.isEmpty()) {
-            UpdateOptions updateOptions = new UpdateOptions();
-            updateOptions.upsert(false);
-            update(getUpdateMatchCriteria(sample), Updates.combine(updatedFields), updateOptions);
+    @Override
+    public void updateSampleObjectivePipelineRunResult(Sample sample, String objective, Number runId, PipelineResult pipelineResult) {
+        if (sample.getObjectiveSamples() == null) {
+            throw new IllegalArgumentException("Sample " + sample + " has no objective samples");
         }
+        if (pipelineResult.getId() == null) {
+            return;
+        }
+        locatePipelineRunResult(sample, objective, runId, pipelineResult.getId())
+                .ifPresent(resultLocation -> update(
+                        getUpdateMatchCriteria(sample),
+                        Updates.set(resultLocation.path, pipelineResult),
+                        createUpdateOptions(resultLocation.arrayFilters)));
     }
 
     @Override
-    public void updateSampleObjectivePipelineRunResult(Sample sample, String objective, Number runId, PipelineResult pipelineResult) {
+    public void updateSampleObjectivePipelineRunResults(Sample sample, String objective, Number runId, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates) {
         if (sample.getObjectiveSamples() == null) {
             throw new IllegalArgumentException("Sample " + sample + " has no objective samples");
         }
+        Bson sampleMatchCriteria = getUpdateMatchCriteria(sample);
+        List<UpdateOneModel<Sample>> updates = new ArrayList<>();
+        resultsFieldUpdates.forEach((resultId, resultFieldUpdates) -> locatePipelineRunResult(sample, objective, runId, resultId)
+                .ifPresent(resultLocation -> addResultFieldUpdates(sampleMatchCriteria, resultLocation, resultFieldUpdates, updates)));
+        bulkUpdate(updates);
+    }
 
-        List<Bson> updatedFields = new ArrayList<>();
-        sample.lookupIndexedObjective(objective)
-                .flatMap(positionalObjectiveSample -> {
-                    Optional<IndexedReference<SamplePipelineRun, Integer>> positionalPipelineRun = positionalObjectiveSample.getReference().findPipelineRunById(runId);
-                    if (positionalPipelineRun.isPresent()) {
-                        return positionalPipelineRun.get().getReference().streamResults()
-                                .filter(indexedResult -> indexedResult.getReference().sameId(pipelineResult.getId()))
-                                .findFirst()
-                                .map(indexedResult -> {
-                                    List<Object> formatArgs = new ArrayList<>(ImmutableList.of(positionalObjectiveSample.getPos(), positionalPipelineRun.get().getPos()));
-                                    StringBuilder fieldFormat = new StringBuilder("objectiveSamples.%d.pipelineRuns.%d");
-                                    for (IndexedReference<Integer, Integer> treePos : indexedResult.getPos()) {
-                                        fieldFormat.append(".results.%d");
-                                        formatArgs.add(treePos.getPos());
-                                    }
-                                    return String.format(fieldFormat.toString(), formatArgs.toArray());
-                                })
-                                ;
-                    } else {
-                        return Optional.<String>empty();
-                    }
-                })
-                .ifPresent(fn -> updatedFields.add(Updates.set(fn, pipelineResult)));
+    @Override
+    public void updateSamplePipelineResults(Sample sample, Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsFieldUpdates) {
+        if (sample.getObjectiveSamples() == null) {
+            throw new IllegalArgumentException("Sample " + sample + " has no objective samples");
+        }
+        Bson sampleMatchCriteria = getUpdateMatchCriteria(sample);
+        List<UpdateOneModel<Sample>> updates = new ArrayList<>();
+        for (ObjectiveSample objectiveSample : sample.getObjectiveSamples()) {
+            if (objectiveSample.getPipelineRuns() == null) {
+                continue;
+            }
+            for (SamplePipelineRun pipelineRun : objectiveSample.getPipelineRuns()) {
+                pipelineRun.streamResults()
+                        .map(IndexedReference::getReference)
+                        .filter(result -> result.getId() != null && resultsFieldUpdates.containsKey(result.getId()))
+                        .forEach(result -> locatePipelineRunResult(sample, objectiveSample.getObjective(), pipelineRun.getId(), result.getId())
+                                .ifPresent(resultLocation -> addResultFieldUpdates(sampleMatchCriteria, resultLocation, resultsFieldUpdates.get(result.getId()), updates)));
+            }
+        }
+        bulkUpdate(updates);
+    }
+
+    private void addResultFieldUpdates(Bson sampleMatchCriteria, PipelineRunResultLocation resultLocation,
+                                       Map<String, EntityFieldValueHandler<?>> resultFieldUpdates,
+                                       List<UpdateOneModel<Sample>> updates) {
+        List<Bson> updatedFields = resultFieldUpdates.entrySet().stream()
+                .map(fieldUpdate -> getFieldUpdate(resultLocation.fieldName(fieldUpdate.getKey()), fieldUpdate.getValue()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
         if (!updatedFields.isEmpty()) {
-            UpdateOptions updateOptions = new UpdateOptions();
-            updateOptions.upsert(false);
-            update(getUpdateMatchCriteria(sample), Updates.combine(updatedFields), updateOptions);
+            updates.add(new UpdateOneModel<>(sampleMatchCriteria, Updates.combine(updatedFields), createUpdateOptions(resultLocation.arrayFilters)));
         }
     }
+
+    /**
+     * Locate a pipeline run or one of its results by id. The location uses array filters on the objective,
+     * on the run id and on the ids of the result's ancestors instead of array positions, which may be stale if
+     * the sample was updated concurrently. The snapshot is only used for finding the depth of the result
+     * and its ancestors since results are never moved.
+     *
+     * @param resultId if null the location of the pipeline run
+     */
+    private Optional<PipelineRunResultLocation> locatePipelineRunResult(Sample sample, String objective, Number runId, Number resultId) {
+        return sample.lookupObjective(objective)
+                .flatMap(objectiveSample -> objectiveSample.findPipelineRunById(runId))
+                .flatMap(indexedPipelineRun -> {
+                    PipelineRunResultLocation runLocation = new PipelineRunResultLocation(
+                            "objectiveSamples.$[o].pipelineRuns.$[run]",
+                            ImmutableList.of(eq("o.objective", objective), eq("run.id", runId)));
+                    if (resultId == null) {
+                        return Optional.of(runLocation);
+                    }
+                    return indexedPipelineRun.getReference().streamResults()
+                            .map(IndexedReference::getReference)
+                            .filter(result -> result.sameId(resultId))
+                            .findFirst()
+                            .map(result -> {
+                                LinkedList<PipelineResult> resultLineage = new LinkedList<>();
+                                for (PipelineResult r = result; r != null; r = r.getParentResult()) {
+                                    resultLineage.addFirst(r);
+                                }
+                                StringBuilder resultPathBuilder = new StringBuilder(runLocation.path);
+                                List<Bson> resultArrayFilters = new ArrayList<>(runLocation.arrayFilters);
+                                int level = 0;
+                                for (PipelineResult r : resultLineage) {
+                                    String resultIdentifier = "r" + level++;
+                                    resultPathBuilder.append(".results.$[").append(resultIdentifier).append(']');
+                                    resultArrayFilters.add(eq(resultIdentifier + ".id", r.getId()));
+                                }
+                                return new PipelineRunResultLocation(resultPathBuilder.toString(), resultArrayFilters);
+                            });
+                });
+    }
+
+    private UpdateOptions createUpdateOptions(List<Bson> arrayFilters) {
+        return new UpdateOptions()
+                .upsert(false)
+                .arrayFilters(arrayFilters);
+    }
 }
@@ -28,6 +28,7 @@ public abstract class AbstractDomainObject implements DomainObject {
     private String ownerKey;
     private String lockKey;
     private Date lockTimestamp;
+    private Number lockHolderId;
     private Set<String> readers = new HashSet<>();
     private Set<String> writers = new HashSet<>();
     private Date creationDate = new Date();
@@ -101,6 +102,16 @@ public abstract class AbstractDomainObject implements DomainObject {
         this.lockTimestamp = lockTimestamp;
     }
 
+    @Override
+    public Number getLockHolderId() {
+        return lockHolderId;
+    }
+
+    @Override
+    public void setLockHolderId(Number lockHolderId) {
+        this.lockHolderId = lockHolderId;
+    }
+
     @Override
     public Set<String> getReaders() {
         return readers;
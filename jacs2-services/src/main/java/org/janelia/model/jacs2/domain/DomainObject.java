@@ -27,6 +27,8 @@ public interface DomainObject extends BaseEntity, HasIdentifier {
     void setLockKey(String lockKey);
     Date getLockTimestamp();
     void setLockTimestamp(Date lockTimestamp);
+    Number getLockHolderId();
+    void setLockHolderId(Number lockHolderId);
     Set<String> getReaders();
     void setReaders(Set<String> readers);
     void addReader(String reader);
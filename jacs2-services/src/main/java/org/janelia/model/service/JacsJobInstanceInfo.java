@@ -38,6 +38,10 @@ public class JacsJobInstanceInfo implements BaseEntity, HasIdentifier {
     private Long maxMemBytes;
     private Integer exitCode;
     private String exitReason;
+    private String serviceName;
+    private Long inputSize;
+    private Long predictedRunSecs;
+    private Long predictedMaxMemBytes;
 
     @Override
     public Number getId() {
@@ -270,6 +274,50 @@ public class JacsJobInstanceInfo implements BaseEntity, HasIdentifier {
         this.exitReason = exitReason;
     }
 
+    /**
+     * Name of the service which invoked this job.
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public void setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Size of the input processed by this job, if the service knows it.
+     */
+    public Long getInputSize() {
+        return inputSize;
+    }
+
+    public void setInputSize(Long inputSize) {
+        this.inputSize = inputSize;
+    }
+
+    /**
+     * Run time predicted from previous jobs of the same service when the job was submitted.
+     */
+    public Long getPredictedRunSecs() {
+        return predictedRunSecs;
+    }
+
+    public void setPredictedRunSecs(Long predictedRunSecs) {
+        this.predictedRunSecs = predictedRunSecs;
+    }
+
+    /**
+     * Max memory predicted from previous jobs of the same service when the job was submitted.
+     */
+    public Long getPredictedMaxMemBytes() {
+        return predictedMaxMemBytes;
+    }
+
+    public void setPredictedMaxMemBytes(Long predictedMaxMemBytes) {
+        this.predictedMaxMemBytes = predictedMaxMemBytes;
+    }
+
     @Override
     public String toString() {
         return ToStringBuilder.reflectionToString(this);
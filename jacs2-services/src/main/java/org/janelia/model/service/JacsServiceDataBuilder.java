@@ -138,6 +138,11 @@ public class JacsServiceDataBuilder {
         return this;
     }
 
+    public JacsServiceDataBuilder addTags(List<String> tags) {
+        serviceData.getTags().addAll(tags);
+        return this;
+    }
+
     public JacsServiceDataBuilder registerProcessingNotification(RegisteredJacsNotification notification) {
         serviceData.setProcessingNotification(notification);
         return this;
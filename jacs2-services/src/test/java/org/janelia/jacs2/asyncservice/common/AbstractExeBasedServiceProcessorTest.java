@@ -15,8 +15,12 @@ import org.slf4j.Logger;
 
 import javax.enterprise.inject.Instance;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyMap;
@@ -54,18 +58,51 @@ public class AbstractExeBasedServiceProcessorTest {
         }
     }
 
+    private static class TestBatchedExternalProcessor extends TestExternalProcessor {
+
+        public TestBatchedExternalProcessor(ServiceComputationFactory computationFactory,
+                                            JacsServiceDataPersistence jacsServiceDataPersistence,
+                                            Instance<ExternalProcessRunner> serviceRunners,
+                                            String defaultWorkingDir,
+                                            JacsJobInstanceInfoDao jacsJobInstanceInfoDao,
+                                            ApplicationConfig applicationConfig,
+                                            Logger logger) {
+            super(computationFactory, jacsServiceDataPersistence, serviceRunners, defaultWorkingDir, jacsJobInstanceInfoDao, applicationConfig, logger);
+        }
+
+        @Override
+        protected List<ExternalCodeBlock> prepareConfigurationFiles(JacsServiceData jacsServiceData) {
+            return IntStream.rangeClosed(1, 5)
+                    .mapToObj(i -> ExternalCodeBlock.builder()
+                            .add("in" + i)
+                            .add("out" + i)
+                            .build())
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        protected boolean supportsBatchedConfigurations() {
+            return true;
+        }
+    }
+
     private JacsServiceDataPersistence jacsServiceDataPersistence;
+    private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private Instance<ExternalProcessRunner> serviceRunners;
+    private ServiceComputationFactory serviceComputationFactory;
+    private Logger logger;
     private AbstractExeBasedServiceProcessor<Void> testProcessor;
     private ExternalProcessRunner processRunner;
 
     @Before
     public void setUp() {
-        Logger logger = mock(Logger.class);
-        ServiceComputationFactory serviceComputationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
+        logger = mock(Logger.class);
+        serviceComputationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
         jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
-        JacsJobInstanceInfoDao jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
+        jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
         @SuppressWarnings("unchecked")
         Instance<ExternalProcessRunner> serviceRunners = mock(Instance.class);
+        this.serviceRunners = serviceRunners;
         processRunner = mock(ExternalProcessRunner.class);
         when(processRunner.supports(ProcessingLocation.LOCAL)).thenReturn(true);
         when(serviceRunners.iterator()).thenReturn(ImmutableList.of(processRunner).iterator());
@@ -161,4 +198,35 @@ public class AbstractExeBasedServiceProcessorTest {
         verify(failure).accept(any());
         verify(successful, never()).accept(any());
     }
+
+    @Test
+    public void processingBatchedConfigurations() {
+        ApplicationConfig applicationConfig = new ApplicationConfigProvider().fromMap(
+                ImmutableMap.of(
+                        "Executables.ModuleBase", TEST_EXE_DIR,
+                        "service.test.batchRuntimeInSeconds", "20",
+                        "service.test.configRuntimeInSeconds", "10"))
+                .build();
+        AbstractExeBasedServiceProcessor<Void> batchedProcessor = new TestBatchedExternalProcessor(
+                serviceComputationFactory,
+                jacsServiceDataPersistence,
+                serviceRunners,
+                TEST_WORKING_DIR,
+                jacsJobInstanceInfoDao,
+                applicationConfig,
+                logger);
+        JacsServiceData testServiceData = new JacsServiceData();
+        testServiceData.setId(TEST_SERVICE_ID);
+        testServiceData.setName("test");
+        testServiceData.setProcessingLocation(ProcessingLocation.LOCAL);
+
+        List<ExternalCodeBlock> batchedConfigs = batchedProcessor.batchConfigurations(testServiceData, batchedProcessor.prepareConfigurationFiles(testServiceData));
+        assertEquals(3, batchedConfigs.size());
+        assertEquals("in1\nout1\nin2\nout2\n", batchedConfigs.get(0).toString());
+        assertEquals("in3\nout3\nin4\nout4\n", batchedConfigs.get(1).toString());
+        assertEquals("in5\nout5\n", batchedConfigs.get(2).toString());
+
+        testServiceData.setName("unbatched");
+        assertEquals(5, batchedProcessor.batchConfigurations(testServiceData, batchedProcessor.prepareConfigurationFiles(testServiceData)).size());
+    }
 }
@@ -1,17 +1,30 @@
 package org.janelia.jacs2.asyncservice.common;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import org.hamcrest.MatcherAssert;
+import org.janelia.model.service.JacsServiceData;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
 import static org.hamcrest.Matchers.equalTo;
 import static org.mockito.Mockito.mock;
 
 public class DefaultServiceErrorCheckerTest {
 
+    @Rule
+    public TemporaryFolder testDirectory = new TemporaryFolder();
+
     private DefaultServiceErrorChecker serviceErrorChecker;
 
     @Before
@@ -34,4 +47,46 @@ public class DefaultServiceErrorCheckerTest {
         testData.forEach((l, r) -> MatcherAssert.assertThat(serviceErrorChecker.hasErrors(l), equalTo(r)));
     }
 
+    @Test
+    public void collectErrorsFromOutputFiles() throws IOException {
+        Path outputDir = testDirectory.newFolder("out").toPath();
+        Path errorDir = testDirectory.newFolder("err").toPath();
+        Files.write(outputDir.resolve("job.out"), "line 1\nan error here\r\n\nline 4\nlast exception".getBytes());
+        Files.write(errorDir.resolve("job.err1"), "Segmentation fault\n".getBytes());
+        Files.write(errorDir.resolve("job.err2"), "ignore this error for stderr here\nok\n".getBytes());
+        List<String> errors = serviceErrorChecker.collectErrors(createTestService(outputDir, errorDir));
+        MatcherAssert.assertThat(errors, equalTo(ImmutableList.of("an error here", "last exception", "Segmentation fault")));
+    }
+
+    @Test
+    public void scanOutputIncrementally() throws IOException {
+        Path outputDir = testDirectory.newFolder("out").toPath();
+        Path errorDir = testDirectory.newFolder("err").toPath();
+        Path outputFile = outputDir.resolve("job.out");
+        JacsServiceData testService = createTestService(outputDir, errorDir);
+
+        Files.write(outputFile, "first error\nsecond err".getBytes());
+        serviceErrorChecker.scanNewOutput(testService);
+        Files.write(outputFile, "or\nthird error".getBytes(), StandardOpenOption.APPEND);
+        List<String> errors = serviceErrorChecker.collectErrors(testService);
+        MatcherAssert.assertThat(errors, equalTo(ImmutableList.of("first error", "second error", "third error")));
+    }
+
+    @Test
+    public void stopScanningWhenMaxErrorsFound() throws IOException {
+        Path outputDir = testDirectory.newFolder("out").toPath();
+        Path errorDir = testDirectory.newFolder("err").toPath();
+        Files.write(outputDir.resolve("job.out"), "error 1\nerror 2\nerror 3\nerror 4\n".getBytes());
+        DefaultServiceErrorChecker limitedErrorChecker = new DefaultServiceErrorChecker(mock(Logger.class), 2);
+        List<String> errors = limitedErrorChecker.collectErrors(createTestService(outputDir, errorDir));
+        MatcherAssert.assertThat(errors, equalTo(ImmutableList.of("error 1", "error 2")));
+    }
+
+    private JacsServiceData createTestService(Path outputDir, Path errorDir) {
+        JacsServiceData testService = new JacsServiceData();
+        testService.setOutputPath(outputDir.toString());
+        testService.setErrorPath(errorDir.toString());
+        return testService;
+    }
+
 }
@@ -0,0 +1,81 @@
+package org.janelia.jacs2.asyncservice.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.service.JacsServiceData;
+import org.slf4j.Logger;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Writes the configurations of a service the same way the process runners do and runs the service script
+ * with bash on each configuration, so that a test can check what the generated code really does.
+ */
+public class ExternalScriptTestHelper {
+
+    public static class ScriptResult {
+        public final int exitCode;
+        public final String output;
+        public final String errors;
+
+        ScriptResult(int exitCode, String output, String errors) {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.errors = errors;
+        }
+    }
+
+    public static List<File> createConfigFiles(JacsServiceData serviceData, List<ExternalCodeBlock> externalConfigs, Path serviceDir) {
+        AbstractExternalProcessRunner processRunner = new AbstractExternalProcessRunner(mock(JacsServiceDataPersistence.class), mock(Logger.class)) {
+            @Override
+            public ExeJobHandler runCmds(ExternalCodeBlock externalCode, List<ExternalCodeBlock> externalConfig, Map<String, String> env,
+                                         JacsServiceFolder scriptServiceFolder, Path processDir, JacsServiceData serviceContext) {
+                throw new UnsupportedOperationException();
+            }
+        };
+        return processRunner.createConfigFiles(externalConfigs, new JacsServiceFolder(serviceDir, null, serviceData), JacsServiceFolder.SERVICE_CONFIG_DIR);
+    }
+
+    /**
+     * Run the script with the config file as its input the same way the process runners do.
+     */
+    public static ScriptResult runScript(ExternalCodeBlock script, File configFile, Path workingDir) throws IOException, InterruptedException {
+        Path scriptFile = Files.createTempFile(workingDir, "script", ".sh");
+        Files.write(scriptFile, ("#!/bin/bash\n" + script.toString()).getBytes(StandardCharsets.UTF_8));
+        Path outputFile = workingDir.resolve(scriptFile.getFileName() + ".out");
+        Path errorFile = workingDir.resolve(scriptFile.getFileName() + ".err");
+        Process process = new ProcessBuilder("bash", scriptFile.toString())
+                .directory(workingDir.toFile())
+                .redirectInput(configFile)
+                .redirectOutput(outputFile.toFile())
+                .redirectError(errorFile.toFile())
+                .start();
+        int exitCode = process.waitFor();
+        return new ScriptResult(exitCode,
+                new String(Files.readAllBytes(outputFile), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(errorFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Create an executable stub that appends its arguments to a log file and fails if any argument is in failingArgs.
+     */
+    public static Path createStubExecutable(Path stubPath, Path argsLog, String... failingArgs) throws IOException {
+        StringBuilder stubCode = new StringBuilder("#!/bin/bash\n")
+                .append("echo \"$@\" >> ").append(argsLog).append('\n');
+        for (String failingArg : failingArgs) {
+            stubCode.append("for a in \"$@\"; do [ \"$a\" == \"").append(failingArg).append("\" ] && exit 1; done\n");
+        }
+        stubCode.append("exit 0\n");
+        Files.createDirectories(stubPath.getParent());
+        Files.write(stubPath, stubCode.toString().getBytes(StandardCharsets.UTF_8));
+        stubPath.toFile().setExecutable(true);
+        return stubPath;
+    }
+}
@@ -0,0 +1,180 @@
+package org.janelia.jacs2.asyncservice.common.cluster;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.janelia.jacs2.cdi.ApplicationConfigProvider;
+import org.janelia.jacs2.config.ApplicationConfig;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsJobInstanceInfo;
+import org.janelia.model.service.JacsServiceData;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JobResourcePredictorTest {
+
+    private static final String TEST_SERVICE = "testService";
+    private static final long GB = 1024L * 1024L * 1024L;
+
+    private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private JobResourcePredictor jobResourcePredictor;
+
+    @Before
+    public void setUp() {
+        jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
+        ApplicationConfig applicationConfig = new ApplicationConfigProvider()
+                .fromMap(ImmutableMap.of(
+                        "service." + TEST_SERVICE + ".predictResources", "true",
+                        "service.resourcePrediction.minSamples", "10"
+                ))
+                .build();
+        jobResourcePredictor = new JobResourcePredictor(jacsJobInstanceInfoDao, applicationConfig);
+    }
+
+    @Test
+    public void noPredictionWithoutEnoughSamples() {
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(createJobInstances(5, i -> null, i -> 10L, i -> GB));
+        assertFalse(jobResourcePredictor.predict(TEST_SERVICE, null).isPresent());
+    }
+
+    @Test
+    public void predictPercentileIfInputSizeIsNotKnown() {
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(createJobInstances(20, i -> null, i -> 10L * i, i -> null));
+        JobResourcePredictor.ResourcePrediction prediction = jobResourcePredictor.predict(TEST_SERVICE, 1000L).orElse(null);
+        assertEquals(Long.valueOf(190), prediction.getRunSecs());
+        assertNull(prediction.getMaxMemBytes());
+        assertEquals(20, prediction.getSamples());
+    }
+
+    @Test
+    public void predictFromInputSize() {
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(createJobInstances(20, i -> 1000L * i, i -> 5 + 10L * i, i -> GB + 1000L * i));
+        JobResourcePredictor.ResourcePrediction prediction = jobResourcePredictor.predict(TEST_SERVICE, 50000L).orElse(null);
+        assertEquals(Long.valueOf(505), prediction.getRunSecs());
+        assertEquals(Long.valueOf(GB + 50000L), prediction.getMaxMemBytes());
+    }
+
+    @Test
+    public void recommendResourcesFillsTheMemoryAndDurationLimitThatWereNotSet() {
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(createJobInstances(10, i -> null, i -> 100L, i -> 2 * GB));
+        JacsServiceData testService = new JacsServiceData();
+        testService.setName(TEST_SERVICE);
+        testService.setResources(new HashMap<>());
+        jobResourcePredictor.recommendResources(testService, null);
+        assertEquals("3", testService.getResources().get("memInGB"));
+        assertEquals("200", testService.getResources().get("hardGridJobDurationInSeconds"));
+
+        JacsJobInstanceInfo jobInstanceInfo = new JacsJobInstanceInfo();
+        jobResourcePredictor.recordPredictions(testService, jobInstanceInfo);
+        assertEquals(Long.valueOf(100), jobInstanceInfo.getPredictedRunSecs());
+        assertEquals(Long.valueOf(2 * GB), jobInstanceInfo.getPredictedMaxMemBytes());
+    }
+
+    @Test
+    public void recommendResourcesDoesNotLowerTheRequestedMemoryAndDurationLimit() {
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(createJobInstances(10, i -> null, i -> 100L, i -> 2 * GB));
+        JacsServiceData testService = new JacsServiceData();
+        testService.setName(TEST_SERVICE);
+        testService.setResources(new HashMap<>(ImmutableMap.of("memInGB", "16", "hardGridJobDurationInSeconds", "3600")));
+        jobResourcePredictor.recommendResources(testService, null);
+        assertEquals("16", testService.getResources().get("memInGB"));
+        assertEquals("3600", testService.getResources().get("hardGridJobDurationInSeconds"));
+    }
+
+    @Test
+    public void recommendMoreResourcesThanTheFailedAttemptsUsed() {
+        List<JacsJobInstanceInfo> jobInstances = createJobInstances(10, i -> null, i -> 100L, i -> 2 * GB);
+        // the previous attempt of the retried service was killed after it used more than it was predicted
+        JacsJobInstanceInfo failedAttempt = createJobInstance(null, 200L, 4 * GB);
+        failedAttempt.setServiceDataId(1L);
+        failedAttempt.setExitCode(137);
+        // failed jobs of other services do not change the recommendation
+        JacsJobInstanceInfo otherFailedJob = createJobInstance(null, 1000L, 10 * GB);
+        otherFailedJob.setServiceDataId(2L);
+        otherFailedJob.setExitCode(1);
+        jobInstances.add(0, failedAttempt);
+        jobInstances.add(1, otherFailedJob);
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(jobInstances);
+        JacsServiceData testService = new JacsServiceData();
+        testService.setId(1L);
+        testService.setName(TEST_SERVICE);
+        testService.setResources(new HashMap<>());
+        jobResourcePredictor.recommendResources(testService, null);
+        assertEquals("6", testService.getResources().get("memInGB"));
+        assertEquals("300", testService.getResources().get("hardGridJobDurationInSeconds"));
+        // the failed jobs are not used for the prediction itself
+        assertEquals(String.valueOf(2 * GB), testService.getResources().get("predictedMaxMemBytes"));
+        assertEquals("100", testService.getResources().get("predictedRunSecs"));
+    }
+
+    @Test
+    public void reportPredictionErrorsPerPeriod() {
+        long day = TimeUnit.DAYS.toMillis(1);
+        JacsJobInstanceInfo notPredicted = createJobInstance(null, 100L, GB);
+        notPredicted.setFinishTime(new Date(day));
+        JacsJobInstanceInfo day1Job1 = createJobInstance(null, 100L, GB);
+        day1Job1.setFinishTime(new Date(day + 10));
+        day1Job1.setPredictedRunSecs(150L);
+        day1Job1.setPredictedMaxMemBytes(GB);
+        JacsJobInstanceInfo day1Job2 = createJobInstance(null, 100L, null);
+        day1Job2.setFinishTime(new Date(day + 20));
+        day1Job2.setPredictedRunSecs(50L);
+        JacsJobInstanceInfo day2Job = createJobInstance(null, 100L, GB);
+        day2Job.setFinishTime(new Date(2 * day + 10));
+        day2Job.setPredictedRunSecs(110L);
+        when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq(TEST_SERVICE), any(), anyInt()))
+                .thenReturn(ImmutableList.of(day2Job, day1Job2, day1Job1, notPredicted));
+
+        List<JobResourcePredictor.PredictionErrorReportEntry> report = jobResourcePredictor.getPredictionErrorReport(TEST_SERVICE, null, 1);
+        assertEquals(2, report.size());
+        assertEquals(new Date(day), report.get(0).getPeriodStart());
+        assertEquals(2, report.get(0).getJobs());
+        assertEquals(50., report.get(0).getRuntimeErrorPercent(), 0.001);
+        assertEquals(1, report.get(0).getUnderPredictedRuntimeJobs());
+        assertEquals(0., report.get(0).getMemoryErrorPercent(), 0.001);
+        assertEquals(new Date(2 * day), report.get(1).getPeriodStart());
+        assertEquals(10., report.get(1).getRuntimeErrorPercent(), 0.001);
+        assertNull(report.get(1).getMemoryErrorPercent());
+    }
+
+    private List<JacsJobInstanceInfo> createJobInstances(int n,
+                                                         IntFunction<Long> inputSize,
+                                                         IntFunction<Long> runSecs,
+                                                         IntFunction<Long> maxMemBytes) {
+        return IntStream.rangeClosed(1, n)
+                .mapToObj(i -> createJobInstance(inputSize.apply(i), runSecs.apply(i), maxMemBytes.apply(i)))
+                .collect(Collectors.toList());
+    }
+
+    private JacsJobInstanceInfo createJobInstance(Long inputSize, Long runSecs, Long maxMemBytes) {
+        JacsJobInstanceInfo jobInstanceInfo = new JacsJobInstanceInfo();
+        jobInstanceInfo.setServiceName(TEST_SERVICE);
+        jobInstanceInfo.setInputSize(inputSize);
+        jobInstanceInfo.setRunSecs(runSecs);
+        jobInstanceInfo.setMaxMemBytes(maxMemBytes);
+        jobInstanceInfo.setExitCode(0);
+        return jobInstanceInfo;
+    }
+}
@@ -0,0 +1,170 @@
+package org.janelia.jacs2.asyncservice.common.cluster;
+
+import com.google.common.collect.ImmutableList;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobSyncApi;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsJobInstanceInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LsfJobPackerTest {
+
+    private static final String TEST_JOB_NAME = "jacs_testService";
+    private static final Long TEST_JOB_ID = 10L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private JobSyncApi jobSyncApi;
+    private JobManager jobMgr;
+    private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private LsfJobPacker jobPacker;
+
+    @Before
+    public void setUp() {
+        jobSyncApi = mock(JobSyncApi.class);
+        jobMgr = new JobManager(jobSyncApi);
+        MonitoredJobManager monitoredJobManager = mock(MonitoredJobManager.class);
+        when(monitoredJobManager.getJobMgr()).thenReturn(jobMgr);
+        jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
+        Logger logger = mock(Logger.class);
+        jobPacker = new LsfJobPacker(monitoredJobManager, jacsJobInstanceInfoDao, 3600, 5, 600, 20, logger);
+    }
+
+    @Test
+    public void packCompatibleServicesAndMapTaskResultsBackToServices() throws Exception {
+        when(jacsJobInstanceInfoDao.findRecentJobInstances(eq(TEST_JOB_NAME), anyInt()))
+                .thenReturn(ImmutableList.of(createJobInstance(150L), createJobInstance(250L)));
+        when(jobSyncApi.submitJobs(any(JobTemplate.class), eq(1L), eq(2L))).thenReturn(createJobInfo(null, JobStatus.PENDING));
+
+        PackedLsfJobHandler s1Handler = new PackedLsfJobHandler("s1", jobPacker, createServiceJobTemplate("s1"), 2);
+        PackedLsfJobHandler s2Handler = new PackedLsfJobHandler("s2", jobPacker, createServiceJobTemplate("s2"), 3);
+        s1Handler.start();
+        assertFalse(s1Handler.isDone());
+        s2Handler.start();
+
+        // the pack is full after the second service so it is submitted right away as 2 elements running up to 3 tasks each
+        ArgumentCaptor<JobTemplate> packTemplateCaptor = ArgumentCaptor.forClass(JobTemplate.class);
+        verify(jobSyncApi, times(1)).submitJobs(packTemplateCaptor.capture(), eq(1L), eq(2L));
+        JobTemplate packTemplate = packTemplateCaptor.getValue();
+        assertEquals(TEST_JOB_NAME, packTemplate.getJobName());
+        assertThat(packTemplate.getNativeSpecification(), hasItem("-W 30"));
+        String packScript = new String(Files.readAllBytes(testFolder.getRoot().toPath().resolve(packTemplate.getRemoteCommand())), StandardCharsets.UTF_8);
+        assertThat(packScript, containsString("s1Cmd.sh.2.status"));
+        assertThat(packScript, containsString("s2Configuration.3"));
+        assertEquals(5, packScript.split("        run_task ").length - 1);
+
+        writeTaskStatus("s1", 1, "0 100 150");
+        writeTaskStatus("s1", 2, "0 150 200");
+        writeTaskStatus("s2", 1, "0 200 230");
+        writeTaskStatus("s2", 2, "0 100 140");
+        assertTrue(s1Handler.isDone());
+        assertFalse(s1Handler.hasFailed());
+        assertFalse(s2Handler.isDone());
+
+        // the second element exits before the last task of the second service records its status
+        when(jobSyncApi.getJobInfo()).thenReturn(ImmutableList.of(createJobInfo(1L, JobStatus.DONE), createJobInfo(2L, JobStatus.EXIT)));
+        jobMgr.checkJobs();
+        assertTrue(s2Handler.isDone());
+        assertTrue(s2Handler.hasFailed());
+
+        Collection<JacsJobInstanceInfo> s1JobInstances = s1Handler.getJobInstances();
+        assertThat(s1JobInstances, hasSize(2));
+        s1JobInstances.forEach(ji -> {
+            assertEquals(TEST_JOB_NAME, ji.getName());
+            assertEquals(Long.valueOf(50), ji.getRunSecs());
+            assertEquals(Long.valueOf(1), ji.getArrayIndex());
+        });
+    }
+
+    @Test
+    public void terminateOnlyRemovesTheServiceTasksFromAPendingPack() throws Exception {
+        when(jacsJobInstanceInfoDao.findRecentJobInstances(eq(TEST_JOB_NAME), anyInt())).thenReturn(Collections.emptyList());
+        when(jobSyncApi.submitJobs(any(JobTemplate.class), eq(1L), eq(5L))).thenReturn(createJobInfo(null, JobStatus.PENDING));
+
+        PackedLsfJobHandler s1Handler = new PackedLsfJobHandler("s1", jobPacker, createServiceJobTemplate("s1"), 2);
+        PackedLsfJobHandler s2Handler = new PackedLsfJobHandler("s2", jobPacker, createServiceJobTemplate("s2"), 2);
+        PackedLsfJobHandler s3Handler = new PackedLsfJobHandler("s3", jobPacker, createServiceJobTemplate("s3"), 3);
+        s1Handler.start();
+        s2Handler.start();
+        s2Handler.terminate();
+        s3Handler.start();
+
+        // without any history each task runs in its own element
+        ArgumentCaptor<JobTemplate> packTemplateCaptor = ArgumentCaptor.forClass(JobTemplate.class);
+        verify(jobSyncApi, times(1)).submitJobs(packTemplateCaptor.capture(), eq(1L), eq(5L));
+        JobTemplate packTemplate = packTemplateCaptor.getValue();
+        assertThat(packTemplate.getNativeSpecification(), hasItem("-W 10"));
+        String packScript = new String(Files.readAllBytes(testFolder.getRoot().toPath().resolve(packTemplate.getRemoteCommand())), StandardCharsets.UTF_8);
+        assertThat(packScript, not(containsString("s2Cmd.sh")));
+        assertTrue(s2Handler.isDone());
+        assertFalse(s1Handler.isDone());
+        assertFalse(s3Handler.isDone());
+    }
+
+    private JobTemplate createServiceJobTemplate(String serviceName) throws IOException {
+        Path serviceDir = testFolder.getRoot().toPath();
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName(TEST_JOB_NAME);
+        jt.setArgs(Collections.emptyList());
+        jt.setWorkingDir(serviceDir.toString());
+        jt.setRemoteCommand(Files.createFile(serviceDir.resolve(serviceName + "Cmd.sh")).toString());
+        jt.setInputPath(serviceDir.resolve(serviceName + "Configuration.#").toString());
+        jt.setOutputPath(serviceDir.resolve(serviceName + "Output.#").toString());
+        jt.setErrorPath(serviceDir.resolve(serviceName + "Error.#").toString());
+        jt.setNativeSpecification(ImmutableList.of("-W 10"));
+        return jt;
+    }
+
+    private void writeTaskStatus(String serviceName, int index, String status) throws IOException {
+        Files.write(testFolder.getRoot().toPath().resolve(serviceName + "Cmd.sh." + index + ".status"), status.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private JacsJobInstanceInfo createJobInstance(Long runSecs) {
+        JacsJobInstanceInfo jobInstanceInfo = new JacsJobInstanceInfo();
+        jobInstanceInfo.setName(TEST_JOB_NAME);
+        jobInstanceInfo.setRunSecs(runSecs);
+        return jobInstanceInfo;
+    }
+
+    private JobInfo createJobInfo(Long arrayIndex, JobStatus status) {
+        JobInfo jobInfo = new JobInfo();
+        jobInfo.setJobId(TEST_JOB_ID);
+        jobInfo.setArrayIndex(arrayIndex);
+        jobInfo.setName(TEST_JOB_NAME);
+        jobInfo.setStatus(status);
+        jobInfo.setExitCode(status == JobStatus.EXIT ? 1 : 0);
+        return jobInfo;
+    }
+}
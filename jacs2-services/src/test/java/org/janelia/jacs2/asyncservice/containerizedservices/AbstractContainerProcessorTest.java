@@ -48,6 +48,7 @@ public class AbstractContainerProcessorTest {
                 TEST_WORKING_DIR,
                 "singularity",
                 TEST_CONTAINER_IMAGES_DIR,
+                new SingularityImageCache(0, logger),
                 jacsJobInstanceInfoDao,
                 applicationConfig,
                 logger);
@@ -106,7 +107,11 @@ public class AbstractContainerProcessorTest {
             ContainerImage containerImage = SingularityContainerHelper.getLocalContainerImageMapper().apply(testArgs, TEST_CONTAINER_IMAGES_DIR);
             assertEquals("Expected result for " + td.inputArgs + " - " + td.expectedResult, td.expectedResult, containerImage.getLocalImagePath());
             testContainerProcessor.createScript(testServiceData, testArgs, codeBlock.getCodeWriter());
-            assertEquals("singularity pull --name " + containerImage.imageName + " " + testArgs.containerLocation, codeBlock.toString().trim());
+            String tempImageName = containerImage.imageName + "." + testServiceData.getId() + ".tmp";
+            assertEquals("rm -f " + tempImageName + "\n" +
+                            "singularity pull --name " + tempImageName + " " + testArgs.containerLocation +
+                            " && mv -f " + tempImageName + " " + containerImage.imageName,
+                    codeBlock.toString().trim());
         }
     }
 
@@ -0,0 +1,76 @@
+package org.janelia.jacs2.asyncservice.containerizedservices;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class SingularityImageCacheTest {
+
+    private static final long ONE_GB = 1024L * 1024L * 1024L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private SingularityImageCache imageCache;
+
+    @Before
+    public void setUp() {
+        imageCache = new SingularityImageCache(1, mock(Logger.class));
+    }
+
+    @Test
+    public void concurrentPullsOfTheSameImageAreCoalesced() throws IOException {
+        Path imagePath = testFolder.getRoot().toPath().resolve("image-1.0.simg");
+        assertFalse(imageCache.lookup(imagePath));
+        assertTrue(imageCache.startPull(imagePath, 1L));
+        assertTrue(imageCache.startPull(imagePath, 1L));
+        assertFalse(imageCache.startPull(imagePath, 2L));
+        assertTrue(imageCache.isPullPending(imagePath));
+        // only the owner can end the pull
+        imageCache.endPull(imagePath, 2L);
+        assertTrue(imageCache.isPullPending(imagePath));
+        Files.createFile(imagePath);
+        imageCache.endPull(imagePath, 1L);
+        assertFalse(imageCache.isPullPending(imagePath));
+        assertTrue(imageCache.lookup(imagePath));
+    }
+
+    @Test
+    public void leastRecentlyUsedImagesAreEvicted() throws IOException {
+        Path oldImage = createImage("old.simg", 1000L);
+        Path usedImage = createImage("used.simg", 2000L);
+        Path newImage = createImage("new.simg", 3000L);
+        Path tempImage = testFolder.getRoot().toPath().resolve(imageCache.getTempImageName("other.simg", 4L));
+        Files.createFile(tempImage);
+        // using the oldest image makes it the most recently used
+        assertTrue(imageCache.lookup(oldImage));
+        assertTrue(imageCache.startPull(newImage, 3L));
+        imageCache.endPull(newImage, 3L);
+        assertTrue(Files.exists(oldImage));
+        assertFalse(Files.exists(usedImage));
+        assertTrue(Files.exists(newImage));
+        assertTrue(Files.exists(tempImage));
+    }
+
+    private Path createImage(String name, long lastModified) throws IOException {
+        Path imagePath = testFolder.getRoot().toPath().resolve(name);
+        try (RandomAccessFile imageFile = new RandomAccessFile(imagePath.toFile(), "rw")) {
+            // sparse file so that the test does not actually use the disk space
+            imageFile.setLength(ONE_GB / 2);
+        }
+        Files.setLastModifiedTime(imagePath, FileTime.fromMillis(lastModified));
+        return imagePath;
+    }
+}
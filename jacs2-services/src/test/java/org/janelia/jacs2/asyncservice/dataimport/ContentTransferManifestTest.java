@@ -0,0 +1,78 @@
+package org.janelia.jacs2.asyncservice.dataimport;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.janelia.jacsstorage.clients.api.StorageEntryInfo;
+import org.janelia.jacsstorage.clients.api.StoragePathURI;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentTransferManifestTest {
+
+    private static final String TEST_STORAGE_URL = "http://storage:8880/jacsstorage/api/agent_storage/storage_id/1";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path manifestPath;
+
+    @Before
+    public void setUp() {
+        manifestPath = testFolder.getRoot().toPath().resolve("service/transfers.manifest");
+    }
+
+    @Test
+    public void reloadCompletedTransfersOfUnchangedSources() {
+        ContentTransferManifest transferManifest = ContentTransferManifest.load(manifestPath);
+        transferManifest.recordTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L, createStorageEntry("f1.png"));
+        transferManifest.recordTransfer(TEST_STORAGE_URL + "/f2.png", 20L, null, createStorageEntry("f2.png"));
+
+        ContentTransferManifest reloadedManifest = ContentTransferManifest.load(manifestPath);
+        assertEquals(TEST_STORAGE_URL + "/f1.png",
+                reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L).get().getEntryURL());
+        assertEquals(TEST_STORAGE_URL + "/f2.png",
+                reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f2.png", 20L, null).get().getEntryURL());
+        // a changed source must be transferred again
+        assertFalse(reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 11L, 100L).isPresent());
+        assertFalse(reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 101L).isPresent());
+        assertFalse(reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f3.png", 10L, 100L).isPresent());
+    }
+
+    @Test
+    public void ignoreIncompleteEntries() throws Exception {
+        ContentTransferManifest transferManifest = ContentTransferManifest.load(manifestPath);
+        transferManifest.recordTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L, createStorageEntry("f1.png"));
+        // an entry interrupted while it was written
+        Files.write(manifestPath, ("{\"target\":\"" + TEST_STORAGE_URL + "/f2.png\",\"size\":2").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        ContentTransferManifest reloadedManifest = ContentTransferManifest.load(manifestPath);
+        assertTrue(reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L).isPresent());
+        assertFalse(reloadedManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f2.png", 20L, null).isPresent());
+    }
+
+    @Test
+    public void clearForgetsAllTransfers() {
+        ContentTransferManifest transferManifest = ContentTransferManifest.load(manifestPath);
+        transferManifest.recordTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L, createStorageEntry("f1.png"));
+
+        transferManifest.clear();
+
+        assertFalse(transferManifest.getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L).isPresent());
+        assertFalse(Files.exists(manifestPath));
+        assertFalse(ContentTransferManifest.load(manifestPath).getCompletedTransfer(TEST_STORAGE_URL + "/f1.png", 10L, 100L).isPresent());
+    }
+
+    private StorageEntryInfo createStorageEntry(String entryRelativePath) {
+        return new StorageEntryInfo("1", TEST_STORAGE_URL, TEST_STORAGE_URL + "/" + entryRelativePath, "/storage",
+                new StoragePathURI("/storage"), entryRelativePath, 10L, false, null);
+    }
+}
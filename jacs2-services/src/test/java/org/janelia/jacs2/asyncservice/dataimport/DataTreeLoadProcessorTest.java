@@ -13,6 +13,7 @@ import org.janelia.jacs2.asyncservice.common.ServiceProcessorTestHelper;
 import org.janelia.jacs2.asyncservice.common.ServiceResultHandler;
 import org.janelia.jacs2.asyncservice.imageservices.MIPsAndMoviesResult;
 import org.janelia.jacs2.asyncservice.imageservices.MultiInputMIPsAndMoviesProcessor;
+import org.janelia.jacs2.asyncservice.utils.FileUtils;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.jacs2.dataservice.storage.StorageService;
 import org.janelia.jacs2.dataservice.workspace.FolderService;
@@ -26,6 +27,7 @@ import org.janelia.model.domain.workspace.TreeNode;
 import org.janelia.model.service.JacsServiceData;
 import org.janelia.model.service.JacsServiceDataBuilder;
 import org.janelia.model.service.JacsServiceState;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -39,6 +41,7 @@ import org.slf4j.Logger;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
@@ -122,9 +125,19 @@ public class DataTreeLoadProcessorTest {
                 mipsConverterProcessor,
                 storageService,
                 folderService,
+                8,
                 logger);
     }
 
+    @After
+    public void tearDown() throws IOException {
+        // Files may be mocked so check the test workspace, which contains the transfer manifest, using java.io
+        File testWorkspace = new File(TEST_LOCAL_WORKSPACE);
+        if (testWorkspace.exists()) {
+            FileUtils.deletePath(testWorkspace.toPath());
+        }
+    }
+
     @Test
     public void processGifsAndPngs() {
         Long serviceId = 1L;
@@ -175,7 +188,7 @@ public class DataTreeLoadProcessorTest {
                             argThat(new ListArgMatcher<>(
                                     ImmutableList.of(
                                             new ServiceArgMatcher(new ServiceArg("-inputFiles", "")),
-                                            new ServiceArgMatcher(new ServiceArg("-outputDir", basePath.toString())),
+                                            new ServiceArgMatcher(new ServiceArg("-outputDirs", "")),
                                             new ServiceArgMatcher(new ServiceArg("-chanSpec", "r")),
                                             new ServiceArgMatcher(new ServiceArg("-colorSpec", "")),
                                             new ServiceArgMatcher(new ServiceArg("-options", "mips:movies"))
@@ -262,11 +275,14 @@ public class DataTreeLoadProcessorTest {
 
         Path basePath = Paths.get(TEST_LOCAL_WORKSPACE + "/" + serviceId);
 
-        Path f1Path = basePath.resolve("mips/f1.lsm");
-        Path f2Path = basePath.resolve("mips/f2.v3draw");
+        Path f1MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f1.lsm");
+        Path f2MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f2.v3draw");
 
-        Path f1PngPath = basePath.resolve("mips/f1_signal.png");
-        Path f2PngPath = basePath.resolve("mips/f2_signal.png");
+        Path f1Path = f1MIPsDir.resolve("f1.lsm");
+        Path f2Path = f2MIPsDir.resolve("f2.v3draw");
+
+        Path f1PngPath = f1MIPsDir.resolve("f1_signal.png");
+        Path f2PngPath = f2MIPsDir.resolve("f2_signal.png");
 
         @SuppressWarnings("unchecked")
         ServiceResultHandler<List<MIPsAndMoviesResult>> mipsConverterResultHandler = mock(ServiceResultHandler.class);
@@ -319,7 +335,7 @@ public class DataTreeLoadProcessorTest {
                     argThat(new ListArgMatcher<>(
                             ImmutableList.of(
                                     new ServiceArgMatcher(new ServiceArg("-inputFiles", f1Path + "," + f2Path)),
-                                    new ServiceArgMatcher(new ServiceArg("-outputDir", basePath.resolve("mips").toString())),
+                                    new ServiceArgMatcher(new ServiceArg("-outputDirs", f1MIPsDir + "," + f2MIPsDir)),
                                     new ServiceArgMatcher(new ServiceArg("-chanSpec", "r")),
                                     new ServiceArgMatcher(new ServiceArg("-colorSpec", "")),
                                     new ServiceArgMatcher(new ServiceArg("-options", "mips:movies"))
@@ -330,7 +346,7 @@ public class DataTreeLoadProcessorTest {
 
             Mockito.verify(storageService).putStorageContent(
                     eq(testLocation),
-                    eq(basePath.relativize(f1PngPath).toString()),
+                    eq("mips/" + f1PngPath.getFileName()),
                     eq(testOwner),
                     eq(testAuthToken),
                     any(JadeStorageAttributes.class),
@@ -338,7 +354,7 @@ public class DataTreeLoadProcessorTest {
             );
             Mockito.verify(storageService).putStorageContent(
                     eq(testLocation),
-                    eq(basePath.relativize(f2PngPath).toString()),
+                    eq("mips/" + f2PngPath.getFileName()),
                     eq(testOwner),
                     eq(testAuthToken),
                     any(JadeStorageAttributes.class),
@@ -574,11 +590,14 @@ public class DataTreeLoadProcessorTest {
 
         Path basePath = Paths.get(TEST_LOCAL_WORKSPACE, serviceId.toString());
 
-        Path f1Path = basePath.resolve("mips/f1.lsm");
-        Path f2Path = basePath.resolve("mips/f2.v3draw");
+        Path f1MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f1.lsm");
+        Path f2MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f2.v3draw");
+
+        Path f1Path = f1MIPsDir.resolve("f1.lsm");
+        Path f2Path = f2MIPsDir.resolve("f2.v3draw");
 
-        Path f1PngPath = basePath.resolve("mips/f1_signal.png");
-        Path f2PngPath = basePath.resolve("mips/f2_signal.png");
+        Path f1PngPath = f1MIPsDir.resolve("f1_signal.png");
+        Path f2PngPath = f2MIPsDir.resolve("f2_signal.png");
 
         @SuppressWarnings("unchecked")
         ServiceResultHandler<List<MIPsAndMoviesResult>> mipsConverterResultHandler = mock(ServiceResultHandler.class);
@@ -632,7 +651,7 @@ public class DataTreeLoadProcessorTest {
                             argThat(new ListArgMatcher<>(
                                     ImmutableList.of(
                                             new ServiceArgMatcher(new ServiceArg("-inputFiles", f1Path + "," + f2Path)),
-                                            new ServiceArgMatcher(new ServiceArg("-outputDir", basePath.resolve("mips").toString())),
+                                            new ServiceArgMatcher(new ServiceArg("-outputDirs", f1MIPsDir + "," + f2MIPsDir)),
                                             new ServiceArgMatcher(new ServiceArg("-chanSpec", "r")),
                                             new ServiceArgMatcher(new ServiceArg("-colorSpec", "")),
                                             new ServiceArgMatcher(new ServiceArg("-options", "mips:movies"))
@@ -643,7 +662,7 @@ public class DataTreeLoadProcessorTest {
 
                     Mockito.verify(storageService).putStorageContent(
                             eq(testLocation),
-                            eq(basePath.relativize(f1PngPath).toString()),
+                            eq("mips/" + f1PngPath.getFileName()),
                             eq(testOwner),
                             eq(testAuthToken),
                             any(JadeStorageAttributes.class),
@@ -651,7 +670,7 @@ public class DataTreeLoadProcessorTest {
                     );
                     Mockito.verify(storageService).putStorageContent(
                             eq(testLocation),
-                            eq(basePath.relativize(f2PngPath).toString()),
+                            eq("mips/" + f2PngPath.getFileName()),
                             eq(testOwner),
                             eq(testAuthToken),
                             any(JadeStorageAttributes.class),
@@ -757,11 +776,14 @@ public class DataTreeLoadProcessorTest {
 
         Path basePath = Paths.get(TEST_LOCAL_WORKSPACE + "/" + serviceId);
 
-        Path f1Path = basePath.resolve("mips/f1.lsm");
-        Path f2Path = basePath.resolve("mips/f2.v3draw");
+        Path f1MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f1.lsm");
+        Path f2MIPsDir = DataTreeLoadProcessor.getEntryMIPsDir(basePath.resolve("mips"), testLocation + "/f2.v3draw");
+
+        Path f1Path = f1MIPsDir.resolve("f1.lsm");
+        Path f2Path = f2MIPsDir.resolve("f2.v3draw");
 
-        Path f1PngPath = basePath.resolve("mips/f1_signal.png");
-        Path f2PngPath = basePath.resolve("mips/f2_signal.png");
+        Path f1PngPath = f1MIPsDir.resolve("f1_signal.png");
+        Path f2PngPath = f2MIPsDir.resolve("f2_signal.png");
 
         @SuppressWarnings("unchecked")
         ServiceResultHandler<List<MIPsAndMoviesResult>> mipsConverterResultHandler = mock(ServiceResultHandler.class);
@@ -821,7 +843,7 @@ public class DataTreeLoadProcessorTest {
                             argThat(new ListArgMatcher<>(
                                     ImmutableList.of(
                                             new ServiceArgMatcher(new ServiceArg("-inputFiles", f1Path + "," + f2Path)),
-                                            new ServiceArgMatcher(new ServiceArg("-outputDir", basePath.resolve("mips").toString())),
+                                            new ServiceArgMatcher(new ServiceArg("-outputDirs", f1MIPsDir + "," + f2MIPsDir)),
                                             new ServiceArgMatcher(new ServiceArg("-chanSpec", "r")),
                                             new ServiceArgMatcher(new ServiceArg("-colorSpec", "")),
                                             new ServiceArgMatcher(new ServiceArg("-options", "mips:movies"))
@@ -832,7 +854,7 @@ public class DataTreeLoadProcessorTest {
 
                     Mockito.verify(storageService).putStorageContent(
                             eq(testLocation),
-                            eq(basePath.relativize(f1PngPath).toString()),
+                            eq("mips/" + f1PngPath.getFileName()),
                             eq(testOwner),
                             eq(testAuthToken),
                             any(JadeStorageAttributes.class),
@@ -840,7 +862,7 @@ public class DataTreeLoadProcessorTest {
                     );
                     Mockito.verify(storageService).putStorageContent(
                             eq(testLocation),
-                            eq(basePath.relativize(f2PngPath).toString()),
+                            eq("mips/" + f2PngPath.getFileName()),
                             eq(testOwner),
                             eq(testAuthToken),
                             any(JadeStorageAttributes.class),
@@ -0,0 +1,130 @@
+package org.janelia.jacs2.asyncservice.dataimport;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GeneratedMIPsIndexTest {
+
+    private static final String TEST_INPUT = "http://storage/entry_content/f1.lsm";
+    private static final String TEST_PARAMS = "r|ff0000|mips:movies";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void reuseMIPsOnlyIfInputAndParamsDidNotChange() throws IOException {
+        Path mipsDir = testFolder.getRoot().toPath();
+        Path indexPath = mipsDir.resolve("mips-index.json");
+        List<String> mips = ImmutableList.of(
+                Files.createFile(mipsDir.resolve("f1_signal.png")).toString(),
+                Files.createFile(mipsDir.resolve("f1_reference.png")).toString()
+        );
+        GeneratedMIPsIndex mipsIndex = GeneratedMIPsIndex.load(indexPath);
+        assertFalse(mipsIndex.getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).isPresent());
+        mipsIndex.recordMIPs(TEST_INPUT, 100L, null, TEST_PARAMS, mips);
+        mipsIndex.save();
+
+        GeneratedMIPsIndex reloadedMIPsIndex = GeneratedMIPsIndex.load(indexPath);
+        assertEquals(mips, reloadedMIPsIndex.getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).orElse(null));
+        assertFalse(reloadedMIPsIndex.getUpToDateMIPs(TEST_INPUT, 200L, TEST_PARAMS).isPresent());
+        assertFalse(reloadedMIPsIndex.getUpToDateMIPs(TEST_INPUT, null, TEST_PARAMS).isPresent());
+        assertFalse(reloadedMIPsIndex.getUpToDateMIPs(TEST_INPUT, 100L, "r||mips").isPresent());
+
+        Files.delete(mipsDir.resolve("f1_reference.png"));
+        assertFalse(reloadedMIPsIndex.getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).isPresent());
+    }
+
+    @Test
+    public void regenerateMIPsIfTheLocalInputWasModified() throws IOException {
+        Path mipsDir = testFolder.getRoot().toPath();
+        Path indexPath = mipsDir.resolve("mips-index.json");
+        Path inputFile = Files.write(testFolder.newFolder("input").toPath().resolve("f1.lsm"), new byte[100]);
+        Files.setLastModifiedTime(inputFile, FileTime.fromMillis(1000000L));
+        List<String> mips = ImmutableList.of(Files.createFile(mipsDir.resolve("f1_signal.png")).toString());
+        GeneratedMIPsIndex mipsIndex = GeneratedMIPsIndex.load(indexPath);
+        mipsIndex.recordMIPs(TEST_INPUT, 100L, inputFile.toString(), TEST_PARAMS, mips);
+        mipsIndex.save();
+
+        assertEquals(mips, GeneratedMIPsIndex.load(indexPath).getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).orElse(null));
+        // the input was rewritten with the same size
+        Files.setLastModifiedTime(inputFile, FileTime.fromMillis(2000000L));
+        assertFalse(GeneratedMIPsIndex.load(indexPath).getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).isPresent());
+        // without the local file only the size can be checked
+        Files.delete(inputFile);
+        assertEquals(mips, GeneratedMIPsIndex.load(indexPath).getUpToDateMIPs(TEST_INPUT, 100L, TEST_PARAMS).orElse(null));
+    }
+
+    @Test
+    public void saveMergesEntriesRecordedByOtherIndexes() throws IOException {
+        Path mipsDir = testFolder.getRoot().toPath();
+        Path indexPath = mipsDir.resolve("mips-index.json");
+        String f1Mips = Files.createFile(mipsDir.resolve("f1_signal.png")).toString();
+        String f2Mips = Files.createFile(mipsDir.resolve("f2_signal.png")).toString();
+
+        GeneratedMIPsIndex mipsIndex1 = GeneratedMIPsIndex.load(indexPath);
+        GeneratedMIPsIndex mipsIndex2 = GeneratedMIPsIndex.load(indexPath);
+        mipsIndex1.recordMIPs("f1", 10L, null, TEST_PARAMS, ImmutableList.of(f1Mips));
+        mipsIndex2.recordMIPs("f2", 20L, null, TEST_PARAMS, ImmutableList.of(f2Mips));
+        mipsIndex1.save();
+        mipsIndex2.save();
+
+        GeneratedMIPsIndex reloadedMIPsIndex = GeneratedMIPsIndex.load(indexPath);
+        assertTrue(reloadedMIPsIndex.getUpToDateMIPs("f1", 10L, TEST_PARAMS).isPresent());
+        assertTrue(reloadedMIPsIndex.getUpToDateMIPs("f2", 20L, TEST_PARAMS).isPresent());
+    }
+
+    @Test
+    public void concurrentSavesDoNotLoseEntries() throws Exception {
+        Path mipsDir = testFolder.getRoot().toPath();
+        Path indexPath = mipsDir.resolve("mips-index.json");
+        int nIndexes = 20;
+        List<GeneratedMIPsIndex> mipsIndexes = new ArrayList<>();
+        for (int i = 0; i < nIndexes; i++) {
+            GeneratedMIPsIndex mipsIndex = GeneratedMIPsIndex.load(indexPath);
+            String mips = Files.createFile(mipsDir.resolve("f" + i + "_signal.png")).toString();
+            mipsIndex.recordMIPs("f" + i, 10L, null, TEST_PARAMS, ImmutableList.of(mips));
+            mipsIndexes.add(mipsIndex);
+        }
+        ExecutorService saveExecutor = Executors.newFixedThreadPool(nIndexes);
+        try {
+            CountDownLatch startSignal = new CountDownLatch(1);
+            List<Future<?>> saves = new ArrayList<>();
+            for (GeneratedMIPsIndex mipsIndex : mipsIndexes) {
+                saves.add(saveExecutor.submit(() -> {
+                    startSignal.await();
+                    mipsIndex.save();
+                    return null;
+                }));
+            }
+            startSignal.countDown();
+            for (Future<?> save : saves) {
+                save.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            saveExecutor.shutdownNow();
+        }
+
+        GeneratedMIPsIndex reloadedMIPsIndex = GeneratedMIPsIndex.load(indexPath);
+        for (int i = 0; i < nIndexes; i++) {
+            assertTrue(reloadedMIPsIndex.getUpToDateMIPs("f" + i, 10L, TEST_PARAMS).isPresent());
+        }
+    }
+}
@@ -1,21 +1,16 @@
 package org.janelia.jacs2.asyncservice.dataimport;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
-import java.util.stream.Stream;
 
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 import org.hamcrest.MatcherAssert;
 import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
 import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
-import org.janelia.jacs2.asyncservice.utils.FileUtils;
 import org.janelia.jacs2.cdi.ApplicationConfigProvider;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
@@ -23,7 +18,9 @@ import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
 import org.janelia.model.service.JacsServiceData;
 import org.janelia.model.service.JacsServiceDataBuilder;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
@@ -41,11 +38,13 @@ import static org.mockito.Mockito.mock;
 @PrepareForTest({
         SageLoaderProcessor.class,
         SageLoaderProcessor.SageLoaderErrorChecker.class,
-        Files.class,
-        FileUtils.class
+        Files.class
 })
 public class SageLoaderProcessorTest {
 
+    @Rule
+    public TemporaryFolder testDirectory = new TemporaryFolder();
+
     private JacsServiceDataPersistence jacsServiceDataPersistence;
     private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
     private ServiceComputationFactory computationFactory;
@@ -87,57 +86,11 @@ public class SageLoaderProcessorTest {
     public void notAllImagesFoundInProductionMode() throws Exception {
         List<String> testImages = ImmutableList.of("im1", "im2", "im3", "im4");
         Long serviceId = 1L;
-        String serviceOutPath = "testOutDir";
-        String serviceErrPath = "testErrDir";
-        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath, serviceErrPath);
-
-        PowerMockito.mockStatic(FileUtils.class, Files.class);
-        Path serviceOutFilePath = Mockito.mock(Path.class);
-        Path serviceErrFilePath = Mockito.mock(Path.class);
-        File serviceOutFile = Mockito.mock(File.class);
-        File serviceErrFile = Mockito.mock(File.class);
-
-        Mockito.when(Files.isRegularFile(ArgumentMatchers.any(Path.class))).thenReturn(true);
-
-        Mockito.when(Files.notExists(Paths.get(serviceOutPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceOutPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceOutFilePath));
-        Mockito.when(serviceOutFilePath.toFile()).thenReturn(serviceOutFile);
-
-        Mockito.when(Files.notExists(Paths.get(serviceErrPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceErrPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceErrFilePath));
-        Mockito.when(serviceErrFilePath.toFile()).thenReturn(serviceErrFile);
-
-
-        FileInputStream serviceOutStream = Mockito.mock(FileInputStream.class);
-        FileInputStream serviceErrStream = Mockito.mock(FileInputStream.class);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceOutFile).thenReturn(serviceOutStream);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceErrFile).thenReturn(serviceErrStream);
-
-        Mockito.when(serviceOutStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images found: 3\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images inserted: 1\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .thenReturn(0);
-
-        Mockito.when(serviceErrStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .thenReturn(0);
+        Path serviceOutPath = testDirectory.newFolder("testOutDir").toPath();
+        Path serviceErrPath = testDirectory.newFolder("testErrDir").toPath();
+        Files.write(serviceOutPath.resolve("sageLoader.out"), "Images found: 3\nImages inserted: 1\n".getBytes());
+        Files.write(serviceErrPath.resolve("sageLoader.err"), new byte[0]);
+        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath.toString(), serviceErrPath.toString());
 
         SageLoaderProcessor sageLoaderProcessor = createSageLoaderProcessor("production");
 
@@ -149,57 +102,11 @@ public class SageLoaderProcessorTest {
     public void allImagesFoundInProductionMode() throws Exception {
         List<String> testImages = ImmutableList.of("im1", "im2", "im3", "im4");
         Long serviceId = 1L;
-        String serviceOutPath = "testOutDir";
-        String serviceErrPath = "testErrDir";
-
-        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath, serviceErrPath);
-
-        PowerMockito.mockStatic(FileUtils.class, Files.class);
-        Path serviceOutFilePath = Mockito.mock(Path.class);
-        Path serviceErrFilePath = Mockito.mock(Path.class);
-        File serviceOutFile = Mockito.mock(File.class);
-        File serviceErrFile = Mockito.mock(File.class);
-
-        Mockito.when(Files.isRegularFile(ArgumentMatchers.any(Path.class))).thenReturn(true);
-
-        Mockito.when(Files.notExists(Paths.get(serviceOutPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceOutPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceOutFilePath));
-        Mockito.when(serviceOutFilePath.toFile()).thenReturn(serviceOutFile);
-
-        Mockito.when(Files.notExists(Paths.get(serviceErrPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceErrPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceErrFilePath));
-        Mockito.when(serviceErrFilePath.toFile()).thenReturn(serviceErrFile);
-
-        FileInputStream serviceOutStream = Mockito.mock(FileInputStream.class);
-        FileInputStream serviceErrStream = Mockito.mock(FileInputStream.class);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceOutFile).thenReturn(serviceOutStream);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceErrFile).thenReturn(serviceErrStream);
-
-        Mockito.when(serviceOutStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images found: 4\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images inserted: 0\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .thenReturn(0);
-
-        Mockito.when(serviceErrStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .thenReturn(0);
+        Path serviceOutPath = testDirectory.newFolder("testOutDir").toPath();
+        Path serviceErrPath = testDirectory.newFolder("testErrDir").toPath();
+        Files.write(serviceOutPath.resolve("sageLoader.out"), "Images found: 4\nImages inserted: 0\n".getBytes());
+        Files.write(serviceErrPath.resolve("sageLoader.err"), new byte[0]);
+        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath.toString(), serviceErrPath.toString());
 
         SageLoaderProcessor sageLoaderProcessor = createSageLoaderProcessor("production");
 
@@ -211,58 +118,11 @@ public class SageLoaderProcessorTest {
     public void notAllImagesFoundInDevMode() throws Exception {
         List<String> testImages = ImmutableList.of("im1", "im2", "im3", "im4", "im5");
         Long serviceId = 1L;
-        String serviceOutPath = "testOutDir";
-        String serviceErrPath = "testErrDir";
-
-        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath, serviceErrPath);
-
-        PowerMockito.mockStatic(FileUtils.class, Files.class);
-        Path serviceOutFilePath = Mockito.mock(Path.class);
-        Path serviceErrFilePath = Mockito.mock(Path.class);
-        File serviceOutFile = Mockito.mock(File.class);
-        File serviceErrFile = Mockito.mock(File.class);
-
-        Mockito.when(Files.isRegularFile(ArgumentMatchers.any(Path.class))).thenReturn(true);
-
-        Mockito.when(Files.notExists(Paths.get(serviceOutPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceOutPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceOutFilePath));
-        Mockito.when(serviceOutFilePath.toFile()).thenReturn(serviceOutFile);
-
-        Mockito.when(Files.notExists(Paths.get(serviceErrPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceErrPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceErrFilePath));
-        Mockito.when(serviceErrFilePath.toFile()).thenReturn(serviceErrFile);
-
-
-        FileInputStream serviceOutStream = Mockito.mock(FileInputStream.class);
-        FileInputStream serviceErrStream = Mockito.mock(FileInputStream.class);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceOutFile).thenReturn(serviceOutStream);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceErrFile).thenReturn(serviceErrStream);
-
-        Mockito.when(serviceOutStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images found: 3\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images inserted: 1\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .thenReturn(0);
-
-        Mockito.when(serviceErrStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .thenReturn(0);
+        Path serviceOutPath = testDirectory.newFolder("testOutDir").toPath();
+        Path serviceErrPath = testDirectory.newFolder("testErrDir").toPath();
+        Files.write(serviceOutPath.resolve("sageLoader.out"), "Images found: 3\nImages inserted: 1\n".getBytes());
+        Files.write(serviceErrPath.resolve("sageLoader.err"), new byte[0]);
+        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath.toString(), serviceErrPath.toString());
 
         SageLoaderProcessor sageLoaderProcessor = createSageLoaderProcessor("dev");
 
@@ -274,58 +134,11 @@ public class SageLoaderProcessorTest {
     public void allImagesFoundInDevMode() throws Exception {
         List<String> testImages = ImmutableList.of("im1", "im2", "im3", "im4", "im5");
         Long serviceId = 1L;
-        String serviceOutPath = "testOutDir";
-        String serviceErrPath = "testErrDir";
-
-        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath, serviceErrPath);
-
-        PowerMockito.mockStatic(FileUtils.class, Files.class);
-        Path serviceOutFilePath = Mockito.mock(Path.class);
-        Path serviceErrFilePath = Mockito.mock(Path.class);
-        File serviceOutFile = Mockito.mock(File.class);
-        File serviceErrFile = Mockito.mock(File.class);
-
-        Mockito.when(Files.isRegularFile(ArgumentMatchers.any(Path.class))).thenReturn(true);
-
-        Mockito.when(Files.notExists(Paths.get(serviceOutPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceOutPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceOutFilePath));
-        Mockito.when(serviceOutFilePath.toFile()).thenReturn(serviceOutFile);
-
-        Mockito.when(Files.notExists(Paths.get(serviceErrPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceErrPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceErrFilePath));
-        Mockito.when(serviceErrFilePath.toFile()).thenReturn(serviceErrFile);
-
-
-        FileInputStream serviceOutStream = Mockito.mock(FileInputStream.class);
-        FileInputStream serviceErrStream = Mockito.mock(FileInputStream.class);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceOutFile).thenReturn(serviceOutStream);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceErrFile).thenReturn(serviceErrStream);
-
-        Mockito.when(serviceOutStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images found: 5\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images inserted: 0\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .thenReturn(0);
-
-        Mockito.when(serviceErrStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .thenReturn(0);
+        Path serviceOutPath = testDirectory.newFolder("testOutDir").toPath();
+        Path serviceErrPath = testDirectory.newFolder("testErrDir").toPath();
+        Files.write(serviceOutPath.resolve("sageLoader.out"), "Images found: 5\nImages inserted: 0\n".getBytes());
+        Files.write(serviceErrPath.resolve("sageLoader.err"), new byte[0]);
+        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath.toString(), serviceErrPath.toString());
 
         SageLoaderProcessor sageLoaderProcessor = createSageLoaderProcessor("dev");
 
@@ -337,58 +150,11 @@ public class SageLoaderProcessorTest {
     public void imagesFoundPlusImagesInsertedMatchInDevMode() throws Exception {
         List<String> testImages = ImmutableList.of("im1", "im2", "im3", "im4", "im5");
         Long serviceId = 1L;
-        String serviceOutPath = "testOutDir";
-        String serviceErrPath = "testErrDir";
-
-        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath, serviceErrPath);
-
-        PowerMockito.mockStatic(FileUtils.class, Files.class);
-        Path serviceOutFilePath = Mockito.mock(Path.class);
-        Path serviceErrFilePath = Mockito.mock(Path.class);
-        File serviceOutFile = Mockito.mock(File.class);
-        File serviceErrFile = Mockito.mock(File.class);
-
-        Mockito.when(Files.isRegularFile(ArgumentMatchers.any(Path.class))).thenReturn(true);
-
-        Mockito.when(Files.notExists(Paths.get(serviceOutPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceOutPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceOutFilePath));
-        Mockito.when(serviceOutFilePath.toFile()).thenReturn(serviceOutFile);
-
-        Mockito.when(Files.notExists(Paths.get(serviceErrPath))).thenReturn(false);
-        Mockito.when(FileUtils.lookupFiles(Paths.get(serviceErrPath), 1, "glob:**/*"))
-                .thenReturn(Stream.of(serviceErrFilePath));
-        Mockito.when(serviceErrFilePath.toFile()).thenReturn(serviceErrFile);
-
-
-        FileInputStream serviceOutStream = Mockito.mock(FileInputStream.class);
-        FileInputStream serviceErrStream = Mockito.mock(FileInputStream.class);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceOutFile).thenReturn(serviceOutStream);
-        PowerMockito.whenNew(FileInputStream.class).withArguments(serviceErrFile).thenReturn(serviceErrStream);
-
-        Mockito.when(serviceOutStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images found: 5\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> {
-                    byte[] buffer = invocation.getArgument(0);
-                    int offset = invocation.getArgument(1);
-                    int length = invocation.getArgument(2);
-                    byte[] srcBuffer = "Images inserted: 0\n".getBytes();
-                    Preconditions.checkArgument(srcBuffer.length <= length);
-                    System.arraycopy(srcBuffer, 0, buffer, offset, srcBuffer.length);
-                    return srcBuffer.length;
-                })
-                .then(invocation -> 0);
-
-        Mockito.when(serviceErrStream.read(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt()))
-                .then(invocation -> 0);
+        Path serviceOutPath = testDirectory.newFolder("testOutDir").toPath();
+        Path serviceErrPath = testDirectory.newFolder("testErrDir").toPath();
+        Files.write(serviceOutPath.resolve("sageLoader.out"), "Images found: 5\nImages inserted: 0\n".getBytes());
+        Files.write(serviceErrPath.resolve("sageLoader.err"), new byte[0]);
+        JacsServiceData testService = createTestServiceData(serviceId, testImages, serviceOutPath.toString(), serviceErrPath.toString());
 
         SageLoaderProcessor sageLoaderProcessor = createSageLoaderProcessor("dev");
 
@@ -0,0 +1,173 @@
+package org.janelia.jacs2.asyncservice.dataimport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.janelia.jacs2.dataservice.storage.StorageService;
+import org.janelia.jacsstorage.clients.api.JadeStorageAttributes;
+import org.janelia.jacsstorage.clients.api.StorageEntryInfo;
+import org.janelia.jacsstorage.clients.api.StoragePathURI;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.mockito.verification.VerificationMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+public class StorageContentHelperTest {
+
+    private static final String TEST_OWNER = "user:test";
+    private static final String TEST_AUTH_TOKEN = "authToken";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private StorageService storageService;
+    private Path localDir;
+    private Path manifestPath;
+
+    @Before
+    public void setUp() throws Exception {
+        storageService = mock(StorageService.class);
+        localDir = testFolder.newFolder("local").toPath();
+        manifestPath = testFolder.getRoot().toPath().resolve("service/transfers.manifest");
+    }
+
+    @Test
+    public void uploadOnlyTheContentThatWasNotTransferred() throws Exception {
+        String storageURL = "http://upload-test-storage:8880/jacsstorage/api";
+        prepareUploads(storageURL);
+        StorageContentHelper storageContentHelper = new StorageContentHelper(storageService, 4);
+
+        storageContentHelper.uploadContent(createLocalContent(storageURL, "f1.png", "f2.png"), storageURL, TEST_OWNER, TEST_AUTH_TOKEN,
+                new JadeStorageAttributes(), ContentTransferManifest.load(manifestPath));
+        verifyUpload(storageURL, "f1.png", times(1));
+        verifyUpload(storageURL, "f2.png", times(1));
+
+        // resume with f2 changed since it was uploaded
+        Files.write(localDir.resolve("f2.png"), "changed f2.png".getBytes(StandardCharsets.UTF_8));
+        List<ContentStack> resumedContent = createLocalContent(storageURL, "f1.png", "f2.png");
+        storageContentHelper.uploadContent(resumedContent, storageURL, TEST_OWNER, TEST_AUTH_TOKEN,
+                new JadeStorageAttributes(), ContentTransferManifest.load(manifestPath));
+        verifyUpload(storageURL, "f1.png", times(1));
+        verifyUpload(storageURL, "f2.png", times(2));
+        // the skipped upload still gets the storage entry of the previous upload
+        assertEquals(storageURL + "/entry_content/f1.png", resumedContent.get(0).getMainRep().getRemoteInfo().getEntryURL());
+    }
+
+    @Test
+    public void copyOnlyTheContentThatWasNotTransferred() throws Exception {
+        String sourceURL = "http://copy-test-source:8880/jacsstorage/api";
+        String storageURL = "http://copy-test-storage:8880/jacsstorage/api";
+        when(storageService.getStorageContent(anyString(), anyString(), anyString(), any(JadeStorageAttributes.class)))
+                .then(invocation -> new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8)));
+        prepareUploads(storageURL);
+        StorageContentHelper storageContentHelper = new StorageContentHelper(storageService, 4);
+
+        storageContentHelper.copyContent(createRemoteContent(sourceURL, "f1.lsm", "f2.lsm"), storageURL, "data", TEST_OWNER, TEST_AUTH_TOKEN,
+                new JadeStorageAttributes(), ContentTransferManifest.load(manifestPath));
+        storageContentHelper.copyContent(createRemoteContent(sourceURL, "f1.lsm", "f2.lsm"), storageURL, "data", TEST_OWNER, TEST_AUTH_TOKEN,
+                new JadeStorageAttributes(), ContentTransferManifest.load(manifestPath));
+
+        verifyUpload(storageURL, "data/f1.lsm", times(1));
+        verifyUpload(storageURL, "data/f2.lsm", times(1));
+        Mockito.verify(storageService, times(2)).getStorageContent(anyString(), anyString(), anyString(), any(JadeStorageAttributes.class));
+    }
+
+    @Test
+    public void transfersToTheSameStorageShareTheLimit() throws Exception {
+        String storageURL = "http://limit-test-storage:8880/jacsstorage/api";
+        int maxTransfersPerStorage = 2;
+        AtomicInteger activeTransfers = new AtomicInteger();
+        AtomicInteger maxActiveTransfers = new AtomicInteger();
+        when(storageService.putStorageContent(eq(storageURL), anyString(), anyString(), anyString(), any(JadeStorageAttributes.class), any(InputStream.class)))
+                .then(invocation -> {
+                    maxActiveTransfers.accumulateAndGet(activeTransfers.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(50);
+                    } finally {
+                        activeTransfers.decrementAndGet();
+                    }
+                    return createStorageEntry(storageURL, invocation.getArgument(1));
+                });
+        // each helper could run as many transfers as its limit, but together they must not exceed the limit either
+        List<CompletableFuture<List<ContentStack>>> uploads = IntStream.range(0, 2)
+                .mapToObj(i -> {
+                    StorageContentHelper storageContentHelper = new StorageContentHelper(storageService, maxTransfersPerStorage);
+                    List<ContentStack> contentList = createLocalContent(storageURL,
+                            IntStream.range(0, 4).mapToObj(fi -> "s" + i + "_f" + fi + ".png").toArray(String[]::new));
+                    ContentTransferManifest transferManifest = ContentTransferManifest.load(testFolder.getRoot().toPath().resolve("service" + i + "/transfers.manifest"));
+                    return CompletableFuture.supplyAsync(() -> storageContentHelper.uploadContent(contentList, storageURL, TEST_OWNER, TEST_AUTH_TOKEN,
+                            new JadeStorageAttributes(), transferManifest));
+                })
+                .collect(Collectors.toList());
+        uploads.forEach(CompletableFuture::join);
+
+        Mockito.verify(storageService, times(8)).putStorageContent(eq(storageURL), anyString(), anyString(), anyString(), any(JadeStorageAttributes.class), any(InputStream.class));
+        assertTrue("Max active transfers: " + maxActiveTransfers.get(), maxActiveTransfers.get() <= maxTransfersPerStorage);
+    }
+
+    private void prepareUploads(String storageURL) {
+        when(storageService.putStorageContent(eq(storageURL), anyString(), anyString(), anyString(), any(JadeStorageAttributes.class), any(InputStream.class)))
+                .then(invocation -> createStorageEntry(storageURL, invocation.getArgument(1)));
+    }
+
+    private void verifyUpload(String storageURL, String entryPath, VerificationMode mode) {
+        Mockito.verify(storageService, mode).putStorageContent(eq(storageURL), eq(entryPath), eq(TEST_OWNER), eq(TEST_AUTH_TOKEN), any(JadeStorageAttributes.class), any(InputStream.class));
+    }
+
+    private List<ContentStack> createLocalContent(String storageURL, String... fileNames) {
+        return Arrays.stream(fileNames)
+                .map(fileName -> {
+                    Path localFile = localDir.resolve(fileName);
+                    try {
+                        if (Files.notExists(localFile)) {
+                            Files.write(localFile, fileName.getBytes(StandardCharsets.UTF_8));
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    StorageContentInfo storageContentInfo = new StorageContentInfo();
+                    storageContentInfo.setLocalBasePath(localDir.toString());
+                    storageContentInfo.setLocalRelativePath(fileName);
+                    storageContentInfo.setRemoteInfo(new StorageEntryInfo(null, storageURL, null, null, new StoragePathURI(""), fileName, null, false, null));
+                    return new ContentStack(storageContentInfo);
+                })
+                .collect(Collectors.toList());
+    }
+
+    private List<ContentStack> createRemoteContent(String sourceURL, String... fileNames) {
+        return Arrays.stream(fileNames)
+                .map(fileName -> {
+                    StorageContentInfo storageContentInfo = new StorageContentInfo();
+                    storageContentInfo.setRemoteInfo(createStorageEntry(sourceURL, fileName));
+                    return new ContentStack(storageContentInfo);
+                })
+                .collect(Collectors.toList());
+    }
+
+    private StorageEntryInfo createStorageEntry(String storageURL, String entryPath) {
+        return new StorageEntryInfo("testStorageId", storageURL, storageURL + "/entry_content/" + entryPath, "/storageRoot",
+                new StoragePathURI("/storageRootPrefix"), entryPath, 7L, false, null);
+    }
+}
@@ -0,0 +1,147 @@
+package org.janelia.jacs2.asyncservice.fileservices;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.janelia.jacs2.asyncservice.common.ComputationException;
+import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
+import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
+import org.janelia.jacs2.asyncservice.common.ExternalScriptTestHelper;
+import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
+import org.janelia.jacs2.cdi.ApplicationConfigProvider;
+import org.janelia.jacs2.config.ApplicationConfig;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceDataBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class FileBatchCopyProcessorTest {
+
+    private static final Long TEST_SERVICE_ID = 1L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private FileBatchCopyProcessor fileBatchCopyProcessor;
+
+    @Before
+    public void setUp() {
+        fileBatchCopyProcessor = createFileBatchCopyProcessor("testScript");
+    }
+
+    private FileBatchCopyProcessor createFileBatchCopyProcessor(String scriptName) {
+        JacsServiceDataPersistence jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
+        JacsJobInstanceInfoDao jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
+        Logger logger = mock(Logger.class);
+        ServiceComputationFactory serviceComputationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
+
+        ApplicationConfig applicationConfig = new ApplicationConfigProvider().fromMap(
+                ImmutableMap.of("Executables.ModuleBase", "testTools"))
+                .build();
+
+        return new FileBatchCopyProcessor(serviceComputationFactory,
+                jacsServiceDataPersistence,
+                null, // serviceRunners are not essential for these unit tests
+                "testWorking",
+                "testLibrary",
+                scriptName,
+                jacsJobInstanceInfoDao,
+                applicationConfig,
+                logger);
+    }
+
+    @Test
+    public void prepareTargetDirsAndOneConfigurationPerFile() {
+        File testDest1 = new File(testFolder.getRoot(), "d1/testDest1.h5j");
+        File testDest2 = new File(testFolder.getRoot(), "d2/testDest2.h5j");
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("fileBatchCopy")
+                .addArgs("-src", "/home/testSource1.v3draw,/home/testSource2.v3draw")
+                .addArgs("-dst", testDest1.getAbsolutePath() + "," + testDest2.getAbsolutePath())
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        fileBatchCopyProcessor.prepareProcessing(testServiceData);
+        assertTrue(testDest1.getParentFile().exists());
+        assertTrue(testDest2.getParentFile().exists());
+
+        List<ExternalCodeBlock> configs = fileBatchCopyProcessor.prepareConfigurationFiles(testServiceData);
+        assertEquals(2, configs.size());
+        assertEquals("/home/testSource2.v3draw\n" + testDest2.getAbsolutePath() + "\n", configs.get(1).toString());
+    }
+
+    @Test
+    public void targetIsOnlyCreatedFromACompleteConversion() {
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("fileBatchCopy")
+                .addArgs("-src", "/home/testSource1.v3draw")
+                .addArgs("-dst", "/home/testDest1.h5j")
+                .build();
+        String script = fileBatchCopyProcessor.prepareExternalScript(testServiceData).toString();
+        assertThat(script, containsString("testTools/testScript \"${SRC}\" \"${TMP_DST}\" < /dev/null && [ -s \"${TMP_DST}\" ] && mv -f \"${TMP_DST}\" \"${DST}\""));
+    }
+
+    @Test
+    public void convertAllRecordsFromTheGeneratedConfigFile() throws Exception {
+        Path testDir = testFolder.getRoot().toPath();
+        // the stub converter fails for empty sources otherwise it copies the source
+        Path convertStub = testDir.resolve("convert.sh");
+        Files.write(convertStub, "#!/bin/bash\n[ -s \"$1\" ] && cp \"$1\" \"$2\"\n".getBytes(StandardCharsets.UTF_8));
+        convertStub.toFile().setExecutable(true);
+        Path testSource1 = Files.write(testDir.resolve("testSource1.v3draw"), "source1".getBytes(StandardCharsets.UTF_8));
+        Path testSource2 = Files.createFile(testDir.resolve("testSource2.v3draw"));
+        Path testDest1 = testDir.resolve("d/testDest1.v3dpbd");
+        Path testDest2 = testDir.resolve("d/testDest2.v3dpbd");
+        FileBatchCopyProcessor stubProcessor = createFileBatchCopyProcessor(convertStub.toString());
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("fileBatchCopy")
+                .addArgs("-src", testSource1 + "," + testSource2)
+                .addArgs("-dst", testDest1 + "," + testDest2)
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        stubProcessor.prepareProcessing(testServiceData);
+        List<File> configFiles = ExternalScriptTestHelper.createConfigFiles(testServiceData,
+                stubProcessor.prepareConfigurationFiles(testServiceData),
+                testDir.resolve("service"));
+
+        ExternalScriptTestHelper.ScriptResult result1 = ExternalScriptTestHelper.runScript(stubProcessor.prepareExternalScript(testServiceData), configFiles.get(0), testDir);
+        assertEquals(0, result1.exitCode);
+        assertEquals("", result1.errors);
+        assertEquals("source1", new String(Files.readAllBytes(testDest1), StandardCharsets.UTF_8));
+
+        ExternalScriptTestHelper.ScriptResult result2 = ExternalScriptTestHelper.runScript(stubProcessor.prepareExternalScript(testServiceData), configFiles.get(1), testDir);
+        assertEquals(1, result2.exitCode);
+        assertEquals("Failed to convert " + testSource2 + " to " + testDest2 + "\n", result2.errors);
+        assertFalse(Files.exists(testDest2));
+    }
+
+    @Test
+    public void sourcesAndTargetsMustMatch() {
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("fileBatchCopy")
+                .addArgs("-src", "/home/testSource1.v3draw,/home/testSource2.v3draw")
+                .addArgs("-dst", new File(testFolder.getRoot(), "testDest1.h5j").getAbsolutePath())
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        Assert.assertThrows(ComputationException.class, () -> fileBatchCopyProcessor.prepareProcessing(testServiceData));
+    }
+
+}
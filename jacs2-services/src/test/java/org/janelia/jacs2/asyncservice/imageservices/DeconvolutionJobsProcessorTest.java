@@ -1,27 +1,44 @@
 package org.janelia.jacs2.asyncservice.imageservices;
 
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
 import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
+import org.janelia.jacs2.asyncservice.common.ExternalScriptTestHelper;
 import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
 import org.janelia.jacs2.cdi.ApplicationConfigProvider;
 import org.janelia.jacs2.cdi.ObjectMapperFactory;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsJobInstanceInfo;
 import org.janelia.model.service.JacsServiceData;
 import org.janelia.model.service.JacsServiceDataBuilder;
 import org.janelia.model.service.JacsServiceState;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.List;
+import java.util.Map;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 
 public class DeconvolutionJobsProcessorTest {
@@ -35,19 +52,22 @@ public class DeconvolutionJobsProcessorTest {
     private static final String TEST_OWNER = "user:test";
     private static final Number TEST_SERVICE_ID = 1L;
 
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private JacsServiceDataPersistence jacsServiceDataPersistence;
+    private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
+    private Logger logger;
+    private ServiceComputationFactory computationFactory;
     private DeconvolutionJobsProcessor deconvolutionJobsProcessor;
 
     @Before
     public void setUp() {
-        JacsServiceDataPersistence jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
-        JacsJobInstanceInfoDao jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
-
-        Logger logger = mock(Logger.class);
-        ServiceComputationFactory computationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
+        jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
+        jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
 
-        ApplicationConfig applicationConfig = new ApplicationConfigProvider().fromMap(
-                ImmutableMap.of("Executables.ModuleBase", DEFAULT_EXECUTABLES_DIR))
-                .build();
+        logger = mock(Logger.class);
+        computationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
 
         Mockito.when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> {
             JacsServiceData sd = new JacsServiceData();
@@ -62,7 +82,17 @@ public class DeconvolutionJobsProcessorTest {
             return jacsServiceData;
         });
 
-        deconvolutionJobsProcessor = new DeconvolutionJobsProcessor(computationFactory,
+        deconvolutionJobsProcessor = createDeconvolutionJobsProcessor(ImmutableMap.of("Executables.ModuleBase", DEFAULT_EXECUTABLES_DIR));
+    }
+
+    private DeconvolutionJobsProcessor createDeconvolutionJobsProcessor(Map<String, String> applicationProperties) {
+        return createDeconvolutionJobsProcessor(applicationProperties, DECONV_SCRIPT);
+    }
+
+    private DeconvolutionJobsProcessor createDeconvolutionJobsProcessor(Map<String, String> applicationProperties, String deconvolutionExecutable) {
+        ApplicationConfig applicationConfig = new ApplicationConfigProvider().fromMap(applicationProperties)
+                .build();
+        return new DeconvolutionJobsProcessor(computationFactory,
                 jacsServiceDataPersistence,
                 null,
                 DEFAULT_WORKING_DIR,
@@ -72,7 +102,7 @@ public class DeconvolutionJobsProcessorTest {
                 MATLAB_ROOT_DIR,
                 MATLAB_LIB_DIRS,
                 MATLAB_X11LIB_DIR,
-                DECONV_SCRIPT,
+                deconvolutionExecutable,
                 logger);
     }
 
@@ -83,6 +113,127 @@ public class DeconvolutionJobsProcessorTest {
         assertTrue(taskConfigs.size() > 0);
     }
 
+    @Test
+    public void groupTilesSharingThePsfInTasksSizedFromMeasuredTileRuntime() {
+        DeconvolutionJobsProcessor batchingProcessor = createDeconvolutionJobsProcessor(ImmutableMap.of(
+                "Executables.ModuleBase", DEFAULT_EXECUTABLES_DIR,
+                "service.deconvolution.batchRuntimeInSeconds", "3000"));
+        // previous jobs took 500s per tile so each task gets 6 tiles
+        Mockito.when(jacsJobInstanceInfoDao.findRecentServiceJobInstances(eq("deconvolution"), any(), anyInt()))
+                .thenReturn(ImmutableList.of(createJobInstance(1000L, 2L), createJobInstance(1500L, 3L), createJobInstance(3000L, 5L)));
+        JacsServiceData testService = createTestServiceData();
+        List<ExternalCodeBlock> taskConfigs = batchingProcessor.prepareConfigurationFiles(testService);
+        // each channel has 27 tiles
+        assertEquals(10, taskConfigs.size());
+        for (int i = 0; i < taskConfigs.size(); i++) {
+            List<String> taskConfigLines = Splitter.on('\n').omitEmptyStrings().splitToList(taskConfigs.get(i).toString());
+            assertEquals(Paths.get(TEST_DATA_DIR, i < 5 ? "pf1" : "pf2").toString(), taskConfigLines.get(0));
+            assertEquals(5 + 4 * (i % 5 < 4 ? 6 : 3), taskConfigLines.size());
+        }
+        assertEquals(Long.valueOf(54), batchingProcessor.getProcessingInputSize(testService));
+    }
+
+    @Test
+    public void skipTilesWithOutputNewerThanTheInputs() throws Exception {
+        Path dataDir = testFolder.getRoot().toPath();
+        Path psfFile = Files.createFile(dataDir.resolve("psf.tif"));
+        Path doneTile = Files.createFile(dataDir.resolve("tile1.tif"));
+        Path updatedTile = Files.createFile(dataDir.resolve("tile2.tif"));
+        Path newTile = Files.createFile(dataDir.resolve("tile3.tif"));
+        Path deconvDir = Files.createDirectories(dataDir.resolve("matlab_decon"));
+        Path doneTileOutput = Files.createFile(deconvDir.resolve("tile1_decon.tif"));
+        Path updatedTileOutput = Files.createFile(deconvDir.resolve("tile2_decon.tif"));
+        long now = System.currentTimeMillis();
+        Files.setLastModifiedTime(psfFile, FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(doneTile, FileTime.fromMillis(now - 20000));
+        Files.setLastModifiedTime(doneTileOutput, FileTime.fromMillis(now - 10000));
+        Files.setLastModifiedTime(updatedTileOutput, FileTime.fromMillis(now - 10000));
+        Files.setLastModifiedTime(updatedTile, FileTime.fromMillis(now));
+        Path channelConfig = dataDir.resolve("ch0.json");
+        ObjectMapperFactory.instance().newObjectMapper().writeValue(channelConfig.toFile(), ImmutableList.of(
+                createTileConfig(doneTile), createTileConfig(updatedTile), createTileConfig(newTile)));
+
+        JacsServiceData testService = new JacsServiceDataBuilder(null)
+                .setOwnerKey(TEST_OWNER)
+                .addArgs("-i", channelConfig.toString())
+                .addArgs("-p", psfFile.toString())
+                .addArgs("-v", "100")
+                .build();
+        testService.setId(TEST_SERVICE_ID);
+        testService.setName("deconvolution");
+        List<ExternalCodeBlock> taskConfigs = deconvolutionJobsProcessor.prepareConfigurationFiles(testService);
+        assertEquals(2, taskConfigs.size());
+        assertThat(taskConfigs.get(0).toString(), containsString(updatedTile.toString()));
+        assertThat(taskConfigs.get(1).toString(), containsString(newTile.toString()));
+    }
+
+    @Test
+    public void deconvolveAllTilesFromTheGeneratedConfigFile() throws Exception {
+        Path dataDir = testFolder.newFolder("data").toPath();
+        Path argsLog = testFolder.getRoot().toPath().resolve("deconv.log");
+        Path deconvStub = ExternalScriptTestHelper.createStubExecutable(testFolder.getRoot().toPath().resolve("deconv"), argsLog);
+        ExternalScriptTestHelper.ScriptResult result = runDeconvolutionScript(dataDir, deconvStub);
+        assertEquals(0, result.exitCode);
+        assertEquals("", result.errors);
+        List<String> deconvInvocations = Files.readAllLines(argsLog, StandardCharsets.UTF_8);
+        assertEquals(3, deconvInvocations.size());
+        for (int i = 0; i < deconvInvocations.size(); i++) {
+            assertThat(deconvInvocations.get(i), containsString(dataDir.resolve("tile" + (i + 1) + ".tif").toString()));
+        }
+    }
+
+    @Test
+    public void failIfATileDeconvolutionFails() throws Exception {
+        Path dataDir = testFolder.newFolder("data").toPath();
+        Path argsLog = testFolder.getRoot().toPath().resolve("deconv.log");
+        Path deconvStub = ExternalScriptTestHelper.createStubExecutable(testFolder.getRoot().toPath().resolve("deconv"), argsLog,
+                dataDir.resolve("tile2.tif").toString());
+        ExternalScriptTestHelper.ScriptResult result = runDeconvolutionScript(dataDir, deconvStub);
+        assertEquals(1, result.exitCode);
+        assertEquals("Error deconvolving " + dataDir.resolve("tile2.tif") + "\n", result.errors);
+        // the remaining tiles are still deconvolved
+        assertEquals(3, Files.readAllLines(argsLog, StandardCharsets.UTF_8).size());
+    }
+
+    private ExternalScriptTestHelper.ScriptResult runDeconvolutionScript(Path dataDir, Path deconvStub) throws Exception {
+        Path psfFile = Files.createFile(dataDir.resolve("psf.tif"));
+        Path channelConfig = dataDir.resolve("ch0.json");
+        ObjectMapperFactory.instance().newObjectMapper().writeValue(channelConfig.toFile(), ImmutableList.of(
+                createTileConfig(Files.createFile(dataDir.resolve("tile1.tif"))),
+                createTileConfig(Files.createFile(dataDir.resolve("tile2.tif"))),
+                createTileConfig(Files.createFile(dataDir.resolve("tile3.tif")))));
+        // no previous jobs so with the default tile runtime all tiles go in the same task
+        DeconvolutionJobsProcessor batchingProcessor = createDeconvolutionJobsProcessor(ImmutableMap.of(
+                "Executables.ModuleBase", DEFAULT_EXECUTABLES_DIR,
+                "service.deconvolution.batchRuntimeInSeconds", "3000"),
+                deconvStub.toString());
+        JacsServiceData testService = new JacsServiceDataBuilder(null)
+                .setOwnerKey(TEST_OWNER)
+                .addArgs("-i", channelConfig.toString())
+                .addArgs("-p", psfFile.toString())
+                .addArgs("-v", "100")
+                .build();
+        testService.setId(TEST_SERVICE_ID);
+        testService.setName("deconvolution");
+        List<File> configFiles = ExternalScriptTestHelper.createConfigFiles(testService,
+                batchingProcessor.prepareConfigurationFiles(testService),
+                testFolder.getRoot().toPath().resolve("service"));
+        assertEquals(1, configFiles.size());
+        return ExternalScriptTestHelper.runScript(batchingProcessor.prepareExternalScript(testService), configFiles.get(0), testFolder.getRoot().toPath());
+    }
+
+    private Map<String, Object> createTileConfig(Path tileFile) {
+        return ImmutableMap.of("file", tileFile.toString(), "pixelResolution", ImmutableList.of(0.1, 0.1, 0.2));
+    }
+
+    private JacsJobInstanceInfo createJobInstance(Long runSecs, Long inputSize) {
+        JacsJobInstanceInfo jobInstanceInfo = new JacsJobInstanceInfo();
+        jobInstanceInfo.setRunSecs(runSecs);
+        jobInstanceInfo.setInputSize(inputSize);
+        jobInstanceInfo.setExitCode(0);
+        return jobInstanceInfo;
+    }
+
     private JacsServiceData createTestServiceData() {
         JacsServiceDataBuilder testServiceDataBuilder = new JacsServiceDataBuilder(null)
                 .setOwnerKey(TEST_OWNER)
@@ -0,0 +1,100 @@
+package org.janelia.jacs2.asyncservice.imageservices;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
+import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
+import org.janelia.jacs2.asyncservice.common.ExternalScriptTestHelper;
+import org.janelia.jacs2.cdi.ApplicationConfigProvider;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceDataBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class ImageMagickConverterProcessorTest {
+
+    private static final Long TEST_SERVICE_ID = 1L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path toolsDir;
+    private Path argsLog;
+    private ImageMagickConverterProcessor imageMagickConverterProcessor;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger logger = mock(Logger.class);
+        toolsDir = testFolder.newFolder("tools").toPath();
+        argsLog = toolsDir.resolve("convert.log");
+        imageMagickConverterProcessor = new ImageMagickConverterProcessor(ComputationTestHelper.createTestServiceComputationFactory(logger),
+                mock(JacsServiceDataPersistence.class),
+                null, // serviceRunners are not essential for these unit tests
+                testFolder.getRoot().getAbsolutePath(),
+                toolsDir.toString(),
+                "convert",
+                "lib",
+                mock(JacsJobInstanceInfoDao.class),
+                new ApplicationConfigProvider().fromMap(ImmutableMap.of()).build(),
+                logger);
+    }
+
+    @Test
+    public void convertAllRecordsFromTheGeneratedConfigFiles() throws Exception {
+        ExternalScriptTestHelper.createStubExecutable(toolsDir.resolve("convert"), argsLog);
+        JacsServiceData testServiceData = createTestServiceData();
+        List<File> configFiles = createConfigFiles(testServiceData);
+        assertEquals(2, configFiles.size());
+        for (File configFile : configFiles) {
+            ExternalScriptTestHelper.ScriptResult result = runScript(testServiceData, configFile);
+            assertEquals(0, result.exitCode);
+            assertEquals("", result.errors);
+        }
+        assertEquals(ImmutableList.of("/in/i1.v3dpbd " + testFolder.getRoot() + "/out/o1.png", "/in/i2.v3dpbd " + testFolder.getRoot() + "/out/o2.png"),
+                Files.readAllLines(argsLog, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failIfAConversionFails() throws Exception {
+        ExternalScriptTestHelper.createStubExecutable(toolsDir.resolve("convert"), argsLog, "/in/i1.v3dpbd");
+        JacsServiceData testServiceData = createTestServiceData();
+        List<File> configFiles = createConfigFiles(testServiceData);
+        ExternalScriptTestHelper.ScriptResult result = runScript(testServiceData, configFiles.get(0));
+        assertEquals(1, result.exitCode);
+        assertEquals("Error converting /in/i1.v3dpbd to " + testFolder.getRoot() + "/out/o1.png\n", result.errors);
+    }
+
+    private JacsServiceData createTestServiceData() {
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("imageMagickConverter")
+                .addArgs("-inputFiles", "/in/i1.v3dpbd,/in/i2.v3dpbd")
+                .addArgs("-outputFiles", testFolder.getRoot() + "/out/o1.png," + testFolder.getRoot() + "/out/o2.png")
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        return testServiceData;
+    }
+
+    private List<File> createConfigFiles(JacsServiceData testServiceData) {
+        List<ExternalCodeBlock> configs = imageMagickConverterProcessor.prepareConfigurationFiles(testServiceData);
+        return ExternalScriptTestHelper.createConfigFiles(testServiceData, configs, testFolder.getRoot().toPath().resolve("service"));
+    }
+
+    private ExternalScriptTestHelper.ScriptResult runScript(JacsServiceData testServiceData, File configFile) throws Exception {
+        return ExternalScriptTestHelper.runScript(imageMagickConverterProcessor.prepareExternalScript(testServiceData), configFile, testFolder.getRoot().toPath());
+    }
+}
@@ -0,0 +1,102 @@
+package org.janelia.jacs2.asyncservice.imageservices;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
+import org.janelia.jacs2.asyncservice.common.ExternalCodeBlock;
+import org.janelia.jacs2.asyncservice.common.ExternalScriptTestHelper;
+import org.janelia.jacs2.cdi.ApplicationConfigProvider;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceDataBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class Vaa3dMipCmdProcessorTest {
+
+    private static final Long TEST_SERVICE_ID = 1L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path vaa3dStub;
+    private Path argsLog;
+    private Vaa3dMipCmdProcessor vaa3dMipCmdProcessor;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger logger = mock(Logger.class);
+        Path toolsDir = testFolder.newFolder("tools").toPath();
+        vaa3dStub = toolsDir.resolve("vaa3d");
+        argsLog = toolsDir.resolve("vaa3d.log");
+        vaa3dMipCmdProcessor = new Vaa3dMipCmdProcessor(ComputationTestHelper.createTestServiceComputationFactory(logger),
+                mock(JacsServiceDataPersistence.class),
+                null, // serviceRunners are not essential for these unit tests
+                testFolder.getRoot().getAbsolutePath(),
+                vaa3dStub.toString(),
+                "lib",
+                mock(JacsJobInstanceInfoDao.class),
+                new ApplicationConfigProvider().fromMap(ImmutableMap.of()).build(),
+                logger);
+    }
+
+    @Test
+    public void generateTheMIPsForAllRecordsFromTheGeneratedConfigFiles() throws Exception {
+        ExternalScriptTestHelper.createStubExecutable(vaa3dStub, argsLog);
+        JacsServiceData testServiceData = createTestServiceData();
+        List<File> configFiles = createConfigFiles(testServiceData);
+        assertEquals(2, configFiles.size());
+        for (File configFile : configFiles) {
+            ExternalScriptTestHelper.ScriptResult result = runScript(testServiceData, configFile);
+            assertEquals(0, result.exitCode);
+            assertEquals("", result.errors);
+        }
+        assertEquals(ImmutableList.of("-cmd image-loader -mip /in/i1.v3dpbd /out/o1.tif", "-cmd image-loader -mip /in/i2.v3dpbd /out/o2.tif -flipy"),
+                Files.readAllLines(argsLog, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void failIfAMIPFails() throws Exception {
+        ExternalScriptTestHelper.createStubExecutable(vaa3dStub, argsLog, "/in/i2.v3dpbd");
+        JacsServiceData testServiceData = createTestServiceData();
+        List<File> configFiles = createConfigFiles(testServiceData);
+        assertEquals(0, runScript(testServiceData, configFiles.get(0)).exitCode);
+        ExternalScriptTestHelper.ScriptResult result = runScript(testServiceData, configFiles.get(1));
+        assertEquals(1, result.exitCode);
+        assertEquals("Error generating the MIP for /in/i2.v3dpbd\n", result.errors);
+    }
+
+    private JacsServiceData createTestServiceData() {
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("vaa3dMip")
+                .addArgs("-inputFiles", "/in/i1.v3dpbd,/in/i2.v3dpbd")
+                .addArgs("-outputFiles", "/out/o1.tif,/out/o2.tif")
+                .addArgs("-flipY", "false,true")
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        return testServiceData;
+    }
+
+    private List<File> createConfigFiles(JacsServiceData testServiceData) {
+        List<ExternalCodeBlock> configs = vaa3dMipCmdProcessor.prepareConfigurationFiles(testServiceData);
+        return ExternalScriptTestHelper.createConfigFiles(testServiceData, configs, testFolder.getRoot().toPath().resolve("service"));
+    }
+
+    private ExternalScriptTestHelper.ScriptResult runScript(JacsServiceData testServiceData, File configFile) throws Exception {
+        return ExternalScriptTestHelper.runScript(vaa3dMipCmdProcessor.prepareExternalScript(testServiceData), configFile, testFolder.getRoot().toPath());
+    }
+}
@@ -36,6 +36,8 @@ import java.util.Map;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
@@ -129,6 +131,56 @@ public class LightsheetPipelineProcessorTest {
         Mockito.verify(failure, never()).accept(any());
     }
 
+    @Test
+    public void processFusedLightsheetPipelineSteps() {
+        Map<String, Object> fusedStepConfig = ImmutableMap.<String, Object>builder()
+                .putAll(createServiceConfig("clusterMF"))
+                .put("fuseWithPrevious", true)
+                .build();
+        Map<String, Object> notFusableStepConfig = ImmutableMap.<String, Object>builder()
+                .putAll(createServiceConfig("localAP"))
+                .put("fuseWithPrevious", true)
+                .build();
+        JacsServiceData testServiceData = createTestService(ImmutableMap.of("pipelineConfig", ImmutableMap.of("steps", ImmutableList.of(
+                createServiceConfig("clusterPT"), fusedStepConfig, notFusableStepConfig))));
+
+        Mockito.when(lightsheetPipelineStepProcessor.getResultHandler()).thenCallRealMethod();
+
+        ServiceComputation<JacsServiceResult<Void>> pipelineComputation = lightsheetPipelineProcessor.process(testServiceData);
+        @SuppressWarnings("unchecked")
+        Consumer<JacsServiceResult<Void>> successful = mock(Consumer.class);
+        pipelineComputation
+                .thenApply(r -> {
+                    successful.accept(r);
+                    // clusterMF runs in the same job as clusterPT but localAP cannot be fused because it does not split the time points
+                    Mockito.verify(lightsheetPipelineStepProcessor).createServiceData(
+                            any(ServiceExecutionContext.class),
+                            argThat(new ListArgMatcher<>(ImmutableList.of(
+                                    new ServiceArgMatcher(new ServiceArg("-step", "clusterPT")),
+                                    new ServiceArgMatcher(new ServiceArg("-stepIndex", 0))
+                            ))));
+                    Mockito.verify(lightsheetPipelineStepProcessor).createServiceData(
+                            any(ServiceExecutionContext.class),
+                            argThat(new ListArgMatcher<>(ImmutableList.of(
+                                    new ServiceArgMatcher(new ServiceArg("-step", "localAP")),
+                                    new ServiceArgMatcher(new ServiceArg("-stepIndex", 1))
+                            ))));
+                    Mockito.verify(lightsheetPipelineStepProcessor, times(2)).getMetadata();
+                    return r;
+                })
+                .exceptionally(exc -> {
+                    fail(exc.toString());
+                    return null;
+                });
+        Mockito.verify(successful).accept(any());
+        JacsServiceData fusedStepService = serviceStorage.values().stream()
+                .filter(sd -> sd.getDictionaryArgs().containsKey(LightsheetPipelineStepProcessor.FUSED_STEPS_ARG))
+                .findFirst()
+                .orElse(null);
+        assertNotNull(fusedStepService);
+        assertEquals(ImmutableList.of(fusedStepConfig), fusedStepService.getDictionaryArgs().get(LightsheetPipelineStepProcessor.FUSED_STEPS_ARG));
+    }
+
     private JacsServiceData createTestService(Map<String, Object> dictionaryArgs) {
         JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
                 .setDictionaryArgs(dictionaryArgs)
@@ -2,6 +2,7 @@ package org.janelia.jacs2.asyncservice.lightsheetservices;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
 import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
 import org.janelia.jacs2.asyncservice.common.ServiceArg;
@@ -19,6 +20,11 @@ import org.janelia.jacs2.cdi.ObjectMapperFactory;
 import org.janelia.jacs2.config.ApplicationConfig;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.jacs2.testhelpers.ListArgMatcher;
+import org.janelia.model.access.dao.JacsJobInstanceInfoDao;
+import org.janelia.model.jacs2.DataInterval;
+import org.janelia.model.jacs2.page.PageRequest;
+import org.janelia.model.jacs2.page.PageResult;
+import org.janelia.model.service.JacsJobInstanceInfo;
 import org.janelia.model.service.JacsServiceData;
 import org.janelia.model.service.JacsServiceDataBuilder;
 import org.janelia.model.service.JacsServiceState;
@@ -32,8 +38,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -78,6 +89,7 @@ public class LightsheetPipelineStepProcessorTest {
     private Logger logger;
     private PullSingularityContainerProcessor pullContainerProcessor;
     private SimpleRunSingularityContainerProcessor runContainerProcessor;
+    private JacsJobInstanceInfoDao jacsJobInstanceInfoDao;
 
     @Before
     public void setUp() throws Exception {
@@ -94,18 +106,25 @@ public class LightsheetPipelineStepProcessorTest {
 
         testDirectory = Files.createTempDirectory("testLightsheetStepProcessor").toFile();
 
+        AtomicLong serviceIds = new AtomicLong(TEST_SERVICE_ID);
+        Map<Number, JacsServiceData> servicesById = new ConcurrentHashMap<>();
         Mockito.when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> {
-            JacsServiceData sd = new JacsServiceData();
-            sd.setId(invocation.getArgument(0));
-            sd.setState(JacsServiceState.SUCCESSFUL);
+            JacsServiceData sd = servicesById.get(invocation.<Number>getArgument(0));
+            if (sd == null) {
+                sd = new JacsServiceData();
+                sd.setId(invocation.getArgument(0));
+                sd.setState(JacsServiceState.SUCCESSFUL);
+            }
             return sd;
         });
         Mockito.when(jacsServiceDataPersistence.createServiceIfNotFound(any(JacsServiceData.class))).then(invocation -> {
             JacsServiceData jacsServiceData = invocation.getArgument(0);
-            jacsServiceData.setId(TEST_SERVICE_ID);
+            jacsServiceData.setId(serviceIds.incrementAndGet());
             jacsServiceData.setState(JacsServiceState.SUCCESSFUL); // mark the service as completed otherwise the computation doesn't return
+            servicesById.put(jacsServiceData.getId(), jacsServiceData);
             return jacsServiceData;
         });
+        jacsJobInstanceInfoDao = mock(JacsJobInstanceInfoDao.class);
 
         lightsheetPipelineStepProcessor = createLightsheetPipelineStepProcessor(new ApplicationConfigProvider().fromMap(
                 ImmutableMap.of(
@@ -124,6 +143,7 @@ public class LightsheetPipelineStepProcessorTest {
                 applicationConfig,
                 pullContainerProcessor,
                 runContainerProcessor,
+                jacsJobInstanceInfoDao,
                 ObjectMapperFactory.instance().getDefaultObjectMapper(),
                 logger);
     }
@@ -300,6 +320,156 @@ public class LightsheetPipelineStepProcessorTest {
         });
     }
 
+    @Test
+    public void processFusedClusterStepsJob() {
+        int stepIndex = 1;
+        int timePointsPerJob = 10;
+        JacsServiceData testServiceData = createTestService(LightsheetPipelineStep.clusterCS, stepIndex, timePointsPerJob, CLUSTER_STEP_CONFIGS.get(LightsheetPipelineStep.clusterCS));
+        testServiceData.getDictionaryArgs().put(LightsheetPipelineStepProcessor.FUSED_STEPS_ARG, ImmutableList.of(
+                ImmutableMap.of(
+                        "name", LightsheetPipelineStep.clusterFR.name(),
+                        "parameters", CLUSTER_STEP_CONFIGS.get(LightsheetPipelineStep.clusterFR))));
+        prepareResultHandlers(LightsheetPipelineStep.clusterCS, LightsheetPipelineStep.clusterFR);
+        ServiceComputation<JacsServiceResult<Void>> stepComputation = lightsheetPipelineStepProcessor.process(testServiceData);
+        @SuppressWarnings("unchecked")
+        Consumer<JacsServiceResult<Void>> successful = mock(Consumer.class);
+        stepComputation
+                .thenApply(r -> {
+                    successful.accept(r);
+                    for (LightsheetPipelineStep step : ImmutableList.of(LightsheetPipelineStep.clusterCS, LightsheetPipelineStep.clusterFR)) {
+                        Mockito.verify(pullContainerProcessor).createServiceData(
+                                any(ServiceExecutionContext.class),
+                                argThat(new ListArgMatcher<>(
+                                        Arrays.asList(
+                                                new ServiceArgMatcher(new ServiceArg("-containerLocation", "shub://imagecatcher/imageprocessing/" + step.name().toLowerCase() + ":1.0"))
+                                        )
+                                ))
+                        );
+                    }
+                    File csConfigFile = new File(
+                            testDirectory,
+                            testServiceData.getId() + "/" + "stepConfig_" + CONFIG_REFERENCE + "_" + stepIndex + "_" + LightsheetPipelineStep.clusterCS + ".json");
+                    File frConfigFile = new File(
+                            testDirectory,
+                            testServiceData.getId() + "/" + "stepConfig_" + CONFIG_REFERENCE + "_" + stepIndex + "_" + LightsheetPipelineStep.clusterFR + ".json");
+                    assertTrue(frConfigFile.exists());
+                    String csContainerLocation = new File(testDirectory, LightsheetPipelineStep.clusterCS.name().toLowerCase() + ".simg").getAbsolutePath();
+                    String frContainerLocation = new File(testDirectory, LightsheetPipelineStep.clusterFR.name().toLowerCase() + ".simg").getAbsolutePath();
+                    // both steps run in the same job on the same time points
+                    Mockito.verify(runContainerProcessor).createServiceData(
+                            any(ServiceExecutionContext.class),
+                            argThat(new ListArgMatcher<>(
+                                    ImmutableList.of(
+                                            new ServiceArgMatcher(new ServiceArg("-containerLocation", csContainerLocation)),
+                                            new ServiceArgMatcher(new ServiceArg("-bindPaths",
+                                                    csConfigFile.getParentFile().getAbsolutePath() + ":" + csConfigFile.getParentFile().getAbsolutePath() + "," +
+                                                            "/groups/lightsheet/lightsheet:/groups/lightsheet/lightsheet" + "," +
+                                                            "/misc/local" + "," +
+                                                            "d1/d1.1:d1/d1.1" + "," +
+                                                            "d2"
+                                            )),
+                                            new ServiceArgMatcher(new ServiceArg("-appArgs", csConfigFile.getAbsolutePath() + "," + timePointsPerJob)),
+                                            new ServiceArgMatcher(new ServiceArg("-batchJobArgs", "1,2")),
+                                            new ServiceArgMatcher(new ServiceArg("-chainedContainerLocations", frContainerLocation)),
+                                            new ServiceArgMatcher(new ServiceArg("-chainedAppArgs", frConfigFile.getAbsolutePath() + " " + timePointsPerJob))
+                                    )
+                            ))
+                    );
+                    return r;
+                })
+                .exceptionally(exc -> {
+                    fail(exc.toString());
+                    return null;
+                })
+        ;
+        Mockito.verify(successful).accept(any());
+    }
+
+    @Test
+    public void processClusterStepJobWithMeasuredTimePointsPerJob() {
+        JacsServiceData previousRun1 = createPreviousRun(31L, 2);
+        JacsServiceData previousRun2 = createPreviousRun(32L, 4);
+        Mockito.when(jacsServiceDataPersistence.findMatchingServices(
+                argThat(pattern -> pattern.getTags().contains("lightsheetSteps:" + LightsheetPipelineStep.clusterCS)),
+                any(DataInterval.class),
+                any(PageRequest.class)))
+                .thenReturn(new PageResult<>(new PageRequest(), ImmutableList.of(previousRun1, previousRun2)));
+        Mockito.when(jacsJobInstanceInfoDao.findSuccessfulServicesJobInstances(ImmutableSet.<Number>of(31L, 32L)))
+                .thenReturn(ImmutableList.of(
+                        createJobInstance(31L, 600L), // 300s per time point
+                        createJobInstance(31L, 800L), // 400s per time point
+                        createJobInstance(32L, 1000L) // 250s per time point
+                ));
+        // the median is 300s per time point so a 1800s job processes 6 of the 19 time points
+        verifyClusterStepJobTimePointsPerJob(6, 4);
+    }
+
+    @Test
+    public void processClusterStepJobWithoutPreviousRunsUsesOneTimePointPerJob() {
+        Mockito.when(jacsServiceDataPersistence.findMatchingServices(any(JacsServiceData.class), any(DataInterval.class), any(PageRequest.class)))
+                .thenReturn(new PageResult<>(new PageRequest(), ImmutableList.of()));
+        verifyClusterStepJobTimePointsPerJob(1, 19);
+        Mockito.verifyZeroInteractions(jacsJobInstanceInfoDao);
+    }
+
+    private void verifyClusterStepJobTimePointsPerJob(int expectedTimePointsPerJob, int expectedNumJobs) {
+        LightsheetPipelineStep step = LightsheetPipelineStep.clusterCS;
+        int stepIndex = 1;
+        // no explicit number of time points per job
+        JacsServiceData testServiceData = createTestService(step, stepIndex, 0, CLUSTER_STEP_CONFIGS.get(step));
+        prepareResultHandlers(step);
+        ServiceComputation<JacsServiceResult<Void>> stepComputation = lightsheetPipelineStepProcessor.process(testServiceData);
+        @SuppressWarnings("unchecked")
+        Consumer<JacsServiceResult<Void>> successful = mock(Consumer.class);
+        stepComputation
+                .thenApply(r -> {
+                    successful.accept(r);
+                    File stepConfigFile = new File(
+                            testDirectory,
+                            testServiceData.getId() + "/" + "stepConfig_" + CONFIG_REFERENCE + "_" + stepIndex + "_" + step + ".json");
+                    Mockito.verify(runContainerProcessor).createServiceData(
+                            any(ServiceExecutionContext.class),
+                            argThat(new ListArgMatcher<>(
+                                    ImmutableList.of(
+                                            new ServiceArgMatcher(new ServiceArg("-containerLocation", new File(testDirectory, step.name().toLowerCase() + ".simg").getAbsolutePath())),
+                                            new ServiceArgMatcher(new ServiceArg("-bindPaths",
+                                                    stepConfigFile.getParentFile().getAbsolutePath() + ":" + stepConfigFile.getParentFile().getAbsolutePath() + "," +
+                                                            "/groups/lightsheet/lightsheet:/groups/lightsheet/lightsheet" + "," +
+                                                            "/misc/local" + "," +
+                                                            "d1/d1.1:d1/d1.1" + "," +
+                                                            "d2"
+                                            )),
+                                            new ServiceArgMatcher(new ServiceArg("-appArgs", stepConfigFile.getAbsolutePath() + "," + expectedTimePointsPerJob)),
+                                            new ServiceArgMatcher(new ServiceArg("-batchJobArgs", IntStream.rangeClosed(1, expectedNumJobs)
+                                                    .mapToObj(String::valueOf)
+                                                    .collect(Collectors.joining(","))))
+                                    )
+                            ))
+                    );
+                    return r;
+                })
+                .exceptionally(exc -> {
+                    fail(exc.toString());
+                    return null;
+                })
+        ;
+        Mockito.verify(successful).accept(any());
+    }
+
+    private JacsServiceData createPreviousRun(Long id, int timePointsPerJob) {
+        JacsServiceData previousRun = new JacsServiceData();
+        previousRun.setId(id);
+        previousRun.getDictionaryArgs().put("timePointsPerJob", timePointsPerJob);
+        return previousRun;
+    }
+
+    private JacsJobInstanceInfo createJobInstance(Long serviceId, Long runSecs) {
+        JacsJobInstanceInfo jobInstance = new JacsJobInstanceInfo();
+        jobInstance.setServiceDataId(serviceId);
+        jobInstance.setRunSecs(runSecs);
+        return jobInstance;
+    }
+
     @Test
     public void processMultipleClusterStepJob() {
         CLUSTER_STEP_CONFIGS.forEach((step, config) -> {
@@ -426,11 +596,21 @@ public class LightsheetPipelineStepProcessorTest {
         });
     }
 
-    private void prepareResultHandlers(LightsheetPipelineStep step) {
+    private void prepareResultHandlers(LightsheetPipelineStep... steps) {
         @SuppressWarnings("unchecked")
         ServiceResultHandler<File> pullContainerResultHandler = mock(ServiceResultHandler.class);
+        // each pull returns the image of the step whose container it pulled
         Mockito.when(pullContainerResultHandler.getServiceDataResult(any(JacsServiceData.class)))
-                .then(invocation -> new File(testDirectory, step.name().toLowerCase() + ".simg"));
+                .then(invocation -> {
+                    JacsServiceData pullServiceData = invocation.getArgument(0);
+                    List<String> pullArgs = pullServiceData.getArgs();
+                    String containerLocation = pullArgs.get(pullArgs.indexOf("-containerLocation") + 1);
+                    LightsheetPipelineStep pulledStep = Arrays.stream(steps)
+                            .filter(step -> containerLocation.contains(step.name().toLowerCase()))
+                            .findFirst()
+                            .orElseThrow(() -> new IllegalArgumentException("Unexpected container " + containerLocation));
+                    return new File(testDirectory, pulledStep.name().toLowerCase() + ".simg");
+                });
         Mockito.when(pullContainerProcessor.getResultHandler()).thenReturn(pullContainerResultHandler);
         Mockito.when(runContainerProcessor.getResultHandler()).thenCallRealMethod();
     }
@@ -16,7 +16,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
 
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.startsWith;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 
 public class KTXCreatorTest {
@@ -50,6 +53,38 @@ public class KTXCreatorTest {
         MatcherAssert.assertThat(Splitter.on(',').splitToList(batchArgs), hasSize((int) Math.pow(8, subTreeLength) + 1));
     }
 
+    @Test
+    public void getSubtreeAppBatchArgs() {
+        Long testServiceId = 10L;
+        int subTreeLength = 3;
+        JacsServiceData testServiceData = createTestService(testServiceId,
+                Arrays.asList(
+                        "-inputDir", TEST_WORKING_DIR + "/octree",
+                        "-outputDir", TEST_WORKING_DIR + "/ktx",
+                        "-levels", "8",
+                        "-subtreeRoot", "2",
+                        "-subtreeLengthForSubjobSplitting", String.valueOf(subTreeLength)));
+        KTXCreator.KTXCreatorArgs ktxArgs = ktxCreator.getArgs(testServiceData);
+        List<String> batchArgs = Splitter.on(',').splitToList(ktxCreator.getAppBatchArgs(ktxArgs));
+        // the octant contains 8^2 startup nodes at level 3 and 8^5 at level 6
+        MatcherAssert.assertThat(batchArgs, hasSize((int) Math.pow(8, 2) + (int) Math.pow(8, 5)));
+        MatcherAssert.assertThat(batchArgs, everyItem(startsWith("\"2/")));
+    }
+
+    @Test
+    public void getTopLevelsAppBatchArgs() {
+        Long testServiceId = 10L;
+        JacsServiceData testServiceData = createTestService(testServiceId,
+                Arrays.asList(
+                        "-inputDir", TEST_WORKING_DIR + "/octree",
+                        "-outputDir", TEST_WORKING_DIR + "/ktx",
+                        "-levels", "8",
+                        "-topLevelsOnly",
+                        "-subtreeLengthForSubjobSplitting", "5"));
+        KTXCreator.KTXCreatorArgs ktxArgs = ktxCreator.getArgs(testServiceData);
+        assertEquals("\"\" 5", ktxCreator.getAppBatchArgs(ktxArgs));
+    }
+
     private JacsServiceData createTestService(Long serviceId, List<String> args) {
         JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
                 .addArgs(args)
@@ -0,0 +1,149 @@
+package org.janelia.jacs2.asyncservice.lvtservices;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableList;
+
+import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
+import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
+import org.janelia.jacs2.asyncservice.common.ServiceComputation;
+import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
+import org.janelia.jacs2.asyncservice.containerizedservices.RunContainerProcessor;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceDataBuilder;
+import org.janelia.model.service.JacsServiceState;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LVDataImportTest {
+
+    private static final Long TEST_SERVICE_ID = 1L;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private LVDataImport lvDataImport;
+    private Path octreeDir;
+    private List<JacsServiceData> submittedServices;
+    private JacsServiceState octreeState;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger logger = mock(Logger.class);
+        ServiceComputationFactory computationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
+        JacsServiceDataPersistence jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
+        RunContainerProcessor runContainerProcessor = mock(RunContainerProcessor.class);
+        String workingDir = testFolder.getRoot().getAbsolutePath();
+
+        octreeDir = testFolder.newFolder("octree").toPath();
+        submittedServices = new ArrayList<>();
+        octreeState = JacsServiceState.SUCCESSFUL;
+        AtomicLong serviceIds = new AtomicLong(TEST_SERVICE_ID);
+        Map<Number, JacsServiceData> servicesById = new ConcurrentHashMap<>();
+        when(jacsServiceDataPersistence.createServiceIfNotFound(any(JacsServiceData.class))).then(invocation -> {
+            JacsServiceData childService = invocation.getArgument(0);
+            childService.setId(serviceIds.incrementAndGet());
+            childService.setState("octreeCreator".equals(childService.getName()) ? octreeState : JacsServiceState.SUCCESSFUL);
+            submittedServices.add(childService);
+            servicesById.put(childService.getId(), childService);
+            return childService;
+        });
+        when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> servicesById.get(invocation.<Number>getArgument(0)));
+
+        lvDataImport = new LVDataImport(computationFactory,
+                jacsServiceDataPersistence,
+                workingDir,
+                new OctreeCreator(computationFactory, jacsServiceDataPersistence, workingDir, runContainerProcessor, "octreeImage", logger),
+                new KTXCreator(computationFactory, jacsServiceDataPersistence, workingDir, runContainerProcessor, "ktxImage", logger),
+                logger);
+    }
+
+    @Test
+    public void generateAllChannelsAndSubtreesAndRecordThem() {
+        ServiceComputation<JacsServiceResult<LVResult>> lvImport = lvDataImport.process(createTestService("0,1"));
+
+        assertFalse(lvImport.isCompletedExceptionally());
+        assertEquals(ImmutableList.of("0", "1"), getSubmittedArgValues("octreeCreator", "-channel"));
+        assertEquals(ImmutableList.of("1", "2", "3", "4", "5", "6", "7", "8", ""), getSubmittedArgValues("ktxCreator", "-subtreeRoot"));
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(octreeDir.resolve("lvDataImport.checkpoint"));
+        assertTrue(manifest.hasTiffOctree("0"));
+        assertTrue(manifest.hasTiffOctree("1"));
+        for (String subtreeRoot : Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "")) {
+            assertTrue(manifest.hasKtxSubtree(subtreeRoot));
+        }
+    }
+
+    @Test
+    public void skipRecordedChannelsAndSubtrees() {
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(octreeDir.resolve("lvDataImport.checkpoint"));
+        manifest.markTiffOctree("0");
+        manifest.markKtxSubtree("1");
+        manifest.markKtxSubtree("2");
+        manifest.markKtxSubtree("3");
+        manifest.markKtxSubtree("4");
+
+        ServiceComputation<JacsServiceResult<LVResult>> lvImport = lvDataImport.process(createTestService("0,1"));
+
+        assertFalse(lvImport.isCompletedExceptionally());
+        assertEquals(ImmutableList.of("1"), getSubmittedArgValues("octreeCreator", "-channel"));
+        assertEquals(ImmutableList.of("5", "6", "7", "8", ""), getSubmittedArgValues("ktxCreator", "-subtreeRoot"));
+    }
+
+    @Test
+    public void failWithoutGeneratingKtxTilesIfTheOctreeGenerationFails() {
+        octreeState = JacsServiceState.ERROR;
+
+        ServiceComputation<JacsServiceResult<LVResult>> lvImport = lvDataImport.process(createTestService("0"));
+
+        assertTrue(lvImport.isCompletedExceptionally());
+        assertEquals(ImmutableList.of("0"), getSubmittedArgValues("octreeCreator", "-channel"));
+        assertTrue(getSubmittedArgValues("ktxCreator", "-subtreeRoot").isEmpty());
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(octreeDir.resolve("lvDataImport.checkpoint"));
+        assertFalse(manifest.hasTiffOctree("0"));
+        assertFalse(manifest.hasKtxSubtree(""));
+    }
+
+    private JacsServiceData createTestService(String channels) {
+        JacsServiceData testService = new JacsServiceDataBuilder(null)
+                .setName("lvDataImport")
+                .addArgs("-inputDir", testFolder.getRoot().toPath().resolve("input").toString())
+                .addArgs("-outputDir", octreeDir.toString())
+                .addArgs("-levels", "8")
+                .addArgs("-subtreeLengthForSubjobSplitting", "5")
+                .addArgs("-channels", channels)
+                .addArgs("-inputFilenamePattern", "default.{channel}.tif")
+                .build();
+        testService.setId(TEST_SERVICE_ID);
+        return testService;
+    }
+
+    private List<String> getSubmittedArgValues(String serviceName, String argName) {
+        return submittedServices.stream()
+                .filter(sd -> serviceName.equals(sd.getName()))
+                .map(sd -> {
+                    List<String> args = sd.getArgs();
+                    int argIndex = args.indexOf(argName);
+                    // blank arguments are not passed to the service
+                    return argIndex >= 0 ? args.get(argIndex + 1) : "";
+                })
+                .collect(Collectors.toList());
+    }
+}
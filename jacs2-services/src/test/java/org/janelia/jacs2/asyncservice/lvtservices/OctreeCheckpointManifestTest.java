@@ -0,0 +1,66 @@
+package org.janelia.jacs2.asyncservice.lvtservices;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OctreeCheckpointManifestTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path manifestPath;
+
+    @Before
+    public void setUp() {
+        manifestPath = testFolder.getRoot().toPath().resolve("octree/lvDataImport.checkpoint");
+    }
+
+    @Test
+    public void reloadRecordedOctreesAndSubtrees() {
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(manifestPath);
+        manifest.markTiffOctree("0");
+        manifest.markKtxSubtree("3");
+        manifest.markKtxSubtree("");
+
+        OctreeCheckpointManifest reloadedManifest = OctreeCheckpointManifest.load(manifestPath);
+        assertTrue(reloadedManifest.hasTiffOctree("0"));
+        assertFalse(reloadedManifest.hasTiffOctree("1"));
+        assertTrue(reloadedManifest.hasKtxSubtree("3"));
+        assertFalse(reloadedManifest.hasKtxSubtree("4"));
+        assertTrue(reloadedManifest.hasKtxSubtree(""));
+        assertTrue(reloadedManifest.hasKtxSubtree(null));
+    }
+
+    @Test
+    public void octreeStartTimeIsKeptForTheSameImport() throws Exception {
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(manifestPath);
+        long startTime = manifest.startTiffOctree("0", 10L);
+        Thread.sleep(5L);
+        assertEquals(startTime, manifest.startTiffOctree("0", 10L));
+        assertEquals(startTime, OctreeCheckpointManifest.load(manifestPath).startTiffOctree("0", 10L));
+        assertTrue(OctreeCheckpointManifest.load(manifestPath).startTiffOctree("0", 20L) > startTime);
+    }
+
+    @Test
+    public void ignoreIncompleteEntries() throws Exception {
+        OctreeCheckpointManifest manifest = OctreeCheckpointManifest.load(manifestPath);
+        manifest.markTiffOctree("0");
+        // an entry interrupted while it was written
+        Files.write(manifestPath, "tiff:1".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        OctreeCheckpointManifest reloadedManifest = OctreeCheckpointManifest.load(manifestPath);
+        assertTrue(reloadedManifest.hasTiffOctree("0"));
+        assertFalse(reloadedManifest.hasTiffOctree("1"));
+    }
+}
@@ -0,0 +1,76 @@
+package org.janelia.jacs2.asyncservice.sampleprocessing;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SampleResultsCompressionJournalTest {
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Path journalPath;
+
+    @Before
+    public void setUp() {
+        journalPath = testFolder.getRoot().toPath().resolve("journal/compression.journal");
+    }
+
+    @Test
+    public void reloadTheLastStageOfEachInput() {
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        journal.markConverted("/data/i1.v3draw", "/data/i1.h5j", "c1");
+        journal.markConverted("/data/i2.v3draw", "/data/i2.h5j", "c2");
+        journal.markUpdated("/data/i1.v3draw");
+        journal.markDeleted("/data/i1.v3draw");
+        journal.markUpdated("/data/i2.v3draw");
+
+        SampleResultsCompressionJournal reloadedJournal = SampleResultsCompressionJournal.load(journalPath);
+        assertEquals(2, reloadedJournal.getEntries().size());
+        SampleResultsCompressionJournal.Entry i1Entry = reloadedJournal.getEntry("/data/i1.v3draw").get();
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, i1Entry.stage);
+        assertEquals("/data/i1.h5j", i1Entry.output);
+        assertEquals("c1", i1Entry.checksum);
+        assertEquals(SampleResultsCompressionJournal.Stage.UPDATED, reloadedJournal.getEntry("/data/i2.v3draw").get().stage);
+    }
+
+    @Test
+    public void aNewConversionReplacesThePreviousOne() {
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        journal.markConverted("/data/i1.v3draw", "/data/i1.h5j", "c1");
+        journal.markUpdated("/data/i1.v3draw");
+        journal.markConverted("/data/i1.v3draw", "/data/i1.h5j", "c2");
+
+        SampleResultsCompressionJournal.Entry i1Entry = SampleResultsCompressionJournal.load(journalPath).getEntry("/data/i1.v3draw").get();
+        assertEquals(SampleResultsCompressionJournal.Stage.CONVERTED, i1Entry.stage);
+        assertEquals("c2", i1Entry.checksum);
+    }
+
+    @Test
+    public void ignoreIncompleteRecords() throws Exception {
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        journal.markConverted("/data/i1.v3draw", "/data/i1.h5j", "c1");
+        // a record interrupted while it was written
+        Files.write(journalPath, "UPDATED\t/data/i1.v3draw".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        SampleResultsCompressionJournal reloadedJournal = SampleResultsCompressionJournal.load(journalPath);
+        assertEquals(SampleResultsCompressionJournal.Stage.CONVERTED, reloadedJournal.getEntry("/data/i1.v3draw").get().stage);
+        assertFalse(reloadedJournal.getEntry("/data/i2.v3draw").isPresent());
+    }
+
+    @Test
+    public void onlyRecordedConversionsCanAdvance() {
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        Assert.assertThrows(IllegalStateException.class, () -> journal.markUpdated("/data/i1.v3draw"));
+    }
+}
@@ -0,0 +1,372 @@
+package org.janelia.jacs2.asyncservice.sampleprocessing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+
+import org.janelia.jacs2.asyncservice.common.ComputationTestHelper;
+import org.janelia.jacs2.asyncservice.common.JacsServiceResult;
+import org.janelia.jacs2.asyncservice.common.ServiceComputation;
+import org.janelia.jacs2.asyncservice.common.ServiceComputationFactory;
+import org.janelia.jacs2.asyncservice.common.ServiceProcessorTestHelper;
+import org.janelia.jacs2.asyncservice.common.ServiceResultHandler;
+import org.janelia.jacs2.asyncservice.fileservices.FileBatchCopyProcessor;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
+import org.janelia.jacs2.dataservice.sample.SampleDataService;
+import org.janelia.model.jacs2.EntityFieldValueHandler;
+import org.janelia.model.jacs2.domain.enums.FileType;
+import org.janelia.model.jacs2.domain.sample.ObjectiveSample;
+import org.janelia.model.jacs2.domain.sample.PipelineResult;
+import org.janelia.model.jacs2.domain.sample.Sample;
+import org.janelia.model.jacs2.domain.sample.SamplePipelineRun;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceDataBuilder;
+import org.janelia.model.service.JacsServiceState;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SampleResultsCompressionProcessorTest {
+
+    private static final Long TEST_SERVICE_ID = 1L;
+    private static final Long TEST_SAMPLE_ID = 100L;
+    private static final String TEST_OWNER = "user:test";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private JacsServiceDataPersistence jacsServiceDataPersistence;
+    private SampleDataService sampleDataService;
+    private SampleResultsCompressionProcessor sampleResultsCompressionProcessor;
+    private Path dataDir;
+    private Path journalPath;
+    private Sample testSample;
+    private SamplePipelineRun testRun;
+    private Set<String> failingConversions;
+    private List<String> convertedInputs;
+    private JacsServiceState conversionState;
+
+    @Before
+    public void setUp() throws Exception {
+        Logger logger = mock(Logger.class);
+        ServiceComputationFactory computationFactory = ComputationTestHelper.createTestServiceComputationFactory(logger);
+        jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
+        sampleDataService = mock(SampleDataService.class);
+        FileBatchCopyProcessor fileBatchCopyProcessor = mock(FileBatchCopyProcessor.class);
+        ServiceProcessorTestHelper.prepareServiceProcessorMetadataAsRealCall(fileBatchCopyProcessor);
+        @SuppressWarnings("unchecked")
+        ServiceResultHandler<Void> fileBatchCopyResultHandler = mock(ServiceResultHandler.class);
+        when(fileBatchCopyProcessor.getResultHandler()).thenReturn(fileBatchCopyResultHandler);
+
+        dataDir = testFolder.newFolder("data").toPath();
+        journalPath = testFolder.getRoot().toPath().resolve("compression.journal");
+        failingConversions = new HashSet<>();
+        convertedInputs = new ArrayList<>();
+        // the conversion service writes an output for every source that is not expected to fail
+        when(jacsServiceDataPersistence.createServiceIfNotFound(any(JacsServiceData.class))).then(invocation -> {
+            JacsServiceData conversionService = invocation.getArgument(0);
+            List<String> conversionArgs = conversionService.getArgs();
+            List<String> sources = Splitter.on(',').splitToList(conversionArgs.get(conversionArgs.indexOf("-src") + 1));
+            List<String> targets = Splitter.on(',').splitToList(conversionArgs.get(conversionArgs.indexOf("-dst") + 1));
+            conversionState = JacsServiceState.SUCCESSFUL;
+            for (int i = 0; i < sources.size(); i++) {
+                convertedInputs.add(sources.get(i));
+                if (failingConversions.contains(sources.get(i))) {
+                    conversionState = JacsServiceState.ERROR;
+                } else if (targets.get(i).endsWith(".v3dpbd")) {
+                    writeImage(Paths.get(targets.get(i)), "v3d_volume_pkbitdf_encod", "converted " + sources.get(i));
+                } else {
+                    writeH5j(Paths.get(targets.get(i)), "converted " + sources.get(i), false);
+                }
+            }
+            conversionService.setId(TEST_SERVICE_ID + 1);
+            conversionService.setState(conversionState);
+            return conversionService;
+        });
+        when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> {
+            JacsServiceData sd = new JacsServiceData();
+            sd.setId(invocation.getArgument(0));
+            sd.setState(conversionState);
+            return sd;
+        });
+
+        sampleResultsCompressionProcessor = new SampleResultsCompressionProcessor(computationFactory,
+                jacsServiceDataPersistence,
+                testFolder.getRoot().getAbsolutePath(),
+                sampleDataService,
+                fileBatchCopyProcessor,
+                logger);
+
+        testSample = new Sample();
+        testSample.setId(TEST_SAMPLE_ID);
+        ObjectiveSample testObjective = new ObjectiveSample();
+        testObjective.setObjective("20x");
+        testObjective.setParent(testSample);
+        testRun = new SamplePipelineRun();
+        testRun.setId(10L);
+        testObjective.addPipelineRun(testRun);
+        when(sampleDataService.getObjectivesBySampleIdAndObjective(TEST_OWNER, TEST_SAMPLE_ID, null)).thenReturn(ImmutableList.of(testObjective));
+    }
+
+    @Test
+    public void convertUpdateAndDeleteTheInputs() throws Exception {
+        PipelineResult r1 = addResult(11L, "r1.v3draw");
+        PipelineResult r2 = addResult(12L, "r2.v3draw");
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertFalse(compression.isCompletedExceptionally());
+        assertEquals(ImmutableList.of(dataDir.resolve("r1.v3draw").toString(), dataDir.resolve("r2.v3draw").toString()), convertedInputs);
+        Map<Number, Map<String, EntityFieldValueHandler<?>>> resultsUpdates = captureResultsUpdates();
+        assertEquals(ImmutableSet.of(11L, 12L), resultsUpdates.keySet());
+        assertEquals(dataDir.resolve("r1.h5j"), r1.getFullFilePath(FileType.VisuallyLosslessStack));
+        assertEquals(dataDir.resolve("r2.h5j"), r2.getFullFilePath(FileType.VisuallyLosslessStack));
+        assertFalse(Files.exists(dataDir.resolve("r1.v3draw")));
+        assertFalse(Files.exists(dataDir.resolve("r2.v3draw")));
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, journal.getEntry(dataDir.resolve("r1.v3draw").toString()).get().stage);
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, journal.getEntry(dataDir.resolve("r2.v3draw").toString()).get().stage);
+    }
+
+    @Test
+    public void failedConversionDoesNotCommitAPreExistingOutput() throws Exception {
+        addResult(11L, "r1.v3draw");
+        addResult(12L, "r2.v3draw");
+        // a stale output that was not produced by a recorded conversion
+        writeH5j(dataDir.resolve("r1.h5j"), "stale", false);
+        failingConversions.add(dataDir.resolve("r1.v3draw").toString());
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertTrue(compression.isCompletedExceptionally());
+        assertFalse(Files.exists(dataDir.resolve("r1.h5j")));
+        assertTrue(Files.exists(dataDir.resolve("r1.v3draw")));
+        // the other result is still committed
+        assertEquals(ImmutableSet.of(12L), captureResultsUpdates().keySet());
+        assertFalse(Files.exists(dataDir.resolve("r2.v3draw")));
+        assertFalse(SampleResultsCompressionJournal.load(journalPath).getEntry(dataDir.resolve("r1.v3draw").toString()).isPresent());
+    }
+
+    @Test
+    public void outputsWithoutAValidImageAreNotCommitted() throws Exception {
+        addResult(11L, "r1.v3draw");
+        addResult(12L, "r2.v3draw");
+        // the outputs are written after the conversion so that they replace the converted outputs
+        when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> {
+            writeH5j(dataDir.resolve("r1.h5j"), "truncated", true);
+            Files.write(dataDir.resolve("r2.h5j"), "not an image".getBytes(StandardCharsets.UTF_8));
+            JacsServiceData sd = new JacsServiceData();
+            sd.setId(invocation.getArgument(0));
+            sd.setState(JacsServiceState.SUCCESSFUL);
+            return sd;
+        });
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertTrue(compression.isCompletedExceptionally());
+        verify(sampleDataService, never()).updateSamplePipelineResults(any(Sample.class), anyMap());
+        assertTrue(Files.exists(dataDir.resolve("r1.v3draw")));
+        assertTrue(Files.exists(dataDir.resolve("r2.v3draw")));
+    }
+
+    @Test
+    public void resumeACompressionInterruptedBeforeTheUpdate() throws Exception {
+        addResult(11L, "r1.v3draw");
+        Path r1Output = writeH5j(dataDir.resolve("r1.h5j"), "converted", false);
+        SampleResultsCompressionJournal.load(journalPath).markConverted(dataDir.resolve("r1.v3draw").toString(), r1Output.toString(), checksum(r1Output));
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertFalse(compression.isCompletedExceptionally());
+        // the verified output is not converted again
+        verify(jacsServiceDataPersistence, never()).createServiceIfNotFound(any(JacsServiceData.class));
+        assertEquals(ImmutableSet.of(11L), captureResultsUpdates().keySet());
+        assertFalse(Files.exists(dataDir.resolve("r1.v3draw")));
+        assertEquals("converted", readH5jContent(r1Output));
+    }
+
+    @Test
+    public void reconvertAnOutputThatChangedBeforeTheUpdate() throws Exception {
+        addResult(11L, "r1.v3draw");
+        Path r1Output = writeH5j(dataDir.resolve("r1.h5j"), "converted", false);
+        SampleResultsCompressionJournal.load(journalPath).markConverted(dataDir.resolve("r1.v3draw").toString(), r1Output.toString(), checksum(r1Output));
+        writeH5j(r1Output, "changed", false);
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertFalse(compression.isCompletedExceptionally());
+        assertEquals(ImmutableList.of(dataDir.resolve("r1.v3draw").toString()), convertedInputs);
+        assertEquals("converted " + dataDir.resolve("r1.v3draw"), readH5jContent(r1Output));
+        assertEquals(checksum(r1Output), SampleResultsCompressionJournal.load(journalPath).getEntry(dataDir.resolve("r1.v3draw").toString()).get().checksum);
+    }
+
+    @Test
+    public void deleteTheInputsOfACompressionInterruptedAfterTheUpdate() throws Exception {
+        // r1 was interrupted after the update was recorded, r2 after the update but before it was recorded
+        Path r1Output = writeH5j(dataDir.resolve("r1.h5j"), "converted r1", false);
+        Path r2Output = writeH5j(dataDir.resolve("r2.h5j"), "converted r2", false);
+        Path r1Input = Files.createFile(dataDir.resolve("r1.v3draw"));
+        Path r2Input = Files.createFile(dataDir.resolve("r2.v3draw"));
+        addUpdatedResult(11L, "r1.h5j");
+        addUpdatedResult(12L, "r2.h5j");
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        journal.markConverted(r1Input.toString(), r1Output.toString(), checksum(r1Output));
+        journal.markUpdated(r1Input.toString());
+        journal.markConverted(r2Input.toString(), r2Output.toString(), checksum(r2Output));
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression();
+
+        assertFalse(compression.isCompletedExceptionally());
+        verify(jacsServiceDataPersistence, never()).createServiceIfNotFound(any(JacsServiceData.class));
+        verify(sampleDataService, never()).updateSamplePipelineResults(any(Sample.class), anyMap());
+        assertFalse(Files.exists(r1Input));
+        assertFalse(Files.exists(r2Input));
+        SampleResultsCompressionJournal updatedJournal = SampleResultsCompressionJournal.load(journalPath);
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, updatedJournal.getEntry(r1Input.toString()).get().stage);
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, updatedJournal.getEntry(r2Input.toString()).get().stage);
+    }
+
+    @Test
+    public void doNotDeleteTheInputIfTheOutputChangedAfterVerification() throws Exception {
+        Path r1Output = writeH5j(dataDir.resolve("r1.h5j"), "converted r1", false);
+        Path r1Input = Files.createFile(dataDir.resolve("r1.v3draw"));
+        addUpdatedResult(11L, "r1.h5j");
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        journal.markConverted(r1Input.toString(), r1Output.toString(), checksum(r1Output));
+        journal.markUpdated(r1Input.toString());
+        writeH5j(r1Output, "changed r1", false);
+
+        runCompression();
+
+        assertTrue(Files.exists(r1Input));
+        assertEquals(SampleResultsCompressionJournal.Stage.UPDATED, SampleResultsCompressionJournal.load(journalPath).getEntry(r1Input.toString()).get().stage);
+    }
+
+    @Test
+    public void convertToPbdAndCommitOnlyTheOutputsWithThePbdHeader() throws Exception {
+        PipelineResult r1 = addResult(11L, "r1.v3draw");
+        PipelineResult r2 = addResult(12L, "r2.v3draw");
+        // r2 is replaced after the conversion with an output that has the v3draw header instead of the PBD header
+        when(jacsServiceDataPersistence.findById(any(Number.class))).then(invocation -> {
+            writeImage(dataDir.resolve("r2.v3dpbd"), "raw_image_stack_by_hpeng", "not compressed");
+            JacsServiceData sd = new JacsServiceData();
+            sd.setId(invocation.getArgument(0));
+            sd.setState(JacsServiceState.SUCCESSFUL);
+            return sd;
+        });
+
+        ServiceComputation<JacsServiceResult<List<PipelineResult>>> compression = runCompression("v3dpbd");
+
+        assertTrue(compression.isCompletedExceptionally());
+        assertEquals(ImmutableSet.of(11L), captureResultsUpdates().keySet());
+        assertEquals(dataDir.resolve("r1.v3dpbd"), r1.getFullFilePath(FileType.LosslessStack));
+        assertEquals(dataDir.resolve("r2.v3draw"), r2.getFullFilePath(FileType.LosslessStack));
+        assertFalse(Files.exists(dataDir.resolve("r1.v3draw")));
+        assertTrue(Files.exists(dataDir.resolve("r2.v3draw")));
+        SampleResultsCompressionJournal journal = SampleResultsCompressionJournal.load(journalPath);
+        assertEquals(SampleResultsCompressionJournal.Stage.DELETED, journal.getEntry(dataDir.resolve("r1.v3draw").toString()).get().stage);
+        assertFalse(journal.getEntry(dataDir.resolve("r2.v3draw").toString()).isPresent());
+    }
+
+    private ServiceComputation<JacsServiceResult<List<PipelineResult>>> runCompression() {
+        return runCompression("h5j");
+    }
+
+    private ServiceComputation<JacsServiceResult<List<PipelineResult>>> runCompression(String outputFileType) {
+        JacsServiceData testServiceData = new JacsServiceDataBuilder(null)
+                .setName("sampleResultsCompression")
+                .setOwnerKey(TEST_OWNER)
+                .addArgs("-sampleId", TEST_SAMPLE_ID.toString())
+                .addArgs("-inputFileType", "v3draw")
+                .addArgs("-outputFileType", outputFileType)
+                .addArgs("-journal", journalPath.toString())
+                .build();
+        testServiceData.setId(TEST_SERVICE_ID);
+        return sampleResultsCompressionProcessor.process(testServiceData);
+    }
+
+    private PipelineResult addResult(Long resultId, String inputFileName) throws Exception {
+        Files.write(dataDir.resolve(inputFileName), ("input " + inputFileName).getBytes(StandardCharsets.UTF_8));
+        PipelineResult result = new PipelineResult();
+        result.setId(resultId);
+        result.setFilepath(dataDir.toString());
+        result.setFileName(FileType.LosslessStack, inputFileName);
+        testRun.addResult(result);
+        return result;
+    }
+
+    private PipelineResult addUpdatedResult(Long resultId, String outputFileName) {
+        PipelineResult result = new PipelineResult();
+        result.setId(resultId);
+        result.setFilepath(dataDir.toString());
+        result.setFileName(FileType.VisuallyLosslessStack, outputFileName);
+        testRun.addResult(result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Number, Map<String, EntityFieldValueHandler<?>>> captureResultsUpdates() {
+        ArgumentCaptor<Map> resultsUpdatesCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(sampleDataService).updateSamplePipelineResults(eq(testSample), resultsUpdatesCaptor.capture());
+        return resultsUpdatesCaptor.getValue();
+    }
+
+    private String checksum(Path filePath) throws Exception {
+        return com.google.common.io.Files.asByteSource(filePath.toFile()).hash(Hashing.sha256()).toString();
+    }
+
+    /**
+     * Write a file with a version 2 HDF5 superblock followed by the content. A truncated file's superblock
+     * has an end of file address past the end of the file.
+     */
+    private Path writeH5j(Path filePath, String content, boolean truncated) throws Exception {
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer fileBuffer = ByteBuffer.allocate(48 + contentBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        fileBuffer.put(new byte[] {(byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n'});
+        fileBuffer.put((byte) 2).put((byte) 8).put((byte) 8).put((byte) 0);
+        fileBuffer.putLong(0L); // base address
+        fileBuffer.putLong(-1L); // undefined superblock extension address
+        fileBuffer.putLong(fileBuffer.capacity() + (truncated ? 100 : 0)); // end of file address
+        fileBuffer.putLong(48L); // root group object header address
+        fileBuffer.putInt(0); // checksum
+        fileBuffer.put(contentBytes);
+        return Files.write(filePath, fileBuffer.array());
+    }
+
+    private Path writeImage(Path filePath, String signature, String content) throws Exception {
+        return Files.write(filePath, (signature + content).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String readH5jContent(Path filePath) throws Exception {
+        byte[] fileBytes = Files.readAllBytes(filePath);
+        return new String(Arrays.copyOfRange(fileBytes, 48, fileBytes.length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,152 @@
+package org.janelia.jacs2.asyncservice.sampleprocessing.zeiss;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LSMMetadataReaderTest {
+
+    private static final int LSMINFO_OFFSET = 64;
+    private static final int CHANNEL_COLORS_OFFSET = 512;
+    private static final int SCAN_INFORMATION_OFFSET = 1024;
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void readMetadata() throws IOException {
+        Path lsmFile = createTestLSMFile();
+        LSMMetadata lsmMetadata = LSMMetadata.fromLSMFile(lsmFile.toFile());
+
+        assertThat(lsmMetadata.getStack(), equalTo("test.lsm"));
+        assertThat(lsmMetadata.getChannels(), hasSize(2));
+        assertEquals("Ch1-T1", lsmMetadata.getChannels().get(0).getName());
+        assertEquals("#ff0000", lsmMetadata.getChannels().get(0).getColor());
+        assertEquals("Ch2-T1", lsmMetadata.getChannels().get(1).getName());
+        assertEquals("#ffffff", lsmMetadata.getChannels().get(1).getColor());
+
+        assertEquals("recording name", lsmMetadata.getRecording().getEntryName());
+        assertEquals(Integer.valueOf(1024), lsmMetadata.getRecording().getImagesWidth());
+        assertEquals(Double.valueOf(0.52), lsmMetadata.getRecording().getSampleSpacing());
+
+        assertThat(lsmMetadata.getTracks(), hasSize(1));
+        LSMTrack track = lsmMetadata.getTracks().get(0);
+        assertEquals("Track 1", track.getName());
+        assertEquals("0", track.getIsBleachTrack());
+        assertThat(track.getDetectionChannels(), hasSize(1));
+        assertEquals("Ch1", track.getDetectionChannels().get(0).getName());
+        assertThat(track.getDataChannels(), hasSize(1));
+        assertEquals(Long.valueOf(16777215L), track.getDataChannels().get(0).getColor());
+        assertThat(lsmMetadata.getLasers(), hasSize(1));
+        assertEquals("Laser 488", lsmMetadata.getLasers().get(0).getName());
+        assertNull(lsmMetadata.getMarkers());
+
+        assertEquals("Ch1", lsmMetadata.getDetectionChannel(lsmMetadata.getChannels().get(0)).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void readNonLSMFile() throws IOException {
+        Path tiffFile = testFolder.getRoot().toPath().resolve("test.tif");
+        ByteBuffer content = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        content.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8).putShort((short) 0);
+        Files.write(tiffFile, content.array());
+        LSMMetadataReader.readMetadata(tiffFile);
+    }
+
+    private Path createTestLSMFile() throws IOException {
+        ByteBuffer content = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        // TIFF header and the first directory with only the CZ_LSMINFO tag
+        content.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        content.position(8);
+        content.putShort((short) 1);
+        content.putShort((short) 34412).putShort((short) 1).putInt(500).putInt(LSMINFO_OFFSET);
+        content.putInt(0);
+        // CZ_LSMINFO
+        content.position(LSMINFO_OFFSET);
+        content.putInt(0x0400494C);
+        content.position(LSMINFO_OFFSET + 108);
+        content.putInt(CHANNEL_COLORS_OFFSET);
+        content.position(LSMINFO_OFFSET + 124);
+        content.putInt(SCAN_INFORMATION_OFFSET);
+        // channel colors
+        content.position(CHANNEL_COLORS_OFFSET);
+        content.putInt(72).putInt(2).putInt(2).putInt(24).putInt(32).putInt(0);
+        content.put(new byte[] {(byte) 0xFF, 0, 0, 0});
+        content.put(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0});
+        putName(content, "Ch1-T1");
+        putName(content, "Ch2-T1");
+        // scan information
+        content.position(SCAN_INFORMATION_OFFSET);
+        putSubblock(content, 0x10000000);
+        putAscii(content, 0x10000001, "recording name");
+        putLong(content, 0x1000000D, 1024);
+        putRational(content, 0x1000001C, 0.52);
+        putSubblock(content, 0x30000000);
+        putSubblock(content, 0x50000000);
+        putAscii(content, 0x50000001, "Laser 488");
+        putEnd(content);
+        putEnd(content);
+        putSubblock(content, 0x20000000);
+        putSubblock(content, 0x40000000);
+        putAscii(content, 0x4000000C, "Track 1");
+        putLong(content, 0x40000011, 0);
+        putLong(content, 0x400000FF, 7); // unknown attribute
+        putSubblock(content, 0x60000000);
+        putSubblock(content, 0x70000000);
+        putAscii(content, 0x70000014, "Ch1");
+        putEnd(content);
+        putEnd(content);
+        putSubblock(content, 0xC0000000);
+        putSubblock(content, 0xD0000000);
+        putAscii(content, 0xD0000001, "Ch1");
+        putLong(content, 0xD0000004, 16777215);
+        putEnd(content);
+        putEnd(content);
+        putEnd(content);
+        putEnd(content);
+        putEnd(content);
+        Path lsmFile = testFolder.getRoot().toPath().resolve("test.lsm");
+        Files.write(lsmFile, Arrays.copyOf(content.array(), content.position()));
+        return lsmFile;
+    }
+
+    private void putName(ByteBuffer content, String name) {
+        byte[] nameBytes = (name + "\0").getBytes(StandardCharsets.ISO_8859_1);
+        content.putInt(nameBytes.length).put(nameBytes);
+    }
+
+    private void putSubblock(ByteBuffer content, int tag) {
+        content.putInt(tag).putInt(0).putInt(0);
+    }
+
+    private void putEnd(ByteBuffer content) {
+        content.putInt(0xFFFFFFFF).putInt(0).putInt(0);
+    }
+
+    private void putAscii(ByteBuffer content, int tag, String value) {
+        byte[] valueBytes = (value + "\0").getBytes(StandardCharsets.ISO_8859_1);
+        content.putInt(tag).putInt(2).putInt(valueBytes.length).put(valueBytes);
+    }
+
+    private void putLong(ByteBuffer content, int tag, int value) {
+        content.putInt(tag).putInt(4).putInt(4).putInt(value);
+    }
+
+    private void putRational(ByteBuffer content, int tag, double value) {
+        content.putInt(tag).putInt(5).putInt(8).putDouble(value);
+    }
+}
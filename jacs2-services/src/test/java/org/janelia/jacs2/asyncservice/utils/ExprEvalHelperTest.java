@@ -0,0 +1,45 @@
+package org.janelia.jacs2.asyncservice.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExprEvalHelperTest {
+
+    @Test
+    public void evalWithContextMap() {
+        Map<String, List<Object>> evalContext = ImmutableMap.of(
+                "s1", ImmutableList.of(ImmutableMap.of("f1", "v1", "f2", ImmutableList.of(1, 2))),
+                "s2", ImmutableList.of(ImmutableMap.of("f1", "v21"), ImmutableMap.of("f1", "v22"))
+        );
+        assertEquals("v1", ExprEvalHelper.eval("${s1.f1}", evalContext));
+        assertEquals(2, ExprEvalHelper.eval("${s1.f2[1]}", evalContext));
+        assertEquals("v22", ExprEvalHelper.eval("${s2[1].f1}", evalContext));
+        assertEquals("v1,v21", ExprEvalHelper.eval("${s1.f1},${s2[0].f1}", evalContext));
+        // unresolved expressions evaluate to themselves
+        assertEquals("${s3.f1}", ExprEvalHelper.eval("${s3.f1}", evalContext));
+    }
+
+    @Test
+    public void onlyReferencedVariablesAreResolved() {
+        List<String> resolvedVariables = new ArrayList<>();
+        for (String value : new String[] {"v1", "v2"}) {
+            // the same expression is evaluated with different contexts
+            resolvedVariables.clear();
+            Object result = ExprEvalHelper.eval("${s1.f1}", (String name) -> {
+                resolvedVariables.add(name);
+                return "s1".equals(name) ? Optional.of(ImmutableMap.of("f1", value)) : Optional.empty();
+            });
+            assertEquals(value, result);
+            assertEquals(ImmutableList.of("s1"), resolvedVariables);
+        }
+    }
+}
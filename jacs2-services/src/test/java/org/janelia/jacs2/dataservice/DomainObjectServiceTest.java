@@ -2,20 +2,35 @@ package org.janelia.jacs2.dataservice;
 
 import com.google.common.collect.ImmutableList;
 import org.janelia.jacs2.dao.DaoFactory;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.model.domain.Reference;
+import org.janelia.model.jacs2.dao.DomainObjectDao;
 import org.janelia.model.jacs2.dao.ImageDao;
 import org.janelia.model.jacs2.dao.SampleDao;
 import org.janelia.model.jacs2.domain.DomainObject;
 import org.janelia.model.jacs2.domain.Subject;
+import org.janelia.model.jacs2.domain.sample.Sample;
+import org.janelia.model.service.JacsServiceData;
+import org.janelia.model.service.JacsServiceState;
 import org.junit.Before;
 import org.junit.Test;
+import org.slf4j.Logger;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -25,6 +40,7 @@ public class DomainObjectServiceTest {
 
     private SampleDao sampleDao;
     private ImageDao imageDao;
+    private JacsServiceDataPersistence jacsServiceDataPersistence;
 
     private DomainObjectService testService;
 
@@ -33,9 +49,11 @@ public class DomainObjectServiceTest {
         sampleDao = mock(SampleDao.class);
         DaoFactory daoFactory = mock(DaoFactory.class);
         imageDao = mock(ImageDao.class);
-        testService  = new DomainObjectService(daoFactory);
+        jacsServiceDataPersistence = mock(JacsServiceDataPersistence.class);
+        testService  = new DomainObjectService(daoFactory, jacsServiceDataPersistence, 600, mock(Logger.class));
         when(daoFactory.createDomainObjectDao("LSMImage")).thenAnswer(invocation -> imageDao);
         when(daoFactory.createDomainObjectDao("Sample")).thenAnswer(invocation -> sampleDao);
+        when(daoFactory.getAllDomainObjectDaos()).thenReturn(ImmutableList.<DomainObjectDao<?>>of(imageDao, sampleDao));
     }
 
     @SuppressWarnings("unchecked")
@@ -56,4 +74,88 @@ public class DomainObjectServiceTest {
         verify(sampleDao).findByIds(null, ImmutableList.of(2L, 3L, 5L));
     }
 
+    @Test
+    public void renewLeasesOnlyWhileTheHolderIsActive() {
+        Sample activeHolderSample = createTestSample(10L);
+        Sample completedHolderSample = createTestSample(20L);
+        when(sampleDao.lockEntity(anyString(), any(Sample.class), any(), anyLong())).thenReturn(true);
+        when(sampleDao.renewEntityLock(anyString(), any(Sample.class))).thenReturn(true);
+        when(sampleDao.unlockEntity(anyString(), any(Sample.class))).thenReturn(true);
+        when(jacsServiceDataPersistence.findById(1L)).thenReturn(createTestService(JacsServiceState.RUNNING));
+        when(jacsServiceDataPersistence.findById(2L)).thenReturn(createTestService(JacsServiceState.ERROR));
+
+        String activeHolderLock = testService.tryLock(activeHolderSample, 1L);
+        String completedHolderLock = testService.tryLock(completedHolderSample, 2L);
+        verify(sampleDao).lockEntity(activeHolderLock, activeHolderSample, 1L, TimeUnit.SECONDS.toMillis(600));
+
+        testService.renewLeases();
+        verify(sampleDao).renewEntityLock(activeHolderLock, activeHolderSample);
+        verify(sampleDao, never()).unlockEntity(activeHolderLock, activeHolderSample);
+        verify(sampleDao).unlockEntity(completedHolderLock, completedHolderSample);
+        verify(sampleDao, never()).renewEntityLock(completedHolderLock, completedHolderSample);
+    }
+
+    @Test
+    public void lockWaiterIsNotifiedWhenTheLockIsReleased() throws Exception {
+        Sample testSample = createTestSample(10L);
+        AtomicBoolean locked = new AtomicBoolean(false);
+        when(sampleDao.lockEntity(anyString(), eq(testSample), any(), anyLong())).thenAnswer(invocation -> locked.compareAndSet(false, true));
+        when(sampleDao.unlockEntity(anyString(), eq(testSample))).thenAnswer(invocation -> locked.compareAndSet(true, false));
+
+        String firstLock = testService.tryLock(testSample);
+        assertNotNull(firstLock);
+        assertNull(testService.tryLock(testSample));
+        CompletableFuture<String> secondLock = CompletableFuture.supplyAsync(() -> testService.lock(testSample, 1, TimeUnit.MINUTES));
+        testService.unlock(firstLock, testSample);
+        // the waiter is woken up by the release long before the next lease renewal check
+        assertNotNull(secondLock.get(10, TimeUnit.SECONDS));
+        assertEquals(0, testService.countLockReleaseSignals());
+    }
+
+    @Test
+    public void lockReleaseSignalIsRemovedWhenTheWaitTimesOut() {
+        Sample testSample = createTestSample(10L);
+        when(sampleDao.lockEntity(anyString(), eq(testSample), any(), anyLong())).thenReturn(false);
+
+        assertNull(testService.lock(testSample, 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, testService.countLockReleaseSignals());
+    }
+
+    @Test
+    public void adoptPersistedLeasesOfActiveHolders() {
+        Sample activeHolderSample = createLockedTestSample(10L, "activeHolderLock", 1L);
+        Sample completedHolderSample = createLockedTestSample(20L, "completedHolderLock", 2L);
+        Sample noHolderSample = createLockedTestSample(30L, "noHolderLock", null);
+        when(sampleDao.findLockedEntities()).thenReturn(ImmutableList.of(activeHolderSample, completedHolderSample, noHolderSample));
+        when(sampleDao.renewEntityLock(anyString(), any(Sample.class))).thenReturn(true);
+        when(sampleDao.unlockEntity(anyString(), any(Sample.class))).thenReturn(true);
+        when(jacsServiceDataPersistence.findById(1L)).thenReturn(createTestService(JacsServiceState.SUSPENDED));
+        when(jacsServiceDataPersistence.findById(2L)).thenReturn(createTestService(JacsServiceState.CANCELED));
+
+        testService.adoptPersistedLeases();
+        testService.renewLeases();
+        verify(sampleDao).renewEntityLock("activeHolderLock", activeHolderSample);
+        verify(sampleDao).unlockEntity("completedHolderLock", completedHolderSample);
+        verify(sampleDao, never()).renewEntityLock("noHolderLock", noHolderSample);
+        verify(sampleDao, never()).unlockEntity("noHolderLock", noHolderSample);
+    }
+
+    private Sample createTestSample(Long id) {
+        Sample testSample = new Sample();
+        testSample.setId(id);
+        return testSample;
+    }
+
+    private Sample createLockedTestSample(Long id, String lockKey, Number lockHolderId) {
+        Sample testSample = createTestSample(id);
+        testSample.setLockKey(lockKey);
+        testSample.setLockHolderId(lockHolderId);
+        return testSample;
+    }
+
+    private JacsServiceData createTestService(JacsServiceState state) {
+        JacsServiceData testService = new JacsServiceData();
+        testService.setState(state);
+        return testService;
+    }
 }
@@ -5,7 +5,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.dataservice.persistence.JacsScheduledServiceDataPersistence;
 import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.model.service.JacsScheduledServiceData;
-import org.janelia.model.service.JacsServiceData;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatchers;
@@ -16,6 +15,7 @@ import java.util.Date;
 import java.util.List;
 
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class CronScheduledServiceManagerTest {
 
@@ -29,7 +29,7 @@ public class CronScheduledServiceManagerTest {
     public void setUp() {
         jacsScheduledServiceDataPersistence = Mockito.mock(JacsScheduledServiceDataPersistence.class);
         jacsServiceDataPersistence = Mockito.mock(JacsServiceDataPersistence.class);
-        cronScheduledServiceManager = new CronScheduledServiceManager(jacsScheduledServiceDataPersistence, jacsServiceDataPersistence, TEST_QUEUE_ID);
+        cronScheduledServiceManager = new CronScheduledServiceManager(jacsScheduledServiceDataPersistence, jacsServiceDataPersistence, new ScheduledServicesIndex(), TEST_QUEUE_ID, 300);
     }
 
     @Test
@@ -43,12 +43,7 @@ public class CronScheduledServiceManagerTest {
                 .add(createTestData("j5", "s5", null))
                 .add(createTestData("j6", null, null))
                 .build();
-        Mockito.when(jacsScheduledServiceDataPersistence.findServicesScheduledAtOrBefore(ArgumentMatchers.eq(TEST_QUEUE_ID), ArgumentMatchers.any(Date.class)))
-                .thenReturn(testData);
-        Mockito.when(jacsScheduledServiceDataPersistence.updateServicesScheduledAtOrBefore(ArgumentMatchers.anyList(), ArgumentMatchers.any(Date.class)))
-                .then(invocation -> invocation.getArgument(0));
-        Mockito.when(jacsServiceDataPersistence.createEntity(ArgumentMatchers.any(JacsServiceData.class)))
-                .then(invocation -> invocation.getArgument(0));
+        prepareMocks(testData);
         cronScheduledServiceManager.scheduleServices(Duration.ofSeconds(60));
         testData.forEach(scheduledService -> {
             if (StringUtils.isNotBlank(scheduledService.getServiceName()) &&
@@ -56,6 +51,30 @@ public class CronScheduledServiceManagerTest {
                 assertNotNull(scheduledService.getNextStartTime());
             }
         });
+        assertTrue(cronScheduledServiceManager.getNextScheduledTime().isPresent());
+    }
+
+    @Test
+    public void scheduledServicesAreOnlyReloadedWhenTheIndexIsStale() {
+        List<JacsScheduledServiceData> testData = ImmutableList.of(
+                createTestData("j1", "s1", "*/5 */1 * * *")
+        );
+        prepareMocks(testData);
+        cronScheduledServiceManager.scheduleServices(Duration.ofSeconds(60));
+        cronScheduledServiceManager.scheduleServices(Duration.ofSeconds(60));
+        Mockito.verify(jacsScheduledServiceDataPersistence, Mockito.times(1)).findEnabledScheduledServices(TEST_QUEUE_ID);
+        cronScheduledServiceManager.removeScheduledServiceById(testData.get(0));
+        cronScheduledServiceManager.scheduleServices(Duration.ofSeconds(60));
+        Mockito.verify(jacsScheduledServiceDataPersistence, Mockito.times(2)).findEnabledScheduledServices(TEST_QUEUE_ID);
+    }
+
+    private void prepareMocks(List<JacsScheduledServiceData> testData) {
+        Mockito.when(jacsScheduledServiceDataPersistence.findEnabledScheduledServices(TEST_QUEUE_ID))
+                .thenReturn(testData);
+        Mockito.when(jacsScheduledServiceDataPersistence.updateServicesScheduledAtOrBefore(ArgumentMatchers.anyList(), ArgumentMatchers.any(Date.class)))
+                .then(invocation -> invocation.getArgument(0));
+        Mockito.when(jacsServiceDataPersistence.createEntities(ArgumentMatchers.anyList()))
+                .then(invocation -> invocation.getArgument(0));
     }
 
     private JacsScheduledServiceData createTestData(String jobName, String serviceName, String cronDescriptor) {
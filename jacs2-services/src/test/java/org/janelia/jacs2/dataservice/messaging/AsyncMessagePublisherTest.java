@@ -0,0 +1,93 @@
+package org.janelia.jacs2.dataservice.messaging;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.janelia.messaging.core.MessageSender;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class AsyncMessagePublisherTest {
+
+    private MessageSender messageSender;
+    private List<String> sentMessages;
+
+    @Before
+    public void setUp() {
+        // the mock acts as an in-memory broker that simply records the messages in the order they were sent
+        sentMessages = Collections.synchronizedList(new ArrayList<>());
+        messageSender = mock(MessageSender.class);
+        doAnswer(invocation -> {
+            Map<String, Object> headers = invocation.getArgument(0);
+            byte[] body = invocation.getArgument(1);
+            sentMessages.add(headers.get("key") + ":" + new String(body));
+            return null;
+        }).when(messageSender).sendMessage(anyMap(), any(byte[].class));
+    }
+
+    @Test
+    public void coalescePendingMessagesWithTheSameKey() {
+        AsyncMessagePublisher messagePublisher = new AsyncMessagePublisher(messageSender, 10, 2, 0);
+        publish(messagePublisher, "n1", false, "create");
+        publish(messagePublisher, "n1", true, "save1");
+        publish(messagePublisher, "n2", true, "save1");
+        publish(messagePublisher, "n1", true, "save2");
+        publish(messagePublisher, "n1", false, "delete");
+        publish(messagePublisher, "n2", true, "save2");
+        messagePublisher.start();
+        messagePublisher.stop();
+
+        assertEquals(ImmutableList.of("n1:create", "n1:save2", "n2:save2", "n1:delete"), sentMessages);
+        assertEquals(4, messagePublisher.getSentMessagesCount());
+        assertEquals(2, messagePublisher.getCoalescedMessagesCount());
+    }
+
+    @Test
+    public void preserveOrderPerKey() {
+        AsyncMessagePublisher messagePublisher = new AsyncMessagePublisher(messageSender, 5, 3, 10000);
+        messagePublisher.start();
+        for (int i = 0; i < 100; i++) {
+            publish(messagePublisher, "n" + (i % 3), false, String.valueOf(i));
+        }
+        messagePublisher.stop();
+
+        assertEquals(100, sentMessages.size());
+        for (int k = 0; k < 3; k++) {
+            String key = "n" + k;
+            List<Integer> messagesForKey = sentMessages.stream()
+                    .filter(m -> m.startsWith(key + ":"))
+                    .map(m -> Integer.valueOf(m.substring(key.length() + 1)))
+                    .collect(Collectors.toList());
+            assertEquals(messagesForKey.stream().sorted().collect(Collectors.toList()), messagesForKey);
+        }
+    }
+
+    @Test
+    public void rejectMessageWhenQueueIsFull() {
+        AsyncMessagePublisher messagePublisher = new AsyncMessagePublisher(messageSender, 1, 1, 10);
+        publish(messagePublisher, "n1", false, "create");
+        try {
+            publish(messagePublisher, "n2", false, "create");
+            fail("The queue should have been full");
+        } catch (IllegalStateException e) {
+            assertEquals(1, messagePublisher.getPendingMessagesCount());
+        }
+    }
+
+    private void publish(AsyncMessagePublisher messagePublisher, String key, boolean coalescable, String body) {
+        messagePublisher.publish(key, coalescable, ImmutableMap.of("key", key), body.getBytes());
+    }
+}
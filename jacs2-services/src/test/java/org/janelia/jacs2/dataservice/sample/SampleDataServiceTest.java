@@ -13,6 +13,7 @@ import org.janelia.model.jacs2.domain.sample.Sample;
 import org.janelia.model.jacs2.domain.sample.ObjectiveSample;
 import org.janelia.model.jacs2.domain.sample.SampleTile;
 import org.janelia.jacs2.dataservice.DomainObjectService;
+import org.janelia.jacs2.dataservice.persistence.JacsServiceDataPersistence;
 import org.janelia.jacs2.dataservice.subject.SubjectService;
 import org.junit.Before;
 import org.junit.Test;
@@ -50,7 +51,7 @@ public class SampleDataServiceTest {
         lsmImageDao = mock(LSMImageDao.class);
         NeuronFragmentDao neuronFragmentDao = mock(NeuronFragmentDao.class);
 
-        DomainObjectService domainObjectService = new DomainObjectService(daoFactory);
+        DomainObjectService domainObjectService = new DomainObjectService(daoFactory, mock(JacsServiceDataPersistence.class), 600, logger);
         testService = new SampleDataService(domainObjectService, subjectService, sampleDao, lsmImageDao, neuronFragmentDao, logger);
         when(daoFactory.createDomainObjectDao("LSMImage")).thenAnswer(invocation -> lsmImageDao);
     }
@@ -0,0 +1,125 @@
+package org.janelia.jacs2.dataservice.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import org.janelia.model.domain.Reference;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IncrementalIndexerTest {
+
+    /**
+     * In memory stand-in for the Mongo change stream.
+     */
+    private static class TestChangeFeed implements DocumentChangeFeed {
+        private final List<DocumentChange> changes = new ArrayList<>();
+        private int committedPosition;
+        private int currentPosition;
+
+        void add(DocumentChange documentChange) {
+            changes.add(documentChange);
+        }
+
+        @Override
+        public void open() {
+            currentPosition = committedPosition;
+        }
+
+        @Override
+        public DocumentChange tryNext() {
+            return currentPosition < changes.size() ? changes.get(currentPosition++) : null;
+        }
+
+        @Override
+        public void commit(String resumeToken) {
+            committedPosition = Integer.parseInt(resumeToken);
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+    }
+
+    private TestChangeFeed testChangeFeed;
+    private DocumentIndexingService documentIndexingService;
+
+    @Before
+    public void setUp() {
+        testChangeFeed = new TestChangeFeed();
+        documentIndexingService = mock(DocumentIndexingService.class);
+        when(documentIndexingService.indexDocuments(anyList())).then(invocation -> invocation.<List<?>>getArgument(0).size());
+        when(documentIndexingService.removeDocuments(anyList())).then(invocation -> invocation.<List<?>>getArgument(0).size());
+    }
+
+    @Test
+    public void repeatedChangesAreCollapsed() {
+        IncrementalIndexer incrementalIndexer = new IncrementalIndexer(testChangeFeed, documentIndexingService, 0, 100);
+        testChangeFeed.add(DocumentChange.updated(1L, "Sample", "1"));
+        testChangeFeed.add(DocumentChange.updated(2L, "Sample", "2"));
+        testChangeFeed.add(DocumentChange.updated(1L, "Sample", "3"));
+        testChangeFeed.add(DocumentChange.updated(3L, "LSMImage", "4"));
+        testChangeFeed.add(DocumentChange.removed(3L, "5"));
+
+        assertEquals(3, incrementalIndexer.processChanges());
+        verify(documentIndexingService).indexDocuments(ImmutableList.of(
+                Reference.createFor("Sample", 2L),
+                Reference.createFor("Sample", 1L)));
+        verify(documentIndexingService).removeDocuments(ImmutableList.of(3L));
+        assertEquals(5, testChangeFeed.committedPosition);
+    }
+
+    @Test
+    public void changesAreHeldUntilDebounceIntervalElapses() {
+        IncrementalIndexer incrementalIndexer = new IncrementalIndexer(testChangeFeed, documentIndexingService, 60000, 100);
+        testChangeFeed.add(DocumentChange.updated(1L, "Sample", "1"));
+
+        assertEquals(0, incrementalIndexer.processChanges());
+        verify(documentIndexingService, never()).indexDocuments(anyList());
+        assertEquals(0, testChangeFeed.committedPosition);
+    }
+
+    @Test
+    public void fullBatchIsFlushedRegardlessOfDebounceInterval() {
+        IncrementalIndexer incrementalIndexer = new IncrementalIndexer(testChangeFeed, documentIndexingService, 60000, 2);
+        testChangeFeed.add(DocumentChange.updated(1L, "Sample", "1"));
+        testChangeFeed.add(DocumentChange.updated(2L, "Sample", "2"));
+        testChangeFeed.add(DocumentChange.updated(3L, "Sample", "3"));
+
+        assertEquals(2, incrementalIndexer.processChanges());
+        assertEquals(2, testChangeFeed.committedPosition);
+    }
+
+    @Test
+    public void failedBatchIsReplayedFromLastCommittedChange() {
+        IncrementalIndexer incrementalIndexer = new IncrementalIndexer(testChangeFeed, documentIndexingService, 0, 100);
+        testChangeFeed.add(DocumentChange.updated(1L, "Sample", "1"));
+        when(documentIndexingService.indexDocuments(anyList()))
+                .thenThrow(new IllegalStateException("SOLR is down"))
+                .then(invocation -> invocation.<List<?>>getArgument(0).size());
+        try {
+            incrementalIndexer.processChanges();
+            fail("Expected the indexing failure to be propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("SOLR is down", e.getMessage());
+        }
+        assertEquals(0, testChangeFeed.committedPosition);
+
+        assertEquals(1, incrementalIndexer.processChanges());
+        assertEquals(1, testChangeFeed.committedPosition);
+        assertNull(testChangeFeed.tryNext());
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.janelia.jacs2.dataservice.subject;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.janelia.model.access.domain.dao.SubjectDao;
+import org.janelia.model.security.GroupRole;
+import org.janelia.model.security.User;
+import org.janelia.model.security.UserGroupRole;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SubjectCacheTest {
+
+    private static final String TEST_USER_KEY = "user:testuser";
+    private static final String TEST_GROUP_KEY = "group:testgroup";
+
+    private SubjectDao subjectDao;
+    private SubjectCache subjectCache;
+    private User testUser;
+
+    @Before
+    public void setUp() {
+        subjectDao = mock(SubjectDao.class);
+        subjectCache = new SubjectCache(subjectDao, 60);
+        testUser = new User();
+        testUser.setKey(TEST_USER_KEY);
+        testUser.setName("testuser");
+        testUser.setUserGroupRoles(ImmutableSet.of(new UserGroupRole(TEST_GROUP_KEY, GroupRole.Reader)));
+        when(subjectDao.findSubjectByNameOrKey(TEST_USER_KEY)).thenReturn(testUser);
+    }
+
+    @Test
+    public void subjectIsOnlyReadOnce() {
+        for (int i = 0; i < 3; i++) {
+            assertSame(testUser, subjectCache.getSubjectByNameOrKey(TEST_USER_KEY));
+        }
+        verify(subjectDao).findSubjectByNameOrKey(TEST_USER_KEY);
+        SubjectCache.SubjectCacheStats stats = subjectCache.getStats();
+        assertEquals(3, stats.getSubjectRequests());
+        assertEquals(2. / 3, stats.getSubjectHitRate(), 0.001);
+    }
+
+    @Test
+    public void missingSubjectsAreNotCached() {
+        assertNull(subjectCache.getSubjectByNameOrKey("user:newuser"));
+        assertTrue(subjectCache.getSubjectKeysWithGroups("user:newuser").isEmpty());
+        User newUser = new User();
+        newUser.setKey("user:newuser");
+        when(subjectDao.findSubjectByNameOrKey("user:newuser")).thenReturn(newUser);
+        assertSame(newUser, subjectCache.getSubjectByNameOrKey("user:newuser"));
+    }
+
+    @Test
+    public void subjectKeysIncludeTheSubjectGroups() {
+        assertEquals(ImmutableSet.of(TEST_USER_KEY, TEST_GROUP_KEY), subjectCache.getSubjectKeysWithGroups(TEST_USER_KEY));
+    }
+
+    @Test
+    public void invalidationReloadsTheSubjects() {
+        subjectCache.getSubjectKeysWithGroups(TEST_USER_KEY);
+        subjectCache.invalidateAll();
+        subjectCache.getSubjectKeysWithGroups(TEST_USER_KEY);
+        verify(subjectDao, times(2)).findSubjectByNameOrKey(TEST_USER_KEY);
+        assertEquals(1, subjectCache.getStats().getVersion());
+    }
+}
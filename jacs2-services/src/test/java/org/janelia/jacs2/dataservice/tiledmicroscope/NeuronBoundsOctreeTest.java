@@ -0,0 +1,60 @@
+package org.janelia.jacs2.dataservice.tiledmicroscope;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NeuronBoundsOctreeTest {
+
+    private NeuronBoundsOctree octree;
+
+    @Before
+    public void setUp() {
+        octree = new NeuronBoundsOctree(box(0, 0, 0, 1000, 1000, 1000));
+        // a grid of 10x10x10 neurons of size 10 so that the tree has to split several times
+        LongStream.range(0, 1000).forEach(i -> {
+            double x = (i % 10) * 100;
+            double y = ((i / 10) % 10) * 100;
+            double z = (i / 100) * 100;
+            octree.put(i, box(x, y, z, x + 10, y + 10, z + 10));
+        });
+    }
+
+    @Test
+    public void findOnlyTheNeuronsIntersectingTheQueryBox() {
+        List<Long> found = octree.find(box(150, 150, 150, 305, 305, 305), b -> true);
+        // only the neurons starting at 200 and 300 on each axis
+        assertEquals(8, found.size());
+        Set<Long> expected = ImmutableSet.of(222L, 223L, 232L, 233L, 322L, 323L, 332L, 333L);
+        assertEquals(expected, ImmutableSet.copyOf(found));
+    }
+
+    @Test
+    public void updatedAndRemovedNeuronsAreNoLongerFoundAtTheirOldLocation() {
+        octree.put(0L, box(2000, 2000, 2000, 2100, 2100, 2100)); // outside of the initial bounds
+        octree.remove(1L);
+        assertTrue(octree.find(box(0, 0, 0, 110, 10, 10), b -> true).isEmpty());
+        assertEquals(ImmutableSet.of(0L), ImmutableSet.copyOf(octree.find(box(1900, 1900, 1900, 2000, 2000, 2000), b -> true)));
+        assertEquals(999, octree.size());
+    }
+
+    @Test
+    public void filterNeuronBounds() {
+        octree.put(5000L, box(0, 0, 0, 1000, 1000, 1000));
+        List<Long> found = octree.find(box(0, 0, 0, 1000, 1000, 1000), b -> b.getLargestDimension() >= 500);
+        assertEquals(ImmutableSet.of(5000L), found.stream().collect(Collectors.toSet()));
+    }
+
+    private NeuronBoundsOctree.Bounds box(double x0, double y0, double z0, double x1, double y1, double z1) {
+        return new NeuronBoundsOctree.Bounds(new double[]{x0, y0, z0}, new double[]{x1, y1, z1});
+    }
+}
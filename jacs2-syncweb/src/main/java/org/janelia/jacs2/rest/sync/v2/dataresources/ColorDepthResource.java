@@ -1,14 +1,20 @@
 package org.janelia.jacs2.rest.sync.v2.dataresources;
 
-import java.util.ArrayList;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,13 +27,24 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.ContextResolver;
+import javax.ws.rs.ext.Providers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Sets;
+import com.google.common.collect.ImmutableSortedSet;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiKeyAuthDefinition;
 import io.swagger.annotations.ApiOperation;
@@ -41,6 +58,7 @@ import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.janelia.jacs2.auth.annotations.RequireAuthentication;
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
 import org.janelia.jacs2.rest.ErrorResponse;
 import org.janelia.model.access.domain.dao.ColorDepthImageDao;
 import org.janelia.model.access.domain.dao.ColorDepthImageQuery;
@@ -79,6 +97,9 @@ import org.slf4j.LoggerFactory;
 @Path("/data")
 public class ColorDepthResource {
     private static final Logger LOG = LoggerFactory.getLogger(ColorDepthResource.class);
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final int SAMPLE_REFS_PAGE_SIZE = 5000;
 
     @Inject
     private ColorDepthImageDao colorDepthImageDao;
@@ -89,6 +110,11 @@ public class ColorDepthResource {
     @Inject
     private LineReleaseDao lineReleaseDao;
 
+    private final Cache<Pair<Set<String>, Set<String>>, Set<String>> sampleRefsCache = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .expireAfterWrite(5, TimeUnit.MINUTES)
+            .build();
+
     @ApiOperation(value = "Gets all color depth mips that match the given parameters")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully fetched the list of color depth mips", response = ColorDepthImage.class,
@@ -137,9 +163,7 @@ public class ColorDepthResource {
                                                  @ApiParam @QueryParam("release") List<String> releases) {
         LOG.trace("Start countColorDepthMipsByLibrary({}, {}, {}, {}, {}, {})", ownerKey, alignmentSpace, libraryNames, names, filepaths, datasets);
         try {
-            List<String> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases)).stream()
-                    .map(Reference::toString)
-                    .collect(Collectors.toList());
+            Set<String> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases));
             List<Long> mipIds = extractMultiValueParams(ids).stream().map(Long::valueOf).collect(Collectors.toList());
             long colorDepthMIPsCount = colorDepthImageDao.countColorDepthMIPs(
                     new ColorDepthImageQuery()
@@ -179,14 +203,19 @@ public class ColorDepthResource {
         }
     }
 
-    @ApiOperation(value = "Gets all color depth mips that match the given parameters")
+    @ApiOperation(value = "Gets all color depth mips that match the given parameters",
+            notes = "The mips are streamed as they are read from the database either as a JSON array or, if the client accepts "
+                    + NDJSON_MEDIA_TYPE + ", as one JSON document per line. If a length is given the response includes the "
+                    + NEXT_CURSOR_HEADER + " header with the cursor for the next page - a page shorter than the length is the last page"
+    )
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully fetched the list of color depth mips", response = ColorDepthImage.class,
                     responseContainer = "List"),
+            @ApiResponse(code = 400, message = "Invalid paging parameters"),
             @ApiResponse(code = 500, message = "Internal Server Error fetching the color depth mips")
     })
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
+    @Produces({MediaType.APPLICATION_JSON, NDJSON_MEDIA_TYPE})
     @Path("colorDepthMIPs")
     public Response getMatchingColorDepthMips(@ApiParam @QueryParam("ownerKey") String ownerKey,
                                               @ApiParam @QueryParam("alignmentSpace") String alignmentSpace,
@@ -197,14 +226,16 @@ public class ColorDepthResource {
                                               @ApiParam @QueryParam("dataset") List<String> datasets,
                                               @ApiParam @QueryParam("release") List<String> releases,
                                               @ApiParam @QueryParam("offset") String offsetParam,
-                                              @ApiParam @QueryParam("length") String lengthParam) {
-        LOG.trace("Start getColorDepthMipsByLibrary({}, {}, {}, {}, {}, {}, {}, {})", ownerKey, alignmentSpace, libraryNames, names, filepaths, datasets, offsetParam, lengthParam);
+                                              @ApiParam @QueryParam("length") String lengthParam,
+                                              @ApiParam(value = "resume cursor returned with the previous page; takes precedence over the offset")
+                                              @QueryParam("cursor") String cursorParam,
+                                              @Context HttpHeaders httpHeaders,
+                                              @Context Providers providers) {
+        LOG.trace("Start getColorDepthMipsByLibrary({}, {}, {}, {}, {}, {}, {}, {}, {})", ownerKey, alignmentSpace, libraryNames, names, filepaths, datasets, offsetParam, lengthParam, cursorParam);
         try {
-            int offset = parseIntegerParam("offset", offsetParam, 0);
+            int offset = StringUtils.isNotBlank(cursorParam) ? decodeCursor(cursorParam) : parseIntegerParam("offset", offsetParam, 0);
             int length = parseIntegerParam("length", lengthParam, -1);
-            List<String> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases)).stream()
-                    .map(Reference::toString)
-                    .collect(Collectors.toList());
+            Set<String> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases));
             List<Long> mipIds = extractMultiValueParams(ids).stream().map(Long::valueOf).collect(Collectors.toList());
             Stream<ColorDepthImage> cdmStream = colorDepthImageDao.streamColorDepthMIPs(
                     new ColorDepthImageQuery()
@@ -218,12 +249,17 @@ public class ColorDepthResource {
                             .withOffset(offset)
                             .withLength(length)
             );
-            return Response
-                    .ok(new GenericEntity<List<ColorDepthImage>>(cdmStream.collect(Collectors.toList())) {
-                    })
-                    .build();
+            boolean ndjson = httpHeaders.getAcceptableMediaTypes().stream()
+                    .anyMatch(mt -> mt.isCompatible(MediaType.valueOf(NDJSON_MEDIA_TYPE)) && !mt.isWildcardSubtype());
+            Response.ResponseBuilder responseBuilder = Response
+                    .ok(streamColorDepthMIPs(cdmStream, getObjectMapper(providers), ndjson))
+                    .type(ndjson ? NDJSON_MEDIA_TYPE : MediaType.APPLICATION_JSON);
+            if (length > 0) {
+                responseBuilder.header(NEXT_CURSOR_HEADER, encodeCursor(offset + length));
+            }
+            return responseBuilder.build();
         } finally {
-            LOG.trace("Finished getColorDepthMipsByLibrary({}, {}, {}, {}, {}, {}, {}, {})", ownerKey, alignmentSpace, libraryNames, names, filepaths, datasets, offsetParam, lengthParam);
+            LOG.trace("Finished getColorDepthMipsByLibrary({}, {}, {}, {}, {}, {}, {}, {}, {})", ownerKey, alignmentSpace, libraryNames, names, filepaths, datasets, offsetParam, lengthParam, cursorParam);
         }
     }
 
@@ -251,7 +287,7 @@ public class ColorDepthResource {
         try {
             int offset = parseIntegerParam("offset", offsetParam, 0);
             int length = parseIntegerParam("length", lengthParam, -1);
-            List<Reference> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases));
+            Set<String> sampleRefs = retrieveSampleRefs(extractMultiValueParams(datasets), extractMultiValueParams(releases));
             List<Long> mipIds = extractMultiValueParams(ids).stream().map(Long::valueOf).collect(Collectors.toList());
             LOG.info("Retrieved {} sample refs after {}ms", sampleRefs.size(), System.currentTimeMillis() - start);
             List<ColorDepthImage> cdmList = colorDepthImageDao.streamColorDepthMIPs(
@@ -262,7 +298,7 @@ public class ColorDepthResource {
                             .withIds(mipIds)
                             .withExactNames(extractMultiValueParams(names))
                             .withExactFilepaths(extractMultiValueParams(filepaths))
-                            .withSampleRefs(sampleRefs.stream().map(Reference::toString).collect(Collectors.toSet()))
+                            .withSampleRefs(sampleRefs)
                             .withOffset(offset)
                             .withLength(length)
             ).collect(Collectors.toList());
@@ -403,28 +439,115 @@ public class ColorDepthResource {
         }
     }
 
-    private List<Reference> retrieveSampleRefs(List<String> datasets, List<String> releases) {
+    /**
+     * Resolve the dataset and the release filters to the set of matching sample references. The resolved set is cached
+     * for a few minutes so that a client paging through the results of the same query does not resolve it again for every page.
+     */
+    private Set<String> retrieveSampleRefs(List<String> datasets, List<String> releases) {
         if (CollectionUtils.isEmpty(datasets) && CollectionUtils.isEmpty(releases)) {
-            return Collections.emptyList();
-        } else if (CollectionUtils.isEmpty(datasets)) {
-            return lineReleaseDao.findReleasesByName(releases).stream()
-                    .flatMap(r -> r.getChildren().stream())
-                    .collect(Collectors.toList());
+            return Collections.emptySet();
+        }
+        try {
+            return sampleRefsCache.get(
+                    Pair.of(ImmutableSortedSet.copyOf(datasets), ImmutableSortedSet.copyOf(releases)),
+                    () -> ImmutableSet.copyOf(resolveSampleRefs(datasets, releases)));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Set<String> resolveSampleRefs(List<String> datasets, List<String> releases) {
+        if (CollectionUtils.isEmpty(datasets)) {
+            return retrieveReleaseSampleRefs(releases);
         } else if (CollectionUtils.isEmpty(releases)) {
-            return sampleDao.findMatchingSample(null, datasets, null, null, 0, -1).stream()
-                    .map(Reference::createFor)
-                    .collect(Collectors.toList());
+            return retrieveDatasetSampleRefs(datasets, sampleRef -> true);
         } else {
-            List<Reference> sampleRefsForDatasets = sampleDao.findMatchingSample(null, datasets, null, null, 0, -1).stream()
-                    .map(Reference::createFor)
-                    .collect(Collectors.toList());
-            List<Reference> sampleRefsForReleases = lineReleaseDao.findReleasesByName(releases).stream()
-                    .flatMap(r -> r.getChildren().stream())
-                    .collect(Collectors.toList());
-            return new ArrayList<>(Sets.intersection(
-                    ImmutableSet.copyOf(sampleRefsForDatasets),
-                    ImmutableSet.copyOf(sampleRefsForReleases)));
+            Set<String> sampleRefsForReleases = retrieveReleaseSampleRefs(releases);
+            return retrieveDatasetSampleRefs(datasets, sampleRefsForReleases::contains);
+        }
+    }
+
+    private Set<String> retrieveReleaseSampleRefs(List<String> releases) {
+        return lineReleaseDao.findReleasesByName(releases).stream()
+                .flatMap(r -> r.getChildren().stream())
+                .map(Reference::toString)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Retrieve the dataset samples one page at a time and only keep their references so that the samples of large
+     * datasets are never all in memory at the same time.
+     */
+    private Set<String> retrieveDatasetSampleRefs(List<String> datasets, Predicate<String> sampleRefFilter) {
+        Set<String> sampleRefs = new HashSet<>();
+        for (int offset = 0; ; offset += SAMPLE_REFS_PAGE_SIZE) {
+            List<Sample> samples = sampleDao.findMatchingSample(null, datasets, null, null, offset, SAMPLE_REFS_PAGE_SIZE);
+            samples.stream()
+                    .map(s -> Reference.createFor(s).toString())
+                    .filter(sampleRefFilter)
+                    .forEach(sampleRefs::add);
+            if (samples.size() < SAMPLE_REFS_PAGE_SIZE) {
+                return sampleRefs;
+            }
+        }
+    }
+
+    private StreamingOutput streamColorDepthMIPs(Stream<ColorDepthImage> cdmStream, ObjectMapper objectMapper, boolean ndjson) {
+        ObjectWriter cdmWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return os -> {
+            long start = System.currentTimeMillis();
+            long count = 0;
+            try (Stream<ColorDepthImage> cdms = cdmStream;
+                 JsonGenerator jsonGenerator = objectMapper.getFactory().createGenerator(os)) {
+                jsonGenerator.setRootValueSeparator(null);
+                if (!ndjson) {
+                    jsonGenerator.writeStartArray();
+                }
+                for (Iterator<ColorDepthImage> cdmItr = cdms.iterator(); cdmItr.hasNext(); count++) {
+                    cdmWriter.writeValue(jsonGenerator, cdmItr.next());
+                    if (ndjson) {
+                        jsonGenerator.writeRaw('\n');
+                    }
+                }
+                if (!ndjson) {
+                    jsonGenerator.writeEndArray();
+                }
+            } catch (Exception e) {
+                LOG.error("Error streaming color depth mips after {} mips", count, e);
+                throw e;
+            } finally {
+                LOG.debug("Streamed {} color depth mips in {}ms", count, System.currentTimeMillis() - start);
+            }
+        };
+    }
+
+    private ObjectMapper getObjectMapper(Providers providers) {
+        ContextResolver<ObjectMapper> objectMapperResolver = providers == null
+                ? null
+                : providers.getContextResolver(ObjectMapper.class, MediaType.APPLICATION_JSON_TYPE);
+        ObjectMapper objectMapper = objectMapperResolver == null ? null : objectMapperResolver.getContext(ColorDepthImage.class);
+        return objectMapper != null ? objectMapper : ObjectMapperFactory.instance().getDefaultObjectMapper();
+    }
+
+    /**
+     * The cursor is opaque for the clients so that how the position of the next page is tracked can change
+     * without changing the clients.
+     */
+    private String encodeCursor(int nextOffset) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(String.valueOf(nextOffset).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private int decodeCursor(String cursor) {
+        int offset;
+        try {
+            offset = Integer.parseInt(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, e);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor);
         }
+        return offset;
     }
 
     private Map<Reference, Set<String>> retrieveReleaseNamesBySampleRef(Collection<Reference> sampleRefs) {
@@ -2,9 +2,13 @@ package org.janelia.jacs2.rest.sync.v2.dataresources;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -32,6 +36,7 @@ import io.swagger.annotations.Authorization;
 import io.swagger.annotations.SecurityDefinition;
 import io.swagger.annotations.SwaggerDefinition;
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
 import org.janelia.jacs2.auth.annotations.RequireAuthentication;
 import org.janelia.jacs2.rest.ErrorResponse;
 import org.janelia.model.access.dao.LegacyDomainDao;
@@ -69,6 +74,7 @@ import org.slf4j.LoggerFactory;
 @Path("/data")
 public class DomainObjectResource {
     private static final Logger LOG = LoggerFactory.getLogger(DomainObjectResource.class);
+    private static final int REMOVE_BATCH_SIZE = 1000;
 
     @Inject
     private LegacyDomainDao legacyDomainDao;
@@ -276,10 +282,12 @@ public class DomainObjectResource {
     }
 
     @ApiOperation(value = "Removes a Domain Object",
-            notes = "uses the References parameter of the DomainQuery"
+            notes = "uses the References parameter of the DomainQuery. The references are grouped by type and removed in batches " +
+                    "so a failure in the middle of a large request leaves the objects from the batches processed so far removed"
     )
     @ApiResponses(value = {
-            @ApiResponse( code = 200, message = "Successfully removed all domain objects"),
+            @ApiResponse( code = 204, message = "Successfully removed all domain objects"),
+            @ApiResponse( code = 403, message = "Some references could not be removed; the response contains an error for each of them"),
             @ApiResponse( code = 500, message = "Internal Server Error removing domain objects" )
     })
     @POST
@@ -288,40 +296,73 @@ public class DomainObjectResource {
     @Produces(MediaType.APPLICATION_JSON)
     public Response removeDomainObject(@ApiParam DomainQuery query) {
         LOG.trace("Start removeDomainObject({})", query);
+        String subjectKey = query.getSubjectKey();
+        List<ErrorResponse> permissionErrors = new ArrayList<>();
+        // the same reference may be sent more than once but it must be checked and counted only once
+        Map<Class<? extends DomainObject>, Set<Long>> removableIdsByType = new LinkedHashMap<>();
+        for (Reference objectRef : query.getReferences()) {
+            Class<? extends DomainObject> objClass = DomainUtils.getObjectClassByName(objectRef.getTargetClassName());
+            if (canBeDeleted(objClass)) {
+                removableIdsByType.computeIfAbsent(objClass, c -> new LinkedHashSet<>()).add(objectRef.getTargetId());
+            } else {
+                LOG.warn("This API cannot delete this type of object: {}", objectRef);
+                permissionErrors.add(new ErrorResponse("Objects of type " + objClass + " are not removable: " + objectRef));
+            }
+        }
+        int removableCount = removableIdsByType.values().stream().mapToInt(Set::size).sum();
+        long removedCount = 0;
         try {
-            List<ErrorResponse> permissionErrors = new ArrayList<>();
-            for (Reference objectRef : query.getReferences()) {
-                // first check that it is a treeNode
-                Class<? extends DomainObject> objClass = DomainUtils.getObjectClassByName(objectRef.getTargetClassName());
-                if (canBeDeleted(objClass)) {
-                    String subjectKey = query.getSubjectKey();
-                    DomainObject domainObj = legacyDomainDao.getDomainObject(subjectKey, objectRef);
-                    // check whether this subject has permissions to write to this object
-                    if (domainObj.getWriters().contains(subjectKey)) {
-                        legacyDomainDao.deleteDomainObject(subjectKey, objClass, domainObj.getId());
-                    } else {
-                        LOG.warn("Attempt to remove {} by {} without write permissions", domainObj, subjectKey);
-                        permissionErrors.add(new ErrorResponse("User " + subjectKey + " has no write permissions on " + domainObj.getId()));
-                    }
-                } else {
-                    LOG.warn("This API cannot delete this type of object: {}", objectRef);
-                    permissionErrors.add(new ErrorResponse("Objects of type " + objClass + " are not removable"));
+            for (Map.Entry<Class<? extends DomainObject>, Set<Long>> removableIds : removableIdsByType.entrySet()) {
+                for (List<Long> batchIds : ListUtils.partition(new ArrayList<>(removableIds.getValue()), REMOVE_BATCH_SIZE)) {
+                    removedCount += removeDomainObjectsBatch(subjectKey, removableIds.getKey(), batchIds, permissionErrors);
+                    LOG.debug("Removed {} of {} objects for {}", removedCount, removableCount, subjectKey);
                 }
             }
-            if (permissionErrors.isEmpty()) {
-                return Response.noContent()
-                        .build();
-            } else {
-                return Response.status(Response.Status.FORBIDDEN)
-                        .entity(permissionErrors)
-                        .build();
-            }
         } catch (Exception e) {
-            LOG.error("Error occurred removing object references for {}", query, e);
-            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
+            LOG.error("Error occurred removing object references for {} after removing {} objects", query, removedCount, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ErrorResponse("Error removing domain objects after " + removedCount +
+                            " out of " + removableCount + " were removed"))
+                    .build();
         } finally {
             LOG.trace("Finished removeDomainObject({})", query);
         }
+        if (permissionErrors.isEmpty()) {
+            return Response.noContent()
+                    .build();
+        } else {
+            return Response.status(Response.Status.FORBIDDEN)
+                    .entity(permissionErrors)
+                    .build();
+        }
+    }
+
+    /**
+     * Remove a batch of objects of the same type with one query for all objects and one delete for the writable ones.
+     *
+     * @return the number of objects removed
+     */
+    private <T extends DomainObject> int removeDomainObjectsBatch(String subjectKey, Class<T> objClass, List<Long> ids, List<ErrorResponse> permissionErrors) {
+        Map<Long, T> domainObjectsById = legacyDomainDao.getDomainObjects(subjectKey, objClass, ids).stream()
+                .collect(Collectors.toMap(DomainObject::getId, Function.identity(), (o1, o2) -> o1));
+        List<Long> writableIds = new ArrayList<>();
+        for (Long id : ids) {
+            T domainObj = domainObjectsById.get(id);
+            if (domainObj == null) {
+                permissionErrors.add(new ErrorResponse("User " + subjectKey + " cannot access " + Reference.createFor(objClass, id)));
+            } else if (domainObj.getWriters().contains(subjectKey)) {
+                // check whether this subject has permissions to write to this object
+                writableIds.add(id);
+            } else {
+                LOG.warn("Attempt to remove {} by {} without write permissions", domainObj, subjectKey);
+                permissionErrors.add(new ErrorResponse("User " + subjectKey + " has no write permissions on " + id));
+            }
+        }
+        if (writableIds.isEmpty()) {
+            return 0;
+        }
+        legacyDomainDao.deleteDomainObjects(subjectKey, objClass, writableIds);
+        return writableIds.size();
     }
 
     private boolean canBeDeleted(Class<? extends DomainObject> objectType) {
@@ -3,10 +3,11 @@ package org.janelia.jacs2.rest.sync.v2.dataresources;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.annotations.*;
 import org.janelia.jacs2.cdi.qualifier.HortaSharedData;
+import org.janelia.jacs2.dataservice.messaging.AsyncMessagePublisher;
+import org.janelia.jacs2.dataservice.tiledmicroscope.TmNeuronSpatialIndex;
 import org.janelia.jacs2.rest.ErrorResponse;
 import org.janelia.messaging.broker.neuronadapter.NeuronMessageHeaders;
 import org.janelia.messaging.broker.neuronadapter.NeuronMessageType;
-import org.janelia.messaging.core.MessageSender;
 import org.janelia.model.access.cdi.AsyncIndex;
 import org.janelia.model.access.domain.dao.TmNeuronMetadataDao;
 import org.janelia.model.access.domain.dao.TmWorkspaceDao;
@@ -49,6 +50,7 @@ import java.util.Map;
 public class TmSharedStateResource {
 
     private static final Logger LOG = LoggerFactory.getLogger(TmSharedStateResource.class);
+    private static final ObjectMapper NEURON_MAPPER = new ObjectMapper();
 
     @AsyncIndex
     @Inject
@@ -57,7 +59,9 @@ public class TmSharedStateResource {
     private TmNeuronMetadataDao tmNeuronMetadataDao;
     @HortaSharedData
     @Inject
-    private MessageSender messageSender;
+    private AsyncMessagePublisher messagePublisher;
+    @Inject
+    private TmNeuronSpatialIndex tmNeuronSpatialIndex;
 
     @ApiOperation(value = "Creates a new neuron",
             notes = "Creates a neuron in the given workspace and notifies other users of the workspace"
@@ -80,6 +84,7 @@ public class TmSharedStateResource {
         try {
             // Create the neuron
             TmNeuronMetadata newNeuron = tmNeuronMetadataDao.createTmNeuronInWorkspace(subjectKey, neuron, workspace);
+            tmNeuronSpatialIndex.neuronUpdated(newNeuron);
             // Notify other users
             sendMessage(subjectKey, neuron, NeuronMessageType.NEURON_CREATE, null);
             return Response.ok()
@@ -117,6 +122,7 @@ public class TmSharedStateResource {
             TmWorkspace workspace = getWorkspace(subjectKey, neuron.getWorkspaceId());
             TmNeuronMetadata updatedNeuron = tmNeuronMetadataDao.saveNeuronMetadata(workspace, neuron,
                     subjectKey);
+            tmNeuronSpatialIndex.neuronUpdated(updatedNeuron);
             // Notify other users
             sendMessage(subjectKey, neuron, NeuronMessageType.NEURON_SAVE_NEURONDATA, null);
             return Response.ok()
@@ -209,6 +215,7 @@ public class TmSharedStateResource {
                         .entity(new ErrorResponse("Error removing neuron " + neuronId))
                         .build();
             }
+            tmNeuronSpatialIndex.neuronRemoved(workspaceId, neuronId);
             // Notify other users
             sendMessage(subjectKey, neuron, NeuronMessageType.NEURON_DELETE, null);
             return Response.ok().build();
@@ -241,8 +248,7 @@ public class TmSharedStateResource {
 
         List<Long> neuronIds = new ArrayList<>();
         neuronIds.add(neuron.getId());
-        ObjectMapper mapper = new ObjectMapper();
-        byte[] neuronData = mapper.writeValueAsBytes(neuron);
+        byte[] neuronData = NEURON_MAPPER.writeValueAsBytes(neuron);
 
         Map<String, Object> updateHeaders = new HashMap<>();
         updateHeaders.put(NeuronMessageHeaders.TYPE, type.toString());
@@ -255,6 +261,10 @@ public class TmSharedStateResource {
             }
         }
 
-        messageSender.sendMessage(updateHeaders, neuronData);
+        // only consecutive neuron data saves can be collapsed - every other operation must reach the clients
+        messagePublisher.publish(neuron.getId().toString(),
+                type == NeuronMessageType.NEURON_SAVE_NEURONDATA,
+                updateHeaders,
+                neuronData);
     }
 }
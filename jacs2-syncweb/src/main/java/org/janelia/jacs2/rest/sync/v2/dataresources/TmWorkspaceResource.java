@@ -4,6 +4,7 @@ import java.io.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
@@ -36,6 +37,8 @@ import io.swagger.annotations.SwaggerDefinition;
 import io.swagger.models.Operation;
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.asyncservice.lvtservices.HortaDataManager;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
+import org.janelia.jacs2.dataservice.tiledmicroscope.TmNeuronSpatialIndex;
 import org.janelia.jacs2.rest.ErrorResponse;
 import org.janelia.model.access.cdi.AsyncIndex;
 import org.janelia.model.access.dao.LegacyDomainDao;
@@ -79,6 +82,10 @@ public class TmWorkspaceResource {
     @Inject
     private TmNeuronMetadataDao tmNeuronMetadataDao;
     @Inject
+    private TmNeuronSpatialIndex tmNeuronSpatialIndex;
+    @Inject
+    private SubjectCache subjectCache;
+    @Inject
     private HortaDataManager hortaDataManager;
 
     // TODO: this doesn't seem to belong here, but I'm just commenting it until we can verify
@@ -211,6 +218,7 @@ public class TmWorkspaceResource {
         LOG.info("removeTmWorkspace({}, workspaceId={})", subjectKey, workspaceId);
         TmWorkspace workspace = tmWorkspaceDao.findEntityByIdReadableBySubjectKey(workspaceId, subjectKey);
         hortaDataManager.removeWorkspace(subjectKey, workspace);
+        tmNeuronSpatialIndex.invalidate(workspaceId);
     }
 
     @ApiOperation(value = "Gets the neurons for a workspace",
@@ -265,6 +273,76 @@ public class TmWorkspaceResource {
         }
     }
 
+    @ApiOperation(value = "Gets the neurons for a region of a workspace",
+            notes = "Returns the neurons from a given workspace whose bounding box intersects the query box. " +
+                    "If a level of detail is set, the neurons smaller than the query box size divided by 2^lod are left out"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully fetched neurons", response = List.class),
+            @ApiResponse(code = 400, message = "Invalid query box"),
+            @ApiResponse(code = 500, message = "Error occurred while occurred while fetching the neurons")
+    })
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    @Path("/workspace/neuron/box")
+    public Response getWorkspaceNeuronsInBox(@ApiParam @QueryParam("subjectKey") final String subjectKey,
+                                             @ApiParam @QueryParam("workspaceId") final Long workspaceId,
+                                             @ApiParam @QueryParam("x0") final Double x0,
+                                             @ApiParam @QueryParam("y0") final Double y0,
+                                             @ApiParam @QueryParam("z0") final Double z0,
+                                             @ApiParam @QueryParam("x1") final Double x1,
+                                             @ApiParam @QueryParam("y1") final Double y1,
+                                             @ApiParam @QueryParam("z1") final Double z1,
+                                             @ApiParam @QueryParam("lod") final Integer lod) {
+        LOG.info("getWorkspaceNeuronsInBox({}, workspaceId={}, box=({},{},{})-({},{},{}), lod={})",
+                subjectKey, workspaceId, x0, y0, z0, x1, y1, z1, lod);
+        if (x0 == null || y0 == null || z0 == null || x1 == null || y1 == null || z1 == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity(new ErrorResponse("All query box coordinates must be specified"))
+                    .build();
+        }
+        TmWorkspace workspace = tmWorkspaceDao.findEntityByIdReadableBySubjectKey(workspaceId, subjectKey);
+        if (workspace == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                    .entity(new ErrorResponse("Unable to find workspace"))
+                    .build();
+        }
+        try {
+            List<Long> neuronIds = tmNeuronSpatialIndex.findNeurons(workspace,
+                    new double[]{Math.min(x0, x1), Math.min(y0, y1), Math.min(z0, z1)},
+                    new double[]{Math.max(x0, x1), Math.max(y0, y1), Math.max(z0, z1)},
+                    lod);
+            // the index holds all the neurons of the workspace so only return the ones the subject can read
+            Set<String> readerKeys = subjectCache.getSubjectKeysWithGroups(subjectKey);
+            List<TmNeuronMetadata> neurons = neuronIds.isEmpty()
+                    ? Collections.emptyList()
+                    : tmNeuronMetadataDao.getTmNeuronMetadataByNeuronIds(workspace, neuronIds).stream()
+                        .filter(neuron -> readerKeys.contains(neuron.getOwnerKey()) || neuron.getReaders().stream().anyMatch(readerKeys::contains))
+                        .collect(Collectors.toList());
+            ObjectMapper mapper = new ObjectMapper();
+
+            StreamingOutput stream = new StreamingOutput() {
+                @Override
+                public void write(OutputStream os) throws IOException, WebApplicationException {
+                    for (TmNeuronMetadata nextNeuron : neurons) {
+                        if (nextNeuron.isLargeNeuron()) {
+                            // rehydrate the large neuron
+                            nextNeuron = tmNeuronMetadataDao.getTmNeuronMetadata(subjectKey, workspace, nextNeuron.getId());
+                        }
+                        mapper.writeValue(os, nextNeuron);
+                    }
+                    os.flush();
+                }
+            };
+            return Response.ok(stream).build();
+        } catch (Exception e) {
+            LOG.error("Error retrieving neurons from workspace {} in box ({},{},{})-({},{},{})", workspaceId, x0, y0, z0, x1, y1, z1, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ErrorResponse("Error retrieving neurons from workspace " + workspaceId))
+                    .build();
+        }
+    }
+
     @ApiOperation(value = "loads fragments into a workspace",
             notes = "saves a list of 3D Bounding Boxes into a given workspace"
     )
@@ -5,6 +5,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.janelia.jacs2.auth.JacsSecurityContextHelper;
 import org.janelia.jacs2.auth.PasswordProvider;
 import org.janelia.jacs2.auth.annotations.RequireAuthentication;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.jacs2.rest.ErrorResponse;
 import org.janelia.jacs2.user.UserManager;
 import org.janelia.model.access.dao.LegacyDomainDao;
@@ -62,6 +63,8 @@ public class UserResource {
     @Inject
     private SubjectDao subjectDao;
     @Inject
+    private SubjectCache subjectCache;
+    @Inject
     private PasswordProvider pwProvider;
     @Inject
     private UserManager userManager;
@@ -85,11 +88,11 @@ public class UserResource {
                     .build();
         }
         try {
-            User existingUser = subjectDao.findUserByNameOrKey(subjectKey);
-            if (existingUser == null) {
+            Subject existingSubject = subjectCache.getSubjectByNameOrKey(subjectKey);
+            if (!(existingSubject instanceof User)) {
                 return Response.status(Response.Status.NOT_FOUND).build();
             } else {
-                return Response.ok(existingUser).build();
+                return Response.ok(existingSubject).build();
             }
         } catch (Exception e) {
             LOG.error("Error trying to get user {}", subjectKey, e);
@@ -122,6 +125,7 @@ public class UserResource {
                 user.setPassword(pwProvider.generatePBKDF2Hash(inputPassword));
             }
             User newUser = userManager.createUser(user);
+            subjectCache.invalidateAll();
             return Response.ok(newUser).build();
         }
         catch (Exception e) {
@@ -158,6 +162,7 @@ public class UserResource {
                 throw new WebApplicationException(Response.Status.NOT_FOUND);
             }
             subjectDao.setUserPassword(user, pwProvider.generatePBKDF2Hash(authenticationMessage.getPassword()));
+            subjectCache.invalidateAll();
             return user;
         } catch (Exception e) {
             LOG.error("Error occurred changing password for user {}", authenticationMessage.getUsername(), e);
@@ -198,6 +203,7 @@ public class UserResource {
                 User user = new User();
                 user.setName(username);
                 user = userManager.createUser(user);
+                subjectCache.invalidateAll();
                 if (user!=null) {
                     return Response.ok(user).build();
                 }
@@ -250,6 +256,7 @@ public class UserResource {
                 boolean emailR = subjectDao.updateUserProperty(dbUser, "email", (String) userProperties.get("email"));
                 boolean fullNameR = subjectDao.updateUserProperty(dbUser, "fullName", (String) userProperties.get("fullname"));
                 boolean nameR = subjectDao.updateUserProperty(dbUser, "name", username);
+                subjectCache.invalidateAll();
                 if (emailR && fullNameR && nameR) {
                     dbUser = subjectDao.findUserByNameOrKey(username);
                     return Response.ok(dbUser).build();
@@ -294,7 +301,9 @@ public class UserResource {
                     .build();
         }
         try {
-            if (subjectDao.updateUserGroupRoles(user, roles)) {
+            boolean rolesUpdated = subjectDao.updateUserGroupRoles(user, roles);
+            subjectCache.invalidateAll();
+            if (rolesUpdated) {
                 return Response.status(Response.Status.OK).build();
             } else {
                 LOG.error("Could not update group roles for user {}", user);
@@ -326,6 +335,7 @@ public class UserResource {
         LOG.trace("Start CreateGroup({})", group.getName());
         try {
             Group newGroup = userManager.createGroup(group);
+            subjectCache.invalidateAll();
             return Response.ok(newGroup).build();
         }
         catch (Exception e) {
@@ -404,7 +414,7 @@ public class UserResource {
     public Response getSubjectByNameOrKey(@QueryParam("subjectKey") String subjectNameOrKey) {
         LOG.trace("Start getSubjectByNameOrKey({})", subjectNameOrKey);
         try {
-            Subject s = subjectDao.findSubjectByNameOrKey(subjectNameOrKey);
+            Subject s = subjectCache.getSubjectByNameOrKey(subjectNameOrKey);
             return Response.ok(s)
                     .build();
         } finally {
@@ -412,6 +422,25 @@ public class UserResource {
         }
     }
 
+    @ApiOperation(value = "Get the subject cache statistics",
+            notes = "Returns the subject cache version, hit rates and the time since the cache was last invalidated"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(code = 200, message = "Successfully got subject cache statistics", response = SubjectCache.SubjectCacheStats.class),
+            @ApiResponse(code = 500, message = "Internal Server Error getting subject cache statistics")
+    })
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/user/subjectcache/stats")
+    public SubjectCache.SubjectCacheStats getSubjectCacheStats() {
+        LOG.trace("Start getSubjectCacheStats()");
+        try {
+            return subjectCache.getStats();
+        } finally {
+            LOG.trace("Finished getSubjectCacheStats()");
+        }
+    }
+
     @ApiOperation(value = "Get a List of the User's Preferences")
     @ApiResponses(value = {
             @ApiResponse(code = 200, message = "Successfully got user preferences", response = Preference.class,
@@ -26,6 +26,8 @@ import org.janelia.jacs2.dataservice.sample.SampleDataService;
 import org.janelia.jacs2.dataservice.search.DocumentIndexingService;
 import org.janelia.jacs2.dataservice.storage.DataStorageLocationFactory;
 import org.janelia.jacs2.dataservice.storage.StorageService;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
+import org.janelia.jacs2.dataservice.tiledmicroscope.TmNeuronSpatialIndex;
 import org.janelia.jacs2.user.UserManager;
 import org.janelia.messaging.core.MessageSender;
 import org.janelia.model.access.cdi.AsyncIndex;
@@ -105,6 +107,7 @@ public class TestResourceBinder extends AbstractBinder {
         bind(dependenciesProducer.getTmWorkspaceSearchableDao()).to(TmWorkspaceDao.class).qualifiedBy(asyncIndexAnnotation);
         bind(dependenciesProducer.getTmAgentSearchableDao()).to(TmAgentDao.class).qualifiedBy(asyncIndexAnnotation);
         bind(dependenciesProducer.getSubjectDao()).to(SubjectDao.class);
+        bind(dependenciesProducer.getSubjectCache()).to(SubjectCache.class);
         bind(dependenciesProducer.getPwProvider()).to(PasswordProvider.class);
         bind(dependenciesProducer.getAuthProvider()).to(AuthProvider.class);
         bind(dependenciesProducer.getDomainObjectIndexer()).to(DomainObjectIndexer.class);
@@ -121,6 +124,7 @@ public class TestResourceBinder extends AbstractBinder {
                 .to(new TypeLiteral<InjectionResolver<PropertyValue>>() {})
                 .in(Singleton.class);
         bind(dependenciesProducer.getHortaDataManager()).to(HortaDataManager.class);
+        bind(dependenciesProducer.getTmNeuronSpatialIndex()).to(TmNeuronSpatialIndex.class);
         bind(dependenciesProducer.getMessageSender()).to(MessageSender.class).qualifiedBy(hortaSharedAnnotation);
     }
 
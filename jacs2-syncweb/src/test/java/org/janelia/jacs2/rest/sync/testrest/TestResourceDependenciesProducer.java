@@ -18,12 +18,15 @@ import org.janelia.jacs2.cdi.qualifier.ApplicationProperties;
 import org.janelia.jacs2.cdi.qualifier.HortaSharedData;
 import org.janelia.jacs2.cdi.qualifier.PropertyValue;
 import org.janelia.jacs2.config.ApplicationConfig;
+import org.janelia.jacs2.dataservice.messaging.AsyncMessagePublisher;
+import org.janelia.jacs2.dataservice.tiledmicroscope.TmNeuronSpatialIndex;
 import org.janelia.jacs2.dataservice.sample.SageDataService;
 import org.janelia.jacs2.dataservice.sample.SampleDataService;
 import org.janelia.jacs2.dataservice.search.DocumentIndexingService;
 import org.janelia.jacs2.dataservice.search.IndexBuilderService;
 import org.janelia.jacs2.dataservice.storage.DataStorageLocationFactory;
 import org.janelia.jacs2.dataservice.storage.StorageService;
+import org.janelia.jacs2.dataservice.subject.SubjectCache;
 import org.janelia.jacs2.user.UserManager;
 import org.janelia.messaging.core.MessageSender;
 import org.janelia.model.access.cdi.AsyncIndex;
@@ -74,6 +77,8 @@ public class TestResourceDependenciesProducer {
     private TmSampleDao tmSampleDao = mock(TmSampleDao.class);
     private WorkspaceNodeDao workspaceNodeDao = mock(WorkspaceNodeDao.class);
     private SubjectDao subjectDao = mock(SubjectDao.class);
+    // nothing is cached so that the tests only depend on the subjectDao stubs
+    private SubjectCache subjectCache = new SubjectCache(subjectDao, 0);
     private PasswordProvider pwProvider = mock(PasswordProvider.class);
     private AuthProvider authProvider = mock(AuthProvider.class);
     private DomainObjectIndexer domainObjectIndexer = mock(DomainObjectIndexer.class);
@@ -88,7 +93,9 @@ public class TestResourceDependenciesProducer {
     private DbMaintainer dbMaintainer = mock(DbMaintainer.class);
     private UserManager userManager = mock(UserManager.class);
     private HortaDataManager hortaDataManager = mock(HortaDataManager.class);
+    private TmNeuronSpatialIndex tmNeuronSpatialIndex = mock(TmNeuronSpatialIndex.class);
     private MessageSender messageSender = mock(MessageSender.class);
+    private AsyncMessagePublisher messagePublisher = mock(AsyncMessagePublisher.class);
 
     @Produces
     public Logger getLogger() {
@@ -248,6 +255,11 @@ public class TestResourceDependenciesProducer {
         return subjectDao;
     }
 
+    @Produces
+    public SubjectCache getSubjectCache() {
+        return subjectCache;
+    }
+
     @Produces
     public PasswordProvider getPwProvider() {
         return pwProvider;
@@ -319,9 +331,20 @@ public class TestResourceDependenciesProducer {
         return hortaDataManager;
     }
 
+    @Produces
+    public TmNeuronSpatialIndex getTmNeuronSpatialIndex() {
+        return tmNeuronSpatialIndex;
+    }
+
     @HortaSharedData
     @Produces
     public MessageSender getMessageSender() {
         return messageSender;
     }
+
+    @HortaSharedData
+    @Produces
+    public AsyncMessagePublisher getMessagePublisher() {
+        return messagePublisher;
+    }
 }
@@ -0,0 +1,175 @@
+package org.janelia.jacs2.rest.sync.v2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
+import org.janelia.model.access.domain.dao.ColorDepthImageQuery;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.gui.cdmip.ColorDepthImage;
+import org.janelia.model.domain.sample.LineRelease;
+import org.janelia.model.domain.sample.Sample;
+import org.janelia.model.security.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+
+public class ColorDepthResourceTest extends AbstractSyncServicesAppResourceTest {
+
+    private static final String TEST_USERNAME = "test";
+    private static final String TEST_USER_KEY = "user:" + TEST_USERNAME;
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    private static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.instance().getDefaultObjectMapper();
+
+    @Before
+    public void setUp() {
+        User testUser = new User();
+        testUser.setKey(TEST_USER_KEY);
+        testUser.setName(TEST_USERNAME);
+        Mockito.when(dependenciesProducer.getSubjectDao().findSubjectByNameOrKey(TEST_USERNAME)).thenReturn(testUser);
+        Mockito.when(dependenciesProducer.getColorDepthImageDao().streamColorDepthMIPs(any(ColorDepthImageQuery.class)))
+                .then(invocation -> ImmutableList.of(createMip(1L, "/cdm/m1.png"), createMip(2L, "/cdm/m2.png")).stream());
+    }
+
+    @Test
+    public void getColorDepthMipsAsJsonArray() throws Exception {
+        Response testResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("alignmentSpace", "JRC2018_Unisex_20x_HR")
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, testResponse.getStatus());
+        assertEquals(MediaType.APPLICATION_JSON_TYPE, testResponse.getMediaType());
+        // without a length there is no next page
+        assertNull(testResponse.getHeaderString(NEXT_CURSOR_HEADER));
+        JsonNode mips = objectMapper.readTree(testResponse.readEntity(String.class));
+        assertEquals(2, mips.size());
+        assertEquals("/cdm/m1.png", mips.get(0).get("filepath").asText());
+        assertEquals("/cdm/m2.png", mips.get(1).get("filepath").asText());
+    }
+
+    @Test
+    public void getColorDepthMipsAsNdjson() throws Exception {
+        Response testResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("alignmentSpace", "JRC2018_Unisex_20x_HR")
+                .request(NDJSON_MEDIA_TYPE)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, testResponse.getStatus());
+        assertEquals(MediaType.valueOf(NDJSON_MEDIA_TYPE), testResponse.getMediaType());
+        List<String> lines = Arrays.stream(testResponse.readEntity(String.class).split("\n"))
+                .filter(line -> !line.isEmpty())
+                .collect(Collectors.toList());
+        assertEquals(2, lines.size());
+        assertEquals("/cdm/m1.png", objectMapper.readTree(lines.get(0)).get("filepath").asText());
+        assertEquals("/cdm/m2.png", objectMapper.readTree(lines.get(1)).get("filepath").asText());
+    }
+
+    @Test
+    public void pageColorDepthMipsWithTheNextCursor() {
+        Response firstPageResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("length", 2)
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, firstPageResponse.getStatus());
+        String nextCursor = firstPageResponse.getHeaderString(NEXT_CURSOR_HEADER);
+        assertNotNull(nextCursor);
+
+        Response nextPageResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("length", 2)
+                .queryParam("cursor", nextCursor)
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, nextPageResponse.getStatus());
+
+        ArgumentCaptor<ColorDepthImageQuery> queryCaptor = ArgumentCaptor.forClass(ColorDepthImageQuery.class);
+        Mockito.verify(dependenciesProducer.getColorDepthImageDao(), Mockito.times(2)).streamColorDepthMIPs(queryCaptor.capture());
+        assertEquals(0, queryCaptor.getAllValues().get(0).getOffset());
+        assertEquals(2, queryCaptor.getAllValues().get(1).getOffset());
+        assertEquals(2, queryCaptor.getAllValues().get(1).getLength());
+    }
+
+    @Test
+    public void getColorDepthMipsWithAnInvalidCursor() {
+        Response testResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("length", 2)
+                .queryParam("cursor", "not a cursor")
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(400, testResponse.getStatus());
+        Mockito.verify(dependenciesProducer.getColorDepthImageDao(), Mockito.never()).streamColorDepthMIPs(any(ColorDepthImageQuery.class));
+    }
+
+    @Test
+    public void getColorDepthMipsOfTheDatasetSamplesInTheRelease() {
+        Mockito.when(dependenciesProducer.getSampleDao().findMatchingSample(isNull(), eq(ImmutableList.of("ds1")), isNull(), isNull(), anyLong(), anyInt()))
+                .thenReturn(ImmutableList.of(createSample(10L), createSample(11L), createSample(12L)));
+        Mockito.when(dependenciesProducer.getLineReleaseDao().findReleasesByName(ImmutableList.of("r1")))
+                .thenReturn(ImmutableList.of(createRelease(11L, 12L, 13L)));
+
+        Response testResponse = target()
+                .path("data/colorDepthMIPs")
+                .queryParam("dataset", "ds1")
+                .queryParam("release", "r1")
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, testResponse.getStatus());
+
+        ArgumentCaptor<ColorDepthImageQuery> queryCaptor = ArgumentCaptor.forClass(ColorDepthImageQuery.class);
+        Mockito.verify(dependenciesProducer.getColorDepthImageDao()).streamColorDepthMIPs(queryCaptor.capture());
+        // only the samples that are both in the dataset and in the release
+        assertEquals(ImmutableSet.of("Sample#11", "Sample#12"), ImmutableSet.copyOf(queryCaptor.getValue().getSampleRefs()));
+    }
+
+    private ColorDepthImage createMip(Long id, String filepath) {
+        ColorDepthImage mip = new ColorDepthImage();
+        mip.setId(id);
+        mip.setFilepath(filepath);
+        return mip;
+    }
+
+    private Sample createSample(Long id) {
+        Sample sample = new Sample();
+        sample.setId(id);
+        return sample;
+    }
+
+    private LineRelease createRelease(Long... sampleIds) {
+        LineRelease release = new LineRelease();
+        release.setName("r1");
+        for (Long sampleId : sampleIds) {
+            release.addChild(Reference.createFor(Sample.class, sampleId));
+        }
+        return release;
+    }
+}
@@ -0,0 +1,126 @@
+package org.janelia.jacs2.rest.sync.v2;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.janelia.jacs2.cdi.ObjectMapperFactory;
+import org.janelia.model.domain.Reference;
+import org.janelia.model.domain.dto.DomainQuery;
+import org.janelia.model.domain.sample.Sample;
+import org.janelia.model.domain.workspace.TreeNode;
+import org.janelia.model.security.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class DomainObjectResourceTest extends AbstractSyncServicesAppResourceTest {
+
+    private static final String TEST_USERNAME = "test";
+    private static final String TEST_USER_KEY = "user:" + TEST_USERNAME;
+
+    @Before
+    public void setUp() {
+        User testUser = new User();
+        testUser.setKey(TEST_USER_KEY);
+        testUser.setName(TEST_USERNAME);
+        Mockito.when(dependenciesProducer.getSubjectDao().findSubjectByNameOrKey(TEST_USERNAME)).thenReturn(testUser);
+    }
+
+    @Test
+    public void removeDuplicateReferencesOnlyOnce() {
+        Mockito.when(dependenciesProducer.getLegacyDomainDao().getDomainObjects(eq(TEST_USER_KEY), eq(TreeNode.class), any(Collection.class)))
+                .thenReturn(ImmutableList.of(createTreeNode(1L, TEST_USER_KEY), createTreeNode(2L, TEST_USER_KEY)));
+
+        Response testResponse = removeDomainObjects(ImmutableList.of(
+                Reference.createFor(TreeNode.class, 1L),
+                Reference.createFor(TreeNode.class, 2L),
+                Reference.createFor(TreeNode.class, 1L)));
+
+        assertEquals(204, testResponse.getStatus());
+        Mockito.verify(dependenciesProducer.getLegacyDomainDao()).getDomainObjects(TEST_USER_KEY, TreeNode.class, ImmutableList.of(1L, 2L));
+        Mockito.verify(dependenciesProducer.getLegacyDomainDao()).deleteDomainObjects(TEST_USER_KEY, TreeNode.class, ImmutableList.of(1L, 2L));
+    }
+
+    @Test
+    public void reportAnErrorForEachReferenceThatCannotBeRemoved() throws Exception {
+        Mockito.when(dependenciesProducer.getLegacyDomainDao().getDomainObjects(eq(TEST_USER_KEY), eq(TreeNode.class), any(Collection.class)))
+                .thenReturn(ImmutableList.of(createTreeNode(1L, TEST_USER_KEY), createTreeNode(2L, "user:owner")));
+
+        Response testResponse = removeDomainObjects(ImmutableList.of(
+                Reference.createFor(TreeNode.class, 1L),
+                Reference.createFor(TreeNode.class, 2L), // not writable
+                Reference.createFor(TreeNode.class, 3L), // not found
+                Reference.createFor(Sample.class, 4L))); // not removable
+
+        assertEquals(403, testResponse.getStatus());
+        JsonNode errors = ObjectMapperFactory.instance().getDefaultObjectMapper().readTree(testResponse.readEntity(String.class));
+        assertEquals(3, errors.size());
+        List<String> errorMessages = ImmutableList.copyOf(errors).stream()
+                .map(error -> error.get("errorMessage").asText())
+                .collect(Collectors.toList());
+        assertThat(errorMessages.get(0), containsString("Sample#4"));
+        assertThat(errorMessages.get(1), containsString("no write permissions on 2"));
+        assertThat(errorMessages.get(2), containsString("cannot access TreeNode#3"));
+        // only the writable object is removed
+        Mockito.verify(dependenciesProducer.getLegacyDomainDao()).deleteDomainObjects(TEST_USER_KEY, TreeNode.class, ImmutableList.of(1L));
+    }
+
+    @Test
+    public void reportHowManyObjectsWereRemovedBeforeAFailure() throws Exception {
+        Mockito.when(dependenciesProducer.getLegacyDomainDao().getDomainObjects(eq(TEST_USER_KEY), eq(TreeNode.class), any(Collection.class)))
+                .then(invocation -> invocation.<Collection<Long>>getArgument(2).stream()
+                        .map(id -> createTreeNode(id, TEST_USER_KEY))
+                        .collect(Collectors.toList()));
+        // the first batch of 1000 objects is removed but the second one fails
+        Mockito.when(dependenciesProducer.getLegacyDomainDao().deleteDomainObjects(eq(TEST_USER_KEY), eq(TreeNode.class), anyList()))
+                .thenReturn(true)
+                .thenThrow(new IllegalStateException("Test delete failure"));
+
+        Response testResponse = removeDomainObjects(LongStream.rangeClosed(1, 1500)
+                .mapToObj(id -> Reference.createFor(TreeNode.class, id))
+                .collect(Collectors.toList()));
+
+        assertEquals(500, testResponse.getStatus());
+        JsonNode error = ObjectMapperFactory.instance().getDefaultObjectMapper().readTree(testResponse.readEntity(String.class));
+        assertEquals("Error removing domain objects after 1000 out of 1500 were removed", error.get("errorMessage").asText());
+        Mockito.verify(dependenciesProducer.getLegacyDomainDao(), Mockito.times(2)).deleteDomainObjects(anyString(), eq(TreeNode.class), anyList());
+    }
+
+    private Response removeDomainObjects(List<Reference> references) {
+        DomainQuery query = new DomainQuery();
+        query.setSubjectKey(TEST_USER_KEY);
+        query.setReferences(references);
+        return target()
+                .path("data/domainobject/remove")
+                .request(MediaType.APPLICATION_JSON)
+                .header("username", TEST_USERNAME)
+                .post(Entity.json(query));
+    }
+
+    private TreeNode createTreeNode(Long id, String ownerKey) {
+        TreeNode treeNode = new TreeNode();
+        treeNode.setId(id);
+        treeNode.setOwnerKey(ownerKey);
+        treeNode.setReaders(ImmutableSet.of(ownerKey, TEST_USER_KEY));
+        treeNode.setWriters(ImmutableSet.of(ownerKey));
+        return treeNode;
+    }
+}
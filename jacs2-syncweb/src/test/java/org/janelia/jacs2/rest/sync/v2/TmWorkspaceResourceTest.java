@@ -0,0 +1,81 @@
+package org.janelia.jacs2.rest.sync.v2;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.janelia.model.domain.tiledMicroscope.TmNeuronMetadata;
+import org.janelia.model.domain.tiledMicroscope.TmWorkspace;
+import org.janelia.model.security.GroupRole;
+import org.janelia.model.security.User;
+import org.janelia.model.security.UserGroupRole;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+
+public class TmWorkspaceResourceTest extends AbstractSyncServicesAppResourceTest {
+
+    private static final String TEST_USERNAME = "test";
+    private static final String TEST_USER_KEY = "user:" + TEST_USERNAME;
+    private static final String TEST_GROUP_KEY = "group:tracers";
+    private static final Long TEST_WORKSPACE_ID = 10L;
+
+    @Test
+    public void neuronsInBoxOnlyIncludeTheNeuronsReadableByTheSubject() {
+        User testUser = new User();
+        testUser.setKey(TEST_USER_KEY);
+        testUser.setName(TEST_USERNAME);
+        testUser.setUserGroupRoles(ImmutableSet.of(new UserGroupRole(TEST_GROUP_KEY, GroupRole.Reader)));
+        Mockito.when(dependenciesProducer.getSubjectDao().findSubjectByNameOrKey(TEST_USERNAME)).thenReturn(testUser);
+        Mockito.when(dependenciesProducer.getSubjectDao().findSubjectByNameOrKey(TEST_USER_KEY)).thenReturn(testUser);
+
+        TmWorkspace testWorkspace = new TmWorkspace();
+        testWorkspace.setId(TEST_WORKSPACE_ID);
+        testWorkspace.setOwnerKey("user:owner");
+        Mockito.when(dependenciesProducer.getTmWorkspaceSearchableDao().findEntityByIdReadableBySubjectKey(TEST_WORKSPACE_ID, TEST_USER_KEY))
+                .thenReturn(testWorkspace);
+        List<Long> foundNeuronIds = ImmutableList.of(1L, 2L, 3L);
+        Mockito.when(dependenciesProducer.getTmNeuronSpatialIndex().findNeurons(eq(testWorkspace), any(double[].class), any(double[].class), any()))
+                .thenReturn(foundNeuronIds);
+        Mockito.when(dependenciesProducer.getTmNeuronMetadataDao().getTmNeuronMetadataByNeuronIds(testWorkspace, foundNeuronIds))
+                .thenReturn(ImmutableList.of(
+                        createNeuron(1L, "ownedNeuron", TEST_USER_KEY, ImmutableSet.of(TEST_USER_KEY)),
+                        createNeuron(2L, "sharedNeuron", "user:owner", ImmutableSet.of("user:owner", TEST_GROUP_KEY)),
+                        createNeuron(3L, "privateNeuron", "user:owner", ImmutableSet.of("user:owner"))));
+
+        Response testResponse = target()
+                .path("mouselight/data/workspace/neuron/box")
+                .queryParam("subjectKey", TEST_USER_KEY)
+                .queryParam("workspaceId", TEST_WORKSPACE_ID)
+                .queryParam("x0", 0).queryParam("y0", 0).queryParam("z0", 0)
+                .queryParam("x1", 100).queryParam("y1", 100).queryParam("z1", 100)
+                .request(MediaType.APPLICATION_OCTET_STREAM)
+                .header("username", TEST_USERNAME)
+                .get();
+        assertEquals(200, testResponse.getStatus());
+        String neurons = testResponse.readEntity(String.class);
+        assertThat(neurons, containsString("\"ownedNeuron\""));
+        assertThat(neurons, containsString("\"sharedNeuron\""));
+        assertThat(neurons, not(containsString("\"privateNeuron\"")));
+    }
+
+    private TmNeuronMetadata createNeuron(Long id, String name, String ownerKey, Set<String> readers) {
+        TmNeuronMetadata neuron = new TmNeuronMetadata();
+        neuron.setId(id);
+        neuron.setName(name);
+        neuron.setOwnerKey(ownerKey);
+        neuron.setReaders(readers);
+        return neuron;
+    }
+}